@@ -39,21 +39,197 @@ public class MultiModalConstants {
     /** System property key for vector field name configuration. */
     public static final String CONTENT_FIELD = PREFIX + "content.field";
 
+    /** System property key for the nested field that holds multiple vectors per document. */
+    public static final String CONTENT_NESTED_FIELD = PREFIX + "content.nested_field";
+
+    /** System property key for the number of characters in a text chunk; text chunks are not embedded if 0. */
+    public static final String CONTENT_CHUNK_SIZE = PREFIX + "content.chunk.size";
+
+    /** System property key for the number of characters shared by adjacent text chunks. */
+    public static final String CONTENT_CHUNK_OVERLAP = PREFIX + "content.chunk.overlap";
+
+    /** System property key for the maximum number of text chunks embedded per document. */
+    public static final String CONTENT_CHUNK_MAX_CHUNKS = PREFIX + "content.chunk.max_chunks";
+
+    /** System property key for how vectors are kept in _source: stored (default), derived or excluded. */
+    public static final String CONTENT_SOURCE = PREFIX + "content.source";
+
+    /** System property key for removing vector fields from the fields fetched for search responses (default true). */
+    public static final String CONTENT_EXCLUDE_FROM_RESPONSE = PREFIX + "content.exclude_from_response";
+
+    /** System property key for the method that reduces the dimension of vectors: pca or truncate. */
+    public static final String REDUCE_METHOD = PREFIX + "reduce.method";
+
+    /** System property key for the dimension of reduced vectors. */
+    public static final String REDUCE_DIMENSION = PREFIX + "reduce.dimension";
+
+    /** System property key for the file of the learned PCA projection. */
+    public static final String REDUCE_PATH = PREFIX + "reduce.path";
+
+    /** System property key for normalizing reduced vectors to unit length (default true). */
+    public static final String REDUCE_NORMALIZE = PREFIX + "reduce.normalize";
+
+    /** System property key for the number of indexed vectors sampled to learn the PCA projection. */
+    public static final String REDUCE_SAMPLE_SIZE = PREFIX + "reduce.sample_size";
+
+    /** System property key for the vector field written by the re-embedding job. */
+    public static final String REEMBED_FIELD = PREFIX + "reembed.field";
+
+    /** System property key for the vector dimension of the re-embedding field. */
+    public static final String REEMBED_DIMENSION = PREFIX + "reembed.dimension";
+
+    /** System property key for the CLIP server endpoint used by the re-embedding job. */
+    public static final String REEMBED_ENDPOINT = PREFIX + "reembed.endpoint";
+
+    /** System property key for the maximum number of documents re-embedded per second. */
+    public static final String REEMBED_DOCS_PER_SECOND = PREFIX + "reembed.docs_per_second";
+
+    /** System property key for the maximum number of documents re-embedded per job run. */
+    public static final String REEMBED_MAX_DOCUMENTS = PREFIX + "reembed.max_documents";
+
+    /** System property key for the checkpoint file of the re-embedding job. */
+    public static final String REEMBED_CHECKPOINT = PREFIX + "reembed.checkpoint";
+
+    /**
+     * System property key for whether role, label and virtual host filters are also set as the filter of KNN queries,
+     * so that the engine searches only permitted documents. Enabled by default unless the engine is nmslib.
+     */
+    public static final String KNN_FILTER = PREFIX + "knn.filter";
+
+    /**
+     * System property key for the size of the candidate list of HNSW searches.
+     * A value for a request type is set by appending the lower-case type, such as {@code .json}.
+     */
+    public static final String KNN_EF_SEARCH = PREFIX + "knn.ef_search";
+
+    /** System property key for the number of IVF buckets to probe, which can also be set per request type. */
+    public static final String KNN_NPROBES = PREFIX + "knn.nprobes";
+
+    /**
+     * System property key for the rescoring oversample factor of quantized indices, which can also be set per request type.
+     * Rescoring is disabled if 0.
+     */
+    public static final String KNN_OVERSAMPLE_FACTOR = PREFIX + "knn.rescore.oversample_factor";
+
+    /**
+     * System property key for whether KNN queries are radial searches, which return all documents within
+     * {@link #KNN_MAX_DISTANCE} or {@link #MIN_SCORE} instead of the k nearest ones.
+     */
+    public static final String KNN_RADIAL = PREFIX + "knn.radial";
+
+    /** System property key for the maximum distance of radial searches. */
+    public static final String KNN_MAX_DISTANCE = PREFIX + "knn.max_distance";
+
+    /** System property key for the maximum number of results of radial searches executed locally. */
+    public static final String KNN_RADIAL_MAX_RESULTS = PREFIX + "knn.radial.max_results";
+
+    /** System property key for the number of most frequent logged queries embedded at startup; warming is disabled if 0. */
+    public static final String WARMUP_QUERIES = PREFIX + "warmup.queries";
+
+    /** System property key for the number of days of search logs that the warmed queries are taken from. */
+    public static final String WARMUP_DAYS = PREFIX + "warmup.days";
+
+    /** System property key for the maximum number of queries embedded per second while warming. */
+    public static final String WARMUP_QUERIES_PER_SECOND = PREFIX + "warmup.queries_per_second";
+
+    /** System property key for the delay in milliseconds before warming starts. */
+    public static final String WARMUP_DELAY = PREFIX + "warmup.delay";
+
+    /** System property key for the number of KNN searches run with warmed query embeddings to load the vector graph. */
+    public static final String WARMUP_KNN_QUERIES = PREFIX + "warmup.knn_queries";
+
+    /** System property key for handing embeddings from the extractor to the ingester in process instead of as Base64 metadata. */
+    public static final String INGEST_HANDOFF = PREFIX + "ingest.handoff";
+
+    /** System property key for the maximum number of embeddings held until the ingester takes them. */
+    public static final String INGEST_HANDOFF_MAX_SIZE = PREFIX + "ingest.handoff.max_size";
+
+    /** System property key for the time in milliseconds after which an embedding that was not taken is dropped. */
+    public static final String INGEST_HANDOFF_TTL = PREFIX + "ingest.handoff.ttl";
+
+    /** System property key for enabling the spool of images whose embedding failed during crawling. */
+    public static final String SPOOL_ENABLED = PREFIX + "spool.enabled";
+
+    /** System property key for spooling all images during crawling instead of embedding them, leaving them to the backfill job. */
+    public static final String SPOOL_DEFER = PREFIX + "spool.defer";
+
+    /** System property key for the spool directory. */
+    public static final String SPOOL_PATH = PREFIX + "spool.path";
+
+    /** System property key for the maximum total size of the spool in bytes. */
+    public static final String SPOOL_MAX_SIZE = PREFIX + "spool.max_size";
+
+    /** System property key for the maximum width and height of spooled thumbnails. */
+    public static final String SPOOL_THUMBNAIL_SIZE = PREFIX + "spool.thumbnail_size";
+
+    /** System property key for the number of backfill attempts after which a spooled image is dropped. */
+    public static final String SPOOL_MAX_ATTEMPTS = PREFIX + "spool.max_attempts";
+
+    /** System property key for the interval in milliseconds of the background backfill; 0 runs it only from a scheduler. */
+    public static final String SPOOL_BACKFILL_INTERVAL = PREFIX + "spool.backfill_interval";
+
+    /** System property key for the number of failures after which an image is quarantined; 0 disables the quarantine. */
+    public static final String QUARANTINE_MAX_FAILURES = PREFIX + "quarantine.max_failures";
+
+    /** System property key for the time in milliseconds after the last failure at which a quarantined image is released. */
+    public static final String QUARANTINE_TTL = PREFIX + "quarantine.ttl";
+
+    /** System property key for the file the image quarantine is saved to. */
+    public static final String QUARANTINE_PATH = PREFIX + "quarantine.path";
+
+    /** System property key for the maximum number of images recorded by the quarantine. */
+    public static final String QUARANTINE_MAX_SIZE = PREFIX + "quarantine.max_size";
+
+    /** System property key for the minimum time in milliseconds between saves of the image quarantine. */
+    public static final String QUARANTINE_FLUSH_INTERVAL = PREFIX + "quarantine.flush_interval";
+
+    /** System property key for the component name of the embedding provider of query texts, such as an in-process encoder. */
+    public static final String QUERY_EMBEDDING_PROVIDER = PREFIX + "query.embedding_provider";
+
     /** System property key for minimum score threshold configuration. */
     public static final String MIN_SCORE = PREFIX + "min_score";
 
     /** Default vector field name. */
     public static final String DEFAULT_CONTENT_FIELD = PREFIX + "content_vector";
 
+    /** Name of the vector property in each object of the nested vector field. */
+    public static final String NESTED_VECTOR_FIELD = "vector";
+
     /** Header name for embedding data in document metadata. */
     public static final String X_FESS_EMBEDDING = "X-FESS-Embedding";
 
+    /** Header name for multiple embeddings, such as those of images embedded in a document, in document metadata. */
+    public static final String X_FESS_NESTED_EMBEDDINGS = "X-FESS-Nested-Embeddings";
+
     /** Component name for the multimodal searcher. */
     public static final String SEARCHER = "multiModalSearcher";
 
-    /** Component name for the CAS client. */
+    /** Component name for the embedding provider, such as the CAS client. */
+    public static final String EMBEDDING_PROVIDER = "embeddingProvider";
+
+    /**
+     * Component name for the CAS client, which is an alias of the embedding provider.
+     *
+     * @deprecated use {@link #EMBEDDING_PROVIDER}
+     */
+    @Deprecated
     public static final String CAS_CLIENT = "casClient";
 
+    /** Component name for the prototype of the CAS client that the re-embedding job sends to the endpoint of the new model. */
+    public static final String REEMBEDDING_PROVIDER = "reEmbeddingProvider";
+
+    /** Component name for the re-embedding job. */
+    public static final String REEMBEDDING_JOB = "reEmbeddingJob";
+
+    /** Component name for the embedding backfill job. */
+    public static final String EMBEDDING_BACKFILL_JOB = "embeddingBackfillJob";
+
+    /** Component name for the job that learns the PCA projection of vectors. */
+    public static final String VECTOR_REDUCER_JOB = "vectorReducerJob";
+
+    /** Component name for the query embedding warmer. */
+    public static final String QUERY_EMBEDDING_WARMER = "queryEmbeddingWarmer";
+
     /** Component name for the multimodal search helper. */
     public static final String HELPER = "multiModalSearchHelper";
 
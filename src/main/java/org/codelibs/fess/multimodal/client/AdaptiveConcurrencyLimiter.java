@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Limits the number of concurrent requests to a server and adapts the limit to the observed latency
+ * with additive increase and multiplicative decrease (AIMD).
+ * <p>
+ * The lowest latency seen recently is taken as the latency of the unloaded server. When a request fails or takes
+ * longer than that latency times the tolerance, requests are queuing up in the server, so the limit is multiplied by
+ * the backoff ratio. Otherwise the limit grows by one as long as it is actually used. Callers over the limit wait
+ * until a request completes instead of failing, so the server stays near its best throughput however many threads call it.
+ * </p>
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final Logger logger = LogManager.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition available = lock.newCondition();
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final double tolerance;
+
+    private final double backoffRatio;
+
+    private final int minRttWindow;
+
+    private double limit;
+
+    private int inFlight;
+
+    private long minRtt = Long.MAX_VALUE;
+
+    private long nextMinRtt = Long.MAX_VALUE;
+
+    private int samples;
+
+    /**
+     * Constructs a limiter.
+     *
+     * @param initialLimit the initial limit
+     * @param minLimit the minimum limit
+     * @param maxLimit the maximum limit
+     * @param tolerance the ratio of a latency to the unloaded latency above which the limit is decreased
+     * @param backoffRatio the ratio the limit is multiplied by when it is decreased
+     * @param minRttWindow the number of samples after which the unloaded latency is measured again
+     */
+    public AdaptiveConcurrencyLimiter(final int initialLimit, final int minLimit, final int maxLimit, final double tolerance,
+            final double backoffRatio, final int minRttWindow) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Invalid limits: min=" + minLimit + ", max=" + maxLimit);
+        }
+        if (tolerance < 1.0 || backoffRatio <= 0.0 || backoffRatio >= 1.0 || minRttWindow < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid parameters: tolerance=" + tolerance + ", backoffRatio=" + backoffRatio + ", minRttWindow=" + minRttWindow);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.minRttWindow = minRttWindow;
+        limit = Math.min(maxLimit, Math.max(minLimit, initialLimit));
+    }
+
+    /**
+     * Waits until a request can be sent within the limit.
+     *
+     * @return the number of requests in flight including this one, to be passed to {@link #release(int, long, boolean)}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public int acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (inFlight >= (int) limit) {
+                available.await();
+            }
+            return ++inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a request and adapts the limit to its result.
+     *
+     * @param acquiredInFlight the value returned by {@link #acquire()}
+     * @param rttNanos the latency of the request in nanoseconds
+     * @param dropped true if the request failed or timed out
+     */
+    public void release(final int acquiredInFlight, final long rttNanos, final boolean dropped) {
+        lock.lock();
+        try {
+            inFlight--;
+            final double oldLimit = limit;
+            if (!dropped) {
+                nextMinRtt = Math.min(nextMinRtt, rttNanos);
+                minRtt = Math.min(minRtt, rttNanos);
+                if (++samples >= minRttWindow) {
+                    // measure the unloaded latency again so that a drifting server latency is followed
+                    minRtt = nextMinRtt;
+                    nextMinRtt = Long.MAX_VALUE;
+                    samples = 0;
+                }
+            }
+            if (dropped || rttNanos > minRtt * tolerance) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+            } else if (acquiredInFlight * 2 >= limit) {
+                limit = Math.min(maxLimit, limit + 1);
+            }
+            if ((int) limit != (int) oldLimit && logger.isDebugEnabled()) {
+                logger.debug("concurrency limit: {} -> {}, rtt: {}ms, minRtt: {}ms, dropped: {}", (int) oldLimit, (int) limit,
+                        rttNanos / 1000000, minRtt / 1000000, dropped);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the current limit.
+     *
+     * @return the limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of requests in flight.
+     *
+     * @return the number of requests in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+
+/**
+ * Runs the texts of an {@link EmbeddingModel} on a fixed number of worker threads. Requests that arrive while
+ * the workers are busy are queued and run together in one call to the model, up to the maximum batch size,
+ * so that concurrent queries share an inference instead of competing for the CPU.
+ * Images are passed to the model directly.
+ */
+public class BatchingEmbeddingModel implements EmbeddingModel, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(BatchingEmbeddingModel.class);
+
+    /** The model that embeds the batches. */
+    protected final EmbeddingModel delegate;
+
+    /** The maximum number of texts in one call to the model. */
+    protected final int maxBatchSize;
+
+    /** Requests waiting for a worker. */
+    protected final BlockingQueue<Request> queue;
+
+    /** The worker threads. */
+    protected final List<Thread> workers = new ArrayList<>();
+
+    /** Whether the workers are stopped. */
+    protected volatile boolean closed;
+
+    /**
+     * Constructs a batching model and starts its workers.
+     *
+     * @param delegate the model that embeds the batches
+     * @param workerCount the number of worker threads
+     * @param maxBatchSize the maximum number of texts in one call to the model
+     * @param queueSize the maximum number of waiting requests
+     */
+    public BatchingEmbeddingModel(final EmbeddingModel delegate, final int workerCount, final int maxBatchSize, final int queueSize) {
+        this.delegate = delegate;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        queue = new ArrayBlockingQueue<>(Math.max(1, queueSize));
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            final Thread worker = new Thread(this::run, "MultiModalEmbeddingWorker-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    @Override
+    public List<float[]> embedTexts(final List<String> texts) {
+        if (closed) {
+            throw new CasAccessException("The embedding model is closed.");
+        }
+        final Request request = new Request(texts);
+        if (!queue.offer(request)) {
+            throw new CasAccessException("Too many requests are waiting for the embedding model.");
+        }
+        try {
+            return request.future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CasAccessException("Interrupted while waiting for the embedding model.", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof final CasAccessException cause) {
+                throw cause;
+            }
+            throw new CasAccessException("The embedding model failed to generate an embedding.", e.getCause());
+        }
+    }
+
+    @Override
+    public List<float[]> embedImages(final List<BufferedImage> images) {
+        return delegate.embedImages(images);
+    }
+
+    /**
+     * Takes requests from the queue and embeds them in batches until the model is closed.
+     */
+    protected void run() {
+        final List<Request> batch = new ArrayList<>();
+        final List<String> texts = new ArrayList<>();
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (final InterruptedException e) {
+                break;
+            }
+            int size = batch.get(0).texts.size();
+            Request next;
+            while (size < maxBatchSize && (next = queue.peek()) != null && size + next.texts.size() <= maxBatchSize
+                    && queue.remove(next)) {
+                batch.add(next);
+                size += next.texts.size();
+            }
+            for (final Request request : batch) {
+                texts.addAll(request.texts);
+            }
+            try {
+                final List<float[]> embeddings = delegate.embedTexts(texts);
+                if (embeddings == null || embeddings.size() != texts.size()) {
+                    throw new CasAccessException("The embedding model cannot generate an embedding");
+                }
+                int offset = 0;
+                for (final Request request : batch) {
+                    request.future.complete(new ArrayList<>(embeddings.subList(offset, offset + request.texts.size())));
+                    offset += request.texts.size();
+                }
+            } catch (final Throwable t) {
+                batch.forEach(request -> request.future.completeExceptionally(t));
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("embedded {} texts of {} requests", texts.size(), batch.size());
+            }
+            batch.clear();
+            texts.clear();
+        }
+    }
+
+    /**
+     * Stops the workers, fails the waiting requests and closes the model if it is closeable.
+     */
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        workers.forEach(Thread::interrupt);
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.future.completeExceptionally(new CasAccessException("The embedding model is closed."));
+        }
+        if (delegate instanceof final AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * Texts waiting to be embedded.
+     */
+    protected static class Request {
+        /** The texts. */
+        protected final List<String> texts;
+
+        /** Completed with the embeddings of the texts. */
+        protected final CompletableFuture<List<float[]>> future = new CompletableFuture<>();
+
+        /**
+         * Constructs a request.
+         *
+         * @param texts the texts
+         */
+        protected Request(final List<String> texts) {
+            this.texts = texts;
+        }
+    }
+}
@@ -18,13 +18,22 @@ package org.codelibs.fess.multimodal.client;
 import java.awt.Image;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 
 import javax.imageio.ImageIO;
@@ -39,19 +48,25 @@ import org.codelibs.curl.Curl;
 import org.codelibs.curl.CurlException;
 import org.codelibs.curl.CurlResponse;
 import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+import org.codelibs.fess.multimodal.image.ImageHashIndex;
+import org.codelibs.fess.multimodal.image.ScaledJpegDecoder;
 import org.opensearch.common.xcontent.LoggingDeprecationHandler;
 import org.opensearch.common.xcontent.json.JsonXContent;
 import org.opensearch.core.xcontent.NamedXContentRegistry;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 /**
  * Client for communicating with CAS (CLIP as Service) server to generate embeddings for images and text.
  * This client handles image preprocessing, encoding, and API communication with the CLIP server.
  */
-public class CasClient {
+public class CasClient implements EmbeddingProvider {
     private static final Logger logger = LogManager.getLogger(CasClient.class);
 
+    private static final int[] JPEG_SCALE_DENOMS = { 8, 4, 2 };
+
     /**
      * Constructs a new CasClient instance.
      */
@@ -84,7 +99,52 @@ public class CasClient {
     protected String imageFormat;
 
     /** CLIP server endpoint URL. */
-    protected String clipEndpoint;
+    protected volatile String clipEndpoint;
+
+    /** Whether JPEG images are decoded at a reduced scale in the DCT domain. */
+    protected boolean jpegScaledDecode;
+
+    /** Maximum number of documents sent to the CLIP server in one request. */
+    protected int batchSize;
+
+    /** Index of perceptual hashes of embedded images, or null if near-duplicate detection is disabled. */
+    protected ImageHashIndex imageHashIndex;
+
+    /** Cache of text embeddings by text with the least recently used entry evicted, or null if text embeddings are not cached. */
+    protected Map<String, float[]> textEmbeddingCache;
+
+    /** Executor of asynchronous requests, created on first use. */
+    protected ExecutorService asyncExecutor;
+
+    /** Limiter of concurrent batch requests to the CLIP server, such as images of crawled documents, or null if not limited. */
+    protected AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * Limiter of concurrent single-text requests, such as search queries, or null if not limited. Batches take much longer,
+     * so they have their own limiter, and their latency neither shrinks the limit of queries nor makes queries wait behind them.
+     */
+    protected AdaptiveConcurrencyLimiter queryConcurrencyLimiter;
+
+    /** Concurrent text embedding requests shared by text, or null if they are not shared. */
+    protected SingleFlight<String, float[]> textFlights;
+
+    /** Concurrent image embedding requests shared by encoded image, or null if they are not shared. */
+    protected SingleFlight<String, float[]> imageFlights;
+
+    /**
+     * The gRPC transport, or null if requests are sent as JSON over HTTP. It is replaced before the old one is closed,
+     * so that requests in flight finish on the old channel and new requests use the new one.
+     */
+    protected volatile CasGrpcTransport grpcTransport;
+
+    /** Maximum number of retries of a request that failed because the server was unavailable. */
+    protected int maxRetries;
+
+    /** Upper bound in milliseconds of the delay before the first retry, doubled for each following retry. */
+    protected long retryInitialDelay;
+
+    /** Upper bound in milliseconds of the delay before a retry. */
+    protected long retryMaxDelay;
 
     /**
      * Initializes the CAS client with configuration parameters from system properties.
@@ -98,20 +158,124 @@ public class CasClient {
         maxImageHeight = Integer.getInteger("clip.image.max_height", 2000);
         imageFormat = System.getProperty("clip.image.format", "png");
         clipEndpoint = System.getProperty("clip.server.endpoint", "http://localhost:51000");
+        batchSize = Math.max(1, Integer.getInteger("clip.batch.size", 16));
+        jpegScaledDecode = Boolean.parseBoolean(System.getProperty("clip.image.jpeg.scaled_decode", "true"));
+        final int hashCacheSize = Integer.getInteger("clip.image.hash.cache_size", 0);
+        if (hashCacheSize > 0) {
+            imageHashIndex = new ImageHashIndex(hashCacheSize, Integer.getInteger("clip.image.hash.threshold", 4),
+                    Integer.getInteger("clip.image.hash.min_bits", 8));
+        } else {
+            imageHashIndex = null;
+        }
+        final int textCacheSize = Integer.getInteger("clip.text.cache_size", 0);
+        if (textCacheSize > 0) {
+            textEmbeddingCache = new LinkedHashMap<>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, float[]> eldest) {
+                    return size() > textCacheSize;
+                }
+            };
+        } else {
+            textEmbeddingCache = null;
+        }
+        if (Boolean.parseBoolean(System.getProperty("clip.single_flight", "true"))) {
+            textFlights = new SingleFlight<>();
+            imageFlights = new SingleFlight<>();
+        } else {
+            textFlights = null;
+            imageFlights = null;
+        }
+        concurrencyLimiter = createConcurrencyLimiter();
+        queryConcurrencyLimiter = createConcurrencyLimiter();
+
+        maxRetries = Math.max(0, Integer.getInteger("clip.retry.max_retries", 2));
+        retryInitialDelay = Long.getLong("clip.retry.initial_delay", 200L);
+        retryMaxDelay = Long.getLong("clip.retry.max_delay", 5000L);
 
-        logger.debug("image: {}x{}, max: {}x{}, format: {}, endpoint: {}", imageWidth, imageHeight, maxImageWidth, maxImageHeight,
-                imageFormat, clipEndpoint);
+        final CasGrpcTransport oldTransport = grpcTransport;
+        grpcTransport = "grpc".equals(System.getProperty("clip.server.protocol", "http")) ? createGrpcTransport(clipEndpoint) : null;
+        if (oldTransport != null) {
+            oldTransport.close();
+        }
+
+        logger.debug("image: {}x{}, max: {}x{}, format: {}, endpoint: {}, jpegScaledDecode: {}, grpc: {}", imageWidth, imageHeight,
+                maxImageWidth, maxImageHeight, imageFormat, clipEndpoint, jpegScaledDecode, grpcTransport != null);
     }
 
     /**
      * Generates an embedding vector for the given image.
+     * Concurrent calls for the same encoded image share one request to the CLIP server, and each gets its own copy.
      *
      * @param in input stream containing the image data
      * @return float array representing the image embedding
      * @throws CasAccessException if the embedding generation fails
      */
+    @Override
     public float[] getImageEmbedding(final InputStream in) {
-        return sendImage(encodeImage(in));
+        final EncodedImage image = prepareImage(in);
+        if (imageHashIndex != null) {
+            final float[] embedding = imageHashIndex.find(image.getHash());
+            if (embedding != null) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("reuse the embedding of a near-duplicate image: {}", Long.toHexString(image.getHash()));
+                }
+                return embedding;
+            }
+        }
+        final float[] embedding =
+                imageFlights != null ? imageFlights.execute(image.getData(), () -> sendImage(image.getData())) : sendImage(image.getData());
+        if (imageHashIndex != null) {
+            imageHashIndex.put(image.getHash(), embedding);
+        }
+        // the result of a flight is shared by its callers
+        return imageFlights != null ? embedding.clone() : embedding;
+    }
+
+    /**
+     * Generates embedding vectors for the given images in batched requests.
+     * Images that cannot be decoded or whose request fails get a null entry instead of failing the whole batch.
+     *
+     * @param ins input streams containing the image data
+     * @return embeddings in the same order as the input, with null for failed images
+     */
+    @Override
+    public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+        final List<float[]> embeddings = new ArrayList<>(ins.size());
+        final List<Integer> pendingIndexes = new ArrayList<>();
+        final List<EncodedImage> pendingImages = new ArrayList<>();
+        for (int i = 0; i < ins.size(); i++) {
+            embeddings.add(null);
+            try {
+                final EncodedImage image = prepareImage(ins.get(i));
+                final float[] embedding = imageHashIndex != null ? imageHashIndex.find(image.getHash()) : null;
+                if (embedding != null) {
+                    embeddings.set(i, embedding);
+                } else {
+                    pendingIndexes.add(i);
+                    pendingImages.add(image);
+                }
+            } catch (final CasAccessException e) {
+                logger.debug("Failed to encode an image at {}.", i, e);
+            }
+        }
+
+        for (int start = 0; start < pendingImages.size(); start += batchSize) {
+            final List<EncodedImage> batch = pendingImages.subList(start, Math.min(start + batchSize, pendingImages.size()));
+            try {
+                final List<float[]> results = sendImages(batch.stream().map(EncodedImage::getData).toList());
+                for (int i = 0; i < batch.size(); i++) {
+                    embeddings.set(pendingIndexes.get(start + i), results.get(i));
+                    if (imageHashIndex != null) {
+                        imageHashIndex.put(batch.get(i).getHash(), results.get(i));
+                    }
+                }
+            } catch (final CasAccessException e) {
+                logger.warn("Failed to generate embeddings for {} images.", batch.size(), e);
+            }
+        }
+        return embeddings;
     }
 
     /**
@@ -122,72 +286,263 @@ public class CasClient {
      * @throws CasAccessException if the server communication fails
      */
     protected float[] sendImage(final String encodedImage) {
-        final String body = "{\"data\":[{\"blob\":\"" + StringEscapeUtils.escapeJson(encodedImage) + "\"}],\"execEndpoint\":\"/\"}";
-        logger.debug("request body: {}", body);
-        try (CurlResponse response = Curl.post(clipEndpoint + "/post").header("Content-Type", "application/json").body(body).execute()) {
-            final Map<String, Object> contentMap = response.getContent(PARSER);
-            if (((contentMap.get("data") instanceof final List dataList)
-                    && (!dataList.isEmpty() && dataList.get(0) instanceof final Map data))
-                    && (data.get("embedding") instanceof final List embeddingList)) {
-                logger.debug("embedding: {}", embeddingList);
-                final float[] embedding = new float[embeddingList.size()];
-                for (int i = 0; i < embedding.length; i++) {
-                    embedding[i] = ((Number) embeddingList.get(i)).floatValue();
+        return sendImages(Collections.singletonList(encodedImage)).get(0);
+    }
+
+    /**
+     * Sends base64-encoded images to the CLIP server in one request and retrieves the embeddings.
+     *
+     * @param encodedImages base64-encoded image data
+     * @return embeddings in the same order as the input
+     * @throws CasAccessException if the server communication fails
+     */
+    protected List<float[]> sendImages(final List<String> encodedImages) {
+        return post("blob", encodedImages);
+    }
+
+    /**
+     * Posts documents to the CLIP server and parses the returned embeddings.
+     * Requests that fail because the server is unavailable are retried with exponential backoff and full jitter;
+     * other failures, which may be caused by the input, are not retried.
+     *
+     * @param key document attribute name, "blob" or "text"
+     * @param values attribute values, one per document
+     * @return embeddings in the same order as the values
+     * @throws CasAccessException if the server communication fails or the response does not contain all embeddings
+     */
+    protected List<float[]> post(final String key, final List<String> values) {
+        for (int retry = 0;; retry++) {
+            try {
+                return sendLimited(key, values);
+            } catch (final RuntimeException e) {
+                if (retry >= maxRetries || !isTransientFailure(e)) {
+                    throw e;
+                }
+                final long delay = getRetryDelay(retry);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("retry {} in {}ms: {}", retry + 1, delay, e.getMessage());
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (final InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new CasAccessException("Interrupted while waiting to retry a request.", ie);
                 }
-                return embedding;
             }
+        }
+    }
+
+    /**
+     * Gets a random delay before a retry, up to the initial delay doubled for each previous retry and capped at the maximum.
+     *
+     * @param retry the number of previous retries
+     * @return the delay in milliseconds
+     */
+    protected long getRetryDelay(final int retry) {
+        final long bound = Math.min(retryMaxDelay, retryInitialDelay << Math.min(retry, 30));
+        return bound > 0 ? ThreadLocalRandom.current().nextLong(bound + 1) : 0;
+    }
+
+    /**
+     * Creates a limiter of concurrent requests configured by system properties.
+     *
+     * @return the limiter, or null if requests are not limited
+     */
+    protected AdaptiveConcurrencyLimiter createConcurrencyLimiter() {
+        final int maxConcurrency = Integer.getInteger("clip.concurrency.max_limit", 0);
+        if (maxConcurrency <= 0) {
+            return null;
+        }
+        return new AdaptiveConcurrencyLimiter(Integer.getInteger("clip.concurrency.initial_limit", 4),
+                Integer.getInteger("clip.concurrency.min_limit", 1), maxConcurrency,
+                Double.parseDouble(System.getProperty("clip.concurrency.tolerance", "2.0")),
+                Double.parseDouble(System.getProperty("clip.concurrency.backoff_ratio", "0.9")),
+                Integer.getInteger("clip.concurrency.min_rtt_window", 100));
+    }
+
+    /**
+     * Gets the limiter of a request. A single text is limited separately from batches.
+     *
+     * @param key document attribute name, "blob" or "text"
+     * @param values attribute values, one per document
+     * @return the limiter, or null if requests are not limited
+     */
+    protected AdaptiveConcurrencyLimiter getConcurrencyLimiter(final String key, final List<String> values) {
+        return "text".equals(key) && values.size() == 1 ? queryConcurrencyLimiter : concurrencyLimiter;
+    }
+
+    /**
+     * Sends documents to the CLIP server.
+     * If the concurrency limit is enabled, the caller waits while the limit of requests of the same kind is in flight.
+     *
+     * @param key document attribute name, "blob" or "text"
+     * @param values attribute values, one per document
+     * @return embeddings in the same order as the values
+     * @throws CasAccessException if the server communication fails or the response does not contain all embeddings
+     */
+    protected List<float[]> sendLimited(final String key, final List<String> values) {
+        final AdaptiveConcurrencyLimiter limiter = getConcurrencyLimiter(key, values);
+        if (limiter == null) {
+            return sendRequest(key, values);
+        }
+        final int inFlight;
+        try {
+            inFlight = limiter.acquire();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CasAccessException("Interrupted while waiting for the CLIP server.", e);
+        }
+        final long startTime = System.nanoTime();
+        boolean dropped = true;
+        try {
+            final List<float[]> embeddings = sendRequest(key, values);
+            dropped = false;
+            return embeddings;
+        } finally {
+            limiter.release(inFlight, System.nanoTime() - startTime, dropped);
+        }
+    }
+
+    /**
+     * Sends documents to the CLIP server in one request and parses the returned embeddings.
+     * If {@code clip.server.protocol} is {@code grpc}, the documents are streamed with {@link CasGrpcTransport}.
+     *
+     * @param key document attribute name, "blob" or "text"
+     * @param values attribute values, one per document
+     * @return embeddings in the same order as the values
+     * @throws CasAccessException if the server communication fails or the response does not contain all embeddings
+     */
+    protected List<float[]> sendRequest(final String key, final List<String> values) {
+        final CasGrpcTransport transport = grpcTransport;
+        if (transport != null) {
+            return transport.encode(key, values);
+        }
+        final StringBuilder buf = new StringBuilder(values.stream().mapToInt(v -> v == null ? 0 : v.length()).sum() + 50 * values.size());
+        buf.append("{\"data\":[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append("{\"").append(key).append("\":\"").append(StringEscapeUtils.escapeJson(values.get(i))).append("\"}");
+        }
+        buf.append("],\"execEndpoint\":\"/\"}");
+        final Map<String, Object> contentMap = postJson(clipEndpoint + "/post", buf.toString());
+        if (contentMap.get("data") instanceof final List<?> dataList && dataList.size() == values.size()) {
+            final List<float[]> embeddings = new ArrayList<>(dataList.size());
+            for (final Object item : dataList) {
+                if (!(item instanceof final Map<?, ?> data) || !(data.get("embedding") instanceof final List<?> embeddingList)) {
+                    break;
+                }
+                logger.debug("embedding: {}", embeddingList);
+                embeddings.add(toFloatArray(embeddingList));
+            }
+            if (embeddings.size() == values.size()) {
+                return embeddings;
+            }
+        }
+        throw new CasAccessException("Clip server cannot generate an embedding");
+    }
+
+    /**
+     * Posts a JSON request body and parses the JSON response.
+     *
+     * @param url the request URL
+     * @param body the request body
+     * @return the parsed response
+     * @throws CasAccessException if the server communication fails
+     */
+    protected Map<String, Object> postJson(final String url, final String body) {
+        logger.debug("request body: {}", body);
+        try (CurlResponse response = Curl.post(url).header("Content-Type", "application/json").body(body).execute()) {
+            if (isUnavailableStatus(response.getHttpStatusCode())) {
+                throw new CasUnavailableException("Clip server is unavailable: HTTP " + response.getHttpStatusCode());
+            }
+            return response.getContent(PARSER);
         } catch (final IOException e) {
             throw new CasAccessException("Clip server failed to generate an embedding.", e);
         }
-        throw new CasAccessException("Clip server cannot generate an embedding");
+    }
+
+    /**
+     * Checks whether an HTTP status means that the server is temporarily unavailable.
+     *
+     * @param status the HTTP status code
+     * @return true for 429, 502, 503 and 504
+     */
+    protected static boolean isUnavailableStatus(final int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * Converts a list of numbers to a float array.
+     *
+     * @param values the numbers
+     * @return the float array
+     */
+    protected static float[] toFloatArray(final List<?> values) {
+        final float[] array = new float[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ((Number) values.get(i)).floatValue();
+        }
+        return array;
     }
 
     /**
      * Encodes an image from input stream to base64 format, with resizing and preprocessing.
      * Images are resized to the target dimensions while maintaining aspect ratio.
+     * JPEG images are decoded at a reduced scale in the DCT domain when possible.
      *
      * @param in input stream containing the image data
      * @return base64-encoded image string
      * @throws CasAccessException if image processing fails
      */
     protected String encodeImage(final InputStream in) {
-        try (ImageInputStream input = ImageIO.createImageInputStream(in)) {
+        return prepareImage(in).getData();
+    }
+
+    /**
+     * Encodes an image for the CLIP server and computes its perceptual hash.
+     *
+     * @param in input stream containing the image data
+     * @return the encoded image
+     * @throws CasAccessException if image processing fails
+     */
+    protected EncodedImage prepareImage(final InputStream in) {
+        if (in == null) {
+            throw new CasAccessException("No image.");
+        }
+        final byte[] data;
+        try {
+            data = in.readAllBytes();
+        } catch (final IOException e) {
+            throw new CasAccessException("Failed to read an image.", e);
+        }
+
+        if (jpegScaledDecode && ScaledJpegDecoder.isJpeg(data)) {
+            final EncodedImage encoded = encodeScaledJpeg(data);
+            if (encoded != null) {
+                return encoded;
+            }
+        }
+
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(data))) {
             final Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
             if (readers.hasNext()) {
                 final ImageReader reader = readers.next();
-                try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                try {
                     reader.setInput(input);
                     final ImageReadParam param = reader.getDefaultReadParam();
                     final int width = reader.getWidth(0);
                     final int height = reader.getHeight(0);
-                    if (width <= 0 || height <= 0 || width > maxImageWidth || height > maxImageHeight) {
-                        throw new CasAccessException("Invalid image size: " + width + "x" + height);
-                    }
-
-                    final float aspectRatio = (float) width / height;
-                    int newWidth = imageWidth;
-                    int newHeight = imageHeight;
-                    if (aspectRatio > 1) {
-                        newHeight = (int) (imageWidth / aspectRatio);
-                    } else {
-                        newWidth = (int) (imageHeight * aspectRatio);
-                    }
+                    validateImageSize(width, height);
 
-                    final int samplingWidth = width / newWidth;
-                    final int samplingHeight = height / newHeight;
+                    final int[] size = getResizedSize(width, height);
+                    final int samplingWidth = width / size[0];
+                    final int samplingHeight = height / size[1];
                     param.setSourceSubsampling(samplingWidth <= 0 ? 1 : samplingWidth, samplingHeight <= 0 ? 1 : samplingHeight, 0, 0);
                     param.setSourceRegion(new Rectangle(width, height));
 
-                    final BufferedImage image = reader.read(0, param);
-                    final BufferedImage clipImage = new BufferedImage(imageWidth, imageHeight, image.getType());
-                    final int x = (imageWidth - newWidth) / 2;
-                    final int y = (imageHeight - newHeight) / 2;
-                    clipImage.getGraphics()
-                            .drawImage(image.getScaledInstance(newWidth, newHeight, Image.SCALE_AREA_AVERAGING), x, y, newWidth, newHeight,
-                                    null);
-                    ImageIO.write(clipImage, imageFormat, out);
-                    image.flush();
-                    return Base64.getEncoder().encodeToString(out.toByteArray());
+                    return encodeClipImage(reader.read(0, param), size[0], size[1]);
                 } finally {
                     reader.dispose();
                 }
@@ -200,31 +555,319 @@ public class CasClient {
         }
     }
 
+    /**
+     * Decodes a JPEG image at 1/2, 1/4 or 1/8 scale in the DCT domain and encodes it for the CLIP server.
+     * The largest reduction that still yields at least the target size is chosen.
+     *
+     * @param data JPEG image data
+     * @return the encoded image, or null if the image should be decoded by ImageIO instead
+     * @throws CasAccessException if the image size is invalid
+     */
+    protected EncodedImage encodeScaledJpeg(final byte[] data) {
+        try {
+            // the decoder checks the size in the header before allocating, so an oversized image falls back to ImageIO,
+            // which rejects it from its header as well
+            final ScaledJpegDecoder decoder = new ScaledJpegDecoder(data, maxImageWidth, maxImageHeight);
+            if (!decoder.readHeader()) {
+                return null;
+            }
+            final int width = decoder.getWidth();
+            final int height = decoder.getHeight();
+            validateImageSize(width, height);
+
+            final int[] size = getResizedSize(width, height);
+            for (final int scaleDenom : JPEG_SCALE_DENOMS) {
+                if ((width + scaleDenom - 1) / scaleDenom >= size[0] && (height + scaleDenom - 1) / scaleDenom >= size[1]) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("decode JPEG {}x{} at 1/{}", width, height, scaleDenom);
+                    }
+                    return encodeClipImage(decoder.decode(scaleDenom), size[0], size[1]);
+                }
+            }
+        } catch (final CasAccessException e) {
+            throw e;
+        } catch (final Exception e) {
+            logger.debug("Failed to decode a JPEG image at a reduced scale.", e);
+        }
+        return null;
+    }
+
+    /**
+     * Validates the source image size against the configured limits.
+     *
+     * @param width image width
+     * @param height image height
+     * @throws CasAccessException if the size is invalid
+     */
+    protected void validateImageSize(final int width, final int height) {
+        if (width <= 0 || height <= 0 || width > maxImageWidth || height > maxImageHeight) {
+            throw new CasAccessException("Invalid image size: " + width + "x" + height);
+        }
+    }
+
+    /**
+     * Calculates the size of the image content within the target frame, keeping the aspect ratio.
+     *
+     * @param width source image width
+     * @param height source image height
+     * @return an array of {width, height}
+     */
+    protected int[] getResizedSize(final int width, final int height) {
+        final float aspectRatio = (float) width / height;
+        int newWidth = imageWidth;
+        int newHeight = imageHeight;
+        if (aspectRatio > 1) {
+            newHeight = (int) (imageWidth / aspectRatio);
+        } else {
+            newWidth = (int) (imageHeight * aspectRatio);
+        }
+        return new int[] { newWidth, newHeight };
+    }
+
+    /**
+     * Resizes the decoded image into the centered target frame, encodes it in the configured format
+     * and computes the perceptual hash of the resized content.
+     *
+     * @param image decoded image
+     * @param newWidth width of the image content within the frame
+     * @param newHeight height of the image content within the frame
+     * @return the encoded image
+     * @throws IOException if encoding fails
+     */
+    protected EncodedImage encodeClipImage(final BufferedImage image, final int newWidth, final int newHeight) throws IOException {
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            final BufferedImage clipImage = new BufferedImage(imageWidth, imageHeight, image.getType());
+            final int x = (imageWidth - newWidth) / 2;
+            final int y = (imageHeight - newHeight) / 2;
+            clipImage.getGraphics()
+                    .drawImage(image.getScaledInstance(newWidth, newHeight, Image.SCALE_AREA_AVERAGING), x, y, newWidth, newHeight, null);
+            ImageIO.write(clipImage, imageFormat, out);
+            image.flush();
+            final long hash = ImageHashIndex.dHash(clipImage, x, y, newWidth, newHeight);
+            return new EncodedImage(Base64.getEncoder().encodeToString(out.toByteArray()), hash);
+        }
+    }
+
     /**
      * Generates an embedding vector for the given text query.
+     * Concurrent calls for the same text share one request to the CLIP server. The cached and shared embeddings
+     * are copied, so that a caller modifying its embedding does not change the one of the others.
      *
      * @param query text string to generate embedding for
      * @return float array representing the text embedding
      * @throws CasAccessException if the embedding generation fails
      */
+    @Override
     public float[] getTextEmbedding(final String query) {
-        final String body = "{\"data\":[{\"text\":\"" + StringEscapeUtils.escapeJson(query) + "\"}],\"execEndpoint\":\"/\"}";
-        logger.debug("request body: {}", body);
-        try (CurlResponse response = Curl.post(clipEndpoint + "/post").header("Content-Type", "application/json").body(body).execute()) {
-            final Map<String, Object> contentMap = response.getContent(PARSER);
-            if (((contentMap.get("data") instanceof final List dataList)
-                    && (!dataList.isEmpty() && dataList.get(0) instanceof final Map data))
-                    && (data.get("embedding") instanceof final List embeddingList)) {
-                logger.debug("embedding: {}", embeddingList);
-                final float[] embedding = new float[embeddingList.size()];
-                for (int i = 0; i < embedding.length; i++) {
-                    embedding[i] = ((Number) embeddingList.get(i)).floatValue();
-                }
-                return embedding;
+        final float[] cached = getCachedTextEmbedding(query);
+        if (cached != null) {
+            return cached.clone();
+        }
+        final float[] embedding = textFlights == null || query == null ? loadTextEmbedding(query)
+                : textFlights.execute(query, () -> loadTextEmbedding(query));
+        return embedding != null ? embedding.clone() : null;
+    }
+
+    /**
+     * Requests the embedding of a text from the CLIP server and stores it in the text embedding cache.
+     *
+     * @param text the text
+     * @return the embedding
+     * @throws CasAccessException if the embedding generation fails
+     */
+    protected float[] loadTextEmbedding(final String text) {
+        final float[] embedding = post("text", Collections.singletonList(text)).get(0);
+        cacheTextEmbedding(text, embedding);
+        return embedding;
+    }
+
+    /**
+     * Generates embeddings for texts that are not cached yet and stores them in the text embedding cache,
+     * so that later calls of {@link #getTextEmbedding(String)} for the same texts do not access the CLIP server.
+     *
+     * @param texts texts to generate embeddings for
+     * @return the number of embeddings added to the cache
+     */
+    public int warmTextEmbeddings(final List<String> texts) {
+        if (textEmbeddingCache == null) {
+            return 0;
+        }
+        final List<String> pending =
+                texts.stream().filter(t -> t != null && !t.isBlank() && getCachedTextEmbedding(t) == null).distinct().toList();
+        if (pending.isEmpty()) {
+            return 0;
+        }
+        final List<float[]> embeddings = getTextEmbeddings(pending);
+        int count = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            if (embeddings.get(i) != null) {
+                cacheTextEmbedding(pending.get(i), embeddings.get(i));
+                count++;
             }
-        } catch (final IOException e) {
-            throw new CasAccessException("Clip server failed to generate an embedding.", e);
         }
-        throw new CasAccessException("Clip server cannot generate an embedding");
+        return count;
+    }
+
+    /**
+     * Gets a cached text embedding.
+     *
+     * @param text the text
+     * @return the embedding, or null if it is not cached
+     */
+    protected float[] getCachedTextEmbedding(final String text) {
+        if (textEmbeddingCache == null) {
+            return null;
+        }
+        synchronized (textEmbeddingCache) {
+            return textEmbeddingCache.get(text);
+        }
+    }
+
+    /**
+     * Stores a text embedding in the cache if the cache is enabled.
+     *
+     * @param text the text
+     * @param embedding the embedding
+     */
+    protected void cacheTextEmbedding(final String text, final float[] embedding) {
+        if (textEmbeddingCache == null || embedding == null) {
+            return;
+        }
+        synchronized (textEmbeddingCache) {
+            textEmbeddingCache.put(text, embedding);
+        }
+    }
+
+    /**
+     * Checks whether text embeddings are cached.
+     *
+     * @return true if the text embedding cache is enabled
+     */
+    public boolean isTextEmbeddingCacheEnabled() {
+        return textEmbeddingCache != null;
+    }
+
+    /**
+     * Generates embedding vectors for texts, sending them to the CLIP server in batches.
+     *
+     * @param texts texts to generate embeddings for
+     * @return embeddings in the order of the texts, with null for texts in a failed batch
+     */
+    @Override
+    public List<float[]> getTextEmbeddings(final List<String> texts) {
+        final List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (int start = 0; start < texts.size(); start += batchSize) {
+            final List<String> batch = texts.subList(start, Math.min(start + batchSize, texts.size()));
+            try {
+                embeddings.addAll(post("text", batch));
+            } catch (final CasAccessException e) {
+                logger.warn("Failed to generate embeddings for {} texts.", batch.size(), e);
+                embeddings.addAll(Collections.nCopies(batch.size(), null));
+            }
+        }
+        return embeddings;
+    }
+
+    @Override
+    public synchronized Executor getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            asyncExecutor = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("clip.async.threads", 4)), r -> {
+                final Thread thread = new Thread(r, "EmbeddingProvider-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Shuts down the executor of asynchronous requests and the gRPC channel.
+     */
+    @PreDestroy
+    public synchronized void destroy() {
+        if (asyncExecutor != null) {
+            asyncExecutor.shutdown();
+            asyncExecutor = null;
+        }
+        final CasGrpcTransport oldTransport = grpcTransport;
+        grpcTransport = null;
+        if (oldTransport != null) {
+            oldTransport.close();
+        }
+    }
+
+    /**
+     * Creates the gRPC transport to an endpoint.
+     *
+     * @param endpoint the endpoint
+     * @return the transport
+     */
+    protected CasGrpcTransport createGrpcTransport(final String endpoint) {
+        return CasGrpcTransport.create(endpoint, Integer.getInteger("clip.grpc.request_size", 8), Long.getLong("clip.grpc.timeout", 30000L),
+                Integer.getInteger("clip.grpc.max_message_size", 64 * 1024 * 1024));
+    }
+
+    /**
+     * Sets the CLIP server endpoint URL. The gRPC channel is bound to the endpoint, so it is recreated for the new one.
+     *
+     * @param clipEndpoint the endpoint URL
+     */
+    public synchronized void setClipEndpoint(final String clipEndpoint) {
+        this.clipEndpoint = clipEndpoint;
+        final CasGrpcTransport oldTransport = grpcTransport;
+        if (oldTransport != null) {
+            grpcTransport = createGrpcTransport(clipEndpoint);
+            oldTransport.close();
+        }
+    }
+
+    /**
+     * Gets the maximum number of inputs sent to the CLIP server in one request.
+     *
+     * @return the batch size
+     */
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Image encoded for the CLIP server together with its perceptual hash.
+     */
+    public static class EncodedImage {
+
+        private final String data;
+
+        private final long hash;
+
+        /**
+         * Constructs an encoded image.
+         *
+         * @param data base64-encoded image data
+         * @param hash 64-bit perceptual hash of the resized image
+         */
+        public EncodedImage(final String data, final long hash) {
+            this.data = data;
+            this.hash = hash;
+        }
+
+        /**
+         * Gets the base64-encoded image data.
+         *
+         * @return the image data
+         */
+        public String getData() {
+            return data;
+        }
+
+        /**
+         * Gets the perceptual hash.
+         *
+         * @return the hash
+         */
+        public long getHash() {
+            return hash;
+        }
     }
 }
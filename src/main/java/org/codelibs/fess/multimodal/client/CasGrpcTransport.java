@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * gRPC transport of {@link CasClient} for the {@code jina.JinaRPC/Call} streaming interface of CLIP-as-service.
+ * The documents of a request are split into messages of at most the request size and streamed on one call,
+ * so that the server can process the first documents while the rest are sent. Messages are encoded by
+ * {@link CasProtobuf}. gRPC Java is not bundled and must be added to the classpath of Fess.
+ */
+public class CasGrpcTransport implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(CasGrpcTransport.class);
+
+    /** The streaming method of the Jina gateway. */
+    public static final MethodDescriptor<byte[], byte[]> CALL_METHOD = MethodDescriptor.<byte[], byte[]> newBuilder()
+            .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("jina.JinaRPC", "Call"))
+            .setRequestMarshaller(new BytesMarshaller())
+            .setResponseMarshaller(new BytesMarshaller())
+            .build();
+
+    /** The channel to the server. */
+    protected final Channel channel;
+
+    /** The maximum number of documents in one message. */
+    protected final int requestSize;
+
+    /** The timeout of a call in milliseconds. */
+    protected final long timeout;
+
+    /**
+     * Constructs a transport on a channel.
+     *
+     * @param channel the channel to the server
+     * @param requestSize the maximum number of documents in one message
+     * @param timeout the timeout of a call in milliseconds
+     */
+    public CasGrpcTransport(final Channel channel, final int requestSize, final long timeout) {
+        this.channel = channel;
+        this.requestSize = Math.max(1, requestSize);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Creates a transport for an endpoint such as {@code grpc://localhost:51000}.
+     * The {@code grpcs} scheme uses TLS.
+     *
+     * @param endpoint the endpoint
+     * @param requestSize the maximum number of documents in one message
+     * @param timeout the timeout of a call in milliseconds
+     * @param maxMessageSize the maximum size of a response message in bytes
+     * @return the transport
+     */
+    public static CasGrpcTransport create(final String endpoint, final int requestSize, final long timeout, final int maxMessageSize) {
+        final URI uri = URI.create(endpoint.contains("://") ? endpoint : "grpc://" + endpoint);
+        final ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forAddress(uri.getHost(), uri.getPort() > 0 ? uri.getPort() : 51000)
+                .maxInboundMessageSize(maxMessageSize);
+        if ("grpcs".equals(uri.getScheme())) {
+            builder.useTransportSecurity();
+        } else {
+            builder.usePlaintext();
+        }
+        return new CasGrpcTransport(builder.build(), requestSize, timeout);
+    }
+
+    /**
+     * Embeds documents in one streaming call.
+     *
+     * @param key document attribute name, "blob" or "text"
+     * @param values attribute values, one per document
+     * @return embeddings in the same order as the values
+     * @throws CasAccessException if the call fails or the responses do not contain all embeddings
+     */
+    public List<float[]> encode(final String key, final List<String> values) {
+        final Map<String, List<String>> requests = new HashMap<>();
+        final List<String> requestIds = new ArrayList<>();
+        for (int start = 0; start < values.size(); start += requestSize) {
+            final String requestId = UUID.randomUUID().toString().replace("-", "");
+            requests.put(requestId, values.subList(start, Math.min(start + requestSize, values.size())));
+            requestIds.add(requestId);
+        }
+
+        final Map<String, List<float[]>> results = new HashMap<>();
+        final CompletableFuture<Void> completed = new CompletableFuture<>();
+        final StreamObserver<byte[]> responseObserver = new StreamObserver<>() {
+            @Override
+            public void onNext(final byte[] message) {
+                try {
+                    final CasProtobuf.Response response = CasProtobuf.decodeResponse(message);
+                    if (response.getStatusCode() != 0) {
+                        throw new CasAccessException("Clip server returned an error: " + response.getStatusDescription());
+                    }
+                    synchronized (results) {
+                        results.put(response.getRequestId(), response.getEmbeddings());
+                    }
+                } catch (final RuntimeException e) {
+                    completed.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onError(final Throwable t) {
+                completed.completeExceptionally(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                completed.complete(null);
+            }
+        };
+
+        final StreamObserver<byte[]> requestObserver = ClientCalls.asyncBidiStreamingCall(
+                channel.newCall(CALL_METHOD, CallOptions.DEFAULT.withDeadlineAfter(timeout, TimeUnit.MILLISECONDS)), responseObserver);
+        try {
+            for (final String requestId : requestIds) {
+                requestObserver.onNext(CasProtobuf.encodeRequest(requestId, key, requests.get(requestId)));
+            }
+            requestObserver.onCompleted();
+        } catch (final RuntimeException e) {
+            requestObserver.onError(e);
+            throw new CasAccessException("Failed to send a request to the Clip server.", e);
+        }
+
+        try {
+            completed.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CasAccessException("Interrupted while waiting for the Clip server.", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof final CasAccessException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof final StatusRuntimeException cause && (cause.getStatus().getCode() == Status.Code.UNAVAILABLE
+                    || cause.getStatus().getCode() == Status.Code.RESOURCE_EXHAUSTED)) {
+                throw new CasUnavailableException("Clip server is unavailable.", cause);
+            }
+            throw new CasAccessException("Clip server failed to generate an embedding.", e.getCause());
+        } catch (final TimeoutException e) {
+            throw new CasAccessException("Clip server did not respond in " + timeout + "ms.", e);
+        }
+
+        final List<float[]> embeddings = new ArrayList<>(values.size());
+        for (final String requestId : requestIds) {
+            final List<float[]> result = results.get(requestId);
+            if (result == null || result.size() != requests.get(requestId).size() || result.contains(null)) {
+                throw new CasAccessException("Clip server cannot generate an embedding");
+            }
+            embeddings.addAll(result);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("embedded {} documents in {} messages", embeddings.size(), requestIds.size());
+        }
+        return embeddings;
+    }
+
+    /**
+     * Shuts down the channel if it is a managed channel.
+     */
+    @Override
+    public void close() {
+        if (channel instanceof final ManagedChannel managedChannel) {
+            managedChannel.shutdown();
+            try {
+                if (!managedChannel.awaitTermination(5, TimeUnit.SECONDS)) {
+                    managedChannel.shutdownNow();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                managedChannel.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Marshaller of serialized messages.
+     */
+    public static class BytesMarshaller implements MethodDescriptor.Marshaller<byte[]> {
+        @Override
+        public InputStream stream(final byte[] value) {
+            return new ByteArrayInputStream(value);
+        }
+
+        @Override
+        public byte[] parse(final InputStream stream) {
+            try (stream) {
+                return stream.readAllBytes();
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+
+/**
+ * Encodes and decodes the protobuf messages of the gRPC interface of CLIP-as-service: {@code jina.DataRequestProto}
+ * with the documents as {@code docarray.DocumentArrayProto}. Only the fields used to request embeddings are written,
+ * and unknown fields are skipped when reading. Images are sent as raw bytes in {@code blob} and embeddings are read
+ * from the binary buffer of {@code embedding}, so neither is encoded as text.
+ */
+public final class CasProtobuf {
+
+    // jina.DataRequestProto
+    static final int REQUEST_HEADER = 1;
+
+    static final int REQUEST_PARAMETERS = 2;
+
+    static final int REQUEST_DATA = 4;
+
+    // jina.HeaderProto
+    static final int HEADER_REQUEST_ID = 1;
+
+    static final int HEADER_STATUS = 2;
+
+    static final int HEADER_EXEC_ENDPOINT = 3;
+
+    // jina.StatusProto
+    static final int STATUS_CODE = 1;
+
+    static final int STATUS_DESCRIPTION = 2;
+
+    // jina.DataRequestProto.DataContentProto
+    static final int DATA_DOCS = 1;
+
+    // docarray.DocumentArrayProto
+    static final int ARRAY_DOCS = 1;
+
+    // docarray.DocumentProto
+    static final int DOC_ID = 1;
+
+    static final int DOC_BLOB = 2;
+
+    static final int DOC_TEXT = 4;
+
+    static final int DOC_EMBEDDING = 16;
+
+    // docarray.NdArrayProto and docarray.DenseNdArrayProto
+    static final int NDARRAY_DENSE = 1;
+
+    static final int DENSE_BUFFER = 1;
+
+    static final int DENSE_SHAPE = 2;
+
+    static final int DENSE_DTYPE = 3;
+
+    // google.protobuf.Struct, its map entries and google.protobuf.Value
+    static final int STRUCT_FIELDS = 1;
+
+    static final int ENTRY_KEY = 1;
+
+    static final int ENTRY_VALUE = 2;
+
+    static final int VALUE_BOOL = 4;
+
+    private CasProtobuf() {
+        // utility class
+    }
+
+    /**
+     * Encodes a request that embeds documents.
+     *
+     * @param requestId the request id
+     * @param key document attribute name, "blob" for base64-encoded images or "text"
+     * @param values attribute values, one per document
+     * @return the serialized {@code DataRequestProto}
+     */
+    public static byte[] encodeRequest(final String requestId, final String key, final List<String> values) {
+        final boolean blob = "blob".equals(key);
+        final ProtoWriter docs = new ProtoWriter();
+        for (int i = 0; i < values.size(); i++) {
+            final ProtoWriter doc = new ProtoWriter();
+            doc.writeString(DOC_ID, Integer.toString(i));
+            if (blob) {
+                doc.writeBytes(DOC_BLOB, Base64.getDecoder().decode(values.get(i)));
+            } else {
+                doc.writeString(DOC_TEXT, values.get(i));
+            }
+            docs.writeMessage(ARRAY_DOCS, doc);
+        }
+
+        final ProtoWriter header = new ProtoWriter();
+        header.writeString(HEADER_REQUEST_ID, requestId);
+        header.writeString(HEADER_EXEC_ENDPOINT, "/");
+        // the server does not send the images back
+        final ProtoWriter value = new ProtoWriter();
+        value.writeVarint(VALUE_BOOL, 1);
+        final ProtoWriter entry = new ProtoWriter();
+        entry.writeString(ENTRY_KEY, "drop_image_content");
+        entry.writeMessage(ENTRY_VALUE, value);
+        final ProtoWriter parameters = new ProtoWriter();
+        parameters.writeMessage(STRUCT_FIELDS, entry);
+        final ProtoWriter data = new ProtoWriter();
+        data.writeMessage(DATA_DOCS, docs);
+
+        final ProtoWriter request = new ProtoWriter();
+        request.writeMessage(REQUEST_HEADER, header);
+        request.writeMessage(REQUEST_PARAMETERS, parameters);
+        request.writeMessage(REQUEST_DATA, data);
+        return request.toByteArray();
+    }
+
+    /**
+     * Decodes a response.
+     *
+     * @param bytes the serialized {@code DataRequestProto}
+     * @return the response
+     * @throws CasAccessException if the message is malformed or an embedding has an unsupported type
+     */
+    public static Response decodeResponse(final byte[] bytes) {
+        final Response response = new Response();
+        final ProtoReader reader = new ProtoReader(bytes);
+        while (reader.next()) {
+            switch (reader.field()) {
+            case REQUEST_HEADER -> decodeHeader(reader.readMessage(), response);
+            case REQUEST_DATA -> {
+                final ProtoReader data = reader.readMessage();
+                while (data.next()) {
+                    if (data.field() == DATA_DOCS) {
+                        decodeDocs(data.readMessage(), response.embeddings);
+                    } else {
+                        data.skip();
+                    }
+                }
+            }
+            default -> reader.skip();
+            }
+        }
+        return response;
+    }
+
+    private static void decodeHeader(final ProtoReader header, final Response response) {
+        while (header.next()) {
+            if (header.field() == HEADER_REQUEST_ID) {
+                response.requestId = header.readString();
+            } else if (header.field() == HEADER_STATUS) {
+                final ProtoReader status = header.readMessage();
+                while (status.next()) {
+                    if (status.field() == STATUS_CODE) {
+                        response.statusCode = (int) status.readVarint();
+                    } else if (status.field() == STATUS_DESCRIPTION) {
+                        response.statusDescription = status.readString();
+                    } else {
+                        status.skip();
+                    }
+                }
+            } else {
+                header.skip();
+            }
+        }
+    }
+
+    private static void decodeDocs(final ProtoReader docs, final List<float[]> embeddings) {
+        while (docs.next()) {
+            if (docs.field() != ARRAY_DOCS) {
+                docs.skip();
+                continue;
+            }
+            final ProtoReader doc = docs.readMessage();
+            float[] embedding = null;
+            while (doc.next()) {
+                if (doc.field() == DOC_EMBEDDING) {
+                    embedding = decodeNdArray(doc.readMessage());
+                } else {
+                    doc.skip();
+                }
+            }
+            embeddings.add(embedding);
+        }
+    }
+
+    private static float[] decodeNdArray(final ProtoReader ndarray) {
+        byte[] buffer = null;
+        String dtype = "<f4";
+        while (ndarray.next()) {
+            if (ndarray.field() != NDARRAY_DENSE) {
+                ndarray.skip();
+                continue;
+            }
+            final ProtoReader dense = ndarray.readMessage();
+            while (dense.next()) {
+                if (dense.field() == DENSE_BUFFER) {
+                    buffer = dense.readBytes();
+                } else if (dense.field() == DENSE_DTYPE) {
+                    dtype = dense.readString();
+                } else {
+                    dense.skip();
+                }
+            }
+        }
+        return buffer != null ? toFloatArray(buffer, dtype) : null;
+    }
+
+    /**
+     * Converts the buffer of a dense array to floats.
+     *
+     * @param buffer the buffer
+     * @param dtype the numpy type, such as {@code <f4}
+     * @return the values
+     * @throws CasAccessException if the type is not a 32 or 64 bit float
+     */
+    static float[] toFloatArray(final byte[] buffer, final String dtype) {
+        final ByteBuffer bb = ByteBuffer.wrap(buffer).order(dtype.startsWith(">") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        final String type = dtype.replaceFirst("^[<>=|]", "");
+        final float[] values;
+        switch (type) {
+        case "f4", "float32" -> {
+            values = new float[buffer.length / Float.BYTES];
+            bb.asFloatBuffer().get(values);
+        }
+        case "f8", "float64" -> {
+            values = new float[buffer.length / Double.BYTES];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (float) bb.getDouble();
+            }
+        }
+        default -> throw new CasAccessException("Unsupported embedding type: " + dtype);
+        }
+        return values;
+    }
+
+    /**
+     * Decoded response of the CLIP server.
+     */
+    public static class Response {
+        /** The request id. */
+        protected String requestId;
+
+        /** The status code; 0 is success. */
+        protected int statusCode;
+
+        /** The status description, or null if none. */
+        protected String statusDescription;
+
+        /** The embeddings in the order of the documents; an entry is null if the document has no embedding. */
+        protected final List<float[]> embeddings = new ArrayList<>();
+
+        /**
+         * Gets the request id.
+         *
+         * @return the request id
+         */
+        public String getRequestId() {
+            return requestId;
+        }
+
+        /**
+         * Gets the status code.
+         *
+         * @return the status code; 0 is success
+         */
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * Gets the status description.
+         *
+         * @return the description, or null if none
+         */
+        public String getStatusDescription() {
+            return statusDescription;
+        }
+
+        /**
+         * Gets the embeddings.
+         *
+         * @return the embeddings in the order of the documents
+         */
+        public List<float[]> getEmbeddings() {
+            return embeddings;
+        }
+    }
+
+    /**
+     * Writer of protobuf fields.
+     */
+    static class ProtoWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        void writeVarint(final int field, final long value) {
+            writeRawVarint(field << 3);
+            writeRawVarint(value);
+        }
+
+        void writeString(final int field, final String value) {
+            writeBytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void writeBytes(final int field, final byte[] value) {
+            writeRawVarint(field << 3 | 2);
+            writeRawVarint(value.length);
+            out.write(value, 0, value.length);
+        }
+
+        void writeMessage(final int field, final ProtoWriter message) {
+            writeRawVarint(field << 3 | 2);
+            writeRawVarint(message.out.size());
+            out.writeBytes(message.out.toByteArray());
+        }
+
+        private void writeRawVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Reader of protobuf fields.
+     */
+    static class ProtoReader {
+        private final byte[] bytes;
+
+        private final int limit;
+
+        private int position;
+
+        private int tag;
+
+        ProtoReader(final byte[] bytes) {
+            this(bytes, 0, bytes.length);
+        }
+
+        private ProtoReader(final byte[] bytes, final int offset, final int limit) {
+            this.bytes = bytes;
+            position = offset;
+            this.limit = limit;
+        }
+
+        boolean next() {
+            if (position >= limit) {
+                return false;
+            }
+            tag = (int) readVarint();
+            return true;
+        }
+
+        int field() {
+            return tag >>> 3;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new CasAccessException("Truncated protobuf message.");
+                }
+                final byte b = bytes[position++];
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new CasAccessException("Malformed varint.");
+        }
+
+        byte[] readBytes() {
+            final int length = readLength();
+            final byte[] value = new byte[length];
+            System.arraycopy(bytes, position, value, 0, length);
+            position += length;
+            return value;
+        }
+
+        String readString() {
+            final int length = readLength();
+            final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        ProtoReader readMessage() {
+            final int length = readLength();
+            final ProtoReader reader = new ProtoReader(bytes, position, position + length);
+            position += length;
+            return reader;
+        }
+
+        void skip() {
+            switch (tag & 7) {
+            case 0 -> readVarint();
+            case 1 -> position += 8;
+            case 2 -> {
+                final int length = readLength();
+                position += length;
+            }
+            case 5 -> position += 4;
+            default -> throw new CasAccessException("Unsupported wire type: " + (tag & 7));
+            }
+            if (position > limit) {
+                throw new CasAccessException("Truncated protobuf message.");
+            }
+        }
+
+        private int readLength() {
+            final long length = readVarint();
+            if (length < 0 || length > limit - position) {
+                throw new CasAccessException("Truncated protobuf message.");
+            }
+            return (int) length;
+        }
+    }
+}
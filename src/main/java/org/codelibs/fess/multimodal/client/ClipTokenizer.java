@@ -0,0 +1,310 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+/**
+ * Byte-level BPE tokenizer of the CLIP text encoder. The vocabulary is built from the merges file of CLIP
+ * ({@code bpe_simple_vocab_16e6.txt}, optionally gzipped) in the same order as the reference implementation:
+ * the 256 byte symbols, the same symbols with the end-of-word marker, the merged symbols, then the start and end tokens.
+ * Words and whole texts are cached, so repeated queries are not tokenized again.
+ * Instances are thread-safe.
+ */
+public class ClipTokenizer {
+
+    private static final int MAX_MERGES = 49152 - 256 - 2;
+
+    private static final String END_OF_WORD = "</w>";
+
+    private static final Pattern TOKEN_PATTERN =
+            Pattern.compile("<\\|startoftext\\|>|<\\|endoftext\\|>|'s|'t|'re|'ve|'m|'ll|'d|\\p{L}+|\\p{N}|[^\\s\\p{L}\\p{N}]+",
+                    Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+
+    private final char[] byteEncoder = new char[256];
+
+    private final Map<String, Integer> encoder = new HashMap<>();
+
+    private final Map<String, Integer> bpeRanks = new HashMap<>();
+
+    private final Map<String, int[]> wordCache = new ConcurrentHashMap<>();
+
+    private final Map<String, int[]> textCache;
+
+    private final int contextLength;
+
+    private final int startToken;
+
+    private final int endToken;
+
+    private final int maxWordCacheSize;
+
+    /**
+     * Creates a tokenizer from a merges file.
+     *
+     * @param mergesPath the merges file, gzipped if its name ends with .gz
+     * @param contextLength the number of tokens of an encoded text
+     * @param cacheSize the maximum number of cached texts
+     * @return the tokenizer
+     * @throws IOException if the file cannot be read
+     */
+    public static ClipTokenizer load(final Path mergesPath, final int contextLength, final int cacheSize) throws IOException {
+        try (InputStream in = Files.newInputStream(mergesPath)) {
+            return new ClipTokenizer(mergesPath.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in) : in, contextLength,
+                    cacheSize);
+        }
+    }
+
+    /**
+     * Constructs a tokenizer.
+     *
+     * @param mergesStream the content of the merges file; the first line is a header
+     * @param contextLength the number of tokens of an encoded text
+     * @param cacheSize the maximum number of cached texts
+     * @throws IOException if the merges cannot be read
+     */
+    public ClipTokenizer(final InputStream mergesStream, final int contextLength, final int cacheSize) throws IOException {
+        this.contextLength = contextLength;
+        maxWordCacheSize = Math.max(1000, cacheSize * 4);
+
+        final List<String> vocab = new ArrayList<>(MAX_MERGES + 514);
+        final List<Integer> bytes = new ArrayList<>();
+        for (int b = '!'; b <= '~'; b++) {
+            bytes.add(b);
+        }
+        for (int b = 0xa1; b <= 0xac; b++) {
+            bytes.add(b);
+        }
+        for (int b = 0xae; b <= 0xff; b++) {
+            bytes.add(b);
+        }
+        final List<Integer> chars = new ArrayList<>(bytes);
+        int n = 0;
+        for (int b = 0; b < 256; b++) {
+            if (!bytes.contains(b)) {
+                bytes.add(b);
+                chars.add(256 + n);
+                n++;
+            }
+        }
+        for (int i = 0; i < bytes.size(); i++) {
+            byteEncoder[bytes.get(i)] = (char) chars.get(i).intValue();
+            vocab.add(String.valueOf((char) chars.get(i).intValue()));
+        }
+        for (int i = 0; i < 256; i++) {
+            vocab.add(vocab.get(i) + END_OF_WORD);
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(mergesStream, StandardCharsets.UTF_8))) {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null && bpeRanks.size() < MAX_MERGES) {
+                final String[] pair = line.trim().split(" ");
+                if (pair.length != 2) {
+                    continue;
+                }
+                bpeRanks.put(pair[0] + " " + pair[1], bpeRanks.size());
+                vocab.add(pair[0] + pair[1]);
+            }
+        }
+        vocab.add("<|startoftext|>");
+        vocab.add("<|endoftext|>");
+        for (int i = 0; i < vocab.size(); i++) {
+            encoder.put(vocab.get(i), i);
+        }
+        startToken = encoder.get("<|startoftext|>");
+        endToken = encoder.get("<|endoftext|>");
+
+        textCache = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, int[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Encodes a text into token ids of the context length, starting with the start token and ending with the end token,
+     * truncated or padded with 0.
+     *
+     * @param text the text
+     * @return the token ids
+     */
+    public int[] encode(final String text) {
+        synchronized (textCache) {
+            final int[] cached = textCache.get(text);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final int[] ids = new int[contextLength];
+        ids[0] = startToken;
+        int length = 1;
+        final Matcher matcher = TOKEN_PATTERN.matcher(clean(text));
+        outer: while (matcher.find()) {
+            for (final int id : encodeWord(matcher.group())) {
+                if (length >= contextLength - 1) {
+                    break outer;
+                }
+                ids[length++] = id;
+            }
+        }
+        ids[Math.min(length, contextLength - 1)] = endToken;
+        synchronized (textCache) {
+            textCache.put(text, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the id of the end token.
+     *
+     * @return the end token id
+     */
+    public int getEndToken() {
+        return endToken;
+    }
+
+    /**
+     * Gets the number of tokens of an encoded text.
+     *
+     * @return the context length
+     */
+    public int getContextLength() {
+        return contextLength;
+    }
+
+    /**
+     * Normalizes a text as the reference implementation does, except for mojibake repair.
+     *
+     * @param text the text
+     * @return the normalized text
+     */
+    protected String clean(final String text) {
+        final String unescaped = StringEscapeUtils.unescapeHtml4(StringEscapeUtils.unescapeHtml4(text == null ? "" : text));
+        return WHITESPACE_PATTERN.matcher(unescaped).replaceAll(" ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Encodes a word into BPE token ids.
+     *
+     * @param word the word
+     * @return the token ids
+     */
+    protected int[] encodeWord(final String word) {
+        final int[] cached = wordCache.get(word);
+        if (cached != null) {
+            return cached;
+        }
+        final int[] ids;
+        final Integer special = "<|startoftext|>".equals(word) || "<|endoftext|>".equals(word) ? encoder.get(word) : null;
+        if (special != null) {
+            ids = new int[] { special };
+        } else {
+            final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            final StringBuilder buf = new StringBuilder(bytes.length);
+            for (final byte b : bytes) {
+                buf.append(byteEncoder[b & 0xff]);
+            }
+            ids = bpe(buf.toString()).stream().mapToInt(encoder::get).toArray();
+        }
+        if (wordCache.size() >= maxWordCacheSize) {
+            wordCache.clear();
+        }
+        wordCache.put(word, ids);
+        return ids;
+    }
+
+    /**
+     * Applies the BPE merges to a word of byte symbols.
+     *
+     * @param token the word
+     * @return the merged symbols
+     */
+    protected List<String> bpe(final String token) {
+        final List<String> word = new ArrayList<>(token.length());
+        for (int i = 0; i < token.length() - 1; i++) {
+            word.add(String.valueOf(token.charAt(i)));
+        }
+        word.add(token.charAt(token.length() - 1) + END_OF_WORD);
+        while (word.size() > 1) {
+            int bestRank = Integer.MAX_VALUE;
+            String first = null;
+            String second = null;
+            for (int i = 0; i < word.size() - 1; i++) {
+                final Integer rank = bpeRanks.get(word.get(i) + " " + word.get(i + 1));
+                if (rank != null && rank < bestRank) {
+                    bestRank = rank;
+                    first = word.get(i);
+                    second = word.get(i + 1);
+                }
+            }
+            if (first == null) {
+                break;
+            }
+            final List<String> merged = new ArrayList<>(word.size());
+            for (int i = 0; i < word.size(); i++) {
+                if (i < word.size() - 1 && word.get(i).equals(first) && word.get(i + 1).equals(second)) {
+                    merged.add(first + second);
+                    i++;
+                } else {
+                    merged.add(word.get(i));
+                }
+            }
+            word.clear();
+            word.addAll(merged);
+        }
+        return word;
+    }
+
+    /**
+     * Gets the token ids of an encoded text without padding.
+     *
+     * @param ids the encoded text
+     * @return the ids up to the end token
+     */
+    public int[] trim(final int[] ids) {
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == endToken) {
+                return Arrays.copyOf(ids, i + 1);
+            }
+        }
+        return ids;
+    }
+}
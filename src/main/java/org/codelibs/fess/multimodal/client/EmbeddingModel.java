@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+/**
+ * Embedding model that runs in the Fess process, used by {@link InProcessEmbeddingProvider}.
+ */
+public interface EmbeddingModel {
+
+    /**
+     * Embeds texts.
+     *
+     * @param texts the texts
+     * @return embeddings in the order of the texts
+     */
+    List<float[]> embedTexts(List<String> texts);
+
+    /**
+     * Embeds images that are already resized to the input size of the model.
+     *
+     * @param images the images
+     * @return embeddings in the order of the images
+     * @throws UnsupportedOperationException if the model embeds texts only
+     */
+    default List<float[]> embedImages(final List<BufferedImage> images) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not embed images.");
+    }
+}
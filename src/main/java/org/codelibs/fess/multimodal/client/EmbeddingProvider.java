@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+
+/**
+ * Generates embeddings of texts and images in a shared vector space. The implementation is selected by the class of
+ * the {@code embeddingProvider} component in {@code app++.xml}, such as {@link CasClient} for CLIP-as-service,
+ * {@link TritonEmbeddingProvider}, {@link OpenAiEmbeddingProvider} or {@link InProcessEmbeddingProvider}.
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * Generates an embedding vector for the given text.
+     *
+     * @param text the text
+     * @return the embedding
+     * @throws org.codelibs.fess.multimodal.exception.CasAccessException if the embedding generation fails
+     */
+    float[] getTextEmbedding(String text);
+
+    /**
+     * Generates embedding vectors for texts in batches.
+     *
+     * @param texts the texts
+     * @return embeddings in the order of the texts, with null for texts that failed
+     */
+    List<float[]> getTextEmbeddings(List<String> texts);
+
+    /**
+     * Generates an embedding vector for the given image.
+     *
+     * @param in input stream containing the image data
+     * @return the embedding
+     * @throws org.codelibs.fess.multimodal.exception.CasAccessException if the embedding generation fails
+     */
+    float[] getImageEmbedding(InputStream in);
+
+    /**
+     * Generates embedding vectors for images in batches.
+     *
+     * @param ins input streams containing the image data
+     * @return embeddings in the order of the images, with null for images that failed
+     */
+    List<float[]> getImageEmbeddings(List<InputStream> ins);
+
+    /**
+     * Gets the maximum number of inputs embedded in one request.
+     *
+     * @return the batch size
+     */
+    int getBatchSize();
+
+    /**
+     * Gets the executor that runs asynchronous requests.
+     *
+     * @return the executor
+     */
+    default Executor getAsyncExecutor() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * Generates embedding vectors for texts asynchronously.
+     *
+     * @param texts the texts
+     * @return the future of embeddings in the order of the texts, with null for texts that failed
+     */
+    default CompletableFuture<List<float[]>> getTextEmbeddingsAsync(final List<String> texts) {
+        return CompletableFuture.supplyAsync(() -> getTextEmbeddings(texts), getAsyncExecutor());
+    }
+
+    /**
+     * Generates embedding vectors for images asynchronously.
+     *
+     * @param ins input streams containing the image data
+     * @return the future of embeddings in the order of the images, with null for images that failed
+     */
+    default CompletableFuture<List<float[]>> getImageEmbeddingsAsync(final List<InputStream> ins) {
+        return CompletableFuture.supplyAsync(() -> getImageEmbeddings(ins), getAsyncExecutor());
+    }
+
+    /**
+     * Checks whether a failure is caused by the server being temporarily unavailable rather than by the input,
+     * so that the request may succeed when it is retried.
+     *
+     * @param t the failure
+     * @return true if the failure is transient
+     */
+    default boolean isTransientFailure(final Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CasUnavailableException || cause instanceof ConnectException || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
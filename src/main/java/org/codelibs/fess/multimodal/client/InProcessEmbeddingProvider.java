@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Embedding provider that runs an {@link EmbeddingModel} in the Fess process instead of calling a server.
+ * The model is set with {@link #setModel(EmbeddingModel)} in {@code app++.xml}, or created from the class name
+ * in {@code clip.inprocess.model}. Image preprocessing, caching and concurrency control are inherited from
+ * {@link CasClient}, so the concurrency limit bounds the number of threads running the model.
+ * <p>
+ * If {@code clip.inprocess.workers} is set, texts are embedded by that many worker threads with
+ * {@link BatchingEmbeddingModel}, which batches concurrent requests up to {@code clip.batch.size} texts and
+ * queues up to {@code clip.inprocess.queue_size} requests. With {@link OnnxClipTextModel}, this provider can be
+ * registered as a second component and selected with {@code fess.multimodal.query.embedding_provider}, so that query
+ * texts are embedded in the process while images are still sent to the CLIP server.
+ * </p>
+ */
+public class InProcessEmbeddingProvider extends CasClient {
+    private static final Logger logger = LogManager.getLogger(InProcessEmbeddingProvider.class);
+
+    /** The model. */
+    protected EmbeddingModel model;
+
+    /**
+     * Constructs a new InProcessEmbeddingProvider instance.
+     */
+    public InProcessEmbeddingProvider() {
+        // Default constructor
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        final String modelClass = System.getProperty("clip.inprocess.model");
+        if (model == null && StringUtil.isNotBlank(modelClass)) {
+            try {
+                model = (EmbeddingModel) Class.forName(modelClass.trim()).getDeclaredConstructor().newInstance();
+            } catch (final ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalStateException("Failed to create " + modelClass, e);
+            }
+        }
+        final int workers = Integer.getInteger("clip.inprocess.workers", 0);
+        if (model != null && workers > 0 && !(model instanceof BatchingEmbeddingModel)) {
+            model = new BatchingEmbeddingModel(model, workers, batchSize, Integer.getInteger("clip.inprocess.queue_size", 1000));
+        }
+        logger.debug("model: {}, workers: {}", model, workers);
+    }
+
+    @Override
+    protected List<float[]> sendRequest(final String key, final List<String> values) {
+        if (model == null) {
+            throw new CasAccessException("No embedding model is configured.");
+        }
+        final List<float[]> embeddings;
+        try {
+            if ("text".equals(key)) {
+                embeddings = model.embedTexts(values);
+            } else {
+                final List<BufferedImage> images = new ArrayList<>(values.size());
+                for (final String value : values) {
+                    final BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(value)));
+                    if (image == null) {
+                        throw new CasAccessException("Failed to decode an image.");
+                    }
+                    images.add(image);
+                }
+                embeddings = model.embedImages(images);
+            }
+        } catch (final CasAccessException e) {
+            throw e;
+        } catch (final IOException | RuntimeException e) {
+            throw new CasAccessException("The embedding model failed to generate an embedding.", e);
+        }
+        if (embeddings == null || embeddings.size() != values.size()) {
+            throw new CasAccessException("The embedding model cannot generate an embedding");
+        }
+        return embeddings;
+    }
+
+    /**
+     * Closes the model if it is closeable.
+     */
+    @Override
+    @PreDestroy
+    public synchronized void destroy() {
+        super.destroy();
+        if (model instanceof final AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (final Exception e) {
+                logger.warn("Failed to close {}.", model, e);
+            }
+        }
+    }
+
+    /**
+     * Sets the model.
+     *
+     * @param model the model
+     */
+    public void setModel(final EmbeddingModel model) {
+        this.model = model;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * CLIP text encoder that runs an ONNX model on the CPU with ONNX Runtime, so that query embeddings do not need
+ * a request to the CLIP server. The model must be the text tower of the same CLIP model as the server that embeds
+ * images, exported to ONNX with token ids of shape [batch, context length] as input and embeddings of shape
+ * [batch, dimension] as output. ONNX Runtime is not bundled and must be added to the classpath of Fess.
+ * <p>
+ * The model is configured with {@code clip.onnx.text_model} (the ONNX file) and {@code clip.onnx.vocab}
+ * (the BPE merges file of CLIP). The input, attention mask and output names, the input type and the number of
+ * threads per inference can be set when the exported model differs from the defaults.
+ * </p>
+ */
+public class OnnxClipTextModel implements EmbeddingModel, AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(OnnxClipTextModel.class);
+
+    /** The ONNX Runtime environment. */
+    protected OrtEnvironment environment;
+
+    /** The inference session. */
+    protected OrtSession session;
+
+    /** The tokenizer. */
+    protected ClipTokenizer tokenizer;
+
+    /** Name of the token id input. */
+    protected String inputName;
+
+    /** Name of the attention mask input, or null if the model has none. */
+    protected String attentionMaskName;
+
+    /** Name of the embedding output, or null for the first output. */
+    protected String outputName;
+
+    /** Whether token ids are passed as int32 instead of int64. */
+    protected boolean int32Input;
+
+    /**
+     * Loads the model and the tokenizer configured by system properties.
+     *
+     * @throws IllegalStateException if the model or the tokenizer cannot be loaded
+     */
+    public OnnxClipTextModel() {
+        final String modelPath = System.getProperty("clip.onnx.text_model");
+        final String vocabPath = System.getProperty("clip.onnx.vocab");
+        if (StringUtil.isBlank(modelPath) || StringUtil.isBlank(vocabPath)) {
+            throw new IllegalStateException("clip.onnx.text_model and clip.onnx.vocab are required.");
+        }
+        try {
+            tokenizer = ClipTokenizer.load(Paths.get(vocabPath.trim()), Integer.getInteger("clip.onnx.context_length", 77),
+                    Integer.getInteger("clip.onnx.tokenizer.cache_size", 10000));
+            environment = OrtEnvironment.getEnvironment();
+            try (OrtSession.SessionOptions options = new OrtSession.SessionOptions()) {
+                options.setIntraOpNumThreads(Integer.getInteger("clip.onnx.intra_op_threads", 1));
+                options.setInterOpNumThreads(1);
+                options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.ALL_OPT);
+                session = environment.createSession(modelPath.trim(), options);
+            }
+            final String input = System.getProperty("clip.onnx.input_name");
+            inputName = StringUtil.isNotBlank(input) ? input.trim() : session.getInputNames().iterator().next();
+        } catch (final IOException | OrtException e) {
+            throw new IllegalStateException("Failed to load " + modelPath, e);
+        }
+        final String mask = System.getProperty("clip.onnx.attention_mask_name");
+        attentionMaskName = StringUtil.isNotBlank(mask) ? mask.trim() : null;
+        final String output = System.getProperty("clip.onnx.output_name");
+        outputName = StringUtil.isNotBlank(output) ? output.trim() : null;
+        int32Input = "int32".equals(System.getProperty("clip.onnx.input_type"));
+        logger.info("Loaded {}: input={}, attentionMask={}, output={}, int32={}", modelPath, inputName, attentionMaskName, outputName,
+                int32Input);
+    }
+
+    /**
+     * Constructs a model with the given session and tokenizer.
+     *
+     * @param environment the ONNX Runtime environment
+     * @param session the inference session
+     * @param tokenizer the tokenizer
+     * @param inputName name of the token id input
+     */
+    public OnnxClipTextModel(final OrtEnvironment environment, final OrtSession session, final ClipTokenizer tokenizer,
+            final String inputName) {
+        this.environment = environment;
+        this.session = session;
+        this.tokenizer = tokenizer;
+        this.inputName = inputName;
+    }
+
+    @Override
+    public List<float[]> embedTexts(final List<String> texts) {
+        final int contextLength = tokenizer.getContextLength();
+        final long[][] ids = new long[texts.size()][];
+        final long[][] mask = attentionMaskName != null ? new long[texts.size()][contextLength] : null;
+        for (int i = 0; i < ids.length; i++) {
+            final int[] tokens = tokenizer.encode(texts.get(i));
+            ids[i] = Arrays.stream(tokens).asLongStream().toArray();
+            if (mask != null) {
+                Arrays.fill(mask[i], 0, tokenizer.trim(tokens).length, 1L);
+            }
+        }
+
+        try (OnnxTensor idTensor = OnnxTensor.createTensor(environment, int32Input ? toIntArray(ids) : ids);
+                OnnxTensor maskTensor = mask != null ? OnnxTensor.createTensor(environment, int32Input ? toIntArray(mask) : mask) : null) {
+            final Map<String, OnnxTensor> inputs = new HashMap<>();
+            inputs.put(inputName, idTensor);
+            if (maskTensor != null) {
+                inputs.put(attentionMaskName, maskTensor);
+            }
+            try (OrtSession.Result result = session.run(inputs)) {
+                final OnnxValue output = outputName != null
+                        ? result.get(outputName).orElseThrow(() -> new CasAccessException("No output: " + outputName))
+                        : result.get(0);
+                if (!(output.getValue() instanceof final float[][] embeddings) || embeddings.length != texts.size()) {
+                    throw new CasAccessException("Unexpected output of the text model.");
+                }
+                return Arrays.asList(embeddings);
+            }
+        } catch (final OrtException e) {
+            throw new CasAccessException("Failed to run the text model.", e);
+        }
+    }
+
+    private static int[][] toIntArray(final long[][] values) {
+        final int[][] array = new int[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            array[i] = Arrays.stream(values[i]).mapToInt(v -> (int) v).toArray();
+        }
+        return array;
+    }
+
+    @Override
+    public void close() {
+        try {
+            session.close();
+        } catch (final OrtException e) {
+            logger.warn("Failed to close the session.", e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.curl.Curl;
+import org.codelibs.curl.CurlRequest;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+
+/**
+ * Embedding provider for servers with an OpenAI-compatible {@code /v1/embeddings} API.
+ * Texts are sent as strings of the {@code input} array. Images are sent as {@code {"image": "data:..."}} objects,
+ * which servers of multimodal embedding models that follow this convention accept.
+ * Image preprocessing, caching and concurrency control are inherited from {@link CasClient}.
+ */
+public class OpenAiEmbeddingProvider extends CasClient {
+    private static final Logger logger = LogManager.getLogger(OpenAiEmbeddingProvider.class);
+
+    /** Path of the embeddings API. */
+    protected String path;
+
+    /** Model name. */
+    protected String model;
+
+    /** API key sent as a bearer token, or null if none. */
+    protected String apiKey;
+
+    /** Number of dimensions requested from models that support shortening, or 0 for the model default. */
+    protected int dimensions;
+
+    /**
+     * Constructs a new OpenAiEmbeddingProvider instance.
+     */
+    public OpenAiEmbeddingProvider() {
+        // Default constructor
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        clipEndpoint = System.getProperty("clip.server.endpoint", "http://localhost:8000");
+        path = System.getProperty("clip.openai.path", "/v1/embeddings");
+        model = System.getProperty("clip.openai.model", "clip");
+        apiKey = System.getProperty("clip.openai.api_key");
+        dimensions = Integer.getInteger("clip.openai.dimensions", 0);
+        logger.debug("endpoint: {}{}, model: {}, dimensions: {}", clipEndpoint, path, model, dimensions);
+    }
+
+    @Override
+    protected List<float[]> sendRequest(final String key, final List<String> values) {
+        final Map<String, Object> contentMap = postJson(clipEndpoint + path, buildRequest("text".equals(key), values));
+        final List<float[]> embeddings = parseResponse(contentMap, values.size());
+        if (embeddings == null) {
+            throw new CasAccessException("Embedding server cannot generate an embedding");
+        }
+        return embeddings;
+    }
+
+    @Override
+    protected Map<String, Object> postJson(final String url, final String body) {
+        logger.debug("request body: {}", body);
+        final CurlRequest request = Curl.post(url).header("Content-Type", "application/json");
+        if (StringUtil.isNotBlank(apiKey)) {
+            request.header("Authorization", "Bearer " + apiKey);
+        }
+        try (CurlResponse response = request.body(body).execute()) {
+            if (isUnavailableStatus(response.getHttpStatusCode())) {
+                throw new CasUnavailableException("Embedding server is unavailable: HTTP " + response.getHttpStatusCode());
+            }
+            if (response.getHttpStatusCode() >= 400) {
+                throw new CasAccessException("Embedding server returned " + response.getHttpStatusCode());
+            }
+            return response.getContent(PARSER);
+        } catch (final IOException e) {
+            throw new CasAccessException("Embedding server failed to generate an embedding.", e);
+        }
+    }
+
+    /**
+     * Builds the embeddings request.
+     *
+     * @param text true for texts, false for base64-encoded images
+     * @param values the inputs
+     * @return the JSON request body
+     */
+    protected String buildRequest(final boolean text, final List<String> values) {
+        final StringBuilder buf = new StringBuilder(values.stream().mapToInt(v -> v == null ? 0 : v.length()).sum() + 100);
+        buf.append("{\"model\":\"").append(StringEscapeUtils.escapeJson(model)).append("\",\"encoding_format\":\"float\",");
+        if (dimensions > 0) {
+            buf.append("\"dimensions\":").append(dimensions).append(',');
+        }
+        buf.append("\"input\":[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            final String value = StringEscapeUtils.escapeJson(values.get(i));
+            if (text) {
+                buf.append('"').append(value).append('"');
+            } else {
+                buf.append("{\"image\":\"data:image/").append(imageFormat).append(";base64,").append(value).append("\"}");
+            }
+        }
+        buf.append("]}");
+        return buf.toString();
+    }
+
+    /**
+     * Reads the embeddings from an embeddings response, ordered by their index.
+     *
+     * @param contentMap the parsed response
+     * @param size the number of inputs
+     * @return the embeddings, or null if the response does not contain one per input
+     */
+    protected List<float[]> parseResponse(final Map<String, Object> contentMap, final int size) {
+        if (!(contentMap.get("data") instanceof final List<?> dataList) || dataList.size() != size) {
+            return null;
+        }
+        final float[][] embeddings = new float[size][];
+        for (int i = 0; i < size; i++) {
+            if (!(dataList.get(i) instanceof final Map<?, ?> data) || !(data.get("embedding") instanceof final List<?> embedding)) {
+                return null;
+            }
+            final int index = data.get("index") instanceof final Number number ? number.intValue() : i;
+            if (index < 0 || index >= size || embeddings[index] != null) {
+                return null;
+            }
+            embeddings[index] = toFloatArray(embedding);
+        }
+        return new ArrayList<>(Arrays.asList(embeddings));
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+
+/**
+ * Embedding provider for servers that implement the KServe v2 (Open Inference) HTTP protocol, such as NVIDIA Triton.
+ * Texts and base64-encoded images are sent as a BYTES input tensor of shape [n, 1] to
+ * {@code /v2/models/{model}/infer}, and the embeddings are read from an FP32 output tensor of shape [n, dimension].
+ * Image preprocessing, caching and concurrency control are inherited from {@link CasClient}.
+ */
+public class TritonEmbeddingProvider extends CasClient {
+    private static final Logger logger = LogManager.getLogger(TritonEmbeddingProvider.class);
+
+    /** Model that embeds texts. */
+    protected String textModel;
+
+    /** Model that embeds images. */
+    protected String imageModel;
+
+    /** Name of the input tensor of texts. */
+    protected String textInput;
+
+    /** Name of the input tensor of images. */
+    protected String imageInput;
+
+    /** Name of the output tensor of embeddings. */
+    protected String output;
+
+    /**
+     * Constructs a new TritonEmbeddingProvider instance.
+     */
+    public TritonEmbeddingProvider() {
+        // Default constructor
+    }
+
+    @Override
+    public void init() {
+        super.init();
+        clipEndpoint = System.getProperty("clip.server.endpoint", "http://localhost:8000");
+        final String model = System.getProperty("clip.triton.model", "clip");
+        textModel = System.getProperty("clip.triton.text_model", model);
+        imageModel = System.getProperty("clip.triton.image_model", model);
+        textInput = System.getProperty("clip.triton.text_input", "TEXT");
+        imageInput = System.getProperty("clip.triton.image_input", "IMAGE");
+        output = System.getProperty("clip.triton.output", "EMBEDDING");
+        logger.debug("endpoint: {}, textModel: {}, imageModel: {}, inputs: {}/{}, output: {}", clipEndpoint, textModel, imageModel,
+                textInput, imageInput, output);
+    }
+
+    @Override
+    protected List<float[]> sendRequest(final String key, final List<String> values) {
+        final boolean text = "text".equals(key);
+        final String model = text ? textModel : imageModel;
+        final Map<String, Object> contentMap = postJson(clipEndpoint + "/v2/models/" + model + "/infer", buildRequest(text, values));
+        final List<float[]> embeddings = parseResponse(contentMap, values.size());
+        if (embeddings == null) {
+            throw new CasAccessException("Inference server cannot generate an embedding");
+        }
+        return embeddings;
+    }
+
+    /**
+     * Builds the inference request.
+     *
+     * @param text true for texts, false for base64-encoded images
+     * @param values the inputs
+     * @return the JSON request body
+     */
+    protected String buildRequest(final boolean text, final List<String> values) {
+        final StringBuilder buf = new StringBuilder(values.stream().mapToInt(v -> v == null ? 0 : v.length()).sum() + 200);
+        buf.append("{\"inputs\":[{\"name\":\"").append(StringEscapeUtils.escapeJson(text ? textInput : imageInput)).append("\",");
+        buf.append("\"shape\":[").append(values.size()).append(",1],\"datatype\":\"BYTES\",\"data\":[");
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                buf.append(',');
+            }
+            buf.append('"').append(StringEscapeUtils.escapeJson(values.get(i))).append('"');
+        }
+        buf.append("]}],\"outputs\":[{\"name\":\"").append(StringEscapeUtils.escapeJson(output)).append("\"}]}");
+        return buf.toString();
+    }
+
+    /**
+     * Reads the embeddings from the output tensor of an inference response.
+     * The tensor data may be flat in row-major order or nested by row.
+     *
+     * @param contentMap the parsed response
+     * @param size the number of inputs
+     * @return the embeddings, or null if the response does not contain one per input
+     */
+    protected List<float[]> parseResponse(final Map<String, Object> contentMap, final int size) {
+        if (!(contentMap.get("outputs") instanceof final List<?> outputs)) {
+            return null;
+        }
+        for (final Object item : outputs) {
+            if (!(item instanceof final Map<?, ?> tensor) || !output.equals(tensor.get("name"))
+                    || !(tensor.get("data") instanceof final List<?> data)) {
+                continue;
+            }
+            final List<Object> flat = new ArrayList<>();
+            flatten(data, flat);
+            if (size == 0 || flat.size() % size != 0) {
+                return null;
+            }
+            final int dimension = flat.size() / size;
+            final List<float[]> embeddings = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                embeddings.add(toFloatArray(flat.subList(i * dimension, (i + 1) * dimension)));
+            }
+            return embeddings;
+        }
+        return null;
+    }
+
+    private static void flatten(final List<?> values, final List<Object> flat) {
+        for (final Object value : values) {
+            if (value instanceof final List<?> list) {
+                flatten(list, flat);
+            } else {
+                flat.add(value);
+            }
+        }
+    }
+}
@@ -15,25 +15,54 @@
  */
 package org.codelibs.fess.multimodal.crawler.extractor;
 
-import static org.codelibs.fess.multimodal.MultiModalConstants.CAS_CLIENT;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_NESTED_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.EMBEDDING_PROVIDER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.INGEST_HANDOFF;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_DEFER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_THUMBNAIL_SIZE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.X_FESS_EMBEDDING;
+import static org.codelibs.fess.multimodal.MultiModalConstants.X_FESS_NESTED_EMBEDDINGS;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.tika.extractor.EmbeddedDocumentExtractor;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.pdf.PDFParserConfig;
+import org.codelibs.core.lang.StringUtil;
 import org.codelibs.fess.crawler.entity.ExtractData;
 import org.codelibs.fess.crawler.extractor.impl.TikaExtractor;
-import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.image.ImageQuarantine;
 import org.codelibs.fess.multimodal.ingest.EmbeddingIngester;
+import org.codelibs.fess.multimodal.spool.EmbeddingSpool;
+import org.codelibs.fess.multimodal.util.EmbeddingHandoff;
 import org.codelibs.fess.multimodal.util.EmbeddingUtil;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.helpers.DefaultHandler;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 
 /**
  * Extractor that extends TikaExtractor to handle image content extraction with embedding generation.
- * This extractor processes images during crawling and generates vector embeddings using the CAS client.
+ * This extractor processes images during crawling and generates vector embeddings using the embedding provider.
+ * When a nested vector field is configured, images embedded in documents such as PDF, DOCX and PPTX
+ * are also extracted and embedded in batches.
+ * When the embedding spool is enabled, images that cannot be embedded are spooled as thumbnails
+ * and embedded later by {@link org.codelibs.fess.multimodal.job.EmbeddingBackfillJob}.
+ * When the quarantine is enabled, images that failed repeatedly are skipped without a request.
+ * When the handoff is enabled, embeddings are passed to the ingester by reference instead of as Base64.
  */
 public class CasExtractor extends TikaExtractor {
 
@@ -46,8 +75,38 @@ public class CasExtractor extends TikaExtractor {
         // Default constructor
     }
 
-    /** CAS client for generating image embeddings. */
-    protected CasClient client;
+    /** Embedding provider for generating image embeddings. */
+    protected EmbeddingProvider client;
+
+    /** Whether images embedded in documents are extracted and embedded. */
+    protected boolean embeddedImageEnabled;
+
+    /** Maximum number of embedded images per document. */
+    protected int maxEmbeddedImages;
+
+    /** Minimum size in bytes of an embedded image, to skip icons and bullets. */
+    protected int minEmbeddedImageBytes;
+
+    /** Maximum size in bytes of an embedded image. */
+    protected int maxEmbeddedImageBytes;
+
+    /** Parser used to walk embedded resources of documents. */
+    protected AutoDetectParser embeddedImageParser;
+
+    /** Spool of images whose embedding failed or is deferred, or null if the spool is disabled. */
+    protected EmbeddingSpool spool;
+
+    /** Whether all images are spooled instead of being embedded during crawling. */
+    protected boolean deferEmbedding;
+
+    /** Maximum width and height of spooled thumbnails. */
+    protected int thumbnailSize;
+
+    /** Quarantine of images that failed repeatedly, or null if the quarantine is disabled. */
+    protected ImageQuarantine quarantine;
+
+    /** Carrier of embeddings to the ingester, or null if embeddings are stored as Base64. */
+    protected EmbeddingHandoff handoff;
 
     @Override
     public int getWeight() {
@@ -56,24 +115,245 @@ public class CasExtractor extends TikaExtractor {
 
     @Override
     /**
-     * Initializes the extractor by calling parent initialization and setting up the CAS client.
+     * Initializes the extractor by calling parent initialization and setting up the embedding provider.
      */
     @PostConstruct
     public void init() {
         super.init();
 
-        client = crawlerContainer.getComponent(CAS_CLIENT);
+        client = crawlerContainer.getComponent(EMBEDDING_PROVIDER);
+
+        embeddedImageEnabled = isEmbeddedImageEnabled();
+        maxEmbeddedImages = Integer.getInteger("clip.image.embedded.max_images", 16);
+        minEmbeddedImageBytes = Integer.getInteger("clip.image.embedded.min_bytes", 2048);
+        maxEmbeddedImageBytes = Integer.getInteger("clip.image.embedded.max_bytes", 10 * 1024 * 1024);
+        if (embeddedImageEnabled) {
+            embeddedImageParser = new AutoDetectParser();
+        }
+        spool = EmbeddingSpool.create();
+        deferEmbedding = Boolean.getBoolean(SPOOL_DEFER);
+        thumbnailSize = Integer.getInteger(SPOOL_THUMBNAIL_SIZE, 448);
+        if (spool != null) {
+            logger.info("Spool images to {}: defer={}", spool.getDirectory(), deferEmbedding);
+        }
+        quarantine = ImageQuarantine.create();
+        handoff = Boolean.getBoolean(INGEST_HANDOFF) ? EmbeddingHandoff.getInstance() : null;
+    }
+
+    /**
+     * Closes the spool so that its active segment can be read by the backfill job,
+     * and saves the failures recorded by the quarantine since its last flush.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (spool != null) {
+            spool.close();
+        }
+        if (quarantine != null) {
+            quarantine.flush();
+        }
+    }
+
+    /**
+     * Registers this extractor for the given MIME types. Document types are only registered
+     * when a nested vector field is configured, so that the default extractors stay in charge otherwise.
+     *
+     * @param keyList MIME types
+     */
+    @Override
+    public void register(final List<String> keyList) {
+        if (isEmbeddedImageEnabled()) {
+            super.register(keyList);
+        } else {
+            super.register(keyList.stream().filter(s -> s.startsWith("image/")).toList());
+        }
+    }
+
+    /**
+     * Checks whether a nested vector field is configured for embeddings of embedded images.
+     *
+     * @return true if embedded images are extracted
+     */
+    protected boolean isEmbeddedImageEnabled() {
+        return StringUtil.isNotBlank(System.getProperty(CONTENT_NESTED_FIELD));
     }
 
     @Override
     public ExtractData getText(final InputStream inputStream, final Map<String, String> params) {
         return getText(inputStream, params, (data, in) -> {
+            final BufferedInputStream bis = new BufferedInputStream(in);
             try {
-                data.putValue(X_FESS_EMBEDDING, EmbeddingUtil.encodeFloatArray(client.getImageEmbedding(in)));
+                if (!isImage(bis)) {
+                    if (embeddedImageEnabled) {
+                        putEmbeddedImageEmbeddings(data, bis);
+                    }
+                    return;
+                }
+                if (spool != null || quarantine != null) {
+                    putImageEmbedding(data, bis.readAllBytes(), params != null ? params.get(ExtractData.URL) : null);
+                    return;
+                }
+                data.putValue(X_FESS_EMBEDDING, encodeEmbedding(client.getImageEmbedding(bis)));
             } catch (final Exception e) {
                 logger.warn("Failed to convert an image to a vector.", e);
             }
         });
     }
 
+    /**
+     * Stores the embedding of an image. Quarantined images are skipped, and failures that are not caused by
+     * the server being unavailable are recorded in the quarantine. If the spool is enabled, the thumbnail
+     * of an image whose embedding is deferred or fails is spooled.
+     *
+     * @param data the extract data to store the embedding into
+     * @param image the image data
+     * @param url the document URL
+     * @throws IOException if the thumbnail cannot be created
+     */
+    protected void putImageEmbedding(final ExtractData data, final byte[] image, final String url) throws IOException {
+        final String digest = quarantine != null ? ImageQuarantine.digest(image) : null;
+        if (digest != null && quarantine.isQuarantined(digest)) {
+            logger.info("Skip the quarantined image of {}.", url);
+            return;
+        }
+        if (spool == null || !deferEmbedding) {
+            try {
+                final float[] embedding = client.getImageEmbedding(new ByteArrayInputStream(image));
+                data.putValue(X_FESS_EMBEDDING, encodeEmbedding(embedding));
+                if (digest != null) {
+                    quarantine.recordSuccess(digest);
+                }
+                return;
+            } catch (final Exception e) {
+                if (digest != null && !client.isTransientFailure(e)) {
+                    quarantine.recordFailure(digest);
+                }
+                if (spool == null) {
+                    logger.warn("Failed to convert an image to a vector.", e);
+                    return;
+                }
+                logger.warn("Failed to convert an image to a vector. Spool {} for the backfill.", url, e);
+            }
+        }
+        if (StringUtil.isBlank(url)) {
+            return;
+        }
+        final byte[] thumbnail = EmbeddingSpool.createThumbnail(image, thumbnailSize);
+        if (thumbnail == null) {
+            logger.warn("Cannot decode the image of {}.", url);
+            return;
+        }
+        spool.append(new EmbeddingSpool.Entry(url, thumbnail, 0));
+    }
+
+    /**
+     * Extracts images embedded in a document and stores their embeddings as nested embeddings.
+     *
+     * @param data the extract data to store embeddings into
+     * @param in the document content
+     */
+    protected void putEmbeddedImageEmbeddings(final ExtractData data, final InputStream in) {
+        final List<byte[]> images = extractEmbeddedImages(in);
+        if (images.isEmpty()) {
+            return;
+        }
+        final List<InputStream> streams = images.stream().map(b -> (InputStream) new ByteArrayInputStream(b)).toList();
+        final String[] values =
+                client.getImageEmbeddings(streams).stream().filter(Objects::nonNull).map(this::encodeEmbedding).toArray(String[]::new);
+        if (logger.isDebugEnabled()) {
+            logger.debug("embedded images: {}, embeddings: {}", images.size(), values.length);
+        }
+        if (values.length > 0) {
+            data.putValues(X_FESS_NESTED_EMBEDDINGS, values);
+        }
+    }
+
+    /**
+     * Encodes an embedding for the metadata, as a handoff reference if the handoff is enabled and not full.
+     *
+     * @param embedding the embedding
+     * @return the reference or the Base64-encoded embedding
+     */
+    protected String encodeEmbedding(final float[] embedding) {
+        if (handoff != null) {
+            final String reference = handoff.put(embedding);
+            if (reference != null) {
+                return reference;
+            }
+            logger.debug("The embedding handoff is full. Fall back to Base64.");
+        }
+        return EmbeddingUtil.encodeFloatArray(embedding);
+    }
+
+    /**
+     * Extracts images embedded in a document, up to the configured number and size limits.
+     *
+     * @param in the document content
+     * @return image data
+     */
+    protected List<byte[]> extractEmbeddedImages(final InputStream in) {
+        final List<byte[]> images = new ArrayList<>();
+        final ParseContext context = new ParseContext();
+        final PDFParserConfig pdfConfig = new PDFParserConfig();
+        pdfConfig.setExtractInlineImages(true);
+        pdfConfig.setExtractUniqueInlineImagesOnly(true);
+        context.set(PDFParserConfig.class, pdfConfig);
+        context.set(EmbeddedDocumentExtractor.class, new EmbeddedDocumentExtractor() {
+            @Override
+            public boolean shouldParseEmbedded(final Metadata metadata) {
+                return images.size() < maxEmbeddedImages;
+            }
+
+            @Override
+            public void parseEmbedded(final InputStream stream, final ContentHandler handler, final Metadata metadata,
+                    final boolean outputHtml) throws IOException {
+                if (images.size() >= maxEmbeddedImages) {
+                    return;
+                }
+                final byte[] bytes = stream.readNBytes(maxEmbeddedImageBytes + 1);
+                if (bytes.length >= minEmbeddedImageBytes && bytes.length <= maxEmbeddedImageBytes && isImage(bytes)) {
+                    images.add(bytes);
+                }
+            }
+        });
+        try {
+            embeddedImageParser.parse(in, new DefaultHandler(), new Metadata(), context);
+        } catch (final Exception e) {
+            logger.warn("Failed to extract embedded images.", e);
+        }
+        return images;
+    }
+
+    /**
+     * Checks whether the stream starts with a GIF, JPEG or PNG signature, without consuming it.
+     *
+     * @param in the stream, which must support mark/reset
+     * @return true if the content is an image
+     * @throws IOException if reading fails
+     */
+    protected boolean isImage(final InputStream in) throws IOException {
+        in.mark(8);
+        try {
+            return isImage(in.readNBytes(8));
+        } finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Checks whether the data starts with a GIF, JPEG or PNG signature.
+     *
+     * @param bytes the data
+     * @return true if the content is an image
+     */
+    protected boolean isImage(final byte[] bytes) {
+        if (bytes.length >= 3 && (bytes[0] & 0xff) == 0xff && (bytes[1] & 0xff) == 0xd8 && (bytes[2] & 0xff) == 0xff) {
+            return true; // JPEG
+        }
+        if (bytes.length >= 8 && (bytes[0] & 0xff) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G') {
+            return true; // PNG
+        }
+        return bytes.length >= 4 && bytes[0] == 'G' && bytes[1] == 'I' && bytes[2] == 'F' && bytes[3] == '8';
+    }
+
 }
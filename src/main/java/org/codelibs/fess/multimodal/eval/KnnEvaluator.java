@@ -0,0 +1,616 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.eval;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.FilterCodec;
+import org.apache.lucene.codecs.KnnVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswScalarQuantizedVectorsFormat;
+import org.apache.lucene.codecs.lucene99.Lucene99HnswVectorsFormat;
+import org.apache.lucene.codecs.perfield.PerFieldKnnVectorsFormat;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.KnnFloatVectorQuery;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * Offline tool that measures recall and latency of HNSW settings on an embedded Lucene index, so that
+ * {@code method}, {@code space_type}, HNSW parameters and quantization can be chosen from data without a cluster.
+ * <p>
+ * Vectors are read from {@code .fvecs} files (little-endian dimension followed by the values, as used by
+ * ANN benchmarks) or from text files with one vector per line. Exact top-k neighbors are computed with a
+ * multithreaded brute-force scan, and each candidate configuration is indexed and queried to report
+ * recall@k, queries per second and the size of the vector files.
+ * </p>
+ * <pre>
+ * java -cp ... org.codelibs.fess.multimodal.eval.KnnEvaluator --corpus corpus.fvecs --queries queries.fvecs \
+ *     --k 10 --space_type cosinesimil \
+ *     --candidate m=16,ef_construction=100,ef_search=100 --candidate m=16,ef_construction=100,ef_search=100,quantization=int7
+ * </pre>
+ */
+public class KnnEvaluator {
+
+    private static final String FIELD = "vector";
+
+    private static final String ORD_FIELD = "ord";
+
+    /** The corpus vectors. */
+    protected final float[][] corpus;
+
+    /** The query vectors. */
+    protected final float[][] queries;
+
+    /** The number of neighbors. */
+    protected final int k;
+
+    /** The similarity function. */
+    protected final VectorSimilarityFunction function;
+
+    /** The number of threads for the brute-force scan and for indexing. */
+    protected final int threads;
+
+    /**
+     * Constructs an evaluator.
+     *
+     * @param corpus the corpus vectors
+     * @param queries the query vectors
+     * @param k the number of neighbors
+     * @param spaceType the space type of the k-NN plugin (l2, cosinesimil or innerproduct)
+     * @param threads the number of threads
+     */
+    public KnnEvaluator(final float[][] corpus, final float[][] queries, final int k, final String spaceType, final int threads) {
+        if (corpus.length == 0 || queries.length == 0) {
+            throw new IllegalArgumentException("corpus and queries must not be empty.");
+        }
+        if (corpus[0].length != queries[0].length) {
+            throw new IllegalArgumentException("corpus dimension " + corpus[0].length + " differs from query dimension " + queries[0].length);
+        }
+        this.corpus = corpus;
+        this.queries = queries;
+        this.k = k;
+        function = toSimilarityFunction(spaceType);
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Converts a space type of the k-NN plugin to the Lucene similarity function.
+     *
+     * @param spaceType the space type
+     * @return the similarity function
+     */
+    public static VectorSimilarityFunction toSimilarityFunction(final String spaceType) {
+        switch (spaceType) {
+        case "l2":
+            return VectorSimilarityFunction.EUCLIDEAN;
+        case "cosinesimil":
+            return VectorSimilarityFunction.COSINE;
+        case "innerproduct":
+            return VectorSimilarityFunction.MAXIMUM_INNER_PRODUCT;
+        default:
+            throw new IllegalArgumentException("Unsupported space type: " + spaceType);
+        }
+    }
+
+    /**
+     * Computes the exact top-k neighbors of every query by scanning the whole corpus in parallel.
+     *
+     * @return the corpus ordinals of the neighbors of each query, best first
+     * @throws InterruptedException if the computation is interrupted
+     */
+    public int[][] groundTruth() throws InterruptedException {
+        final int[][] truth = new int[queries.length][];
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            final int chunk = (queries.length + threads - 1) / threads;
+            for (int start = 0; start < queries.length; start += chunk) {
+                final int from = start;
+                final int to = Math.min(start + chunk, queries.length);
+                futures.add(executor.submit(() -> {
+                    for (int q = from; q < to; q++) {
+                        truth[q] = exactTopK(queries[q]);
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final ExecutionException e) {
+            throw new IllegalStateException("Failed to compute the ground truth.", e.getCause());
+        } finally {
+            executor.shutdown();
+        }
+        return truth;
+    }
+
+    /**
+     * Finds the exact top-k neighbors of a query.
+     *
+     * @param query the query vector
+     * @return the corpus ordinals, best first
+     */
+    protected int[] exactTopK(final float[] query) {
+        final int size = Math.min(k, corpus.length);
+        // min-heap on score, so the worst of the current top k is at the root
+        final int[] ords = new int[size];
+        final float[] scores = new float[size];
+        int count = 0;
+        for (int i = 0; i < corpus.length; i++) {
+            final float score = function.compare(query, corpus[i]);
+            if (count < size) {
+                ords[count] = i;
+                scores[count] = score;
+                siftUp(ords, scores, count++);
+            } else if (score > scores[0]) {
+                ords[0] = i;
+                scores[0] = score;
+                siftDown(ords, scores, size);
+            }
+        }
+        final int[] result = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            result[i] = ords[0];
+            ords[0] = ords[i];
+            scores[0] = scores[i];
+            siftDown(ords, scores, i);
+        }
+        return result;
+    }
+
+    private static void siftUp(final int[] ords, final float[] scores, int index) {
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(ords, scores, parent, index);
+            index = parent;
+        }
+    }
+
+    private static void siftDown(final int[] ords, final float[] scores, final int size) {
+        int index = 0;
+        while (true) {
+            final int left = index * 2 + 1;
+            if (left >= size) {
+                return;
+            }
+            final int child = left + 1 < size && scores[left + 1] < scores[left] ? left + 1 : left;
+            if (scores[index] <= scores[child]) {
+                return;
+            }
+            swap(ords, scores, index, child);
+            index = child;
+        }
+    }
+
+    private static void swap(final int[] ords, final float[] scores, final int a, final int b) {
+        final int ord = ords[a];
+        ords[a] = ords[b];
+        ords[b] = ord;
+        final float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+
+    /**
+     * Indexes the corpus with the candidate configuration and measures recall and latency.
+     *
+     * @param candidate the configuration
+     * @param truth the exact neighbors
+     * @param workDir the directory for the index
+     * @return the result
+     * @throws IOException if the index cannot be written or read
+     */
+    public Result evaluate(final Candidate candidate, final int[][] truth, final Path workDir) throws IOException {
+        final Path indexPath = Files.createTempDirectory(workDir, "knn-eval");
+        try (Directory directory = FSDirectory.open(indexPath)) {
+            final long buildStart = System.nanoTime();
+            final IndexWriterConfig config = new IndexWriterConfig().setCodec(createCodec(candidate)).setRAMBufferSizeMB(256);
+            try (IndexWriter writer = new IndexWriter(directory, config)) {
+                for (int i = 0; i < corpus.length; i++) {
+                    final Document doc = new Document();
+                    doc.add(new KnnFloatVectorField(FIELD, corpus[i], function));
+                    doc.add(new NumericDocValuesField(ORD_FIELD, i));
+                    writer.addDocument(doc);
+                }
+                writer.forceMerge(1);
+            }
+            final long buildMillis = (System.nanoTime() - buildStart) / 1_000_000;
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                final IndexSearcher searcher = new IndexSearcher(reader);
+                final int[] docToOrd = loadOrds(reader);
+                final int numCandidates = Math.max(k, candidate.efSearch);
+                // warm up the graph and the JIT before measuring
+                for (int q = 0; q < Math.min(queries.length, 100); q++) {
+                    searcher.search(new KnnFloatVectorQuery(FIELD, queries[q], numCandidates), k);
+                }
+                final int[][] results = new int[queries.length][];
+                final long searchStart = System.nanoTime();
+                for (int q = 0; q < queries.length; q++) {
+                    final TopDocs topDocs = searcher.search(new KnnFloatVectorQuery(FIELD, queries[q], numCandidates), k);
+                    final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+                    results[q] = new int[scoreDocs.length];
+                    for (int i = 0; i < scoreDocs.length; i++) {
+                        results[q][i] = docToOrd[scoreDocs[i].doc];
+                    }
+                }
+                final long searchNanos = System.nanoTime() - searchStart;
+                return new Result(candidate, recall(truth, results, k), queries.length * 1_000_000_000.0 / searchNanos, buildMillis,
+                        fileSizes(indexPath));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(indexPath)) {
+                for (final Path file : files.sorted((a, b) -> b.compareTo(a)).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a codec that writes the vector field with the candidate HNSW settings.
+     *
+     * @param candidate the configuration
+     * @return the codec
+     */
+    protected Codec createCodec(final Candidate candidate) {
+        final KnnVectorsFormat format;
+        switch (candidate.quantization) {
+        case "none":
+            format = new Lucene99HnswVectorsFormat(candidate.m, candidate.efConstruction);
+            break;
+        case "int7":
+            format = new Lucene99HnswScalarQuantizedVectorsFormat(candidate.m, candidate.efConstruction, 1, 7, false, null, null);
+            break;
+        case "int4":
+            format = new Lucene99HnswScalarQuantizedVectorsFormat(candidate.m, candidate.efConstruction, 1, 4, true, null, null);
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported quantization: " + candidate.quantization);
+        }
+        final Codec delegate = Codec.getDefault();
+        return new FilterCodec(delegate.getName(), delegate) {
+            private final KnnVectorsFormat knnVectorsFormat = new PerFieldKnnVectorsFormat() {
+                @Override
+                public KnnVectorsFormat getKnnVectorsFormatForField(final String field) {
+                    return format;
+                }
+            };
+
+            @Override
+            public KnnVectorsFormat knnVectorsFormat() {
+                return knnVectorsFormat;
+            }
+        };
+    }
+
+    private static int[] loadOrds(final DirectoryReader reader) throws IOException {
+        final int[] docToOrd = new int[reader.maxDoc()];
+        for (final LeafReaderContext context : reader.leaves()) {
+            final NumericDocValues values = context.reader().getNumericDocValues(ORD_FIELD);
+            for (int doc = values.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = values.nextDoc()) {
+                docToOrd[context.docBase + doc] = (int) values.longValue();
+            }
+        }
+        return docToOrd;
+    }
+
+    private static Map<String, Long> fileSizes(final Path indexPath) throws IOException {
+        final Map<String, Long> sizes = new TreeMap<>();
+        try (Stream<Path> files = Files.list(indexPath)) {
+            for (final Path file : files.toList()) {
+                final String name = file.getFileName().toString();
+                final int dot = name.lastIndexOf('.');
+                sizes.merge(dot >= 0 ? name.substring(dot + 1) : name, Files.size(file), Long::sum);
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Computes the mean recall@k of the results against the exact neighbors.
+     *
+     * @param truth the exact neighbors
+     * @param results the approximate neighbors
+     * @param k the number of neighbors
+     * @return the recall between 0 and 1
+     */
+    public static double recall(final int[][] truth, final int[][] results, final int k) {
+        double total = 0;
+        for (int q = 0; q < truth.length; q++) {
+            final int size = Math.min(k, truth[q].length);
+            final int[] expected = Arrays.copyOf(truth[q], size);
+            Arrays.sort(expected);
+            int hits = 0;
+            for (int i = 0; i < Math.min(k, results[q].length); i++) {
+                if (Arrays.binarySearch(expected, results[q][i]) >= 0) {
+                    hits++;
+                }
+            }
+            total += size == 0 ? 1 : (double) hits / size;
+        }
+        return total / truth.length;
+    }
+
+    /**
+     * Reads vectors from an {@code .fvecs} file or a text file with one comma or whitespace separated vector per line.
+     *
+     * @param path the file
+     * @return the vectors
+     * @throws IOException if the file cannot be read
+     */
+    public static float[][] readVectors(final Path path) throws IOException {
+        final List<float[]> vectors = new ArrayList<>();
+        if (path.getFileName().toString().endsWith(".fvecs")) {
+            try (InputStream in = Files.newInputStream(path)) {
+                final ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+                while (in.readNBytes(header.array(), 0, 4) == 4) {
+                    final int dimension = header.getInt(0);
+                    final ByteBuffer buffer = ByteBuffer.wrap(in.readNBytes(dimension * 4)).order(ByteOrder.LITTLE_ENDIAN);
+                    if (buffer.capacity() != dimension * 4) {
+                        throw new IOException("Truncated vector " + vectors.size() + " in " + path);
+                    }
+                    final float[] vector = new float[dimension];
+                    buffer.asFloatBuffer().get(vector);
+                    vectors.add(vector);
+                }
+            }
+        } else {
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    final String[] values = line.split("[,\\s]+");
+                    final float[] vector = new float[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        vector[i] = Float.parseFloat(values[i]);
+                    }
+                    vectors.add(vector);
+                }
+            }
+        }
+        return vectors.toArray(new float[vectors.size()][]);
+    }
+
+    /**
+     * Runs the evaluation from the command line.
+     *
+     * @param args {@code --corpus file --queries file [--k 10] [--space_type l2] [--threads n] [--work_dir dir] --candidate spec...}
+     * @throws Exception if the evaluation fails
+     */
+    public static void main(final String[] args) throws Exception {
+        String corpusFile = null;
+        String queriesFile = null;
+        int k = 10;
+        String spaceType = "l2";
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path workDir = Paths.get(System.getProperty("java.io.tmpdir"));
+        final List<Candidate> candidates = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+            case "--corpus":
+                corpusFile = args[i + 1];
+                break;
+            case "--queries":
+                queriesFile = args[i + 1];
+                break;
+            case "--k":
+                k = Integer.parseInt(args[i + 1]);
+                break;
+            case "--space_type":
+                spaceType = args[i + 1];
+                break;
+            case "--threads":
+                threads = Integer.parseInt(args[i + 1]);
+                break;
+            case "--work_dir":
+                workDir = Paths.get(args[i + 1]);
+                break;
+            case "--candidate":
+                candidates.add(Candidate.parse(args[i + 1]));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (corpusFile == null || queriesFile == null) {
+            throw new IllegalArgumentException("--corpus and --queries are required.");
+        }
+        if (candidates.isEmpty()) {
+            candidates.add(Candidate.parse(""));
+        }
+
+        final PrintStream out = System.out;
+        final KnnEvaluator evaluator =
+                new KnnEvaluator(readVectors(Paths.get(corpusFile)), readVectors(Paths.get(queriesFile)), k, spaceType, threads);
+        final long start = System.nanoTime();
+        final int[][] truth = evaluator.groundTruth();
+        out.printf(Locale.ROOT, "corpus=%d, queries=%d, dimension=%d, k=%d, space_type=%s, ground truth in %d ms%n",
+                evaluator.corpus.length, evaluator.queries.length, evaluator.corpus[0].length, k, spaceType,
+                (System.nanoTime() - start) / 1_000_000);
+        for (final Candidate candidate : candidates) {
+            out.println(evaluator.evaluate(candidate, truth, workDir));
+        }
+    }
+
+    /**
+     * HNSW configuration to evaluate.
+     */
+    public static class Candidate {
+
+        /** The maximum number of connections per node (m). */
+        protected int m = 16;
+
+        /** The beam width used while building the graph (ef_construction). */
+        protected int efConstruction = 100;
+
+        /** The number of candidates visited while searching (ef_search). */
+        protected int efSearch = 100;
+
+        /** The quantization: none, int7 or int4. */
+        protected String quantization = "none";
+
+        /**
+         * Parses a configuration such as {@code m=16,ef_construction=100,ef_search=100,quantization=int7}.
+         * Omitted parameters keep their defaults.
+         *
+         * @param spec the configuration
+         * @return the candidate
+         */
+        public static Candidate parse(final String spec) {
+            final Candidate candidate = new Candidate();
+            for (final String param : spec.split(",")) {
+                if (param.isBlank()) {
+                    continue;
+                }
+                final String[] pair = param.split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Invalid parameter: " + param);
+                }
+                final String value = pair[1].trim();
+                switch (pair[0].trim()) {
+                case "m":
+                    candidate.m = Integer.parseInt(value);
+                    break;
+                case "ef_construction":
+                    candidate.efConstruction = Integer.parseInt(value);
+                    break;
+                case "ef_search":
+                    candidate.efSearch = Integer.parseInt(value);
+                    break;
+                case "quantization":
+                    candidate.quantization = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter: " + pair[0]);
+                }
+            }
+            return candidate;
+        }
+
+        @Override
+        public String toString() {
+            return "m=" + m + ",ef_construction=" + efConstruction + ",ef_search=" + efSearch + ",quantization=" + quantization;
+        }
+    }
+
+    /**
+     * Measurements of a candidate configuration.
+     */
+    public static class Result {
+
+        private final Candidate candidate;
+
+        private final double recall;
+
+        private final double qps;
+
+        private final long buildMillis;
+
+        private final Map<String, Long> fileSizes;
+
+        /**
+         * Constructs a result.
+         *
+         * @param candidate the configuration
+         * @param recall the mean recall@k
+         * @param qps the queries per second of a single thread
+         * @param buildMillis the indexing and merge time in milliseconds
+         * @param fileSizes the index size in bytes per file extension
+         */
+        public Result(final Candidate candidate, final double recall, final double qps, final long buildMillis,
+                final Map<String, Long> fileSizes) {
+            this.candidate = candidate;
+            this.recall = recall;
+            this.qps = qps;
+            this.buildMillis = buildMillis;
+            this.fileSizes = fileSizes;
+        }
+
+        /**
+         * Gets the mean recall@k.
+         *
+         * @return the recall between 0 and 1
+         */
+        public double getRecall() {
+            return recall;
+        }
+
+        /**
+         * Gets the queries per second of a single thread.
+         *
+         * @return the throughput
+         */
+        public double getQps() {
+            return qps;
+        }
+
+        /**
+         * Gets the index size in bytes per file extension, such as vec (raw vectors), vex (graph) and veq (quantized vectors).
+         *
+         * @return the file sizes
+         */
+        public Map<String, Long> getFileSizes() {
+            return fileSizes;
+        }
+
+        @Override
+        public String toString() {
+            final long total = fileSizes.values().stream().mapToLong(Long::longValue).sum();
+            return String.format(Locale.ROOT, "%s: recall=%.4f, qps=%.1f, build=%d ms, index=%d bytes %s", candidate, recall, qps,
+                    buildMillis, total, fileSizes);
+        }
+    }
+}
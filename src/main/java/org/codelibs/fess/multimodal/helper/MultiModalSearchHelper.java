@@ -17,18 +17,56 @@ package org.codelibs.fess.multimodal.helper;
 
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_DIMENSION;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_ENGINE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_EXCLUDE_FROM_RESPONSE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_FIELD;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_NESTED_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SOURCE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SPACE_TYPE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.DEFAULT_CONTENT_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.EMBEDDING_PROVIDER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_EF_SEARCH;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_FILTER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_MAX_DISTANCE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_NPROBES;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_OVERSAMPLE_FACTOR;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_RADIAL;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_RADIAL_MAX_RESULTS;
 import static org.codelibs.fess.multimodal.MultiModalConstants.MIN_SCORE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.NESTED_VECTOR_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUERY_EMBEDDING_PROVIDER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_FIELD;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.QueryContext;
+import org.codelibs.fess.entity.SearchRequestParams;
+import org.codelibs.fess.entity.SearchRequestParams.SearchRequestType;
+import org.codelibs.fess.helper.QueryFieldConfig;
+import org.codelibs.fess.multimodal.query.MultiModalQueryBuilder;
+import org.codelibs.fess.multimodal.rank.fusion.MultiModalSearcher.SearchContext;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.multimodal.util.FieldPrefixMatcher;
+import org.codelibs.fess.mylasta.direction.FessConfig;
 import org.codelibs.fess.opensearch.client.SearchEngineClient;
 import org.codelibs.fess.query.parser.QueryParser;
 import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 
 import com.google.common.base.CharMatcher;
 
@@ -37,6 +75,9 @@ import jakarta.annotation.PostConstruct;
 /**
  * Helper class for configuring and managing multimodal search functionality.
  * Handles vector field configuration, query rewriting, and OpenSearch mapping setup.
+ * Vector fields are removed from the fields fetched for search responses, and can be kept out of {@code _source}
+ * with {@code fess.multimodal.content.source}, because each hit would otherwise carry kilobytes of floats
+ * that Fess does not use.
  */
 public class MultiModalSearchHelper {
     private static final Logger logger = LogManager.getLogger(MultiModalSearchHelper.class);
@@ -48,11 +89,42 @@ public class MultiModalSearchHelper {
         // Default constructor
     }
 
+    /** The source mode that stores vectors in _source. */
+    protected static final String SOURCE_STORED = "stored";
+
+    /** The source mode that reconstructs vectors for _source from the vector format. */
+    protected static final String SOURCE_DERIVED = "derived";
+
+    /** The source mode that excludes vectors from _source. */
+    protected static final String SOURCE_EXCLUDED = "excluded";
+
     /** Minimum score threshold for search results. */
     protected Float minScore;
 
     private String vectorField;
 
+    private String nestedVectorField;
+
+    private boolean knnFilterEnabled;
+
+    private boolean radialSearch;
+
+    private Float maxDistance;
+
+    private int radialMaxResults;
+
+    private Map<SearchRequestType, Integer> efSearchMap = new EnumMap<>(SearchRequestType.class);
+
+    private Map<SearchRequestType, Integer> nprobesMap = new EnumMap<>(SearchRequestType.class);
+
+    private Map<SearchRequestType, Float> oversampleFactorMap = new EnumMap<>(SearchRequestType.class);
+
+    private volatile FieldPrefixMatcher fieldMatcher;
+
+    private String queryEmbeddingProvider = EMBEDDING_PROVIDER;
+
+    private VectorReducer vectorReducer;
+
     /**
      * Initializes the multimodal search helper by configuring OpenSearch mappings,
      * setting up query filters, and loading configuration parameters.
@@ -61,8 +133,14 @@ public class MultiModalSearchHelper {
     public void init() {
         final SearchEngineClient client = ComponentUtil.getSearchEngineClient();
         client.addDocumentSettingRewriteRule(s -> s.replace("\"codec\":", "\"knn\": true,\"codec\":"));
+        if (SOURCE_DERIVED.equals(getSourceMode())) {
+            // vectors are reconstructed from the vector format instead of being stored in _source
+            client.addDocumentSettingRewriteRule(s -> s.replace("\"codec\":", "\"knn.derived_source.enabled\": true,\"codec\":"));
+        }
         client.addDocumentMappingRewriteRule(s -> {
-            final String dimension = System.getProperty(CONTENT_DIMENSION); // ex. 512
+            // reduced vectors are indexed, so the mapping has the dimension of the reducer
+            final String dimension = vectorReducer != null ? String.valueOf(vectorReducer.getOutputDimension())
+                    : System.getProperty(CONTENT_DIMENSION); // ex. 512
             final String method = System.getProperty(CONTENT_METHOD); // ex. hnsw
             final String engine = System.getProperty(CONTENT_ENGINE); // ex. lucene
             final String spaceType = System.getProperty(CONTENT_SPACE_TYPE, "l2"); // ex. l2
@@ -74,16 +152,30 @@ public class MultiModalSearchHelper {
                     || StringUtil.isBlank(engine)) {
                 return s;
             }
-            return s.replace("\"content\":", "\"" + vectorField + "\": {\n" //
-                    + "  \"type\": \"knn_vector\",\n" //
-                    + "  \"dimension\": " + dimension + ",\n" //
-                    + "  \"method\": {\n" //
-                    + "    \"name\": \"" + method + "\",\n" //
-                    + "    \"engine\": \"" + engine + "\",\n" //
-                    + "    \"space_type\": \"" + spaceType + "\"\n" //
-                    + "  }\n" //
-                    + "},\n" //
-                    + "\"content\":");
+            final StringBuilder buf = new StringBuilder();
+            buf.append('"').append(vectorField).append("\": ");
+            appendVectorMapping(buf, dimension, method, engine, spaceType, "");
+            buf.append(",\n");
+            final String reembedField = System.getProperty(REEMBED_FIELD);
+            if (StringUtil.isNotBlank(reembedField) && !reembedField.trim().equals(vectorField)) {
+                buf.append('"').append(reembedField.trim()).append("\": ");
+                appendVectorMapping(buf, System.getProperty(REEMBED_DIMENSION, dimension), method, engine, spaceType, "");
+                buf.append(",\n");
+            }
+            if (StringUtil.isNotBlank(nestedVectorField)) {
+                buf.append('"').append(nestedVectorField).append("\": {\n") //
+                        .append("  \"type\": \"nested\",\n") //
+                        .append("  \"properties\": {\n") //
+                        .append("    \"").append(NESTED_VECTOR_FIELD).append("\": ");
+                appendVectorMapping(buf, dimension, method, engine, spaceType, "    ");
+                buf.append("\n  }\n},\n");
+            }
+            buf.append("\"content\":");
+            final String mapping = s.replace("\"content\":", buf.toString());
+            if (SOURCE_EXCLUDED.equals(getSourceMode())) {
+                return excludeVectorSource(mapping);
+            }
+            return mapping;
         });
 
         if (ComponentUtil.hasQueryParser()) {
@@ -92,7 +184,155 @@ public class MultiModalSearchHelper {
         }
 
         load();
-        ComponentUtil.getSystemHelper().addUpdateConfigListener("MultiModalSearch", this::load);
+        excludeVectorResponseFields();
+        warnVectorSourceExcluded();
+        ComponentUtil.getSystemHelper().addUpdateConfigListener("MultiModalSearch", () -> {
+            final String result = load();
+            excludeVectorResponseFields();
+            return result;
+        });
+    }
+
+    /**
+     * Gets how vectors are kept in {@code _source}.
+     *
+     * @return {@code stored}, {@code derived} or {@code excluded}
+     */
+    protected String getSourceMode() {
+        final String value = System.getProperty(CONTENT_SOURCE, SOURCE_STORED).trim().toLowerCase(Locale.ROOT);
+        if (SOURCE_STORED.equals(value) || SOURCE_DERIVED.equals(value) || SOURCE_EXCLUDED.equals(value)) {
+            return value;
+        }
+        logger.warn("Unknown {}={}. Vectors are stored in _source.", CONTENT_SOURCE, value);
+        return SOURCE_STORED;
+    }
+
+    /**
+     * Checks whether vectors are excluded from {@code _source}. Every partial update then drops the vectors
+     * of the updated document, because OpenSearch rebuilds the document from {@code _source}.
+     *
+     * @return true if the source mode is {@code excluded}
+     */
+    public boolean isVectorSourceExcluded() {
+        return SOURCE_EXCLUDED.equals(getSourceMode());
+    }
+
+    /**
+     * Warns that the click count and favorite updates of Fess drop vectors if they are excluded from {@code _source}.
+     */
+    protected void warnVectorSourceExcluded() {
+        if (!isVectorSourceExcluded()) {
+            return;
+        }
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        if (fessConfig.isSearchLog() || fessConfig.isUserFavorite()) {
+            logger.warn("Vectors are excluded from _source, so click count and favorite updates remove the vectors of clicked"
+                    + " and favorite documents from vector search. Set {}={} or disable search.log and user.favorite.", CONTENT_SOURCE,
+                    SOURCE_DERIVED);
+        }
+    }
+
+    /**
+     * Adds the vector fields to the {@code _source} excludes of a document mapping. The vectors are still indexed,
+     * but partial updates and reindexing cannot copy them, so they have to be written again afterwards.
+     *
+     * @param mapping the document mapping
+     * @return the mapping that excludes vectors from {@code _source}
+     */
+    protected String excludeVectorSource(final String mapping) {
+        final int start = mapping.indexOf('{');
+        if (start < 0 || mapping.contains("\"_source\"")) {
+            logger.warn("Skip excluding vectors from _source because the mapping already has _source settings.");
+            return mapping;
+        }
+        final StringBuilder buf = new StringBuilder(mapping.length() + 100);
+        buf.append(mapping, 0, start + 1).append("\n\"_source\": {\n  \"excludes\": [");
+        final List<String> fields = getVectorSourcePaths();
+        for (int i = 0; i < fields.size(); i++) {
+            buf.append(i == 0 ? "" : ", ").append('"').append(fields.get(i)).append('"');
+        }
+        buf.append("]\n},").append(mapping, start + 1, mapping.length());
+        return buf.toString();
+    }
+
+    /**
+     * Gets the {@code _source} paths of vectors.
+     *
+     * @return the paths of the vector field, the re-embedding field and the vectors of the nested field
+     */
+    protected List<String> getVectorSourcePaths() {
+        final List<String> paths = new ArrayList<>();
+        paths.add(vectorField);
+        final String reembedField = System.getProperty(REEMBED_FIELD);
+        if (StringUtil.isNotBlank(reembedField) && !reembedField.trim().equals(vectorField)) {
+            paths.add(reembedField.trim());
+        }
+        if (StringUtil.isNotBlank(nestedVectorField)) {
+            paths.add(nestedVectorField + "." + NESTED_VECTOR_FIELD);
+        }
+        return paths;
+    }
+
+    /**
+     * Removes vector fields from the response, scroll and cache fields, so that fetched hits do not carry vectors
+     * even if they were added to the additional response fields.
+     */
+    protected void excludeVectorResponseFields() {
+        if (!Boolean.parseBoolean(System.getProperty(CONTENT_EXCLUDE_FROM_RESPONSE, Boolean.TRUE.toString()).trim())) {
+            return;
+        }
+        final QueryFieldConfig queryFieldConfig = ComponentUtil.getQueryFieldConfig();
+        queryFieldConfig.setResponseFields(removeVectorFields(queryFieldConfig.getResponseFields()));
+        queryFieldConfig.setScrollResponseFields(removeVectorFields(queryFieldConfig.getScrollResponseFields()));
+        queryFieldConfig.setCacheResponseFields(removeVectorFields(queryFieldConfig.getCacheResponseFields()));
+    }
+
+    /**
+     * Removes vector fields from fetched fields.
+     *
+     * @param fields the fetched fields
+     * @return the fields without vector fields, or the given array if it has none
+     */
+    protected String[] removeVectorFields(final String[] fields) {
+        if (fields == null) {
+            return null;
+        }
+        final List<String> paths = getVectorSourcePaths();
+        if (StringUtil.isNotBlank(nestedVectorField)) {
+            // the nested field has no other properties than the vector
+            paths.add(nestedVectorField);
+        }
+        final String[] values = Arrays.stream(fields).filter(f -> !paths.contains(f)).toArray(String[]::new);
+        if (values.length == fields.length) {
+            return fields;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Removed vector fields from {} to {}", Arrays.toString(fields), Arrays.toString(values));
+        }
+        return values;
+    }
+
+    /**
+     * Appends a knn_vector field definition.
+     *
+     * @param buf the buffer to append to
+     * @param dimension the vector dimension
+     * @param method the KNN method name
+     * @param engine the KNN engine name
+     * @param spaceType the space type
+     * @param indent the indentation of nested lines
+     */
+    protected void appendVectorMapping(final StringBuilder buf, final String dimension, final String method, final String engine,
+            final String spaceType, final String indent) {
+        buf.append("{\n") //
+                .append(indent).append("  \"type\": \"knn_vector\",\n") //
+                .append(indent).append("  \"dimension\": ").append(dimension).append(",\n") //
+                .append(indent).append("  \"method\": {\n") //
+                .append(indent).append("    \"name\": \"").append(method).append("\",\n") //
+                .append(indent).append("    \"engine\": \"").append(engine).append("\",\n") //
+                .append(indent).append("    \"space_type\": \"").append(spaceType).append("\"\n") //
+                .append(indent).append("  }\n") //
+                .append(indent).append("}");
     }
 
     /**
@@ -107,6 +347,27 @@ public class MultiModalSearchHelper {
         vectorField = System.getProperty(CONTENT_FIELD, DEFAULT_CONTENT_FIELD).trim(); // ex. content_vector
         buf.append(vectorField);
 
+        final String nestedFieldValue = System.getProperty(CONTENT_NESTED_FIELD);
+        if (StringUtil.isNotBlank(nestedFieldValue)) {
+            nestedVectorField = nestedFieldValue.trim(); // ex. content_vectors
+            buf.append(", nested_field=").append(nestedVectorField);
+        } else {
+            nestedVectorField = null;
+        }
+
+        final String knnFilterValue = System.getProperty(KNN_FILTER);
+        if (StringUtil.isNotBlank(knnFilterValue)) {
+            knnFilterEnabled = Boolean.parseBoolean(knnFilterValue.trim());
+        } else {
+            // nmslib does not support filters in KNN queries
+            knnFilterEnabled = !"nmslib".equals(System.getProperty(CONTENT_ENGINE));
+        }
+        buf.append(", knn_filter=").append(knnFilterEnabled);
+
+        efSearchMap = loadPerRequestType(KNN_EF_SEARCH, Integer::valueOf, buf);
+        nprobesMap = loadPerRequestType(KNN_NPROBES, Integer::valueOf, buf);
+        oversampleFactorMap = loadPerRequestType(KNN_OVERSAMPLE_FACTOR, Float::valueOf, buf);
+
         buf.append(", min_score=");
         final String minScoreValue = System.getProperty(MIN_SCORE);
         if (StringUtil.isNotBlank(minScoreValue)) {
@@ -121,9 +382,168 @@ public class MultiModalSearchHelper {
             minScore = null;
         }
 
+        final String maxDistanceValue = System.getProperty(KNN_MAX_DISTANCE);
+        maxDistance = null;
+        if (StringUtil.isNotBlank(maxDistanceValue)) {
+            try {
+                maxDistance = Float.valueOf(maxDistanceValue.trim());
+                buf.append(", max_distance=").append(maxDistance);
+            } catch (final NumberFormatException e) {
+                logger.warn("Failed to parse {}={}.", KNN_MAX_DISTANCE, maxDistanceValue, e);
+            }
+        }
+
+        radialSearch = Boolean.parseBoolean(System.getProperty(KNN_RADIAL));
+        radialMaxResults = Math.max(1, Integer.getInteger(KNN_RADIAL_MAX_RESULTS, 1000));
+        if (radialSearch && minScore == null && maxDistance == null) {
+            logger.warn("{} requires {} or {}. Searching k nearest neighbors instead.", KNN_RADIAL, KNN_MAX_DISTANCE, MIN_SCORE);
+            radialSearch = false;
+        }
+        if (radialSearch && minScore != null && maxDistance != null) {
+            logger.info("{} is used as the threshold of radial searches, and {} only as the minimum score of results.", KNN_MAX_DISTANCE,
+                    MIN_SCORE);
+        }
+        if (radialSearch) {
+            buf.append(", radial_max_results=").append(radialMaxResults);
+        }
+
+        final String queryEmbeddingProviderValue = System.getProperty(QUERY_EMBEDDING_PROVIDER);
+        if (StringUtil.isNotBlank(queryEmbeddingProviderValue)) {
+            queryEmbeddingProvider = queryEmbeddingProviderValue.trim(); // ex. queryEmbeddingProvider
+            buf.append(", query_embedding_provider=").append(queryEmbeddingProvider);
+        } else {
+            queryEmbeddingProvider = EMBEDDING_PROVIDER;
+        }
+
+        vectorReducer = VectorReducer.create();
+        if (vectorReducer != null) {
+            buf.append(", reduce=").append(vectorReducer.getInputDimension()).append("->").append(vectorReducer.getOutputDimension());
+        }
+
+        // search fields may have changed with the config, so the matcher is compiled again on the next query
+        fieldMatcher = null;
+
         return buf.toString();
     }
 
+    /**
+     * Loads a numeric setting for each request type. A property with the lower-case type appended, such as
+     * {@code fess.multimodal.knn.ef_search.json}, takes precedence over the property without it.
+     *
+     * @param <T> the value type
+     * @param key the property key
+     * @param parser the value parser
+     * @param buf the summary to append configured properties to
+     * @return the values by request type, without entries for unset types
+     */
+    protected <T extends Number> Map<SearchRequestType, T> loadPerRequestType(final String key, final Function<String, T> parser,
+            final StringBuilder buf) {
+        final Map<SearchRequestType, T> map = new EnumMap<>(SearchRequestType.class);
+        final T defaultValue = parseNumber(key, parser, buf);
+        for (final SearchRequestType type : SearchRequestType.values()) {
+            final T value = parseNumber(key + "." + type.name().toLowerCase(Locale.ROOT), parser, buf);
+            if (value != null) {
+                map.put(type, value);
+            } else if (defaultValue != null) {
+                map.put(type, defaultValue);
+            }
+        }
+        return map;
+    }
+
+    private <T extends Number> T parseNumber(final String key, final Function<String, T> parser, final StringBuilder buf) {
+        final String value = System.getProperty(key);
+        if (StringUtil.isBlank(value)) {
+            return null;
+        }
+        try {
+            final T number = parser.apply(value.trim());
+            buf.append(", ").append(key.substring(key.indexOf("knn.") + 4)).append('=').append(number);
+            return number;
+        } catch (final NumberFormatException e) {
+            logger.warn("Failed to parse {}={}.", key, value, e);
+            return null;
+        }
+    }
+
+    /**
+     * Builds the filter of KNN queries from the role, label and virtual host filters of the request, so that
+     * the engine searches only matching documents instead of dropping them from the top k afterwards.
+     * Fess still applies its own filters to the whole query, so this filter only has to be equal to or looser than them.
+     *
+     * @param context the query context
+     * @param params the search request parameters
+     * @return the filter, or null if there is nothing to filter or KNN filters are disabled
+     */
+    public QueryBuilder buildKnnFilter(final QueryContext context, final SearchRequestParams params) {
+        if (!knnFilterEnabled) {
+            return null;
+        }
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final Map<String, Collection<String>> termsByField = new LinkedHashMap<>();
+        if (context.roleQueryEnabled()) {
+            final Set<String> roleSet = ComponentUtil.getRoleQueryHelper().build(params.getType());
+            if (!roleSet.isEmpty()) {
+                termsByField.put(fessConfig.getIndexFieldRole(), roleSet);
+            }
+        }
+        final Map<String, String[]> fields = params.getFields();
+        if (fields != null) {
+            final String[] labels = fields.get(fessConfig.getIndexFieldLabel());
+            if (labels != null && labels.length > 0) {
+                termsByField.put(fessConfig.getIndexFieldLabel(), Arrays.asList(labels));
+            }
+        }
+        final String virtualHostKey = ComponentUtil.getVirtualHostHelper().getVirtualHostKey();
+        if (StringUtil.isNotBlank(virtualHostKey)) {
+            termsByField.put(fessConfig.getIndexFieldVirtualHost(), Set.of(virtualHostKey));
+        }
+        return createKnnFilter(termsByField);
+    }
+
+    /**
+     * Creates the multimodal query for a text in the default field with the settings of a search context,
+     * which were taken when the search started.
+     *
+     * @param searchContext the search context
+     * @param context the query context
+     * @param text the query text
+     * @return the multimodal query
+     */
+    public MultiModalQueryBuilder createQueryBuilder(final SearchContext searchContext, final QueryContext context, final String text) {
+        final SearchRequestParams params = searchContext.getParams();
+        final boolean radial = searchContext.isRadial();
+        return new MultiModalQueryBuilder.Builder().field(searchContext.getVectorField())
+                .nestedField(searchContext.getNestedVectorField())
+                .efSearch(searchContext.getEfSearch())
+                .nprobes(searchContext.getNprobes())
+                .oversampleFactor(searchContext.getOversampleFactor())
+                .reducer(searchContext.getReducer())
+                .filter(buildKnnFilter(context, params))
+                .radial(radial)
+                .minScore(radial ? searchContext.getRadialMinScore() : null)
+                .maxDistance(radial ? searchContext.getRadialMaxDistance() : null)
+                .query(text)
+                .k(radial ? searchContext.getRadialMaxResults() : params.getPageSize())
+                .build();
+    }
+
+    /**
+     * Creates a filter that matches documents having one of the terms in each field.
+     *
+     * @param termsByField the terms by field
+     * @return the filter, or null if there are no terms
+     */
+    protected QueryBuilder createKnnFilter(final Map<String, Collection<String>> termsByField) {
+        final BoolQueryBuilder boolQuery = QueryBuilders.boolQuery();
+        termsByField.forEach((field, terms) -> {
+            if (!terms.isEmpty()) {
+                boolQuery.filter(QueryBuilders.termsQuery(field, terms));
+            }
+        });
+        return boolQuery.hasClauses() ? boolQuery : null;
+    }
+
     /**
      * Rewrites queries to handle phrase queries for multimodal search.
      * Wraps simple queries in quotes if they don't contain field specifications.
@@ -136,15 +556,28 @@ public class MultiModalSearchHelper {
             return query;
         }
 
-        for (final String field : ComponentUtil.getQueryFieldConfig().getSearchFields()) {
-            if (query.indexOf(field + ":") != -1) {
-                return query;
-            }
+        if (getFieldMatcher().matches(query)) {
+            return query;
         }
 
         return "\"" + query + "\"";
     }
 
+    /**
+     * Gets the matcher for the search fields, compiling it again when the search fields have been replaced.
+     *
+     * @return the field matcher
+     */
+    protected FieldPrefixMatcher getFieldMatcher() {
+        final String[] fields = ComponentUtil.getQueryFieldConfig().getSearchFields();
+        FieldPrefixMatcher matcher = fieldMatcher;
+        if (matcher == null || matcher.getFields() != fields) {
+            matcher = new FieldPrefixMatcher(fields);
+            fieldMatcher = matcher;
+        }
+        return matcher;
+    }
+
     /**
      * Gets the configured minimum score threshold.
      *
@@ -162,4 +595,107 @@ public class MultiModalSearchHelper {
     public String getVectorField() {
         return vectorField;
     }
+
+    /**
+     * Checks whether KNN queries are radial searches.
+     *
+     * @return true if KNN queries return all documents within the distance or score threshold
+     */
+    public boolean isRadialSearch() {
+        return radialSearch;
+    }
+
+    /**
+     * Gets the maximum distance of radial searches.
+     *
+     * @return the maximum distance, or null if not configured
+     */
+    public Float getMaxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Gets the minimum score of radial searches. The k-NN plugin accepts only one threshold,
+     * so the minimum score is used only if no maximum distance is configured.
+     *
+     * @return the minimum score, or null if the maximum distance is used or nothing is configured
+     */
+    public Float getRadialMinScore() {
+        return maxDistance == null ? minScore : null;
+    }
+
+    /**
+     * Gets the maximum number of results of a radial search executed locally.
+     *
+     * @return the maximum number of results
+     */
+    public int getRadialMaxResults() {
+        return radialMaxResults;
+    }
+
+    /**
+     * Checks whether Fess filters are also set as the filter of KNN queries.
+     *
+     * @return true if KNN filters are enabled
+     */
+    public boolean isKnnFilterEnabled() {
+        return knnFilterEnabled;
+    }
+
+    /**
+     * Gets the size of the candidate list of HNSW searches for a request type.
+     *
+     * @param type the request type
+     * @return the ef_search value, or null to use the index setting
+     */
+    public Integer getEfSearch(final SearchRequestType type) {
+        return type != null ? efSearchMap.get(type) : null;
+    }
+
+    /**
+     * Gets the number of IVF buckets to probe for a request type.
+     *
+     * @param type the request type
+     * @return the nprobes value, or null to use the index setting
+     */
+    public Integer getNprobes(final SearchRequestType type) {
+        return type != null ? nprobesMap.get(type) : null;
+    }
+
+    /**
+     * Gets the rescoring oversample factor for a request type.
+     *
+     * @param type the request type
+     * @return the oversample factor, 0 to disable rescoring, or null to use the engine default
+     */
+    public Float getOversampleFactor(final SearchRequestType type) {
+        return type != null ? oversampleFactorMap.get(type) : null;
+    }
+
+    /**
+     * Gets the configured nested field that holds multiple vectors per document.
+     *
+     * @return the nested field name, or null if not configured
+     */
+    public String getNestedVectorField() {
+        return nestedVectorField;
+    }
+
+    /**
+     * Gets the reducer applied to query vectors, which is the same as the one applied to indexed vectors.
+     *
+     * @return the reducer, or null if vectors are not reduced
+     */
+    public VectorReducer getVectorReducer() {
+        return vectorReducer;
+    }
+
+    /**
+     * Gets the component name of the embedding provider that embeds query texts.
+     *
+     * @return the component name, {@code embeddingProvider} unless configured
+     */
+    public String getQueryEmbeddingProvider() {
+        return queryEmbeddingProvider;
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded in-memory index from 64-bit perceptual image hashes to embeddings.
+ * Lookups find the closest stored hash within a Hamming distance threshold using multi-index hashing:
+ * the hash is split into threshold + 1 disjoint chunks, and by the pigeonhole principle any hash within
+ * the threshold shares at least one chunk exactly, so only those candidates need to be compared.
+ * The least recently used entry is evicted when the capacity is exceeded.
+ * Hashes with fewer than the minimum number of set or clear bits come from flat images, such as blank or
+ * near-white ones, which hash alike whatever their content; they are neither stored nor looked up.
+ * Embeddings are copied on the way in and out, so callers cannot modify the cached ones.
+ */
+public class ImageHashIndex {
+
+    private final int threshold;
+
+    private final int minBits;
+
+    private final int chunks;
+
+    private final Map<Integer, Set<Long>>[] tables;
+
+    private final LinkedHashMap<Long, float[]> entries;
+
+    /**
+     * Constructs an index that accepts all hashes.
+     *
+     * @param capacity the maximum number of stored hashes
+     * @param threshold the maximum Hamming distance (0-63) for a hash to be considered a near-duplicate
+     */
+    public ImageHashIndex(final int capacity, final int threshold) {
+        this(capacity, threshold, 0);
+    }
+
+    /**
+     * Constructs an index.
+     *
+     * @param capacity the maximum number of stored hashes
+     * @param threshold the maximum Hamming distance (0-63) for a hash to be considered a near-duplicate
+     * @param minBits the minimum number (0-32) of both set and clear bits of an indexed hash
+     */
+    @SuppressWarnings("unchecked")
+    public ImageHashIndex(final int capacity, final int threshold, final int minBits) {
+        if (threshold < 0 || threshold > 63) {
+            throw new IllegalArgumentException("threshold must be between 0 and 63: " + threshold);
+        }
+        if (minBits < 0 || minBits > 32) {
+            throw new IllegalArgumentException("minBits must be between 0 and 32: " + minBits);
+        }
+        this.threshold = threshold;
+        this.minBits = minBits;
+        chunks = threshold + 1;
+        tables = new Map[chunks];
+        for (int i = 0; i < chunks; i++) {
+            tables[i] = new HashMap<>();
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, float[]> eldest) {
+                if (size() > capacity) {
+                    unindex(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Finds the embedding of the closest stored hash within the threshold.
+     *
+     * @param hash the perceptual hash
+     * @return a copy of the stored embedding, or null if there is no near-duplicate or the hash is not indexable
+     */
+    public synchronized float[] find(final long hash) {
+        if (!isIndexable(hash)) {
+            return null;
+        }
+        final float[] exact = entries.get(hash);
+        if (exact != null) {
+            return exact.clone();
+        }
+        long best = 0;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < chunks; i++) {
+            final Set<Long> candidates = tables[i].get(chunk(hash, i));
+            if (candidates == null) {
+                continue;
+            }
+            for (final Long candidate : candidates) {
+                final int distance = Long.bitCount(candidate ^ hash);
+                if (distance <= threshold && distance < bestDistance) {
+                    best = candidate;
+                    bestDistance = distance;
+                }
+            }
+        }
+        return bestDistance == Integer.MAX_VALUE ? null : entries.get(best).clone();
+    }
+
+    /**
+     * Stores a copy of an embedding for the hash, unless the hash is not indexable.
+     *
+     * @param hash the perceptual hash
+     * @param embedding the embedding
+     */
+    public synchronized void put(final long hash, final float[] embedding) {
+        if (!isIndexable(hash)) {
+            return;
+        }
+        if (entries.put(hash, embedding.clone()) == null) {
+            for (int i = 0; i < chunks; i++) {
+                tables[i].computeIfAbsent(chunk(hash, i), k -> new HashSet<>()).add(hash);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of stored hashes.
+     *
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Checks whether a hash has enough set and clear bits to tell images apart.
+     *
+     * @param hash the perceptual hash
+     * @return true if the hash can be stored and looked up
+     */
+    public boolean isIndexable(final long hash) {
+        final int bits = Long.bitCount(hash);
+        return bits >= minBits && 64 - bits >= minBits;
+    }
+
+    private void unindex(final long hash) {
+        for (int i = 0; i < chunks; i++) {
+            final Integer key = chunk(hash, i);
+            final Set<Long> set = tables[i].get(key);
+            if (set != null) {
+                set.remove(hash);
+                if (set.isEmpty()) {
+                    tables[i].remove(key);
+                }
+            }
+        }
+    }
+
+    private int chunk(final long hash, final int index) {
+        final int start = index * 64 / chunks;
+        final int end = (index + 1) * 64 / chunks;
+        final long mask = end - start == 64 ? -1L : (1L << end - start) - 1;
+        return (int) (hash >>> start & mask);
+    }
+
+    /**
+     * Computes a 64-bit difference hash (dHash) of an image region. The region is reduced to 9x8 luminance
+     * cells by box averaging and each bit records whether a cell is darker than its right neighbour,
+     * so a flat image hashes to 0.
+     *
+     * @param image the image
+     * @param x left of the region
+     * @param y top of the region
+     * @param width width of the region
+     * @param height height of the region
+     * @return the hash
+     */
+    public static long dHash(final BufferedImage image, final int x, final int y, final int width, final int height) {
+        final int[] rgb = image.getRGB(x, y, width, height, null, 0, width);
+        final double[] cells = new double[9 * 8];
+        final int[] counts = new int[9 * 8];
+        for (int py = 0; py < height; py++) {
+            final int cy = py * 8 / height;
+            for (int px = 0; px < width; px++) {
+                final int cx = px * 9 / width;
+                final int pixel = rgb[py * width + px];
+                cells[cy * 9 + cx] += 0.299 * (pixel >> 16 & 0xff) + 0.587 * (pixel >> 8 & 0xff) + 0.114 * (pixel & 0xff);
+                counts[cy * 9 + cx]++;
+            }
+        }
+        long hash = 0;
+        for (int cy = 0; cy < 8; cy++) {
+            for (int cx = 0; cx < 8; cx++) {
+                final double left = counts[cy * 9 + cx] == 0 ? 0 : cells[cy * 9 + cx] / counts[cy * 9 + cx];
+                final double right = counts[cy * 9 + cx + 1] == 0 ? 0 : cells[cy * 9 + cx + 1] / counts[cy * 9 + cx + 1];
+                hash = hash << 1 | (left < right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+}
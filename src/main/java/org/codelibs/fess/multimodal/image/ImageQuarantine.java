@@ -0,0 +1,364 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUARANTINE_FLUSH_INTERVAL;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUARANTINE_MAX_FAILURES;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUARANTINE_MAX_SIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUARANTINE_PATH;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUARANTINE_TTL;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Bounded record of images whose embedding failed, keyed by the SHA-256 digest of their content.
+ * An image is quarantined once it has failed the configured number of times, and is released when no failure
+ * has been recorded for the TTL, so that it gets another chance after the CLIP server is fixed or upgraded.
+ * The record is loaded on startup, so quarantined images stay skipped across crawler restarts.
+ * Changes are flushed to the file at most once per flush interval by the thread that records one, outside the lock
+ * that crawler threads check images with. A flush adds the failures recorded since the last flush to the counts in
+ * the file under a file lock, so that crawler processes sharing the file count their failures together,
+ * and picks up the failures of the others.
+ * The least recently used entry is evicted when the capacity is exceeded.
+ */
+public class ImageQuarantine {
+    private static final Logger logger = LogManager.getLogger(ImageQuarantine.class);
+
+    private final Path path;
+
+    private final int maxFailures;
+
+    private final long ttl;
+
+    private final int capacity;
+
+    private final long flushInterval;
+
+    private final LinkedHashMap<String, long[]> entries;
+
+    /** Failures recorded since the last flush, as the number of failures and the time of the last one. */
+    private final Map<String, long[]> changed = new HashMap<>();
+
+    /** Digests removed since the last flush. */
+    private final Set<String> removed = new HashSet<>();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushing = new AtomicBoolean();
+
+    private volatile long lastFlushTime = System.currentTimeMillis();
+
+    /**
+     * Constructs a quarantine that flushes changes every 10 seconds and loads its file if it exists.
+     *
+     * @param path the file the record is saved to
+     * @param maxFailures the number of failures after which an image is quarantined
+     * @param ttl the time in milliseconds after the last failure at which an image is released
+     * @param capacity the maximum number of recorded images
+     */
+    public ImageQuarantine(final Path path, final int maxFailures, final long ttl, final int capacity) {
+        this(path, maxFailures, ttl, capacity, 10000L);
+    }
+
+    /**
+     * Constructs a quarantine and loads its file if it exists.
+     *
+     * @param path the file the record is saved to
+     * @param maxFailures the number of failures after which an image is quarantined
+     * @param ttl the time in milliseconds after the last failure at which an image is released
+     * @param capacity the maximum number of recorded images
+     * @param flushInterval the minimum time in milliseconds between flushes of changes to the file
+     */
+    public ImageQuarantine(final Path path, final int maxFailures, final long ttl, final int capacity, final long flushInterval) {
+        this.path = path;
+        this.maxFailures = maxFailures;
+        this.ttl = ttl;
+        this.capacity = capacity;
+        this.flushInterval = flushInterval;
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Creates the quarantine configured by system properties.
+     *
+     * @return the quarantine, or null if it is disabled
+     */
+    public static ImageQuarantine create() {
+        final int maxFailures = Integer.getInteger(QUARANTINE_MAX_FAILURES, 0);
+        if (maxFailures <= 0) {
+            return null;
+        }
+        final Path path = Paths.get(System.getProperty(QUARANTINE_PATH,
+                Paths.get(System.getProperty("fess.var.path", System.getProperty("java.io.tmpdir")), "multimodal_quarantine.tsv")
+                        .toString()));
+        return new ImageQuarantine(path, maxFailures, Long.getLong(QUARANTINE_TTL, 7L * 24 * 60 * 60 * 1000),
+                Integer.getInteger(QUARANTINE_MAX_SIZE, 100000), Long.getLong(QUARANTINE_FLUSH_INTERVAL, 10000L));
+    }
+
+    /**
+     * Computes the key of an image.
+     *
+     * @param image the image data
+     * @return the hex-encoded SHA-256 digest
+     */
+    public static String digest(final byte[] image) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(image));
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+
+    /**
+     * Checks whether an image has failed too often to be sent to the CLIP server again.
+     *
+     * @param digest the digest of the image
+     * @return true if the image is quarantined
+     */
+    public synchronized boolean isQuarantined(final String digest) {
+        final long[] entry = entries.get(digest);
+        if (entry == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - entry[1] >= ttl) {
+            entries.remove(digest);
+            return false;
+        }
+        return entry[0] >= maxFailures;
+    }
+
+    /**
+     * Records a failure of an image that is not explained by the CLIP server being unavailable.
+     *
+     * @param digest the digest of the image
+     * @return true if the image is quarantined now
+     */
+    public boolean recordFailure(final String digest) {
+        final long failures;
+        synchronized (this) {
+            final long[] entry = entries.get(digest);
+            final long now = System.currentTimeMillis();
+            if (entry == null || now - entry[1] >= ttl) {
+                failures = 1;
+                changed.put(digest, new long[] { 1, now });
+            } else {
+                failures = entry[0] + 1;
+                changed.merge(digest, new long[] { 1, now }, ImageQuarantine::add);
+            }
+            entries.put(digest, new long[] { failures, now });
+            removed.remove(digest);
+        }
+        if (failures == maxFailures) {
+            logger.info("Quarantined an image after {} failures: {}", failures, digest);
+        }
+        flushIfDue();
+        return failures >= maxFailures;
+    }
+
+    /**
+     * Forgets the failures of an image that was embedded.
+     *
+     * @param digest the digest of the image
+     */
+    public void recordSuccess(final String digest) {
+        synchronized (this) {
+            if (entries.remove(digest) == null) {
+                return;
+            }
+            changed.remove(digest);
+            removed.add(digest);
+        }
+        flushIfDue();
+    }
+
+    /**
+     * Gets the number of recorded images.
+     *
+     * @return the number of images
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Loads the record, skipping malformed lines and expired entries.
+     */
+    protected void load() {
+        entries.putAll(read());
+    }
+
+    /**
+     * Flushes the changes if the flush interval has passed and no other thread is flushing.
+     */
+    protected void flushIfDue() {
+        if (System.currentTimeMillis() - lastFlushTime >= flushInterval && flushing.compareAndSet(false, true)) {
+            try {
+                flush();
+            } finally {
+                flushing.set(false);
+            }
+        }
+    }
+
+    /**
+     * Merges the changes since the last flush with the file and saves the result. The failures recorded here are added
+     * to the count in the file, images that succeeded here are removed, and the counts of other processes are taken in.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            final Map<String, long[]> changes;
+            final Set<String> removals;
+            synchronized (this) {
+                lastFlushTime = System.currentTimeMillis();
+                if (changed.isEmpty() && removed.isEmpty()) {
+                    return;
+                }
+                changes = new HashMap<>(changed);
+                removals = new HashSet<>(removed);
+                changed.clear();
+                removed.clear();
+            }
+            final Map<String, long[]> merged;
+            try {
+                if (path.getParent() != null) {
+                    Files.createDirectories(path.getParent());
+                }
+                final Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+                try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                        FileLock lock = channel.lock()) {
+                    merged = read();
+                    merged.keySet().removeAll(removals);
+                    changes.forEach((digest, value) -> merged.merge(digest, value, ImageQuarantine::add));
+                    save(merged);
+                }
+            } catch (final IOException e) {
+                logger.warn("Failed to save {}.", path, e);
+                synchronized (this) {
+                    // retried on the next flush, unless newer changes replaced them
+                    changes.forEach((digest, value) -> changed.merge(digest, value, ImageQuarantine::add));
+                    removals.stream().filter(digest -> !changed.containsKey(digest)).forEach(removed::add);
+                }
+                return;
+            }
+            synchronized (this) {
+                merged.forEach((digest, value) -> {
+                    if (removed.contains(digest)) {
+                        return;
+                    }
+                    final long[] entry = entries.get(digest);
+                    if (entry == null) {
+                        entries.put(digest, value);
+                    } else {
+                        // failures recorded here after the snapshot are not in the file yet
+                        final long[] pending = changed.get(digest);
+                        entries.put(digest, new long[] { Math.max(entry[0], value[0] + (pending != null ? pending[0] : 0)),
+                                Math.max(entry[1], value[1]) });
+                    }
+                });
+            }
+        }
+    }
+
+    private static long[] add(final long[] a, final long[] b) {
+        return new long[] { a[0] + b[0], Math.max(a[1], b[1]) };
+    }
+
+    /**
+     * Reads the file, skipping malformed lines and expired entries.
+     *
+     * @return the entries in the order of the file, or an empty map if the file does not exist or cannot be read
+     */
+    protected Map<String, long[]> read() {
+        final Map<String, long[]> result = new LinkedHashMap<>();
+        if (!Files.exists(path)) {
+            return result;
+        }
+        final List<String> lines;
+        try {
+            lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            logger.warn("Failed to load {}.", path, e);
+            return result;
+        }
+        final long now = System.currentTimeMillis();
+        for (final String line : lines) {
+            final String[] values = line.split("\t");
+            try {
+                if (values.length == 3) {
+                    final long time = Long.parseLong(values[2]);
+                    if (now - time < ttl) {
+                        result.put(values[0], new long[] { Long.parseLong(values[1]), time });
+                    }
+                    continue;
+                }
+            } catch (final NumberFormatException e) {
+                // fall through
+            }
+            logger.debug("Skip a malformed entry in {}: {}", path, line);
+        }
+        return result;
+    }
+
+    /**
+     * Saves entries to a temporary file and moves it over the file, so that a crash leaves the previous one.
+     * Only the most recent entries up to the capacity are kept, oldest first.
+     *
+     * @param values the entries
+     * @throws IOException if the file cannot be written
+     */
+    protected void save(final Map<String, long[]> values) throws IOException {
+        final List<Map.Entry<String, long[]>> list = new ArrayList<>(values.entrySet());
+        list.sort((a, b) -> Long.compare(a.getValue()[1], b.getValue()[1]));
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempPath, StandardCharsets.UTF_8)) {
+            for (final Map.Entry<String, long[]> entry : list.subList(Math.max(0, list.size() - capacity), list.size())) {
+                writer.write(entry.getKey() + "\t" + entry.getValue()[0] + "\t" + entry.getValue()[1] + "\n");
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,806 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Pure-Java JPEG decoder that reconstructs images at 1/1, 1/2, 1/4 or 1/8 scale directly in the DCT domain,
+ * in the same way as libjpeg's {@code scale_denom}. Only the low-frequency N x N coefficients of each block
+ * are transformed by an N-point inverse DCT, so the IDCT, upsampling and color conversion run on the reduced
+ * raster instead of the full-resolution one.
+ *
+ * <p>Baseline and progressive Huffman-coded 8-bit images with one (grayscale) or three (YCbCr/RGB) components
+ * are supported. {@link #readHeader()} returns {@code false} for anything else (arithmetic coding, lossless,
+ * 12-bit, CMYK), so callers can fall back to ImageIO.</p>
+ */
+public class ScaledJpegDecoder {
+
+    /** Maps a zig-zag index to the natural (row-major) coefficient index. */
+    private static final int[] ZIGZAG = { 0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5, 12, 19, 26, 33, 40, 48, 41, 34, 27, 20,
+            13, 6, 7, 14, 21, 28, 35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51, 58, 59, 52, 45, 38, 31, 39, 46, 53, 60,
+            61, 54, 47, 55, 62, 63 };
+
+    /** Scaled IDCT tables indexed by output size N (1, 2, 4, 8): {@code table[N][x * N + u]}. */
+    private static final float[][] IDCT_TABLES = new float[9][];
+
+    static {
+        for (final int n : new int[] { 1, 2, 4, 8 }) {
+            final float[] table = new float[n * n];
+            for (int x = 0; x < n; x++) {
+                for (int u = 0; u < n; u++) {
+                    final double cu = u == 0 ? Math.sqrt(0.5) : 1.0;
+                    table[x * n + u] = (float) (cu / 2.0 * Math.cos((2 * x + 1) * u * Math.PI / (2.0 * n)));
+                }
+            }
+            IDCT_TABLES[n] = table;
+        }
+    }
+
+    private static final int LOOKAHEAD_BITS = 9;
+
+    /** The maximum number of DCT coefficients of all components, which bounds the memory of a hostile header. */
+    private static final long MAX_COEFFICIENTS = 1L << 27;
+
+    private final byte[] data;
+
+    private final int maxWidth;
+
+    private final int maxHeight;
+
+    private int offset;
+
+    private int width;
+
+    private int height;
+
+    private boolean progressive;
+
+    private Component[] components;
+
+    private int maxH;
+
+    private int maxV;
+
+    private int mcusPerLine;
+
+    private int mcusPerColumn;
+
+    private int restartInterval;
+
+    private int adobeTransform = -1;
+
+    private final int[][] quantizationTables = new int[4][];
+
+    private final HuffmanTable[] dcTables = new HuffmanTable[4];
+
+    private final HuffmanTable[] acTables = new HuffmanTable[4];
+
+    private long bitBuffer;
+
+    private int bitCount;
+
+    private int eobrun;
+
+    /**
+     * Constructs a decoder for the given JPEG data.
+     *
+     * @param data the complete JPEG file content
+     */
+    public ScaledJpegDecoder(final byte[] data) {
+        this(data, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs a decoder that rejects images larger than the given size before allocating their coefficients.
+     *
+     * @param data the complete JPEG file content
+     * @param maxWidth the maximum width in pixels
+     * @param maxHeight the maximum height in pixels
+     */
+    public ScaledJpegDecoder(final byte[] data, final int maxWidth, final int maxHeight) {
+        this.data = data;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Checks whether the given data starts with a JPEG SOI marker.
+     *
+     * @param data the image data
+     * @return true if the data looks like a JPEG stream
+     */
+    public static boolean isJpeg(final byte[] data) {
+        return data != null && data.length > 3 && (data[0] & 0xff) == 0xff && (data[1] & 0xff) == 0xd8;
+    }
+
+    /**
+     * Parses markers up to the first scan.
+     *
+     * @return true if the image can be decoded by this decoder, false if a fallback decoder should be used
+     * @throws IOException if the stream is malformed or the image exceeds the maximum size
+     */
+    public boolean readHeader() throws IOException {
+        try {
+            if (!isJpeg(data)) {
+                return false;
+            }
+            offset = 2;
+            while (true) {
+                final int marker = nextMarker();
+                switch (marker) {
+                case 0xc0: // baseline
+                case 0xc1: // extended sequential
+                case 0xc2: // progressive
+                    if (!readFrame(marker == 0xc2)) {
+                        return false;
+                    }
+                    break;
+                case 0xda:
+                    if (components == null) {
+                        throw new IOException("SOS before SOF.");
+                    }
+                    offset -= 2; // let decode() read the scan header
+                    return true;
+                case 0xd9:
+                    throw new IOException("No scan found.");
+                default:
+                    if (!readTableOrSkip(marker)) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+        } catch (final IndexOutOfBoundsException e) {
+            throw new IOException("Unexpected end of JPEG data.", e);
+        }
+    }
+
+    /**
+     * Gets the image width in pixels. Valid after {@link #readHeader()}.
+     *
+     * @return the width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the image height in pixels. Valid after {@link #readHeader()}.
+     *
+     * @return the height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Decodes the image at {@code 1/scaleDenom} of its size. Must be called after {@link #readHeader()} returned true.
+     *
+     * @param scaleDenom the scale denominator (1, 2, 4 or 8)
+     * @return the decoded RGB image of size ceil(width/scaleDenom) x ceil(height/scaleDenom)
+     * @throws IOException if the stream is malformed
+     */
+    public BufferedImage decode(final int scaleDenom) throws IOException {
+        if (scaleDenom != 1 && scaleDenom != 2 && scaleDenom != 4 && scaleDenom != 8) {
+            throw new IllegalArgumentException("Unsupported scale: 1/" + scaleDenom);
+        }
+        try {
+            while (offset + 1 < data.length) {
+                final int marker = nextMarker();
+                if (marker == 0xd9) {
+                    break;
+                }
+                if (marker == 0xda) {
+                    readScan();
+                } else if (!readTableOrSkip(marker)) {
+                    throw new IOException("Unsupported marker in scan sequence: " + Integer.toHexString(marker));
+                }
+            }
+        } catch (final IndexOutOfBoundsException e) {
+            // truncated stream: render what has been decoded so far, as libjpeg does
+        }
+        return toImage(8 / scaleDenom, scaleDenom);
+    }
+
+    private int nextMarker() throws IOException {
+        if ((data[offset] & 0xff) != 0xff) {
+            throw new IOException("Marker expected at " + offset);
+        }
+        while ((data[offset] & 0xff) == 0xff) {
+            offset++;
+        }
+        return data[offset++] & 0xff;
+    }
+
+    private int readUint16() {
+        final int value = (data[offset] & 0xff) << 8 | data[offset + 1] & 0xff;
+        offset += 2;
+        return value;
+    }
+
+    private boolean readTableOrSkip(final int marker) throws IOException {
+        if (marker >= 0xc3 && marker <= 0xcf && marker != 0xc4 && marker != 0xc8 && marker != 0xcc) {
+            return false; // lossless, hierarchical or arithmetic-coded frame
+        }
+        final int start = offset;
+        final int length = readUint16();
+        switch (marker) {
+        case 0xdb:
+            readQuantizationTables(start + length);
+            break;
+        case 0xc4:
+            readHuffmanTables(start + length);
+            break;
+        case 0xdd:
+            restartInterval = readUint16();
+            break;
+        case 0xee:
+            if (length >= 12 && data[offset] == 'A' && data[offset + 1] == 'd' && data[offset + 2] == 'o' && data[offset + 3] == 'b'
+                    && data[offset + 4] == 'e') {
+                adobeTransform = data[offset + 11] & 0xff;
+            }
+            break;
+        default:
+            break;
+        }
+        offset = start + length;
+        return true;
+    }
+
+    private void readQuantizationTables(final int end) throws IOException {
+        while (offset < end) {
+            final int pq = (data[offset] & 0xff) >> 4;
+            final int tq = data[offset] & 0x0f;
+            offset++;
+            if (tq > 3) {
+                throw new IOException("Invalid DQT index: " + tq);
+            }
+            final int[] table = new int[64];
+            for (int i = 0; i < 64; i++) {
+                table[ZIGZAG[i]] = pq == 0 ? data[offset++] & 0xff : readUint16();
+            }
+            quantizationTables[tq] = table;
+        }
+    }
+
+    private void readHuffmanTables(final int end) throws IOException {
+        while (offset < end) {
+            final int tc = (data[offset] & 0xff) >> 4;
+            final int th = data[offset] & 0x0f;
+            offset++;
+            if (th > 3 || tc > 1) {
+                throw new IOException("Invalid DHT index: " + tc + "/" + th);
+            }
+            final int[] counts = new int[17];
+            int total = 0;
+            for (int i = 1; i <= 16; i++) {
+                counts[i] = data[offset++] & 0xff;
+                total += counts[i];
+            }
+            final int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = data[offset++] & 0xff;
+            }
+            final HuffmanTable table = new HuffmanTable(counts, values);
+            if (tc == 0) {
+                dcTables[th] = table;
+            } else {
+                acTables[th] = table;
+            }
+        }
+    }
+
+    private boolean readFrame(final boolean isProgressive) throws IOException {
+        final int start = offset;
+        final int length = readUint16();
+        final int precision = data[offset++] & 0xff;
+        height = readUint16();
+        width = readUint16();
+        final int count = data[offset++] & 0xff;
+        if (precision != 8 || (count != 1 && count != 3)) {
+            return false;
+        }
+        if (width <= 0 || height <= 0 || width > maxWidth || height > maxHeight) {
+            throw new IOException("Invalid image size: " + width + "x" + height);
+        }
+        progressive = isProgressive;
+        components = new Component[count];
+        for (int i = 0; i < count; i++) {
+            final Component component = new Component();
+            component.id = data[offset] & 0xff;
+            component.h = (data[offset + 1] & 0xff) >> 4;
+            component.v = data[offset + 1] & 0x0f;
+            component.tq = data[offset + 2] & 0xff;
+            offset += 3;
+            if (component.h < 1 || component.h > 4 || component.v < 1 || component.v > 4 || component.tq > 3) {
+                throw new IOException("Invalid component parameters.");
+            }
+            maxH = Math.max(maxH, component.h);
+            maxV = Math.max(maxV, component.v);
+            components[i] = component;
+        }
+        mcusPerLine = ceilDiv(width, 8 * maxH);
+        mcusPerColumn = ceilDiv(height, 8 * maxV);
+        long coefficients = 0;
+        for (final Component component : components) {
+            coefficients += (long) mcusPerLine * component.h * mcusPerColumn * component.v * 64;
+        }
+        if (coefficients > MAX_COEFFICIENTS) {
+            throw new IOException("Image too large to decode: " + width + "x" + height);
+        }
+        for (final Component component : components) {
+            component.blocksPerLine = ceilDiv(ceilDiv(width * component.h, maxH), 8);
+            component.blocksPerColumn = ceilDiv(ceilDiv(height * component.v, maxV), 8);
+            component.blocksPerLineForMcu = mcusPerLine * component.h;
+            component.blocksPerColumnForMcu = mcusPerColumn * component.v;
+            component.coefficients = new short[component.blocksPerLineForMcu * component.blocksPerColumnForMcu * 64];
+        }
+        offset = start + length;
+        return true;
+    }
+
+    private void readScan() throws IOException {
+        final int start = offset;
+        final int length = readUint16();
+        final int count = data[offset++] & 0xff;
+        final Component[] scanComponents = new Component[count];
+        for (int i = 0; i < count; i++) {
+            final int id = data[offset] & 0xff;
+            final int tables = data[offset + 1] & 0xff;
+            offset += 2;
+            if (tables >> 4 > 3 || (tables & 0x0f) > 3) {
+                throw new IOException("Invalid Huffman table selector: " + tables);
+            }
+            Component found = null;
+            for (final Component component : components) {
+                if (component.id == id) {
+                    found = component;
+                }
+            }
+            if (found == null) {
+                throw new IOException("Unknown component in scan: " + id);
+            }
+            found.dcTable = dcTables[tables >> 4];
+            found.acTable = acTables[tables & 0x0f];
+            scanComponents[i] = found;
+        }
+        final int ss = data[offset] & 0xff;
+        final int se = data[offset + 1] & 0xff;
+        final int ah = (data[offset + 2] & 0xff) >> 4;
+        final int al = data[offset + 2] & 0x0f;
+        offset = start + length;
+
+        final int mode;
+        if (!progressive) {
+            mode = 0;
+        } else if (ss == 0) {
+            mode = ah == 0 ? 1 : 2;
+        } else {
+            mode = ah == 0 ? 3 : 4;
+        }
+        final boolean needsDc = mode == 0 || mode == 1;
+        final boolean needsAc = mode == 0 || mode >= 3;
+        for (final Component component : scanComponents) {
+            if (needsDc && component.dcTable == null || needsAc && component.acTable == null) {
+                throw new IOException("Missing Huffman table.");
+            }
+            component.pred = 0;
+        }
+        eobrun = 0;
+        resetBits();
+
+        final int totalMcus;
+        if (count == 1) {
+            totalMcus = scanComponents[0].blocksPerLine * scanComponents[0].blocksPerColumn;
+        } else {
+            totalMcus = mcusPerLine * mcusPerColumn;
+        }
+        for (int mcu = 0; mcu < totalMcus; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                processRestart(scanComponents);
+            }
+            if (count == 1) {
+                final Component component = scanComponents[0];
+                final int row = mcu / component.blocksPerLine;
+                final int col = mcu % component.blocksPerLine;
+                decodeBlock(component, (row * component.blocksPerLineForMcu + col) * 64, mode, ss, se, al);
+            } else {
+                final int mcuRow = mcu / mcusPerLine;
+                final int mcuCol = mcu % mcusPerLine;
+                for (final Component component : scanComponents) {
+                    for (int v = 0; v < component.v; v++) {
+                        for (int h = 0; h < component.h; h++) {
+                            final int row = mcuRow * component.v + v;
+                            final int col = mcuCol * component.h + h;
+                            decodeBlock(component, (row * component.blocksPerLineForMcu + col) * 64, mode, ss, se, al);
+                        }
+                    }
+                }
+            }
+        }
+        skipToMarker();
+    }
+
+    private void processRestart(final Component[] scanComponents) {
+        resetBits();
+        skipToMarker();
+        if (offset + 1 < data.length && (data[offset] & 0xff) == 0xff && (data[offset + 1] & 0xff) >= 0xd0
+                && (data[offset + 1] & 0xff) <= 0xd7) {
+            offset += 2;
+        }
+        for (final Component component : scanComponents) {
+            component.pred = 0;
+        }
+        eobrun = 0;
+    }
+
+    private void skipToMarker() {
+        resetBits();
+        while (offset + 1 < data.length) {
+            if ((data[offset] & 0xff) == 0xff) {
+                final int next = data[offset + 1] & 0xff;
+                if (next != 0 && next != 0xff) {
+                    return;
+                }
+            }
+            offset++;
+        }
+    }
+
+    private void decodeBlock(final Component component, final int blockOffset, final int mode, final int ss, final int se, final int al)
+            throws IOException {
+        final short[] coef = component.coefficients;
+        switch (mode) {
+        case 0: {
+            final int t = decodeHuffman(component.dcTable);
+            component.pred += t == 0 ? 0 : receiveExtend(t);
+            coef[blockOffset] = (short) component.pred;
+            int k = 1;
+            while (k < 64) {
+                final int rs = decodeHuffman(component.acTable);
+                final int s = rs & 15;
+                final int r = rs >> 4;
+                if (s == 0) {
+                    if (r < 15) {
+                        break;
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += r;
+                if (k > 63) {
+                    break;
+                }
+                coef[blockOffset + ZIGZAG[k]] = (short) receiveExtend(s);
+                k++;
+            }
+            break;
+        }
+        case 1: {
+            final int t = decodeHuffman(component.dcTable);
+            component.pred += t == 0 ? 0 : receiveExtend(t);
+            coef[blockOffset] = (short) (component.pred << al);
+            break;
+        }
+        case 2:
+            if (readBits(1) != 0) {
+                coef[blockOffset] |= (short) (1 << al);
+            }
+            break;
+        case 3:
+            decodeAcFirst(component, coef, blockOffset, ss, se, al);
+            break;
+        default:
+            decodeAcRefine(component, coef, blockOffset, ss, se, al);
+            break;
+        }
+    }
+
+    private void decodeAcFirst(final Component component, final short[] coef, final int blockOffset, final int ss, final int se,
+            final int al) throws IOException {
+        if (eobrun > 0) {
+            eobrun--;
+            return;
+        }
+        int k = ss;
+        while (k <= se) {
+            final int rs = decodeHuffman(component.acTable);
+            final int s = rs & 15;
+            final int r = rs >> 4;
+            if (s == 0) {
+                if (r < 15) {
+                    eobrun = (1 << r) - 1;
+                    if (r > 0) {
+                        eobrun += readBits(r);
+                    }
+                    break;
+                }
+                k += 16;
+                continue;
+            }
+            k += r;
+            if (k > 63) {
+                break;
+            }
+            coef[blockOffset + ZIGZAG[k]] = (short) (receiveExtend(s) * (1 << al));
+            k++;
+        }
+    }
+
+    private void decodeAcRefine(final Component component, final short[] coef, final int blockOffset, final int ss, final int se,
+            final int al) throws IOException {
+        final int p1 = 1 << al;
+        final int m1 = -1 << al;
+        int k = ss;
+        if (eobrun == 0) {
+            for (; k <= se; k++) {
+                final int rs = decodeHuffman(component.acTable);
+                int r = rs >> 4;
+                int s = rs & 15;
+                if (s != 0) {
+                    s = readBits(1) != 0 ? p1 : m1;
+                } else if (r != 15) {
+                    eobrun = 1 << r;
+                    if (r > 0) {
+                        eobrun += readBits(r);
+                    }
+                    break;
+                }
+                while (k <= se) {
+                    final int z = blockOffset + ZIGZAG[k];
+                    if (coef[z] != 0) {
+                        refineCoefficient(coef, z, p1, m1);
+                    } else {
+                        if (--r < 0) {
+                            break;
+                        }
+                    }
+                    k++;
+                }
+                if (s != 0 && k <= 63) {
+                    coef[blockOffset + ZIGZAG[k]] = (short) s;
+                }
+            }
+        }
+        if (eobrun > 0) {
+            for (; k <= se; k++) {
+                final int z = blockOffset + ZIGZAG[k];
+                if (coef[z] != 0) {
+                    refineCoefficient(coef, z, p1, m1);
+                }
+            }
+            eobrun--;
+        }
+    }
+
+    private void refineCoefficient(final short[] coef, final int z, final int p1, final int m1) throws IOException {
+        if (readBits(1) != 0 && (coef[z] & p1) == 0) {
+            coef[z] += (short) (coef[z] >= 0 ? p1 : m1);
+        }
+    }
+
+    private void resetBits() {
+        bitBuffer = 0;
+        bitCount = 0;
+    }
+
+    /**
+     * Fills the bit buffer up to at least 57 bits, removing byte stuffing.
+     * When a marker is reached, zero bits are fed instead so that the caller can finish the current MCU.
+     */
+    private void fillBits() {
+        while (bitCount <= 56) {
+            int b = 0;
+            if (offset < data.length) {
+                b = data[offset] & 0xff;
+                if (b == 0xff) {
+                    final int next = offset + 1 < data.length ? data[offset + 1] & 0xff : 0xd9;
+                    if (next == 0) {
+                        offset += 2;
+                    } else {
+                        b = 0; // marker: do not consume
+                    }
+                } else {
+                    offset++;
+                }
+            }
+            bitBuffer |= (long) b << 56 - bitCount;
+            bitCount += 8;
+        }
+    }
+
+    private int readBits(final int n) {
+        if (bitCount < n) {
+            fillBits();
+        }
+        final int value = (int) (bitBuffer >>> 64 - n);
+        bitBuffer <<= n;
+        bitCount -= n;
+        return value;
+    }
+
+    private int receiveExtend(final int s) {
+        final int v = readBits(s);
+        return v < 1 << s - 1 ? v - (1 << s) + 1 : v;
+    }
+
+    private int decodeHuffman(final HuffmanTable table) throws IOException {
+        if (bitCount < 16) {
+            fillBits();
+        }
+        final int entry = table.lookup[(int) (bitBuffer >>> 64 - LOOKAHEAD_BITS)];
+        if (entry != 0) {
+            final int length = entry >> 8;
+            bitBuffer <<= length;
+            bitCount -= length;
+            return entry & 0xff;
+        }
+        int code = readBits(1);
+        for (int length = 1; length <= 16; length++) {
+            if (code <= table.maxCode[length]) {
+                return table.values[table.valPtr[length] + code - table.minCode[length]];
+            }
+            code = code << 1 | readBits(1);
+        }
+        throw new IOException("Invalid Huffman code.");
+    }
+
+    private BufferedImage toImage(final int n, final int scaleDenom) {
+        final float[] table = IDCT_TABLES[n];
+        final int[][] planes = new int[components.length][];
+        final int[] planeWidths = new int[components.length];
+        for (int c = 0; c < components.length; c++) {
+            final Component component = components[c];
+            final int[] q = quantizationTables[component.tq];
+            final int planeWidth = component.blocksPerLineForMcu * n;
+            final int[] plane = new int[planeWidth * component.blocksPerColumnForMcu * n];
+            final float[] block = new float[n * n];
+            final float[] tmp = new float[n * n];
+            for (int row = 0; row < component.blocksPerColumn; row++) {
+                for (int col = 0; col < component.blocksPerLine; col++) {
+                    final int blockOffset = (row * component.blocksPerLineForMcu + col) * 64;
+                    for (int v = 0; v < n; v++) {
+                        for (int u = 0; u < n; u++) {
+                            block[v * n + u] = component.coefficients[blockOffset + v * 8 + u] * (q == null ? 1 : q[v * 8 + u]);
+                        }
+                    }
+                    // rows: tmp[v][x] = sum_u T[x][u] * F[v][u]
+                    for (int v = 0; v < n; v++) {
+                        for (int x = 0; x < n; x++) {
+                            float sum = 0;
+                            for (int u = 0; u < n; u++) {
+                                sum += table[x * n + u] * block[v * n + u];
+                            }
+                            tmp[v * n + x] = sum;
+                        }
+                    }
+                    // columns: out[y][x] = sum_v T[y][v] * tmp[v][x]
+                    final int base = row * n * planeWidth + col * n;
+                    for (int y = 0; y < n; y++) {
+                        for (int x = 0; x < n; x++) {
+                            float sum = 0;
+                            for (int v = 0; v < n; v++) {
+                                sum += table[y * n + v] * tmp[v * n + x];
+                            }
+                            plane[base + y * planeWidth + x] = clamp(Math.round(sum) + 128);
+                        }
+                    }
+                }
+            }
+            planes[c] = plane;
+            planeWidths[c] = planeWidth;
+        }
+
+        final int outWidth = ceilDiv(width, scaleDenom);
+        final int outHeight = ceilDiv(height, scaleDenom);
+        final BufferedImage image = new BufferedImage(outWidth, outHeight, BufferedImage.TYPE_INT_RGB);
+        final int[] rgb = new int[outWidth * outHeight];
+        final boolean transform =
+                components.length == 3 && (adobeTransform >= 0 ? adobeTransform != 0 : !(components[0].id == 'R' && components[1].id == 'G'
+                        && components[2].id == 'B'));
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                final int c0 = sample(planes, planeWidths, 0, x, y);
+                final int r;
+                final int g;
+                final int b;
+                if (components.length == 1) {
+                    r = g = b = c0;
+                } else {
+                    final int c1 = sample(planes, planeWidths, 1, x, y);
+                    final int c2 = sample(planes, planeWidths, 2, x, y);
+                    if (transform) {
+                        final float cb = c1 - 128f;
+                        final float cr = c2 - 128f;
+                        r = clamp(Math.round(c0 + 1.402f * cr));
+                        g = clamp(Math.round(c0 - 0.344136f * cb - 0.714136f * cr));
+                        b = clamp(Math.round(c0 + 1.772f * cb));
+                    } else {
+                        r = c0;
+                        g = c1;
+                        b = c2;
+                    }
+                }
+                rgb[y * outWidth + x] = r << 16 | g << 8 | b;
+            }
+        }
+        image.getRaster().setDataElements(0, 0, outWidth, outHeight, rgb);
+        return image;
+    }
+
+    private int sample(final int[][] planes, final int[] planeWidths, final int c, final int x, final int y) {
+        final Component component = components[c];
+        return planes[c][y * component.v / maxV * planeWidths[c] + x * component.h / maxH];
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static int ceilDiv(final int a, final int b) {
+        return (a + b - 1) / b;
+    }
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int tq;
+        int blocksPerLine;
+        int blocksPerColumn;
+        int blocksPerLineForMcu;
+        int blocksPerColumnForMcu;
+        short[] coefficients;
+        HuffmanTable dcTable;
+        HuffmanTable acTable;
+        int pred;
+    }
+
+    private static class HuffmanTable {
+        final int[] values;
+        final int[] minCode = new int[17];
+        final int[] maxCode = new int[18];
+        final int[] valPtr = new int[17];
+        /** Entries are (code length &lt;&lt; 8 | value) for codes up to LOOKAHEAD_BITS bits, 0 otherwise. */
+        final int[] lookup = new int[1 << LOOKAHEAD_BITS];
+
+        HuffmanTable(final int[] counts, final int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valPtr[length] = k;
+                minCode[length] = code;
+                for (int i = 0; i < counts[length]; i++) {
+                    if (length <= LOOKAHEAD_BITS) {
+                        final int shift = LOOKAHEAD_BITS - length;
+                        final int start = code << shift;
+                        for (int j = 0; j < 1 << shift; j++) {
+                            lookup[start + j] = length << 8 | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = counts[length] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+}
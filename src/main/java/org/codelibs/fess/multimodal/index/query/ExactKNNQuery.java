@@ -0,0 +1,401 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.index.query;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Objects;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FloatVectorValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.KnnVectorValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Explanation;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.ScorerSupplier;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.PriorityQueue;
+
+/**
+ * Lucene query that finds the k nearest neighbors by scanning every indexed float vector of a field.
+ * Scores are computed with the similarity function of the field, so they match the scores of the k-NN plugin
+ * for the Lucene engine, and the vector kernels of {@link VectorSimilarityFunction} use SIMD instructions when
+ * the JVM supports them. Like Lucene's own KNN queries, the top k documents are selected when the query is
+ * rewritten, and the rewritten query only replays their scores.
+ */
+public class ExactKNNQuery extends Query {
+
+    private final String field;
+
+    private final float[] target;
+
+    private final int k;
+
+    private final Query filter;
+
+    private final Float maxDistance;
+
+    private final Float minScore;
+
+    /**
+     * Constructs a query.
+     *
+     * @param field the vector field
+     * @param target the query vector
+     * @param k the number of nearest neighbors, which bounds radial searches too
+     * @param filter the query that documents must match, or null
+     * @param maxDistance the maximum distance in the space of the field, or null
+     * @param minScore the minimum score, or null
+     * @throws IllegalArgumentException if k is 0 or less
+     */
+    public ExactKNNQuery(final String field, final float[] target, final int k, final Query filter, final Float maxDistance,
+            final Float minScore) {
+        this.field = Objects.requireNonNull(field, "field");
+        this.target = Objects.requireNonNull(target, "target");
+        if (k <= 0) {
+            // an unbounded queue would allocate an entry for every document in the index
+            throw new IllegalArgumentException("k must be greater than 0: " + k);
+        }
+        this.k = k;
+        this.filter = filter;
+        this.maxDistance = maxDistance;
+        this.minScore = minScore;
+    }
+
+    @Override
+    public Query rewrite(final IndexSearcher searcher) throws IOException {
+        final IndexReader reader = searcher.getIndexReader();
+        if (reader.maxDoc() == 0) {
+            return new MatchNoDocsQuery("no documents");
+        }
+        final Weight filterWeight =
+                filter == null ? null : searcher.createWeight(searcher.rewrite(filter), ScoreMode.COMPLETE_NO_SCORES, 1.0f);
+        final ScoreDocQueue queue = new ScoreDocQueue(Math.min(k, reader.maxDoc()));
+        for (final LeafReaderContext context : reader.leaves()) {
+            search(context, filterWeight, queue);
+        }
+        if (queue.size() == 0) {
+            return new MatchNoDocsQuery("no vectors within the threshold");
+        }
+        final ScoreDoc[] scoreDocs = new ScoreDoc[queue.size()];
+        for (int i = 0; i < scoreDocs.length; i++) {
+            scoreDocs[i] = queue.pop();
+        }
+        Arrays.sort(scoreDocs, Comparator.comparingInt(d -> d.doc));
+        return new DocScoreQuery(scoreDocs, reader.getContext().id());
+    }
+
+    /**
+     * Scores the vectors of a segment and collects the best ones.
+     *
+     * @param context the segment
+     * @param filterWeight the weight of the filter, or null
+     * @param queue the queue of the best documents
+     * @throws IOException if the index cannot be read
+     */
+    protected void search(final LeafReaderContext context, final Weight filterWeight, final ScoreDocQueue queue) throws IOException {
+        final LeafReader reader = context.reader();
+        final FloatVectorValues values = reader.getFloatVectorValues(field);
+        if (values == null) {
+            return;
+        }
+        if (values.dimension() != target.length) {
+            throw new IllegalArgumentException(
+                    "vector query dimension: " + target.length + " differs from field dimension: " + values.dimension());
+        }
+        final FieldInfo fieldInfo = reader.getFieldInfos().fieldInfo(field);
+        final VectorSimilarityFunction function = fieldInfo.getVectorSimilarityFunction();
+        final float threshold = scoreThreshold(function);
+        DocIdSetIterator filterIterator = null;
+        if (filterWeight != null) {
+            final Scorer filterScorer = filterWeight.scorer(context);
+            if (filterScorer == null) {
+                return;
+            }
+            filterIterator = filterScorer.iterator();
+        }
+        final Bits liveDocs = reader.getLiveDocs();
+        final KnnVectorValues.DocIndexIterator iterator = values.iterator();
+        int doc = iterator.nextDoc();
+        while (doc != DocIdSetIterator.NO_MORE_DOCS) {
+            if (filterIterator != null) {
+                final int filterDoc = filterIterator.docID() < doc ? filterIterator.advance(doc) : filterIterator.docID();
+                if (filterDoc != doc) {
+                    doc = filterDoc == DocIdSetIterator.NO_MORE_DOCS ? filterDoc : iterator.advance(filterDoc);
+                    continue;
+                }
+            }
+            if (liveDocs == null || liveDocs.get(doc)) {
+                final float score = function.compare(target, values.vectorValue(iterator.index()));
+                if (score >= threshold) {
+                    if (queue.size() < queue.maxSize || score > queue.top().score) {
+                        queue.insertWithOverflow(new ScoreDoc(context.docBase + doc, score));
+                    }
+                }
+            }
+            doc = iterator.nextDoc();
+        }
+    }
+
+    /**
+     * Gets the lowest score that a document may have, combining the minimum score and the maximum distance.
+     *
+     * @param function the similarity function of the field
+     * @return the score threshold
+     */
+    protected float scoreThreshold(final VectorSimilarityFunction function) {
+        float threshold = Float.NEGATIVE_INFINITY;
+        if (minScore != null) {
+            threshold = minScore;
+        }
+        if (maxDistance != null) {
+            threshold = Math.max(threshold, distanceToScore(function, maxDistance));
+        }
+        return threshold;
+    }
+
+    /**
+     * Converts a distance in the space of the k-NN plugin to the score of the similarity function.
+     * The l2 space uses squared Euclidean distance, the cosine space uses 1 - cosine, and the
+     * inner product space uses the negated inner product.
+     *
+     * @param function the similarity function
+     * @param distance the distance
+     * @return the score of a vector at the distance
+     */
+    protected static float distanceToScore(final VectorSimilarityFunction function, final float distance) {
+        switch (function) {
+        case EUCLIDEAN:
+            return 1 / (1 + distance);
+        case MAXIMUM_INNER_PRODUCT:
+            return distance > 0 ? 1 / (1 + distance) : 1 - distance;
+        default:
+            return Math.max((2 - distance) / 2, 0);
+        }
+    }
+
+    @Override
+    public void visit(final QueryVisitor visitor) {
+        if (visitor.acceptField(field)) {
+            visitor.visitLeaf(this);
+        }
+    }
+
+    @Override
+    public String toString(final String defaultField) {
+        return getClass().getSimpleName() + ":" + field + "[" + (target.length > 0 ? target[0] : "") + ",...][" + k + "]"
+                + (filter != null ? "[" + filter + "]" : "");
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!sameClassAs(obj)) {
+            return false;
+        }
+        final ExactKNNQuery other = (ExactKNNQuery) obj;
+        return field.equals(other.field) && Arrays.equals(target, other.target) && k == other.k && Objects.equals(filter, other.filter)
+                && Objects.equals(maxDistance, other.maxDistance) && Objects.equals(minScore, other.minScore);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(classHash(), field, Arrays.hashCode(target), k, filter, maxDistance, minScore);
+    }
+
+    /**
+     * Bounded min-heap of the best documents, ordered by score and then by reverse doc id.
+     */
+    protected static class ScoreDocQueue extends PriorityQueue<ScoreDoc> {
+
+        final int maxSize;
+
+        ScoreDocQueue(final int maxSize) {
+            super(maxSize);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean lessThan(final ScoreDoc a, final ScoreDoc b) {
+            return a.score < b.score || a.score == b.score && a.doc > b.doc;
+        }
+    }
+
+    /**
+     * Query that matches precomputed documents with precomputed scores.
+     */
+    static class DocScoreQuery extends Query {
+
+        private final int[] docs;
+
+        private final float[] scores;
+
+        private final float maxScore;
+
+        private final Object contextIdentity;
+
+        DocScoreQuery(final ScoreDoc[] scoreDocs, final Object contextIdentity) {
+            docs = new int[scoreDocs.length];
+            scores = new float[scoreDocs.length];
+            float max = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < scoreDocs.length; i++) {
+                docs[i] = scoreDocs[i].doc;
+                scores[i] = scoreDocs[i].score;
+                max = Math.max(max, scores[i]);
+            }
+            maxScore = max;
+            this.contextIdentity = contextIdentity;
+        }
+
+        @Override
+        public Weight createWeight(final IndexSearcher searcher, final ScoreMode scoreMode, final float boost) throws IOException {
+            if (searcher.getIndexReader().getContext().id() != contextIdentity) {
+                throw new IllegalStateException("This query was rewritten against a different reader.");
+            }
+            return new Weight(this) {
+                @Override
+                public Explanation explain(final LeafReaderContext context, final int doc) {
+                    final int index = Arrays.binarySearch(docs, context.docBase + doc);
+                    if (index < 0) {
+                        return Explanation.noMatch("not in the top k nearest vectors");
+                    }
+                    return Explanation.match(scores[index] * boost, "within the top k nearest vectors");
+                }
+
+                @Override
+                public ScorerSupplier scorerSupplier(final LeafReaderContext context) {
+                    final int lower = lowerBound(context.docBase);
+                    final int upper = lowerBound(context.docBase + context.reader().maxDoc());
+                    if (lower == upper) {
+                        return null;
+                    }
+                    return new DefaultScorerSupplier(new DocScoreScorer(lower, upper, context.docBase, boost));
+                }
+
+                @Override
+                public boolean isCacheable(final LeafReaderContext context) {
+                    return true;
+                }
+            };
+        }
+
+        private int lowerBound(final int doc) {
+            final int index = Arrays.binarySearch(docs, doc);
+            return index < 0 ? -index - 1 : index;
+        }
+
+        @Override
+        public void visit(final QueryVisitor visitor) {
+            visitor.visitLeaf(this);
+        }
+
+        @Override
+        public String toString(final String field) {
+            return getClass().getSimpleName() + "[" + docs.length + " docs]";
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!sameClassAs(obj)) {
+                return false;
+            }
+            final DocScoreQuery other = (DocScoreQuery) obj;
+            return contextIdentity == other.contextIdentity && Arrays.equals(docs, other.docs) && Arrays.equals(scores, other.scores);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(classHash(), contextIdentity, Arrays.hashCode(docs), Arrays.hashCode(scores));
+        }
+
+        private class DocScoreScorer extends Scorer {
+
+            private final int lower;
+
+            private final int upper;
+
+            private final int docBase;
+
+            private final float boost;
+
+            private int index;
+
+            DocScoreScorer(final int lower, final int upper, final int docBase, final float boost) {
+                this.lower = lower;
+                this.upper = upper;
+                this.docBase = docBase;
+                this.boost = boost;
+                index = lower - 1;
+            }
+
+            @Override
+            public int docID() {
+                if (index < lower) {
+                    return -1;
+                }
+                return index >= upper ? DocIdSetIterator.NO_MORE_DOCS : docs[index] - docBase;
+            }
+
+            @Override
+            public float score() {
+                return scores[index] * boost;
+            }
+
+            @Override
+            public float getMaxScore(final int upTo) {
+                return maxScore * boost;
+            }
+
+            @Override
+            public DocIdSetIterator iterator() {
+                return new DocIdSetIterator() {
+                    @Override
+                    public int docID() {
+                        return DocScoreScorer.this.docID();
+                    }
+
+                    @Override
+                    public int nextDoc() {
+                        index++;
+                        return docID();
+                    }
+
+                    @Override
+                    public int advance(final int target) {
+                        index = Math.max(index + 1, Math.min(lowerBound(docBase + target), upper));
+                        return docID();
+                    }
+
+                    @Override
+                    public long cost() {
+                        return upper - lower;
+                    }
+                };
+            }
+        }
+    }
+}
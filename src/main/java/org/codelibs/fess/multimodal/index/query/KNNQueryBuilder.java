@@ -15,11 +15,14 @@
  */
 package org.codelibs.fess.multimodal.index.query;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.apache.lucene.search.Query;
+import org.opensearch.common.xcontent.XContentType;
 import org.opensearch.core.ParseField;
 import org.opensearch.core.common.io.stream.StreamInput;
 import org.opensearch.core.common.io.stream.StreamOutput;
@@ -31,6 +34,8 @@ import org.opensearch.index.query.QueryShardContext;
 /**
  * Query builder for k-nearest neighbor (KNN) vector similarity searches.
  * This builder constructs OpenSearch KNN queries for semantic search using vector embeddings.
+ * When executed locally, it is converted to an {@link ExactKNNQuery}.
+ * The XContent form of the vector is rendered once and reused, since the builder is not modified after it is built.
  */
 public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
 
@@ -42,6 +47,11 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
     private static final ParseField IGNORE_UNMAPPED_FIELD = new ParseField("ignore_unmapped");
     private static final ParseField MAX_DISTANCE_FIELD = new ParseField("max_distance");
     private static final ParseField MIN_SCORE_FIELD = new ParseField("min_score");
+    private static final ParseField METHOD_PARAMETERS_FIELD = new ParseField("method_parameters");
+    private static final ParseField EF_SEARCH_FIELD = new ParseField("ef_search");
+    private static final ParseField NPROBES_FIELD = new ParseField("nprobes");
+    private static final ParseField RESCORE_FIELD = new ParseField("rescore");
+    private static final ParseField OVERSAMPLE_FACTOR_FIELD = new ParseField("oversample_factor");
 
     private static final int DEFAULT_K = 10;
 
@@ -60,6 +70,17 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
     protected Float maxDistance;
     /** Minimum score threshold for similarity matching. */
     protected Float minScore;
+    /** The size of the candidate list of HNSW searches, or null for the index setting. */
+    protected Integer efSearch;
+    /** The number of IVF buckets to probe, or null for the index setting. */
+    protected Integer nprobes;
+    /** Whether this is a radial search that returns all documents within max_distance or min_score, without k. */
+    protected boolean radial;
+    /** The oversample factor of rescoring quantized results, 0 to disable rescoring, or null for the engine default. */
+    protected Float oversampleFactor;
+
+    /** The JSON value of the vector, rendered on the first serialization. */
+    private volatile byte[] vectorJson;
 
     /**
      * Constructs a KNNQueryBuilder from a StreamInput for serialization.
@@ -76,6 +97,10 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
         this.ignoreUnmapped = in.readBoolean();
         this.maxDistance = in.readOptionalFloat();
         this.minScore = in.readOptionalFloat();
+        this.efSearch = in.readOptionalVInt();
+        this.nprobes = in.readOptionalVInt();
+        this.oversampleFactor = in.readOptionalFloat();
+        this.radial = in.readBoolean();
     }
 
     private KNNQueryBuilder() {
@@ -100,6 +125,10 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
         private boolean ignoreUnmapped = false;
         private Float maxDistance = null;
         private Float minScore = null;
+        private Integer efSearch = null;
+        private Integer nprobes = null;
+        private Float oversampleFactor = null;
+        private boolean radial = false;
 
         /**
          * Sets the vector field name to search against.
@@ -178,12 +207,74 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
             return this;
         }
 
+        /**
+         * Sets the size of the candidate list of HNSW searches for this query.
+         *
+         * @param efSearch the ef_search value, or null for the index setting
+         * @return this builder for chaining
+         */
+        public Builder efSearch(final Integer efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * Sets the number of IVF buckets to probe for this query.
+         *
+         * @param nprobes the nprobes value, or null for the index setting
+         * @return this builder for chaining
+         */
+        public Builder nprobes(final Integer nprobes) {
+            this.nprobes = nprobes;
+            return this;
+        }
+
+        /**
+         * Sets the oversample factor used to rescore results of quantized indices with full-precision vectors.
+         *
+         * @param oversampleFactor the oversample factor, 0 to disable rescoring, or null for the engine default
+         * @return this builder for chaining
+         */
+        public Builder oversampleFactor(final Float oversampleFactor) {
+            this.oversampleFactor = oversampleFactor;
+            return this;
+        }
+
+        /**
+         * Sets whether this is a radial search. A radial search omits k and returns all documents within
+         * max_distance or min_score; k is then only the limit of results when the query is executed locally.
+         *
+         * @param radial true for a radial search
+         * @return this builder for chaining
+         */
+        public Builder radial(final boolean radial) {
+            this.radial = radial;
+            return this;
+        }
+
         /**
          * Builds the KNNQueryBuilder with the configured parameters.
          *
          * @return the constructed KNNQueryBuilder
+         * @throws IllegalArgumentException if a radial search has neither max_distance nor min_score,
+         *         both max_distance and min_score are set, or the vector has a NaN or infinite value
          */
         public KNNQueryBuilder build() {
+            if (vector != null) {
+                for (final float value : vector) {
+                    if (!Float.isFinite(value)) {
+                        // the value would be rendered as invalid JSON
+                        throw new IllegalArgumentException("The vector has a non-finite value: " + value);
+                    }
+                }
+            }
+            if (radial && maxDistance == null && minScore == null) {
+                throw new IllegalArgumentException("A radial search requires max_distance or min_score.");
+            }
+            if (maxDistance != null && minScore != null) {
+                // the k-NN plugin accepts only one of k, max_distance and min_score
+                throw new IllegalArgumentException("max_distance and min_score cannot be combined.");
+            }
             final KNNQueryBuilder query = new KNNQueryBuilder();
             query.fieldName = fieldName;
             query.vector = vector;
@@ -192,6 +283,10 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
             query.ignoreUnmapped = ignoreUnmapped;
             query.maxDistance = maxDistance;
             query.minScore = minScore;
+            query.efSearch = efSearch;
+            query.nprobes = nprobes;
+            query.oversampleFactor = oversampleFactor;
+            query.radial = radial;
             return query;
         }
     }
@@ -210,14 +305,24 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
         out.writeBoolean(this.ignoreUnmapped);
         out.writeOptionalFloat(this.maxDistance);
         out.writeOptionalFloat(this.minScore);
+        out.writeOptionalVInt(this.efSearch);
+        out.writeOptionalVInt(this.nprobes);
+        out.writeOptionalFloat(this.oversampleFactor);
+        out.writeBoolean(this.radial);
     }
 
     @Override
     protected void doXContent(final XContentBuilder xContentBuilder, final Params params) throws IOException {
         xContentBuilder.startObject(NAME);
         xContentBuilder.startObject(fieldName);
-        xContentBuilder.field(VECTOR_FIELD.getPreferredName(), vector);
-        xContentBuilder.field(K_FIELD.getPreferredName(), k);
+        if (vector != null && xContentBuilder.contentType() == XContentType.JSON) {
+            xContentBuilder.rawField(VECTOR_FIELD.getPreferredName(), new ByteArrayInputStream(getVectorJson()), XContentType.JSON);
+        } else {
+            xContentBuilder.field(VECTOR_FIELD.getPreferredName(), vector);
+        }
+        if (!radial) {
+            xContentBuilder.field(K_FIELD.getPreferredName(), k);
+        }
         if (filter != null) {
             xContentBuilder.field(FILTER_FIELD.getPreferredName(), filter);
         }
@@ -228,14 +333,67 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
         if (minScore != null) {
             xContentBuilder.field(MIN_SCORE_FIELD.getPreferredName(), minScore);
         }
+        if (efSearch != null || nprobes != null) {
+            xContentBuilder.startObject(METHOD_PARAMETERS_FIELD.getPreferredName());
+            if (efSearch != null) {
+                xContentBuilder.field(EF_SEARCH_FIELD.getPreferredName(), efSearch);
+            }
+            if (nprobes != null) {
+                xContentBuilder.field(NPROBES_FIELD.getPreferredName(), nprobes);
+            }
+            xContentBuilder.endObject();
+        }
+        if (oversampleFactor != null) {
+            if (oversampleFactor > 0) {
+                xContentBuilder.startObject(RESCORE_FIELD.getPreferredName());
+                xContentBuilder.field(OVERSAMPLE_FACTOR_FIELD.getPreferredName(), oversampleFactor);
+                xContentBuilder.endObject();
+            } else {
+                xContentBuilder.field(RESCORE_FIELD.getPreferredName(), false);
+            }
+        }
         printBoostAndQueryName(xContentBuilder);
         xContentBuilder.endObject();
         xContentBuilder.endObject();
     }
 
+    /**
+     * Gets the JSON value of the vector, rendering it on the first call.
+     *
+     * @return the UTF-8 bytes of a JSON array of numbers
+     */
+    protected byte[] getVectorJson() {
+        byte[] json = vectorJson;
+        if (json == null) {
+            final StringBuilder buf = new StringBuilder(vector.length * 12 + 2);
+            buf.append('[');
+            for (int i = 0; i < vector.length; i++) {
+                if (i > 0) {
+                    buf.append(',');
+                }
+                buf.append(vector[i]);
+            }
+            buf.append(']');
+            json = buf.toString().getBytes(StandardCharsets.UTF_8);
+            vectorJson = json;
+        }
+        return json;
+    }
+
+    /**
+     * Creates an exact brute-force KNN query. This is used when the query is executed in this node,
+     * such as on embedded or test clusters without the k-NN plugin; the k-NN plugin handles the query
+     * by its name when it is sent to a remote cluster. Method parameters and rescoring do not apply to an exact search,
+     * and a radial search returns at most k documents.
+     *
+     * @param context the shard context
+     * @return the exact KNN query
+     * @throws IOException if the filter cannot be converted
+     */
     @Override
     protected Query doToQuery(final QueryShardContext context) throws IOException {
-        throw new UnsupportedOperationException("doToQuery is not supported.");
+        final Query filterQuery = filter != null ? filter.toQuery(context) : null;
+        return new ExactKNNQuery(fieldName, vector, k, filterQuery, maxDistance, minScore);
     }
 
     @Override
@@ -254,6 +412,10 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
         equalsBuilder.append(ignoreUnmapped, obj.ignoreUnmapped);
         equalsBuilder.append(maxDistance, obj.maxDistance);
         equalsBuilder.append(minScore, obj.minScore);
+        equalsBuilder.append(efSearch, obj.efSearch);
+        equalsBuilder.append(nprobes, obj.nprobes);
+        equalsBuilder.append(oversampleFactor, obj.oversampleFactor);
+        equalsBuilder.append(radial, obj.radial);
         return equalsBuilder.isEquals();
     }
 
@@ -266,6 +428,10 @@ public class KNNQueryBuilder extends AbstractQueryBuilder<KNNQueryBuilder> {
                 .append(ignoreUnmapped)
                 .append(maxDistance)
                 .append(minScore)
+                .append(efSearch)
+                .append(nprobes)
+                .append(oversampleFactor)
+                .append(radial)
                 .toHashCode();
     }
 }
@@ -17,16 +17,28 @@ package org.codelibs.fess.multimodal.ingest;
 
 import static org.codelibs.core.lang.StringUtil.EMPTY;
 import static org.codelibs.fess.Constants.MAPPING_TYPE_ARRAY;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_CHUNK_MAX_CHUNKS;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_CHUNK_OVERLAP;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_CHUNK_SIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.NESTED_VECTOR_FIELD;
 import static org.codelibs.fess.multimodal.MultiModalConstants.X_FESS_EMBEDDING;
+import static org.codelibs.fess.multimodal.MultiModalConstants.X_FESS_NESTED_EMBEDDINGS;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
 import org.codelibs.fess.ingest.Ingester;
 import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
 import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
-import org.codelibs.fess.multimodal.util.EmbeddingUtil;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
 import org.codelibs.fess.util.ComponentUtil;
 
 import jakarta.annotation.PostConstruct;
@@ -34,6 +46,8 @@ import jakarta.annotation.PostConstruct;
 /**
  * Ingester that processes embedding data during document indexing.
  * Converts encoded embedding strings to float arrays for vector search operations.
+ * Embeddings handed off by the extractor of the same process are taken by reference without decoding.
+ * If {@code fess.multimodal.reduce.method} is set, all vectors are reduced before they are indexed.
  */
 public class EmbeddingIngester extends Ingester {
     private static final Logger logger = LogManager.getLogger(EmbeddingIngester.class);
@@ -48,6 +62,33 @@ public class EmbeddingIngester extends Ingester {
     /** The name of the vector field where embeddings are stored. */
     protected String vectorField;
 
+    /** The name of the nested field where multiple embeddings are stored, or null if not configured. */
+    protected String nestedVectorField;
+
+    /** The name of the content field split into text chunks. */
+    protected String contentField;
+
+    /** The number of characters in a text chunk, or 0 if text chunks are not embedded. */
+    protected int chunkSize;
+
+    /** The number of characters shared by adjacent text chunks. */
+    protected int chunkOverlap;
+
+    /** The maximum number of text chunks embedded per document. */
+    protected int maxChunks;
+
+    /** The client used to embed text chunks. */
+    protected EmbeddingProvider client;
+
+    /** The decoder of encoded vectors, created on first use if not initialized. */
+    protected VectorDecoder vectorDecoder;
+
+    /** The reducer applied to vectors before they are indexed, or null if vectors are not reduced. */
+    protected VectorReducer reducer;
+
+    /** The number of vectors dropped because the reducer did not accept them. */
+    protected final AtomicLong reduceFailureCount = new AtomicLong();
+
     /**
      * Initializes the ingester by setting up the vector field configuration
      * and registering metadata mappings for embedding data.
@@ -57,23 +98,195 @@ public class EmbeddingIngester extends Ingester {
         final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
         vectorField = helper.getVectorField();
         ComponentUtil.getFessConfig().addCrawlerMetadataNameMapping(X_FESS_EMBEDDING, vectorField, MAPPING_TYPE_ARRAY, EMPTY);
+        nestedVectorField = helper.getNestedVectorField();
+        if (nestedVectorField != null) {
+            ComponentUtil.getFessConfig()
+                    .addCrawlerMetadataNameMapping(X_FESS_NESTED_EMBEDDINGS, nestedVectorField, MAPPING_TYPE_ARRAY, EMPTY);
+        }
+        chunkSize = Integer.getInteger(CONTENT_CHUNK_SIZE, 0);
+        chunkOverlap = Integer.getInteger(CONTENT_CHUNK_OVERLAP, 50);
+        maxChunks = Integer.getInteger(CONTENT_CHUNK_MAX_CHUNKS, 32);
+        if (chunkSize > 0) {
+            if (nestedVectorField == null) {
+                logger.warn("{} is ignored because {} is not set.", CONTENT_CHUNK_SIZE, MultiModalConstants.CONTENT_NESTED_FIELD);
+                chunkSize = 0;
+            } else {
+                contentField = ComponentUtil.getFessConfig().getIndexFieldContent();
+                client = ComponentUtil.getComponent(MultiModalConstants.EMBEDDING_PROVIDER);
+            }
+        }
+        if (chunkSize > 0 && (chunkOverlap < 0 || chunkOverlap >= chunkSize)) {
+            // the chunker rejects such an overlap, which would leave every document without chunk vectors
+            final int overlap = chunkSize / 4;
+            logger.warn("{}={} has to be less than {}={}. {} is used instead.", CONTENT_CHUNK_OVERLAP, chunkOverlap, CONTENT_CHUNK_SIZE,
+                    chunkSize, overlap);
+            chunkOverlap = overlap;
+        }
+        final String dimension = System.getProperty(CONTENT_DIMENSION);
+        reducer = VectorReducer.create();
+        // decoded vectors have the dimension of the model, which a PCA reducer knows better than the configured one
+        vectorDecoder = new VectorDecoder(reducer != null && reducer.getInputDimension() > 0 ? reducer.getInputDimension()
+                : StringUtil.isNotBlank(dimension) ? Integer.parseInt(dimension.trim()) : 0);
         if (logger.isDebugEnabled()) {
-            logger.debug("vector field: {}", vectorField);
+            logger.debug("vector field: {}, nested vector field: {}, chunk size: {}, chunk overlap: {}, max chunks: {}", vectorField,
+                    nestedVectorField, chunkSize, chunkOverlap, maxChunks);
         }
     }
 
+    /**
+     * Processes a document. Its vectors are decoded and validated, and then its text chunks are embedded.
+     * Vectors that cannot be decoded or do not have the configured dimension are removed with a warning,
+     * so that the document is indexed without them instead of being rejected.
+     *
+     * @param target the document
+     * @return the processed document
+     */
     @Override
     protected Map<String, Object> process(final Map<String, Object> target) {
+        final long startTime = System.nanoTime();
+        final List<String> encoded = new ArrayList<>();
         if (target.containsKey(vectorField)) {
             logger.debug("[{}] : {}", vectorField, target);
             if (target.get(vectorField) instanceof final String[] encodedEmbeddings) {
-                final float[] embedding = EmbeddingUtil.decodeFloatArray(encodedEmbeddings[0]);
+                encoded.add(encodedEmbeddings[0]);
+            } else {
+                logger.warn("{} is not an array.", vectorField);
+            }
+        }
+        if (nestedVectorField != null && target.containsKey(nestedVectorField)) {
+            if (target.get(nestedVectorField) instanceof final String[] encodedEmbeddings) {
+                encoded.addAll(Arrays.asList(encodedEmbeddings));
+            } else {
+                logger.warn("{} is not an array.", nestedVectorField);
+            }
+        }
+
+        final List<float[]> embeddings = getVectorDecoder().decode(encoded);
+        if (reducer != null) {
+            for (int i = 0; i < embeddings.size(); i++) {
+                embeddings.set(i, reduce(embeddings.get(i)));
+            }
+        }
+        final long decodeTime = System.nanoTime();
+        int index = 0;
+        int invalid = 0;
+        if (target.get(vectorField) instanceof String[]) {
+            final float[] embedding = embeddings.get(index++);
+            if (embedding != null) {
                 logger.debug("embedding:{}", embedding);
                 target.put(vectorField, embedding);
             } else {
-                logger.warn("{} is not an array.", vectorField);
+                target.remove(vectorField);
+                invalid++;
             }
         }
+        if (nestedVectorField != null && target.get(nestedVectorField) instanceof final String[] encodedEmbeddings) {
+            final List<Map<String, Object>> vectors = new ArrayList<>(encodedEmbeddings.length);
+            for (int i = 0; i < encodedEmbeddings.length; i++) {
+                final float[] embedding = embeddings.get(index++);
+                if (embedding != null) {
+                    vectors.add(Map.of(NESTED_VECTOR_FIELD, embedding));
+                } else {
+                    invalid++;
+                }
+            }
+            logger.debug("[{}] : {} vectors", nestedVectorField, vectors.size());
+            if (vectors.isEmpty()) {
+                target.remove(nestedVectorField);
+            } else {
+                target.put(nestedVectorField, vectors);
+            }
+        }
+        if (chunkSize > 0 && target.get(contentField) instanceof final String content && StringUtil.isNotBlank(content)) {
+            addTextChunkVectors(target, content);
+        }
+        if (invalid > 0) {
+            logger.warn("Removed {} invalid vectors.", invalid);
+        }
+        if (logger.isDebugEnabled()) {
+            final long endTime = System.nanoTime();
+            logger.debug("ingested a document: vectors={}, decode={}ms, chunks={}ms", encoded.size(), (decodeTime - startTime) / 1000000,
+                    (endTime - decodeTime) / 1000000);
+        }
         return target;
     }
+
+    /**
+     * Reduces a vector with the configured reducer.
+     *
+     * @param embedding the vector, or null
+     * @return the reduced vector, the vector itself if vectors are not reduced, or null if it cannot be reduced
+     */
+    protected float[] reduce(final float[] embedding) {
+        if (reducer == null || embedding == null) {
+            return embedding;
+        }
+        try {
+            return reducer.reduce(embedding);
+        } catch (final IllegalArgumentException e) {
+            logger.warn("Dropped a vector: {} ({} vectors dropped so far)", e.getMessage(), reduceFailureCount.incrementAndGet());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of vectors dropped because the reducer did not accept them,
+     * which usually means the reducer file was learned from vectors of another model.
+     *
+     * @return the number of dropped vectors
+     */
+    public long getReduceFailureCount() {
+        return reduceFailureCount.get();
+    }
+
+    /**
+     * Gets the vector decoder, creating one that accepts any dimension if the ingester is not initialized.
+     *
+     * @return the vector decoder
+     */
+    protected VectorDecoder getVectorDecoder() {
+        if (vectorDecoder == null) {
+            vectorDecoder = new VectorDecoder(0);
+        }
+        return vectorDecoder;
+    }
+
+    /**
+     * Splits the content into overlapping chunks, embeds them in batches and appends the passage vectors
+     * to the nested vector field. Only one batch of chunk texts is held in memory at a time.
+     *
+     * @param target the document
+     * @param content the content to split
+     */
+    protected void addTextChunkVectors(final Map<String, Object> target, final String content) {
+        final List<Map<String, Object>> vectors = new ArrayList<>();
+        if (target.get(nestedVectorField) instanceof final List<?> list) {
+            for (final Object value : list) {
+                if (value instanceof final Map<?, ?> map) {
+                    @SuppressWarnings("unchecked")
+                    final Map<String, Object> vector = (Map<String, Object>) map;
+                    vectors.add(vector);
+                }
+            }
+        }
+        final int size = vectors.size();
+        final TextChunker chunker = new TextChunker(content, chunkSize, chunkOverlap, maxChunks);
+        final List<String> batch = new ArrayList<>(client.getBatchSize());
+        while (chunker.hasNext()) {
+            batch.add(chunker.next());
+            if (batch.size() >= client.getBatchSize() || !chunker.hasNext()) {
+                for (final float[] embedding : client.getTextEmbeddings(batch)) {
+                    final float[] reduced = reduce(embedding);
+                    if (reduced != null) {
+                        vectors.add(Map.of(NESTED_VECTOR_FIELD, reduced));
+                    }
+                }
+                batch.clear();
+            }
+        }
+        logger.debug("[{}] : {} text chunk vectors", nestedVectorField, vectors.size() - size);
+        if (!vectors.isEmpty()) {
+            target.put(nestedVectorField, vectors);
+        }
+    }
 }
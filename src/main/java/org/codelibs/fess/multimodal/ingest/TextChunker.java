@@ -0,0 +1,124 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.ingest;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Splits text into overlapping windows lazily, so that only the chunks being embedded are held in memory.
+ * A window ends at the last whitespace in its final quarter when there is one, so that words are not cut,
+ * and the next window starts at the first word within {@code overlap} characters before the end of the previous one.
+ * Text without whitespace there, such as Chinese or Japanese, overlaps by {@code overlap} characters instead.
+ */
+public class TextChunker implements Iterator<String> {
+
+    private final CharSequence text;
+
+    private final int size;
+
+    private final int overlap;
+
+    private final int maxChunks;
+
+    private int position;
+
+    private int count;
+
+    private String next;
+
+    /**
+     * Constructs a chunker.
+     *
+     * @param text the text to split
+     * @param size the maximum number of characters in a chunk
+     * @param overlap the number of characters shared by adjacent chunks, less than size
+     * @param maxChunks the maximum number of chunks to return
+     */
+    public TextChunker(final CharSequence text, final int size, final int overlap, final int maxChunks) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        if (overlap < 0 || overlap >= size) {
+            throw new IllegalArgumentException("overlap must be between 0 and " + (size - 1) + ": " + overlap);
+        }
+        this.text = text;
+        this.size = size;
+        this.overlap = overlap;
+        this.maxChunks = maxChunks;
+        next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public String next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        final String chunk = next;
+        next = advance();
+        return chunk;
+    }
+
+    private String advance() {
+        final int length = text.length();
+        while (count < maxChunks) {
+            while (position < length && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+            if (position >= length) {
+                return null;
+            }
+            int end = Math.min(position + size, length);
+            if (end < length) {
+                for (int i = end; i >= end - size / 4; i--) {
+                    if (Character.isWhitespace(text.charAt(i))) {
+                        end = i;
+                        break;
+                    }
+                }
+            }
+            if (end < length && Character.isHighSurrogate(text.charAt(end - 1))) {
+                // keep the surrogate pair together, so that a chunk does not end with half a character
+                end = end - 1 > position ? end - 1 : end + 1;
+            }
+            final String chunk = text.subSequence(position, end).toString().trim();
+            if (end >= length) {
+                position = length;
+            } else {
+                final int boundary = Math.max(position + 1, end - overlap);
+                int start = boundary;
+                while (start < end && !Character.isWhitespace(text.charAt(start - 1))) {
+                    start++;
+                }
+                if (start >= end && boundary < end) {
+                    // no word boundary within the overlap, so the next window starts at a character
+                    start = Character.isLowSurrogate(text.charAt(boundary)) ? boundary + 1 : boundary;
+                }
+                position = start;
+            }
+            if (!chunk.isEmpty()) {
+                count++;
+                return chunk;
+            }
+        }
+        return null;
+    }
+}
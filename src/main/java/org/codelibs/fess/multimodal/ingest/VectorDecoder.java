@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.ingest;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import org.codelibs.fess.multimodal.util.EmbeddingHandoff;
+
+/**
+ * Decodes and validates Base64-encoded embeddings written by
+ * {@link org.codelibs.fess.multimodal.util.EmbeddingUtil#encodeFloatArray(float[])}.
+ * Each thread decodes into its own reusable scratch buffer, so only the resulting float arrays are allocated.
+ * References created by {@link EmbeddingHandoff} are resolved without decoding and validated in the same way.
+ */
+public class VectorDecoder {
+
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[4096]);
+
+    /** The expected dimension, or 0 to accept any dimension. */
+    protected final int dimension;
+
+    /** The carrier that references are resolved from. */
+    protected final EmbeddingHandoff handoff;
+
+    /**
+     * Constructs a decoder.
+     *
+     * @param dimension the expected dimension, or 0 to accept any dimension
+     */
+    public VectorDecoder(final int dimension) {
+        this(dimension, EmbeddingHandoff.getInstance());
+    }
+
+    /**
+     * Constructs a decoder that resolves references from the given carrier.
+     *
+     * @param dimension the expected dimension, or 0 to accept any dimension
+     * @param handoff the carrier that references are resolved from
+     */
+    public VectorDecoder(final int dimension, final EmbeddingHandoff handoff) {
+        this.handoff = handoff;
+        this.dimension = dimension;
+    }
+
+    /**
+     * Decodes an embedding.
+     *
+     * @param encoded the Base64-encoded embedding or a handoff reference
+     * @return the embedding, or null if it is not valid Base64, is an unknown reference, has another dimension
+     *         or contains NaN or infinity
+     */
+    public float[] decode(final String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        if (EmbeddingHandoff.isReference(encoded)) {
+            final float[] embedding = handoff.take(encoded);
+            return embedding != null && isValid(embedding) ? embedding : null;
+        }
+        final byte[] src = encoded.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < src.length) {
+            scratch = new byte[Math.max(src.length, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        final int length;
+        try {
+            length = Base64.getDecoder().decode(src, scratch);
+        } catch (final IllegalArgumentException e) {
+            return null;
+        }
+        if (length % Float.BYTES != 0) {
+            return null;
+        }
+        final float[] embedding = new float[length / Float.BYTES];
+        ByteBuffer.wrap(scratch, 0, length).asFloatBuffer().get(embedding);
+        return isValid(embedding) ? embedding : null;
+    }
+
+    private boolean isValid(final float[] embedding) {
+        if (dimension > 0 && embedding.length != dimension) {
+            return false;
+        }
+        for (final float value : embedding) {
+            if (!Float.isFinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes embeddings.
+     *
+     * @param encoded the Base64-encoded embeddings or handoff references
+     * @return the embeddings in the same order, with null for invalid ones
+     */
+    public List<float[]> decode(final List<String> encoded) {
+        final List<float[]> embeddings = new ArrayList<>(encoded.size());
+        for (final String value : encoded) {
+            embeddings.add(decode(value));
+        }
+        return embeddings;
+    }
+}
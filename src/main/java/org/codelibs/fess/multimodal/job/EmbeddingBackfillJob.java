@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SOURCE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_BACKFILL_INTERVAL;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_ENABLED;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_MAX_ATTEMPTS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.multimodal.spool.EmbeddingSpool;
+import org.codelibs.fess.multimodal.util.ProcessUtil;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.opensearch.client.SearchEngineClient;
+import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.action.bulk.BulkRequestBuilder;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.search.SearchHit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Job that embeds the images spooled by {@link org.codelibs.fess.multimodal.crawler.extractor.CasExtractor}
+ * and writes their vectors to the indexed documents with partial updates. It runs in a background thread
+ * when {@code fess.multimodal.spool.backfill_interval} is set, or from a Fess scheduler with the script
+ * {@code return container.getComponent("embeddingBackfillJob").execute();}.
+ * <p>
+ * Spooled images are matched to documents by URL, because the doc_id is not known while the crawler extracts
+ * the content. Each segment is claimed before it is read, so that processes sharing the spool directory do not embed
+ * the same images, and the background thread only runs in the web application, not in the crawler processes.
+ * Images whose document is not indexed yet or whose embedding fails are spooled again until the
+ * maximum number of attempts. When a whole batch fails, the CLIP server is regarded as unavailable and the run
+ * stops without counting an attempt, leaving the remaining segments for the next run.
+ * </p>
+ */
+public class EmbeddingBackfillJob {
+    private static final Logger logger = LogManager.getLogger(EmbeddingBackfillJob.class);
+
+    /** The spool to read, or null if the spool is disabled. */
+    protected EmbeddingSpool spool;
+
+    /** The provider used to generate the embeddings. */
+    protected EmbeddingProvider client;
+
+    /** The vector field that the embeddings are written to. */
+    protected String vectorField;
+
+    /** The reducer applied to the embeddings, or null if vectors are not reduced. */
+    protected VectorReducer reducer;
+
+    /** The number of attempts after which a spooled image is dropped. */
+    protected int maxAttempts;
+
+    /** The interval in milliseconds of the background backfill, or 0 if it is not run in the background. */
+    protected long interval;
+
+    /** The background thread, or null if it is not running. */
+    protected Thread backfillThread;
+
+    /** The number of images embedded in the current run. */
+    protected long embedded;
+
+    /** The number of images spooled again in the current run. */
+    protected long retried;
+
+    /** The number of images dropped in the current run. */
+    protected long dropped;
+
+    /**
+     * Constructs a new EmbeddingBackfillJob instance.
+     */
+    public EmbeddingBackfillJob() {
+        // Default constructor
+    }
+
+    /**
+     * Opens the spool and starts the background thread if an interval is configured and this is the web application.
+     */
+    @PostConstruct
+    public void init() {
+        spool = EmbeddingSpool.create();
+        maxAttempts = Integer.getInteger(SPOOL_MAX_ATTEMPTS, 5);
+        interval = Long.getLong(SPOOL_BACKFILL_INTERVAL, 0L);
+        if (spool == null || interval <= 0 || !ProcessUtil.isWebApplication()) {
+            return;
+        }
+
+        backfillThread = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Thread.sleep(interval);
+                    try {
+                        final String result = execute();
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Backfilled embeddings: {}", result);
+                        }
+                    } catch (final Exception e) {
+                        logger.warn("Failed to backfill embeddings.", e);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                logger.debug("Backfilling embeddings is interrupted.");
+            }
+        }, "MultiModalEmbeddingBackfill");
+        backfillThread.setDaemon(true);
+        backfillThread.start();
+    }
+
+    /**
+     * Stops the background thread and closes the spool.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (backfillThread != null) {
+            backfillThread.interrupt();
+            backfillThread = null;
+        }
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    /**
+     * Embeds the spooled images of all closed segments.
+     *
+     * @return the result summary
+     */
+    public synchronized String execute() {
+        if (spool == null) {
+            return SPOOL_ENABLED + " is not set.";
+        }
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
+        if (helper.isVectorSourceExcluded()) {
+            // a partial update rebuilds the document from _source, which would drop its other vectors
+            logger.warn("Spooled images are not backfilled because vectors are excluded from _source.");
+            return "Vectors are excluded from _source and would be removed by updates. Set " + CONTENT_SOURCE + " to stored or derived.";
+        }
+        vectorField = helper.getVectorField();
+        reducer = helper.getVectorReducer();
+        client = ComponentUtil.getComponent(MultiModalConstants.EMBEDDING_PROVIDER);
+        embedded = 0;
+        retried = 0;
+        dropped = 0;
+
+        spool.roll();
+        boolean available = true;
+        for (final Path segment : spool.getSegments(Math.max(interval, 60000L) * 2)) {
+            if (!available) {
+                break;
+            }
+            final Path claimed;
+            final List<EmbeddingSpool.Entry> entries;
+            try {
+                claimed = spool.claim(segment);
+                if (claimed == null) {
+                    // another process reads it
+                    continue;
+                }
+                entries = EmbeddingSpool.read(claimed);
+            } catch (final IOException e) {
+                logger.warn("Failed to read {}.", segment, e);
+                continue;
+            }
+            final int batchSize = Math.max(1, client.getBatchSize());
+            for (int start = 0; start < entries.size(); start += batchSize) {
+                final List<EmbeddingSpool.Entry> batch = entries.subList(start, Math.min(start + batchSize, entries.size()));
+                if (available) {
+                    available = backfill(batch);
+                    spool.renewClaim(claimed);
+                } else {
+                    // keep the rest of the segment for the next run
+                    batch.forEach(spool::append);
+                }
+            }
+            try {
+                Files.deleteIfExists(claimed);
+            } catch (final IOException e) {
+                logger.warn("Failed to delete {}.", claimed, e);
+            }
+        }
+        spool.roll();
+
+        final String result = "embedded=" + embedded + ", retried=" + retried + ", dropped=" + dropped + ", spool_size=" + spool.getSize();
+        if (!available) {
+            return "Suspended: " + result;
+        }
+        return "Completed: " + result;
+    }
+
+    /**
+     * Embeds a batch of spooled images and updates their documents.
+     *
+     * @param batch the spooled images
+     * @return false if the whole batch failed and the CLIP server is regarded as unavailable
+     */
+    protected boolean backfill(final List<EmbeddingSpool.Entry> batch) {
+        final Map<String, List<String>> docIds = findDocuments(batch.stream().map(EmbeddingSpool.Entry::getUrl).toList());
+        final List<EmbeddingSpool.Entry> found = new ArrayList<>(batch.size());
+        for (final EmbeddingSpool.Entry entry : batch) {
+            if (docIds.containsKey(entry.getUrl())) {
+                found.add(entry);
+            } else {
+                retry(entry);
+            }
+        }
+        if (found.isEmpty()) {
+            return true;
+        }
+
+        final List<InputStream> images = found.stream().map(e -> (InputStream) new ByteArrayInputStream(e.getImage())).toList();
+        final List<float[]> embeddings = client.getImageEmbeddings(images);
+        if (found.size() > 1 && embeddings.stream().allMatch(e -> e == null)) {
+            logger.warn("Failed to embed {} spooled images. Retry them in the next run.", found.size());
+            found.forEach(spool::append);
+            return false;
+        }
+
+        final Map<String, float[]> updates = new HashMap<>();
+        for (int i = 0; i < found.size(); i++) {
+            final float[] embedding = embeddings.get(i) != null && reducer != null ? reducer.reduce(embeddings.get(i)) : embeddings.get(i);
+            if (embedding == null) {
+                retry(found.get(i));
+                continue;
+            }
+            for (final String id : docIds.get(found.get(i).getUrl())) {
+                updates.put(id, embedding);
+            }
+            embedded++;
+        }
+        updateDocuments(updates);
+        return true;
+    }
+
+    /**
+     * Spools an image again, or drops it if it reached the maximum number of attempts.
+     *
+     * @param entry the spooled image
+     */
+    protected void retry(final EmbeddingSpool.Entry entry) {
+        if (entry.getAttempts() + 1 >= maxAttempts) {
+            logger.warn("Drop the spooled image of {} after {} attempts.", entry.getUrl(), entry.getAttempts() + 1);
+            dropped++;
+            return;
+        }
+        if (spool.append(new EmbeddingSpool.Entry(entry.getUrl(), entry.getImage(), entry.getAttempts() + 1))) {
+            retried++;
+        } else {
+            dropped++;
+        }
+    }
+
+    /**
+     * Finds the indexed documents of the URLs.
+     *
+     * @param urls the document URLs
+     * @return the IDs of the documents by URL
+     */
+    protected Map<String, List<String>> findDocuments(final List<String> urls) {
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final String urlField = fessConfig.getIndexFieldUrl();
+        final SearchEngineClient searchEngineClient = ComponentUtil.getSearchEngineClient();
+        final SearchHit[] hits = searchEngineClient.prepareSearch(fessConfig.getIndexDocumentUpdateIndex())
+                .setQuery(QueryBuilders.termsQuery(urlField, new LinkedHashSet<>(urls)))
+                .setSize(urls.size() * 2)
+                .setFetchSource(new String[] { urlField }, null)
+                .get()
+                .getHits()
+                .getHits();
+        final Map<String, List<String>> docIds = new HashMap<>();
+        for (final SearchHit hit : hits) {
+            final Object url = hit.getSourceAsMap().get(urlField);
+            if (url != null) {
+                docIds.computeIfAbsent(url.toString(), k -> new ArrayList<>()).add(hit.getId());
+            }
+        }
+        return docIds;
+    }
+
+    /**
+     * Writes the embeddings to the vector field of the documents with partial updates.
+     *
+     * @param updates the embeddings by document ID
+     */
+    protected void updateDocuments(final Map<String, float[]> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        final String index = ComponentUtil.getFessConfig().getIndexDocumentUpdateIndex();
+        final SearchEngineClient searchEngineClient = ComponentUtil.getSearchEngineClient();
+        final BulkRequestBuilder bulk = searchEngineClient.prepareBulk();
+        updates.forEach((id, embedding) -> bulk.add(searchEngineClient.prepareUpdate(index, id).setDoc(Map.of(vectorField, embedding))));
+        final BulkResponse response = bulk.get();
+        if (response.hasFailures()) {
+            logger.warn("Failed to update documents: {}", response.buildFailureMessage());
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_DAYS;
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_DELAY;
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_KNN_QUERIES;
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_QUERIES;
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_QUERIES_PER_SECOND;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.entity.SearchRequestParams.SearchRequestType;
+import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.multimodal.index.query.KNNQueryBuilder;
+import org.codelibs.fess.multimodal.util.ProcessUtil;
+import org.codelibs.fess.opensearch.client.SearchEngineClient;
+import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.action.search.SearchResponse;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.search.aggregations.AggregationBuilders;
+import org.opensearch.search.aggregations.bucket.terms.Terms;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Fills the text embedding cache of the query embedding provider with the most frequent queries of the search log at startup,
+ * so that the first queries after a restart do not all go to the CLIP server.
+ * <p>
+ * Warming runs in a background thread after {@code fess.multimodal.warmup.delay} milliseconds. The top
+ * {@code fess.multimodal.warmup.queries} search words of the last {@code fess.multimodal.warmup.days} days are embedded
+ * in batches at no more than {@code fess.multimodal.warmup.queries_per_second}. If {@code fess.multimodal.warmup.knn_queries}
+ * is set, that many KNN searches are then run with the warmed embeddings to load the vector graph of the document index.
+ * Warming requires {@code clip.text.cache_size} to be set, and only runs in the web application, because the crawler
+ * processes do not serve queries.
+ * </p>
+ */
+public class QueryEmbeddingWarmer {
+    private static final Logger logger = LogManager.getLogger(QueryEmbeddingWarmer.class);
+
+    private static final String SEARCH_LOG_INDEX_SUFFIX = ".search_log";
+
+    private static final String SEARCH_WORD_FIELD = "searchWord";
+
+    private static final String REQUESTED_AT_FIELD = "requestedAt";
+
+    private static final String AGGREGATION_NAME = "search_words";
+
+    /** The number of queries to warm, or 0 if warming is disabled. */
+    protected int queries;
+
+    /** The number of days of search logs to read. */
+    protected int days;
+
+    /** The maximum number of queries embedded per second, or 0 for no limit. */
+    protected double queriesPerSecond;
+
+    /** The delay in milliseconds before warming starts. */
+    protected long delay;
+
+    /** The number of KNN searches run after the embeddings are warmed. */
+    protected int knnQueries;
+
+    /** The background thread that warms the cache, or null if it is not running. */
+    protected Thread warmerThread;
+
+    /**
+     * Constructs a new QueryEmbeddingWarmer instance.
+     */
+    public QueryEmbeddingWarmer() {
+        // Default constructor
+    }
+
+    /**
+     * Loads the configuration and starts warming in a background thread if it is enabled and this is the web application.
+     */
+    @PostConstruct
+    public void init() {
+        queries = Integer.getInteger(WARMUP_QUERIES, 0);
+        days = Integer.getInteger(WARMUP_DAYS, 7);
+        queriesPerSecond = Double.parseDouble(System.getProperty(WARMUP_QUERIES_PER_SECOND, "20"));
+        delay = Long.getLong(WARMUP_DELAY, 10000L);
+        knnQueries = Integer.getInteger(WARMUP_KNN_QUERIES, 0);
+        if (queries <= 0 || !ProcessUtil.isWebApplication()) {
+            return;
+        }
+
+        warmerThread = new Thread(() -> {
+            try {
+                Thread.sleep(delay);
+                final String result = execute();
+                logger.info("Warmed query embeddings: {}", result);
+            } catch (final InterruptedException e) {
+                logger.debug("Warming query embeddings is interrupted.");
+            } catch (final Exception e) {
+                logger.warn("Failed to warm query embeddings.", e);
+            }
+        }, "MultiModalQueryWarmer");
+        warmerThread.setDaemon(true);
+        warmerThread.start();
+    }
+
+    /**
+     * Stops the background thread if it is still warming.
+     */
+    @PreDestroy
+    public void destroy() {
+        if (warmerThread != null) {
+            warmerThread.interrupt();
+            warmerThread = null;
+        }
+    }
+
+    /**
+     * Reads the most frequent queries from the search log, embeds them into the text embedding cache and
+     * optionally runs KNN searches with them.
+     *
+     * @return the result summary
+     * @throws InterruptedException if the thread is interrupted while throttled
+     */
+    public String execute() throws InterruptedException {
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
+        final EmbeddingProvider provider = ComponentUtil.getComponent(helper.getQueryEmbeddingProvider());
+        if (!(provider instanceof final CasClient client) || !client.isTextEmbeddingCacheEnabled()) {
+            return "clip.text.cache_size is not set.";
+        }
+
+        final List<String> words = loadTopQueries();
+        final int batchSize = client.getBatchSize();
+        final long startTime = System.currentTimeMillis();
+        int warmed = 0;
+        for (int start = 0; start < words.size(); start += batchSize) {
+            final List<String> batch = words.subList(start, Math.min(start + batchSize, words.size()));
+            warmed += client.warmTextEmbeddings(batch);
+            throttle(start + batch.size(), startTime);
+        }
+
+        int searched = 0;
+        for (int i = 0; i < words.size() && searched < knnQueries; i++) {
+            if (searchKnn(client.getTextEmbedding(words.get(i)))) {
+                searched++;
+            }
+        }
+        return "queries=" + words.size() + ", warmed=" + warmed + ", knn_queries=" + searched;
+    }
+
+    /**
+     * Gets the most frequent search words of the search log.
+     *
+     * @return the search words, most frequent first
+     */
+    protected List<String> loadTopQueries() {
+        return loadTopQueries(queries, days);
+    }
+
+    /**
+     * Gets the most frequent search words of the search log in the last days.
+     *
+     * @param queries the maximum number of search words
+     * @param days the number of days of the search log
+     * @return the search words, most frequent first
+     */
+    protected List<String> loadTopQueries(final int queries, final int days) {
+        final SearchEngineClient searchEngineClient = ComponentUtil.getSearchEngineClient();
+        final String index = ComponentUtil.getFessConfig().getIndexLogIndex() + SEARCH_LOG_INDEX_SUFFIX;
+        final SearchResponse response = searchEngineClient.prepareSearch(index)
+                .setQuery(QueryBuilders.rangeQuery(REQUESTED_AT_FIELD).gte("now-" + days + "d"))
+                .setSize(0)
+                .addAggregation(AggregationBuilders.terms(AGGREGATION_NAME).field(SEARCH_WORD_FIELD).size(queries))
+                .get();
+        final Terms terms = response.getAggregations().get(AGGREGATION_NAME);
+        final List<String> words = new ArrayList<>(queries);
+        for (final Terms.Bucket bucket : terms.getBuckets()) {
+            final String word = bucket.getKeyAsString();
+            if (StringUtil.isNotBlank(word)) {
+                words.add(word);
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("loaded {} queries from {}", words.size(), index);
+        }
+        return words;
+    }
+
+    /**
+     * Runs a KNN search on the document index to load the vector graph.
+     *
+     * @param embedding the query embedding
+     * @return true if the search succeeded
+     */
+    protected boolean searchKnn(final float[] embedding) {
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
+        try {
+            final KNNQueryBuilder knnQuery = new KNNQueryBuilder.Builder().field(helper.getVectorField())
+                    .vector(helper.getVectorReducer() != null ? helper.getVectorReducer().reduce(embedding) : embedding)
+                    .k(10)
+                    .efSearch(helper.getEfSearch(SearchRequestType.SEARCH))
+                    .build();
+            ComponentUtil.getSearchEngineClient()
+                    .prepareSearch(ComponentUtil.getFessConfig().getIndexDocumentSearchIndex())
+                    .setQuery(knnQuery)
+                    .setSize(10)
+                    .setFetchSource(false)
+                    .get();
+            return true;
+        } catch (final Exception e) {
+            logger.debug("Failed to run a KNN search for warming.", e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits so that the number of embedded queries does not exceed the configured rate.
+     *
+     * @param count the number of queries embedded since the start
+     * @param startTime the start time in milliseconds
+     * @throws InterruptedException if the thread is interrupted
+     */
+    protected void throttle(final long count, final long startTime) throws InterruptedException {
+        if (queriesPerSecond <= 0) {
+            return;
+        }
+        final long waitTime = (long) (count * 1000 / queriesPerSecond) - (System.currentTimeMillis() - startTime);
+        if (waitTime > 0) {
+            Thread.sleep(waitTime);
+        }
+    }
+}
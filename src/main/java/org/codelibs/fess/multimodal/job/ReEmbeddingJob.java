@@ -0,0 +1,514 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_ENGINE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SOURCE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SPACE_TYPE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_CHECKPOINT;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_DOCS_PER_SECOND;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_ENDPOINT;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_MAX_DOCUMENTS;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.curl.Curl;
+import org.codelibs.curl.CurlResponse;
+import org.codelibs.fess.crawler.builder.RequestDataBuilder;
+import org.codelibs.fess.crawler.client.CrawlerClient;
+import org.codelibs.fess.crawler.client.CrawlerClientFactory;
+import org.codelibs.fess.crawler.entity.ResponseData;
+import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.mylasta.direction.FessConfig;
+import org.codelibs.fess.opensearch.client.SearchEngineClient;
+import org.codelibs.fess.opensearch.config.exentity.CrawlingConfig;
+import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.action.bulk.BulkItemResponse;
+import org.opensearch.action.bulk.BulkRequestBuilder;
+import org.opensearch.action.bulk.BulkResponse;
+import org.opensearch.action.search.SearchRequestBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.search.SearchHit;
+import org.opensearch.search.sort.SortOrder;
+
+/**
+ * Scheduled job that re-embeds indexed images into a new vector field without recrawling, for example after
+ * changing the CLIP model or the vector dimension. It can be run from a Fess scheduler with the script
+ * {@code return container.getComponent("reEmbeddingJob").execute();}.
+ * <p>
+ * Documents that have the current vector field but not the new one are processed in doc_id order. Their images
+ * are fetched again from their URLs with the client of their crawl config, so that its authentication applies,
+ * embedded in batches, and written to the new field with partial updates. The last processed doc_id is stored
+ * in a checkpoint file, so an interrupted or bounded run resumes where it stopped. A batch with failed updates
+ * stops the run without moving the checkpoint, so that the next run retries them. When the whole batch cannot be
+ * embedded, the CLIP server is regarded as unavailable and the run is suspended before the batch in the same way.
+ * </p>
+ * <p>
+ * Documents crawled while the job runs only get the current field. Once the job reports completion, pause
+ * crawling, run it again until it completes, and then switch {@code fess.multimodal.content.field} to the new field
+ * (and {@code clip.server.endpoint} to the new model) before crawling resumes.
+ * </p>
+ */
+public class ReEmbeddingJob {
+    private static final Logger logger = LogManager.getLogger(ReEmbeddingJob.class);
+
+    private static final String CHECKPOINT_FIELD = "field";
+
+    private static final String CHECKPOINT_LAST_DOC_ID = "last_doc_id";
+
+    private static final String CHECKPOINT_PROCESSED = "processed";
+
+    /** The vector field that holds the current embeddings. */
+    protected String sourceField;
+
+    /** The vector field that the new embeddings are written to. */
+    protected String targetField;
+
+    /** The provider used to generate the new embeddings. */
+    protected EmbeddingProvider client;
+
+    /** The client created for the endpoint of the new model, which is destroyed when the run ends, or null. */
+    protected CasClient endpointClient;
+
+    /** The maximum number of documents re-embedded per second, or 0 for no limit. */
+    protected double docsPerSecond;
+
+    /** The maximum number of documents re-embedded per run, or 0 for no limit. */
+    protected long maxDocuments;
+
+    /** The maximum size of a fetched image in bytes. */
+    protected int maxImageBytes;
+
+    /** The checkpoint file. */
+    protected Path checkpointPath;
+
+    /** Whether vectors are excluded from _source. */
+    protected boolean vectorSourceExcluded;
+
+    /** The crawler client factories of crawl configs, created on first use in a run. */
+    protected final Map<String, CrawlerClientFactory> clientFactories = new HashMap<>();
+
+    /**
+     * Constructs a new ReEmbeddingJob instance.
+     */
+    public ReEmbeddingJob() {
+        // Default constructor
+    }
+
+    /**
+     * Runs the job until all documents are re-embedded or the per-run limit is reached.
+     *
+     * @return the result summary
+     */
+    public String execute() {
+        init();
+        try {
+            return reEmbed();
+        } finally {
+            destroyProvider();
+        }
+    }
+
+    /**
+     * Re-embeds documents with the loaded configuration.
+     *
+     * @return the result summary
+     */
+    protected String reEmbed() {
+        if (StringUtil.isBlank(targetField)) {
+            return REEMBED_FIELD + " is not set.";
+        }
+        if (targetField.equals(sourceField)) {
+            return targetField + " is already the vector field.";
+        }
+        if (vectorSourceExcluded) {
+            // a partial update rebuilds the document from _source, which would drop the vectors of the current field
+            return "Vectors are excluded from _source and would be removed by updates. Set " + CONTENT_SOURCE + " to stored or derived.";
+        }
+
+        final FessConfig fessConfig = ComponentUtil.getFessConfig();
+        final String index = fessConfig.getIndexDocumentUpdateIndex();
+        final String docIdField = fessConfig.getIndexFieldDocId();
+        final String urlField = fessConfig.getIndexFieldUrl();
+        final String configIdField = fessConfig.getIndexFieldConfigId();
+        final SearchEngineClient searchEngineClient = ComponentUtil.getSearchEngineClient();
+        putMapping(searchEngineClient, index);
+
+        final Properties checkpoint = loadCheckpoint();
+        String lastDocId = checkpoint.getProperty(CHECKPOINT_LAST_DOC_ID);
+        long processed = Long.parseLong(checkpoint.getProperty(CHECKPOINT_PROCESSED, "0"));
+        long count = 0;
+        long updated = 0;
+        long unembedded = 0;
+        final long startTime = System.currentTimeMillis();
+        while (maxDocuments <= 0 || count < maxDocuments) {
+            final SearchRequestBuilder builder = searchEngineClient.prepareSearch(index)
+                    .setQuery(QueryBuilders.boolQuery()
+                            .filter(QueryBuilders.existsQuery(sourceField))
+                            .mustNot(QueryBuilders.existsQuery(targetField)))
+                    .setSize(client.getBatchSize())
+                    .addSort(docIdField, SortOrder.ASC)
+                    .setFetchSource(new String[] { docIdField, urlField, configIdField }, null);
+            if (lastDocId != null) {
+                builder.searchAfter(new Object[] { lastDocId });
+            }
+            final SearchHit[] hits = builder.get().getHits().getHits();
+            if (hits.length == 0) {
+                deleteCheckpoint();
+                logger.info("Re-embedding into {} is completed: {} documents.", targetField, processed);
+                return "Completed: field=" + targetField + ", processed=" + processed + ", updated=" + updated + ", unembedded="
+                        + unembedded;
+            }
+
+            final List<float[]> embeddings = embed(hits, urlField, configIdField);
+            if (embeddings == null) {
+                // the checkpoint stays before this batch, so that the next run does not skip its images
+                return "Suspended: field=" + targetField + ", processed=" + processed + ", updated=" + updated + ", unembedded="
+                        + unembedded + ", last_doc_id=" + lastDocId;
+            }
+            final BulkRequestBuilder bulk = searchEngineClient.prepareBulk();
+            for (int i = 0; i < hits.length; i++) {
+                if (embeddings.get(i) != null) {
+                    bulk.add(searchEngineClient.prepareUpdate(index, hits[i].getId()).setDoc(Map.of(targetField, embeddings.get(i))));
+                } else {
+                    unembedded++;
+                }
+            }
+            if (bulk.numberOfActions() > 0) {
+                final BulkResponse response = bulk.get();
+                int failed = 0;
+                for (final BulkItemResponse item : response.getItems()) {
+                    if (item.isFailed()) {
+                        failed++;
+                    } else {
+                        updated++;
+                    }
+                }
+                if (failed > 0) {
+                    // the checkpoint stays before this batch, and the next run only finds the documents without the new field
+                    logger.warn("Failed to update documents: {}", response.buildFailureMessage());
+                    return "Failed: field=" + targetField + ", processed=" + processed + ", updated=" + updated + ", failed=" + failed
+                            + ", last_doc_id=" + lastDocId;
+                }
+            }
+
+            lastDocId = String.valueOf(hits[hits.length - 1].getSortValues()[0]);
+            count += hits.length;
+            processed += hits.length;
+            saveCheckpoint(lastDocId, processed);
+            if (logger.isDebugEnabled()) {
+                logger.debug("re-embedded {} documents, last doc_id: {}", processed, lastDocId);
+            }
+
+            if (!throttle(count, startTime)) {
+                break;
+            }
+        }
+        return "Suspended: field=" + targetField + ", processed=" + processed + ", updated=" + updated + ", unembedded=" + unembedded
+                + ", last_doc_id=" + lastDocId;
+    }
+
+    /**
+     * Loads the job configuration from system properties.
+     */
+    protected void init() {
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
+        sourceField = helper.getVectorField();
+        vectorSourceExcluded = helper.isVectorSourceExcluded();
+        final String field = System.getProperty(REEMBED_FIELD);
+        targetField = StringUtil.isNotBlank(field) ? field.trim() : null;
+        docsPerSecond = Double.parseDouble(System.getProperty(REEMBED_DOCS_PER_SECOND, "0"));
+        maxDocuments = Long.parseLong(System.getProperty(REEMBED_MAX_DOCUMENTS, "0"));
+        maxImageBytes = Integer.getInteger("clip.image.embedded.max_bytes", 10 * 1024 * 1024);
+        checkpointPath = Paths.get(System.getProperty(REEMBED_CHECKPOINT,
+                Paths.get(System.getProperty("fess.var.path", System.getProperty("java.io.tmpdir")), "multimodal_reembed.properties")
+                        .toString()));
+        clientFactories.clear();
+        client = ComponentUtil.getComponent(MultiModalConstants.EMBEDDING_PROVIDER);
+        final String endpoint = System.getProperty(REEMBED_ENDPOINT);
+        if (StringUtil.isNotBlank(endpoint)) {
+            client = createProvider(client, endpoint.trim());
+        }
+        logger.info("Re-embedding {} into {}: docsPerSecond={}, maxDocuments={}, checkpoint={}", sourceField, targetField, docsPerSecond,
+                maxDocuments, checkpointPath);
+    }
+
+    /**
+     * Creates a CAS client that sends requests to another endpoint. The client is a prototype component,
+     * so it is initialized and configured by the container like the configured provider.
+     *
+     * @param provider the configured provider
+     * @param endpoint the endpoint of the new model
+     * @return the provider for the endpoint
+     */
+    protected EmbeddingProvider createProvider(final EmbeddingProvider provider, final String endpoint) {
+        if (!(provider instanceof CasClient)) {
+            logger.warn("{} is ignored because {} has no endpoint.", REEMBED_ENDPOINT, provider.getClass().getName());
+            return provider;
+        }
+        endpointClient = ComponentUtil.getComponent(MultiModalConstants.REEMBEDDING_PROVIDER);
+        endpointClient.setClipEndpoint(endpoint);
+        return endpointClient;
+    }
+
+    /**
+     * Destroys the client created for the endpoint of the new model, which closes its executor and gRPC channel.
+     */
+    protected void destroyProvider() {
+        if (endpointClient != null) {
+            endpointClient.destroy();
+            endpointClient = null;
+        }
+    }
+
+    /**
+     * Adds the knn_vector mapping of the target field to the index. The method, engine and space type
+     * of the current vector field are reused.
+     *
+     * @param searchEngineClient the search engine client
+     * @param index the index name
+     */
+    protected void putMapping(final SearchEngineClient searchEngineClient, final String index) {
+        final String dimension = System.getProperty(REEMBED_DIMENSION, System.getProperty(CONTENT_DIMENSION));
+        final String methodName = System.getProperty(CONTENT_METHOD);
+        final String engine = System.getProperty(CONTENT_ENGINE);
+        if (StringUtil.isBlank(dimension) || StringUtil.isBlank(methodName) || StringUtil.isBlank(engine)) {
+            logger.warn("Skip the mapping of {} because the vector settings are incomplete.", targetField);
+            return;
+        }
+        final Map<String, Object> method = Map.of("name", methodName, //
+                "engine", engine, //
+                "space_type", System.getProperty(CONTENT_SPACE_TYPE, "l2"));
+        final Map<String, Object> mapping =
+                Map.of("type", "knn_vector", "dimension", Integer.parseInt(dimension.trim()), "method", method);
+        searchEngineClient.admin().indices().preparePutMapping(index).setSource(Map.of("properties", Map.of(targetField, mapping))).get();
+    }
+
+    /**
+     * Generates embeddings for the images of the documents.
+     *
+     * @param hits the documents
+     * @param urlField the name of the URL field
+     * @param configIdField the name of the crawl config ID field
+     * @return embeddings in the order of the documents, with null for images that cannot be fetched or embedded,
+     *         or null if the CLIP server is regarded as unavailable
+     */
+    protected List<float[]> embed(final SearchHit[] hits, final String urlField, final String configIdField) {
+        final List<InputStream> images = new ArrayList<>(hits.length);
+        int fetched = 0;
+        for (final SearchHit hit : hits) {
+            final Object url = hit.getSourceAsMap().get(urlField);
+            final Object configId = hit.getSourceAsMap().get(configIdField);
+            try {
+                images.add(new ByteArrayInputStream(fetch(url.toString(), configId != null ? configId.toString() : null)));
+                fetched++;
+            } catch (final Exception e) {
+                logger.warn("Failed to fetch {}.", url, e);
+                images.add(new ByteArrayInputStream(new byte[0]));
+            }
+        }
+        return embed(images, fetched);
+    }
+
+    /**
+     * Generates embeddings for fetched images. A transient failure or a batch of which no fetched image can be
+     * embedded means that the CLIP server is unavailable rather than that the images are broken.
+     *
+     * @param images the images, with empty content for images that cannot be fetched
+     * @param fetched the number of fetched images
+     * @return embeddings in the order of the images, with null for images that cannot be embedded,
+     *         or null if the CLIP server is regarded as unavailable
+     */
+    protected List<float[]> embed(final List<InputStream> images, final int fetched) {
+        final List<float[]> embeddings;
+        try {
+            embeddings = client.getImageEmbeddings(images);
+        } catch (final RuntimeException e) {
+            if (!client.isTransientFailure(e)) {
+                throw e;
+            }
+            logger.warn("Failed to embed {} images. Retry them in the next run.", fetched, e);
+            return null;
+        }
+        if (fetched > 1 && embeddings.stream().allMatch(e -> e == null)) {
+            logger.warn("Failed to embed {} fetched images. Retry them in the next run.", fetched);
+            return null;
+        }
+        return embeddings;
+    }
+
+    /**
+     * Fetches the content of a URL with the crawler client of its crawl config, which applies the authentication
+     * and other client settings of the crawl, as the document cache of Fess does. Without a crawl config,
+     * the content is fetched directly.
+     *
+     * @param url the URL
+     * @param configId the crawl config ID of the document, or null
+     * @return the content
+     * @throws IOException if the content cannot be fetched or exceeds the maximum size
+     */
+    protected byte[] fetch(final String url, final String configId) throws IOException {
+        final CrawlingConfig config =
+                StringUtil.isNotBlank(configId) ? ComponentUtil.getCrawlingConfigHelper().getCrawlingConfig(configId) : null;
+        if (config == null) {
+            return fetch(url);
+        }
+        final CrawlerClientFactory factory = clientFactories.computeIfAbsent(configId,
+                id -> config.initializeClientFactory(() -> ComponentUtil.getComponent(CrawlerClientFactory.class)));
+        final CrawlerClient crawlerClient = factory.getClient(url);
+        if (crawlerClient == null) {
+            throw new IOException("No crawler client for " + url);
+        }
+        try (ResponseData responseData = crawlerClient.execute(RequestDataBuilder.newRequestData().get().url(url).build())) {
+            if (responseData.getHttpStatusCode() != 200) {
+                throw new IOException("HTTP status " + responseData.getHttpStatusCode() + ": " + url);
+            }
+            try (InputStream in = responseData.getResponseBody()) {
+                return readLimited(in, url);
+            }
+        }
+    }
+
+    /**
+     * Fetches the content of an http(s) or file URL.
+     *
+     * @param url the URL
+     * @return the content
+     * @throws IOException if the content cannot be fetched or exceeds the maximum size
+     */
+    protected byte[] fetch(final String url) throws IOException {
+        if (url.startsWith("http:") || url.startsWith("https:")) {
+            try (CurlResponse response = Curl.get(url).execute()) {
+                if (response.getHttpStatusCode() != 200) {
+                    throw new IOException("HTTP status " + response.getHttpStatusCode() + ": " + url);
+                }
+                try (InputStream in = response.getContentAsStream()) {
+                    return readLimited(in, url);
+                }
+            }
+        }
+        if (url.startsWith("file:")) {
+            try (InputStream in = Files.newInputStream(Paths.get(URI.create(url.replace(" ", "%20"))))) {
+                return readLimited(in, url);
+            }
+        }
+        throw new IOException("Unsupported URL: " + url);
+    }
+
+    private byte[] readLimited(final InputStream in, final String url) throws IOException {
+        final byte[] bytes = in.readNBytes(maxImageBytes + 1);
+        if (bytes.length > maxImageBytes) {
+            throw new IOException("The image is larger than " + maxImageBytes + " bytes: " + url);
+        }
+        return bytes;
+    }
+
+    /**
+     * Sleeps to keep the rate at or below the configured documents per second.
+     *
+     * @param count the number of documents processed in this run
+     * @param startTime the start time of this run
+     * @return false if the job is interrupted
+     */
+    protected boolean throttle(final long count, final long startTime) {
+        if (docsPerSecond <= 0) {
+            return true;
+        }
+        final long waitTime = (long) (count * 1000 / docsPerSecond) - (System.currentTimeMillis() - startTime);
+        if (waitTime > 0) {
+            try {
+                Thread.sleep(waitTime);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.info("Re-embedding is interrupted.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Loads the checkpoint. A checkpoint written for another target field is ignored.
+     *
+     * @return the checkpoint properties
+     */
+    protected Properties loadCheckpoint() {
+        final Properties checkpoint = new Properties();
+        if (Files.exists(checkpointPath)) {
+            try (InputStream in = Files.newInputStream(checkpointPath)) {
+                checkpoint.load(in);
+            } catch (final IOException e) {
+                logger.warn("Failed to load {}.", checkpointPath, e);
+            }
+            if (!targetField.equals(checkpoint.getProperty(CHECKPOINT_FIELD))) {
+                logger.info("Ignore the checkpoint for {}.", checkpoint.getProperty(CHECKPOINT_FIELD));
+                checkpoint.clear();
+            }
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Saves the checkpoint.
+     *
+     * @param lastDocId the doc_id of the last processed document
+     * @param processed the number of processed documents
+     */
+    protected void saveCheckpoint(final String lastDocId, final long processed) {
+        final Properties checkpoint = new Properties();
+        checkpoint.setProperty(CHECKPOINT_FIELD, targetField);
+        checkpoint.setProperty(CHECKPOINT_LAST_DOC_ID, lastDocId);
+        checkpoint.setProperty(CHECKPOINT_PROCESSED, Long.toString(processed));
+        try (OutputStream out = Files.newOutputStream(checkpointPath)) {
+            checkpoint.store(out, "fess-webapp-multimodal re-embedding");
+        } catch (final IOException e) {
+            logger.warn("Failed to save {}.", checkpointPath, e);
+        }
+    }
+
+    /**
+     * Deletes the checkpoint after completion, so that the next run scans the index from the beginning.
+     */
+    protected void deleteCheckpoint() {
+        try {
+            Files.deleteIfExists(checkpointPath);
+        } catch (final IOException e) {
+            logger.warn("Failed to delete {}.", checkpointPath, e);
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SOURCE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SPACE_TYPE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.NESTED_VECTOR_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_NORMALIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_SAMPLE_SIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_DAYS;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.join.ScoreMode;
+import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.util.ComponentUtil;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
+import org.opensearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.opensearch.search.SearchHit;
+
+/**
+ * Scheduled job that learns the PCA projection of vectors from a random sample of indexed documents and reports
+ * how much of the nearest neighbors it keeps. It can be run from a Fess scheduler with the script
+ * {@code return container.getComponent("vectorReducerJob").execute();}.
+ * <p>
+ * The sample holds both document vectors and nested text chunk vectors, since the projection is applied to both.
+ * Recall@k is the overlap of the exact top-k neighbors of queries in the sample before and after the reduction,
+ * in the configured space type. The queries are embeddings of frequent search words, because text and image
+ * vectors of CLIP models lie apart and held-out document vectors would not measure text-to-image search;
+ * held-out sample vectors are used only if the search log is empty. The recall of keeping a prefix of the vectors
+ * is reported as well, so that PCA and Matryoshka truncation can be compared on the same data.
+ * </p>
+ * <p>
+ * The projection is saved next to the reducer file with the {@code .staged} suffix, because running processes
+ * load the reducer file itself. It has to be moved to the reducer file before {@code fess.multimodal.reduce.method}
+ * is set to {@code pca}. The sampled vectors have to be the full vectors of the model and readable from
+ * {@code _source}, so the job refuses to run while vectors are reduced or excluded from {@code _source}.
+ * </p>
+ */
+public class VectorReducerJob {
+    private static final Logger logger = LogManager.getLogger(VectorReducerJob.class);
+
+    /** The suffix of the file the projection is saved to until it is promoted to the reducer file. */
+    public static final String STAGED_SUFFIX = ".staged";
+
+    /** The number of neighbors compared to compute the recall. */
+    protected int k = 10;
+
+    /** The maximum number of queries used to compute the recall. */
+    protected int maxQueries = 100;
+
+    /**
+     * Constructs a new VectorReducerJob instance.
+     */
+    public VectorReducerJob() {
+        // Default constructor
+    }
+
+    /**
+     * Learns the PCA projection and saves it to the staging file.
+     *
+     * @return the report
+     */
+    public String execute() {
+        final int dimension = Integer.getInteger(REDUCE_DIMENSION, 0);
+        if (dimension <= 0) {
+            return REDUCE_DIMENSION + " is not set.";
+        }
+        final int modelDimension = Integer.getInteger(CONTENT_DIMENSION, 0);
+        if (modelDimension <= dimension) {
+            return CONTENT_DIMENSION + " has to be set to the dimension of the model, larger than " + dimension + ".";
+        }
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(MultiModalConstants.HELPER);
+        if (helper.isVectorSourceExcluded()) {
+            return "Vectors are excluded from _source and cannot be sampled. Set " + CONTENT_SOURCE + " to stored or derived.";
+        }
+        if (helper.getVectorReducer() != null) {
+            return "Vectors are already reduced by " + helper.getVectorReducer() + ". Unset " + REDUCE_METHOD
+                    + " and reindex vectors of the model before learning another projection.";
+        }
+        final List<float[]> sample =
+                sampleVectors(helper.getVectorField(), helper.getNestedVectorField(), Integer.getInteger(REDUCE_SAMPLE_SIZE, 10000));
+        final long mismatched = sample.stream().filter(v -> v.length != modelDimension).count();
+        if (mismatched > 0) {
+            return mismatched + " of " + sample.size() + " sampled vectors do not have " + modelDimension
+                    + " dimensions. Reindex vectors of the model before learning a projection.";
+        }
+        if (sample.size() < 2 * k) {
+            return "Not enough vectors in " + helper.getVectorField() + ": " + sample.size();
+        }
+
+        final List<float[]> textQueries = embedQueries(helper, modelDimension);
+        final List<float[]> corpus;
+        final List<float[]> queries;
+        if (textQueries.isEmpty()) {
+            final int queryCount = Math.max(1, Math.min(maxQueries, sample.size() / 10));
+            queries = sample.subList(sample.size() - queryCount, sample.size());
+            corpus = sample.subList(0, sample.size() - queryCount);
+        } else {
+            queries = textQueries;
+            corpus = sample;
+        }
+        final boolean normalize = Boolean.parseBoolean(System.getProperty(REDUCE_NORMALIZE, Boolean.TRUE.toString()).trim());
+        final String spaceType = System.getProperty(CONTENT_SPACE_TYPE, "l2");
+        final VectorReducer reducer = VectorReducer.fit(corpus, dimension, normalize);
+        final double recall = measureRecall(corpus, queries, reducer, spaceType);
+        final double truncationRecall = measureRecall(corpus, queries, VectorReducer.truncation(dimension, normalize), spaceType);
+
+        final Path path = getStagingPath();
+        try {
+            reducer.save(path);
+        } catch (final IOException e) {
+            logger.warn("Failed to save {}.", path, e);
+            return "Failed to save " + path + ": " + e.getMessage();
+        }
+        final String report = String.format(Locale.ROOT,
+                "Completed: dimension=%d->%d, samples=%d, queries=%d (%s), explained_variance=%.4f, recall@%d=%.4f,"
+                        + " truncate_recall@%d=%.4f, path=%s. Move it to %s on every host before setting %s=pca.",
+                reducer.getInputDimension(), dimension, corpus.size(), queries.size(), textQueries.isEmpty() ? "documents" : "search_log",
+                reducer.getExplainedVariance(), k, recall, k, truncationRecall, path, VectorReducer.getPath(), REDUCE_METHOD);
+        logger.info(report);
+        return report;
+    }
+
+    /**
+     * Gets the file the projection is saved to, next to the reducer file that running processes load.
+     *
+     * @return the path
+     */
+    protected Path getStagingPath() {
+        final Path path = VectorReducer.getPath();
+        return path.resolveSibling(path.getFileName() + STAGED_SUFFIX);
+    }
+
+    /**
+     * Embeds frequent search words with the query embedding provider.
+     *
+     * @param helper the search helper
+     * @param dimension the dimension of the model
+     * @return the query vectors, or an empty list if the search log has no words
+     */
+    protected List<float[]> embedQueries(final MultiModalSearchHelper helper, final int dimension) {
+        final List<String> words;
+        try {
+            final QueryEmbeddingWarmer warmer = ComponentUtil.getComponent(MultiModalConstants.QUERY_EMBEDDING_WARMER);
+            words = warmer.loadTopQueries(maxQueries, Integer.getInteger(WARMUP_DAYS, 7));
+        } catch (final Exception e) {
+            logger.warn("Failed to load search words. Held-out vectors are used as queries.", e);
+            return List.of();
+        }
+        if (words.isEmpty()) {
+            return List.of();
+        }
+        final EmbeddingProvider provider = ComponentUtil.getComponent(helper.getQueryEmbeddingProvider());
+        final List<float[]> queries = new ArrayList<>(words.size());
+        for (final float[] embedding : provider.getTextEmbeddings(words)) {
+            if (embedding != null && embedding.length == dimension) {
+                queries.add(embedding);
+            }
+        }
+        return queries;
+    }
+
+    /**
+     * Reads the document vectors and nested vectors of randomly chosen documents from {@code _source}.
+     *
+     * @param vectorField the vector field
+     * @param nestedVectorField the nested vector field, or null
+     * @param size the maximum number of vectors, also capping the documents by the default maximum result window of 10000
+     * @return the vectors
+     */
+    protected List<float[]> sampleVectors(final String vectorField, final String nestedVectorField, final int size) {
+        final QueryBuilder query = nestedVectorField == null ? QueryBuilders.existsQuery(vectorField)
+                : QueryBuilders.boolQuery()
+                        .should(QueryBuilders.existsQuery(vectorField))
+                        .should(QueryBuilders.nestedQuery(nestedVectorField,
+                                QueryBuilders.existsQuery(nestedVectorField + "." + NESTED_VECTOR_FIELD), ScoreMode.None));
+        final SearchHit[] hits = ComponentUtil.getSearchEngineClient()
+                .prepareSearch(ComponentUtil.getFessConfig().getIndexDocumentSearchIndex())
+                .setQuery(QueryBuilders.functionScoreQuery(query, ScoreFunctionBuilders.randomFunction()))
+                .setSize(Math.min(size, 10000))
+                .setFetchSource(nestedVectorField == null ? new String[] { vectorField } : new String[] { vectorField, nestedVectorField },
+                        null)
+                .get()
+                .getHits()
+                .getHits();
+        final List<float[]> vectors = new ArrayList<>(hits.length);
+        for (final SearchHit hit : hits) {
+            addVectors(hit.getSourceAsMap(), vectorField, nestedVectorField, vectors);
+            if (vectors.size() >= size) {
+                return vectors.subList(0, size);
+            }
+        }
+        return vectors;
+    }
+
+    /**
+     * Adds the document vector and the nested vectors of a document source to a list.
+     *
+     * @param source the document source
+     * @param vectorField the vector field
+     * @param nestedVectorField the nested vector field, or null
+     * @param vectors the list the vectors are added to
+     */
+    protected void addVectors(final Map<String, Object> source, final String vectorField, final String nestedVectorField,
+            final List<float[]> vectors) {
+        if (source.get(vectorField) instanceof final List<?> values && !values.isEmpty()) {
+            vectors.add(toVector(values));
+        }
+        if (nestedVectorField != null && source.get(nestedVectorField) instanceof final List<?> nested) {
+            for (final Object value : nested) {
+                if (value instanceof final Map<?, ?> map && map.get(NESTED_VECTOR_FIELD) instanceof final List<?> values
+                        && !values.isEmpty()) {
+                    vectors.add(toVector(values));
+                }
+            }
+        }
+    }
+
+    private static float[] toVector(final List<?> values) {
+        final float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = ((Number) values.get(i)).floatValue();
+        }
+        return vector;
+    }
+
+    /**
+     * Measures the average overlap of the exact top-k neighbors of queries before and after a reduction.
+     *
+     * @param corpus the vectors searched
+     * @param queries the query vectors
+     * @param reducer the reducer
+     * @param spaceType the space type: l2, cosinesimil or innerproduct
+     * @return the recall between 0 and 1
+     */
+    protected double measureRecall(final List<float[]> corpus, final List<float[]> queries, final VectorReducer reducer,
+            final String spaceType) {
+        final List<float[]> reducedCorpus = corpus.stream().map(reducer::reduce).toList();
+        final int size = Math.min(k, corpus.size());
+        double total = 0;
+        for (final float[] query : queries) {
+            final Set<Integer> expected = new HashSet<>();
+            for (final int i : topK(corpus, query, size, spaceType)) {
+                expected.add(i);
+            }
+            int found = 0;
+            for (final int i : topK(reducedCorpus, reducer.reduce(query), size, spaceType)) {
+                if (expected.contains(i)) {
+                    found++;
+                }
+            }
+            total += (double) found / size;
+        }
+        return queries.isEmpty() ? 0 : total / queries.size();
+    }
+
+    private static int[] topK(final List<float[]> corpus, final float[] query, final int size, final String spaceType) {
+        final double[] scores = new double[corpus.size()];
+        for (int i = 0; i < scores.length; i++) {
+            scores[i] = similarity(corpus.get(i), query, spaceType);
+        }
+        final Integer[] order = new Integer[scores.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+        final int[] top = new int[size];
+        for (int i = 0; i < size; i++) {
+            top[i] = order[i];
+        }
+        return top;
+    }
+
+    private static double similarity(final float[] a, final float[] b, final String spaceType) {
+        double dot = 0;
+        double normA = 0;
+        double normB = 0;
+        double distance = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            normA += a[i] * a[i];
+            normB += b[i] * b[i];
+            final double diff = a[i] - b[i];
+            distance += diff * diff;
+        }
+        return switch (spaceType) {
+        case "cosinesimil" -> normA > 0 && normB > 0 ? dot / Math.sqrt(normA * normB) : 0;
+        case "innerproduct" -> dot;
+        default -> -distance;
+        };
+    }
+}
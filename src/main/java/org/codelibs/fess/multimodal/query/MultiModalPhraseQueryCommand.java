@@ -16,13 +16,14 @@
 package org.codelibs.fess.multimodal.query;
 
 import static org.codelibs.fess.Constants.DEFAULT_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.HELPER;
 import static org.codelibs.fess.multimodal.MultiModalConstants.SEARCHER;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.lucene.search.PhraseQuery;
 import org.codelibs.fess.entity.QueryContext;
-import org.codelibs.fess.entity.SearchRequestParams;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
 import org.codelibs.fess.multimodal.rank.fusion.MultiModalSearcher;
 import org.codelibs.fess.multimodal.rank.fusion.MultiModalSearcher.SearchContext;
 import org.codelibs.fess.mylasta.direction.FessConfig;
@@ -55,12 +56,8 @@ public class MultiModalPhraseQueryCommand extends PhraseQueryCommand {
         }
 
         final String text = String.join(" ", texts);
-        final SearchRequestParams params = searchContext.getParams();
-        final QueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().field(searchContext.getVectorField())
-                .query(text)
-                .k(params.getPageSize())
-                .build()
-                .toQueryBuilder();
+        final MultiModalSearchHelper multiModalSearchHelper = ComponentUtil.getComponent(HELPER);
+        final QueryBuilder queryBuilder = multiModalSearchHelper.createQueryBuilder(searchContext, context, text).toQueryBuilder();
         context.addFieldLog(field, text);
         context.addHighlightedQuery(text);
         if (logger.isDebugEnabled()) {
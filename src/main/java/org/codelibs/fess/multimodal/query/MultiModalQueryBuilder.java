@@ -15,18 +15,27 @@
  */
 package org.codelibs.fess.multimodal.query;
 
-import static org.codelibs.fess.multimodal.MultiModalConstants.CAS_CLIENT;
+import static org.codelibs.fess.multimodal.MultiModalConstants.HELPER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.NESTED_VECTOR_FIELD;
 
-import org.codelibs.fess.multimodal.client.CasClient;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.search.join.ScoreMode;
+import org.codelibs.core.lang.StringUtil;
+import org.codelibs.fess.multimodal.client.EmbeddingProvider;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
 import org.codelibs.fess.multimodal.index.query.KNNQueryBuilder;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
 import org.codelibs.fess.util.ComponentUtil;
 import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 
 /**
  * Builder for constructing multimodal search queries that combine text and vector search.
  * Converts text queries into vector embeddings and builds KNN queries for semantic search.
  */
 public class MultiModalQueryBuilder {
+    private static final Logger logger = LogManager.getLogger(MultiModalQueryBuilder.class);
 
     /** The vector field to search against. */
     protected String field;
@@ -36,6 +45,22 @@ public class MultiModalQueryBuilder {
     protected int k;
     /** The minimum score threshold for matches. */
     protected Float minScore;
+    /** The nested field holding multiple vectors per document, or null. */
+    protected String nestedField;
+    /** The size of the candidate list of HNSW searches, or null. */
+    protected Integer efSearch;
+    /** The number of IVF buckets to probe, or null. */
+    protected Integer nprobes;
+    /** The rescoring oversample factor, 0 to disable rescoring, or null. */
+    protected Float oversampleFactor;
+    /** The maximum distance, or null. */
+    protected Float maxDistance;
+    /** Whether the KNN queries are radial searches. */
+    protected boolean radial;
+    /** The filter applied while searching the document vector, or null. */
+    protected QueryBuilder filter;
+    /** The reducer applied to the query vector, or null. */
+    protected VectorReducer reducer;
 
     private MultiModalQueryBuilder() {
         // nothing
@@ -57,6 +82,14 @@ public class MultiModalQueryBuilder {
         private String query;
         private int k = 10;
         private Float minScore;
+        private String nestedField;
+        private Integer efSearch;
+        private Integer nprobes;
+        private Float oversampleFactor;
+        private QueryBuilder filter;
+        private Float maxDistance;
+        private boolean radial;
+        private VectorReducer reducer;
 
         /**
          * Sets the vector field to search against.
@@ -102,6 +135,97 @@ public class MultiModalQueryBuilder {
             return this;
         }
 
+        /**
+         * Sets the nested field holding multiple vectors per document.
+         * Documents are then scored by the best match among their vectors.
+         *
+         * @param nestedField the nested field name, or null
+         * @return this builder for chaining
+         */
+        public Builder nestedField(final String nestedField) {
+            this.nestedField = nestedField;
+            return this;
+        }
+
+        /**
+         * Sets the size of the candidate list of HNSW searches.
+         *
+         * @param efSearch the ef_search value, or null for the index setting
+         * @return this builder for chaining
+         */
+        public Builder efSearch(final Integer efSearch) {
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        /**
+         * Sets the number of IVF buckets to probe.
+         *
+         * @param nprobes the nprobes value, or null for the index setting
+         * @return this builder for chaining
+         */
+        public Builder nprobes(final Integer nprobes) {
+            this.nprobes = nprobes;
+            return this;
+        }
+
+        /**
+         * Sets the rescoring oversample factor of quantized indices.
+         *
+         * @param oversampleFactor the oversample factor, 0 to disable rescoring, or null for the engine default
+         * @return this builder for chaining
+         */
+        public Builder oversampleFactor(final Float oversampleFactor) {
+            this.oversampleFactor = oversampleFactor;
+            return this;
+        }
+
+        /**
+         * Sets the maximum distance of matches.
+         *
+         * @param maxDistance the maximum distance, or null
+         * @return this builder for chaining
+         */
+        public Builder maxDistance(final Float maxDistance) {
+            this.maxDistance = maxDistance;
+            return this;
+        }
+
+        /**
+         * Sets whether the KNN queries are radial searches, which return all documents within the maximum distance
+         * or the minimum score. k is then the limit of results of a local execution.
+         *
+         * @param radial true for radial searches
+         * @return this builder for chaining
+         */
+        public Builder radial(final boolean radial) {
+            this.radial = radial;
+            return this;
+        }
+
+        /**
+         * Sets the filter applied while searching the document vector, so that the engine returns
+         * k matching documents instead of filtering the top k afterwards.
+         *
+         * @param filter the filter query, or null
+         * @return this builder for chaining
+         */
+        public Builder filter(final QueryBuilder filter) {
+            this.filter = filter;
+            return this;
+        }
+
+        /**
+         * Sets the reducer applied to the query vector, which has to be the one applied to indexed vectors.
+         *
+         * @param reducer the reducer, or null if vectors are not reduced
+         * @return this builder for chaining
+         */
+        public Builder reducer(final VectorReducer reducer) {
+            this.reducer = reducer;
+            return this;
+        }
+
         /**
          * Builds the MultiModalQueryBuilder with configured parameters.
          *
@@ -113,20 +237,88 @@ public class MultiModalQueryBuilder {
             builder.query = query;
             builder.k = k;
             builder.minScore = minScore;
+            builder.nestedField = nestedField;
+            builder.efSearch = efSearch;
+            builder.nprobes = nprobes;
+            builder.oversampleFactor = oversampleFactor;
+            builder.filter = filter;
+            builder.maxDistance = maxDistance;
+            builder.radial = radial;
+            builder.reducer = reducer;
             return builder;
         }
     }
 
     /**
      * Converts this multimodal query to an OpenSearch QueryBuilder.
-     * Generates text embeddings using the CAS client and creates a KNN query.
+     * Generates text embeddings using the query embedding provider of {@link MultiModalSearchHelper} and creates a KNN query.
+     * If a nested field is set, the KNN query on the document vector is combined with a nested KNN query
+     * so that a document scores as its best matching vector (max-sim).
      *
      * @return the QueryBuilder for execution
      */
     public QueryBuilder toQueryBuilder() {
-        final CasClient client = ComponentUtil.getComponent(CAS_CLIENT);
+        final MultiModalSearchHelper helper = ComponentUtil.getComponent(HELPER);
+        final EmbeddingProvider client = ComponentUtil.getComponent(helper.getQueryEmbeddingProvider());
         final float[] embedding = client.getTextEmbedding(query);
-        return new KNNQueryBuilder.Builder().field(field).vector(embedding).minScore(minScore).k(k).build();
+        return toQueryBuilder(embedding);
+    }
+
+    /**
+     * Creates the KNN query for the given embedding, reduced in the same way as indexed vectors if a reducer is set.
+     * An embedding that the reducer does not accept, such as one from a query embedding provider with another model,
+     * or that has a NaN or infinite value matches no documents instead of failing the whole search.
+     *
+     * @param queryEmbedding the query embedding
+     * @return the QueryBuilder for execution
+     */
+    protected QueryBuilder toQueryBuilder(final float[] queryEmbedding) {
+        final float[] embedding;
+        if (reducer != null) {
+            try {
+                embedding = reducer.reduce(queryEmbedding);
+            } catch (final IllegalArgumentException e) {
+                logger.warn("Failed to reduce the query embedding of {}: {}", query, e.getMessage());
+                return QueryBuilders.matchNoneQuery();
+            }
+        } else {
+            embedding = queryEmbedding;
+        }
+        for (final float value : embedding) {
+            if (!Float.isFinite(value)) {
+                logger.warn("The query embedding of {} has a non-finite value: {}", query, value);
+                return QueryBuilders.matchNoneQuery();
+            }
+        }
+        final KNNQueryBuilder knnQuery = createKnnQuery(field, embedding, filter);
+        if (StringUtil.isBlank(nestedField)) {
+            return knnQuery;
+        }
+        // the filter refers to fields of parent documents, so the nested vectors are filtered by the outer query
+        final KNNQueryBuilder nestedKnnQuery = createKnnQuery(nestedField + "." + NESTED_VECTOR_FIELD, embedding, null);
+        return QueryBuilders.disMaxQuery().add(knnQuery).add(QueryBuilders.nestedQuery(nestedField, nestedKnnQuery, ScoreMode.Max));
+    }
+
+    /**
+     * Creates a KNN query on a vector field with the settings of this builder.
+     *
+     * @param vectorField the vector field
+     * @param embedding the query embedding
+     * @param knnFilter the filter, or null
+     * @return the KNN query
+     */
+    protected KNNQueryBuilder createKnnQuery(final String vectorField, final float[] embedding, final QueryBuilder knnFilter) {
+        return new KNNQueryBuilder.Builder().field(vectorField)
+                .vector(embedding)
+                .filter(knnFilter)
+                .minScore(minScore)
+                .maxDistance(maxDistance)
+                .radial(radial)
+                .k(k)
+                .efSearch(efSearch)
+                .nprobes(nprobes)
+                .oversampleFactor(oversampleFactor)
+                .build();
     }
 
 }
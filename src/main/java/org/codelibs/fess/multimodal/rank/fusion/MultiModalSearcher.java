@@ -19,6 +19,8 @@ import static org.codelibs.fess.multimodal.MultiModalConstants.HELPER;
 
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,7 +28,10 @@ import org.codelibs.fess.entity.FacetInfo;
 import org.codelibs.fess.entity.GeoInfo;
 import org.codelibs.fess.entity.HighlightInfo;
 import org.codelibs.fess.entity.SearchRequestParams;
+import org.codelibs.fess.entity.SearchRequestParams.SearchRequestType;
 import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.multimodal.util.ScopedContext;
 import org.codelibs.fess.mylasta.action.FessUserBean;
 import org.codelibs.fess.rank.fusion.DefaultSearcher;
 import org.codelibs.fess.rank.fusion.SearchResult;
@@ -38,6 +43,8 @@ import jakarta.annotation.PostConstruct;
 /**
  * Searcher that extends DefaultSearcher to provide multimodal search capabilities.
  * Manages search context for rank fusion between text and vector search results.
+ * The context is bound only while a search runs, and work that converts queries on other threads
+ * has to be wrapped by {@link #wrap(Callable)} or {@link #wrap(Runnable)} to see it.
  */
 public class MultiModalSearcher extends DefaultSearcher {
     private static final Logger logger = LogManager.getLogger(MultiModalSearcher.class);
@@ -49,8 +56,8 @@ public class MultiModalSearcher extends DefaultSearcher {
         // Default constructor
     }
 
-    /** Thread-local storage for search context. */
-    protected ThreadLocal<SearchContext> contextLocal = new ThreadLocal<>();
+    /** Carrier of the search context bound to the running search. */
+    protected final ScopedContext<SearchContext> contextScope = new ScopedContext<>();
 
     /**
      * Registers this searcher with the rank fusion processor during initialization.
@@ -66,16 +73,13 @@ public class MultiModalSearcher extends DefaultSearcher {
 
     @Override
     protected SearchResult search(final String query, final SearchRequestParams params, final OptionalThing<FessUserBean> userBean) {
-        try {
-            final SearchContext searchContext = createContext(query, params, userBean);
-            return super.search(query, searchContext.getParams(), userBean);
-        } finally {
-            closeContext();
-        }
+        final SearchContext searchContext = createContext(query, params, userBean);
+        return withContext(searchContext, () -> super.search(query, searchContext.getParams(), userBean));
     }
 
     /**
-     * Creates a new search context for multimodal search operations.
+     * Creates a new search context for multimodal search operations. The context is not bound;
+     * use {@link #withContext(SearchContext, Supplier)} to run a search with it.
      *
      * @param query the search query
      * @param params the search request parameters
@@ -83,26 +87,57 @@ public class MultiModalSearcher extends DefaultSearcher {
      * @return the created search context
      */
     public SearchContext createContext(final String query, final SearchRequestParams params, final OptionalThing<FessUserBean> userBean) {
-        if (contextLocal.get() != null) {
-            logger.warn("The context exists: {}", contextLocal.get());
-            contextLocal.remove();
-        }
         final MultiModalSearchHelper multiModalSearchHelper = ComponentUtil.getComponent(HELPER);
         final SearchRequestParams reqParams = new SearchRequestParamsWrapper(params, multiModalSearchHelper.getMinScore());
-        final SearchContext context = new SearchContext(multiModalSearchHelper.getVectorField(), query, reqParams, userBean);
-        contextLocal.set(context);
-        return context;
+        final SearchRequestType type = params.getType();
+        final boolean radial = multiModalSearchHelper.isRadialSearch();
+        return new SearchContext.Builder().vectorField(multiModalSearchHelper.getVectorField())
+                .nestedVectorField(multiModalSearchHelper.getNestedVectorField())
+                .efSearch(multiModalSearchHelper.getEfSearch(type))
+                .nprobes(multiModalSearchHelper.getNprobes(type))
+                .oversampleFactor(multiModalSearchHelper.getOversampleFactor(type))
+                .radial(radial)
+                .radialMaxDistance(radial ? multiModalSearchHelper.getMaxDistance() : null)
+                .radialMinScore(radial ? multiModalSearchHelper.getRadialMinScore() : null)
+                .radialMaxResults(multiModalSearchHelper.getRadialMaxResults())
+                .reducer(multiModalSearchHelper.getVectorReducer())
+                .query(query)
+                .params(reqParams)
+                .userBean(userBean)
+                .build();
     }
 
     /**
-     * Closes and cleans up the current search context.
+     * Runs a task with the search context bound. An outer context is restored when the task returns.
+     *
+     * @param <R> the result type
+     * @param context the search context
+     * @param task the task
+     * @return the result of the task
      */
-    public void closeContext() {
-        if (contextLocal.get() == null) {
-            logger.warn("The context does not exist.");
-        } else {
-            contextLocal.remove();
-        }
+    public <R> R withContext(final SearchContext context, final Supplier<R> task) {
+        return contextScope.supply(context, task);
+    }
+
+    /**
+     * Wraps a task so that it runs with the current search context on another thread.
+     *
+     * @param <R> the result type
+     * @param task the task
+     * @return the wrapped task
+     */
+    public <R> Callable<R> wrap(final Callable<R> task) {
+        return contextScope.wrap(task);
+    }
+
+    /**
+     * Wraps a task so that it runs with the current search context on another thread.
+     *
+     * @param task the task
+     * @return the wrapped task
+     */
+    public Runnable wrap(final Runnable task) {
+        return contextScope.wrap(task);
     }
 
     /**
@@ -111,7 +146,7 @@ public class MultiModalSearcher extends DefaultSearcher {
      * @return the current search context, or null if none exists
      */
     public SearchContext getContext() {
-        return contextLocal.get();
+        return contextScope.get();
     }
 
     /**
@@ -120,6 +155,15 @@ public class MultiModalSearcher extends DefaultSearcher {
     public static class SearchContext {
 
         private final String vectorField;
+        private final String nestedVectorField;
+        private final Integer efSearch;
+        private final Integer nprobes;
+        private final Float oversampleFactor;
+        private final boolean radial;
+        private final Float radialMaxDistance;
+        private final Float radialMinScore;
+        private final int radialMaxResults;
+        private final VectorReducer reducer;
         private final String query;
         private final SearchRequestParams params;
         private final OptionalThing<FessUserBean> userBean;
@@ -134,10 +178,202 @@ public class MultiModalSearcher extends DefaultSearcher {
          */
         public SearchContext(final String vectorField, final String query, final SearchRequestParams params,
                 final OptionalThing<FessUserBean> userBean) {
-            this.vectorField = vectorField;
-            this.query = query;
-            this.params = params;
-            this.userBean = userBean;
+            this(new Builder().vectorField(vectorField).query(query).params(params).userBean(userBean));
+        }
+
+        private SearchContext(final Builder builder) {
+            vectorField = builder.vectorField;
+            nestedVectorField = builder.nestedVectorField;
+            efSearch = builder.efSearch;
+            nprobes = builder.nprobes;
+            oversampleFactor = builder.oversampleFactor;
+            radial = builder.radial;
+            radialMaxDistance = builder.radialMaxDistance;
+            radialMinScore = builder.radialMinScore;
+            radialMaxResults = builder.radialMaxResults;
+            reducer = builder.reducer;
+            query = builder.query;
+            params = builder.params;
+            userBean = builder.userBean;
+        }
+
+        /**
+         * Builder class for constructing SearchContext instances.
+         */
+        public static class Builder {
+
+            private String vectorField;
+            private String nestedVectorField;
+            private Integer efSearch;
+            private Integer nprobes;
+            private Float oversampleFactor;
+            private boolean radial;
+            private Float radialMaxDistance;
+            private Float radialMinScore;
+            private int radialMaxResults;
+            private VectorReducer reducer;
+            private String query;
+            private SearchRequestParams params;
+            private OptionalThing<FessUserBean> userBean;
+
+            /**
+             * Constructs a new Builder instance.
+             */
+            public Builder() {
+                // Default constructor
+            }
+
+            /**
+             * Sets the vector field name.
+             *
+             * @param vectorField the vector field name
+             * @return this builder for chaining
+             */
+            public Builder vectorField(final String vectorField) {
+                this.vectorField = vectorField;
+                return this;
+            }
+
+            /**
+             * Sets the nested vector field name.
+             *
+             * @param nestedVectorField the nested vector field name, or null
+             * @return this builder for chaining
+             */
+            public Builder nestedVectorField(final String nestedVectorField) {
+                this.nestedVectorField = nestedVectorField;
+                return this;
+            }
+
+            /**
+             * Sets the size of the candidate list of HNSW searches.
+             *
+             * @param efSearch the ef_search value, or null
+             * @return this builder for chaining
+             */
+            public Builder efSearch(final Integer efSearch) {
+                this.efSearch = efSearch;
+                return this;
+            }
+
+            /**
+             * Sets the number of IVF buckets to probe.
+             *
+             * @param nprobes the nprobes value, or null
+             * @return this builder for chaining
+             */
+            public Builder nprobes(final Integer nprobes) {
+                this.nprobes = nprobes;
+                return this;
+            }
+
+            /**
+             * Sets the rescoring oversample factor.
+             *
+             * @param oversampleFactor the oversample factor, or null
+             * @return this builder for chaining
+             */
+            public Builder oversampleFactor(final Float oversampleFactor) {
+                this.oversampleFactor = oversampleFactor;
+                return this;
+            }
+
+            /**
+             * Sets whether KNN queries are radial searches.
+             *
+             * @param radial true for radial searches
+             * @return this builder for chaining
+             */
+            public Builder radial(final boolean radial) {
+                this.radial = radial;
+                return this;
+            }
+
+            /**
+             * Sets the maximum distance of radial searches.
+             *
+             * @param radialMaxDistance the maximum distance, or null
+             * @return this builder for chaining
+             */
+            public Builder radialMaxDistance(final Float radialMaxDistance) {
+                this.radialMaxDistance = radialMaxDistance;
+                return this;
+            }
+
+            /**
+             * Sets the minimum score of radial searches.
+             *
+             * @param radialMinScore the minimum score, or null
+             * @return this builder for chaining
+             */
+            public Builder radialMinScore(final Float radialMinScore) {
+                this.radialMinScore = radialMinScore;
+                return this;
+            }
+
+            /**
+             * Sets the maximum number of results of a radial search executed locally.
+             *
+             * @param radialMaxResults the maximum number of results
+             * @return this builder for chaining
+             */
+            public Builder radialMaxResults(final int radialMaxResults) {
+                this.radialMaxResults = radialMaxResults;
+                return this;
+            }
+
+            /**
+             * Sets the reducer applied to query vectors.
+             *
+             * @param reducer the reducer, or null if vectors are not reduced
+             * @return this builder for chaining
+             */
+            public Builder reducer(final VectorReducer reducer) {
+                this.reducer = reducer;
+                return this;
+            }
+
+            /**
+             * Sets the search query.
+             *
+             * @param query the search query
+             * @return this builder for chaining
+             */
+            public Builder query(final String query) {
+                this.query = query;
+                return this;
+            }
+
+            /**
+             * Sets the search request parameters.
+             *
+             * @param params the search parameters
+             * @return this builder for chaining
+             */
+            public Builder params(final SearchRequestParams params) {
+                this.params = params;
+                return this;
+            }
+
+            /**
+             * Sets the user information.
+             *
+             * @param userBean the user information
+             * @return this builder for chaining
+             */
+            public Builder userBean(final OptionalThing<FessUserBean> userBean) {
+                this.userBean = userBean;
+                return this;
+            }
+
+            /**
+             * Builds the SearchContext with configured parameters.
+             *
+             * @return the constructed SearchContext
+             */
+            public SearchContext build() {
+                return new SearchContext(this);
+            }
         }
 
         /**
@@ -149,6 +385,87 @@ public class MultiModalSearcher extends DefaultSearcher {
             return vectorField;
         }
 
+        /**
+         * Gets the nested vector field name.
+         *
+         * @return the nested vector field name, or null if not configured
+         */
+        public String getNestedVectorField() {
+            return nestedVectorField;
+        }
+
+        /**
+         * Gets the size of the candidate list of HNSW searches.
+         *
+         * @return the ef_search value, or null to use the index setting
+         */
+        public Integer getEfSearch() {
+            return efSearch;
+        }
+
+        /**
+         * Gets the number of IVF buckets to probe.
+         *
+         * @return the nprobes value, or null to use the index setting
+         */
+        public Integer getNprobes() {
+            return nprobes;
+        }
+
+        /**
+         * Gets the rescoring oversample factor.
+         *
+         * @return the oversample factor, 0 to disable rescoring, or null to use the engine default
+         */
+        public Float getOversampleFactor() {
+            return oversampleFactor;
+        }
+
+        /**
+         * Checks whether KNN queries are radial searches.
+         *
+         * @return true if KNN queries return all documents within the distance or score threshold
+         */
+        public boolean isRadial() {
+            return radial;
+        }
+
+        /**
+         * Gets the maximum distance of radial searches.
+         *
+         * @return the maximum distance, or null to use the minimum score
+         */
+        public Float getRadialMaxDistance() {
+            return radialMaxDistance;
+        }
+
+        /**
+         * Gets the minimum score of radial searches.
+         *
+         * @return the minimum score, or null to use the maximum distance
+         */
+        public Float getRadialMinScore() {
+            return radialMinScore;
+        }
+
+        /**
+         * Gets the maximum number of results of a radial search executed locally.
+         *
+         * @return the maximum number of results
+         */
+        public int getRadialMaxResults() {
+            return radialMaxResults;
+        }
+
+        /**
+         * Gets the reducer applied to query vectors.
+         *
+         * @return the reducer, or null if vectors are not reduced
+         */
+        public VectorReducer getReducer() {
+            return reducer;
+        }
+
         /**
          * Gets the search query.
          *
@@ -0,0 +1,578 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.reduce;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_NORMALIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_PATH;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.IntStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.codelibs.core.lang.StringUtil;
+
+/**
+ * Reduces the dimension of embeddings before they are indexed or searched, which cuts the memory of HNSW graphs
+ * and the cost of distance computations in proportion to the dimension.
+ * <p>
+ * A reducer either projects centered vectors onto principal components learned from a sample of indexed vectors
+ * by {@link org.codelibs.fess.multimodal.job.VectorReducerJob}, or keeps a prefix of each vector for models
+ * trained with Matryoshka representation learning. Reduced vectors are normalized to unit length by default,
+ * so that cosine and inner product spaces keep working. The same reducer has to be applied to indexed and
+ * query vectors, so a PCA projection is saved to a file that the crawler and the web application both load.
+ * </p>
+ */
+public class VectorReducer {
+    private static final Logger logger = LogManager.getLogger(VectorReducer.class);
+
+    /** The method that projects vectors onto principal components. */
+    public static final String METHOD_PCA = "pca";
+
+    /** The method that keeps a prefix of vectors. */
+    public static final String METHOD_TRUNCATE = "truncate";
+
+    private static final int MAGIC = 0x464d5652; // FMVR
+
+    private static final int VERSION = 1;
+
+    /** The dimension of input vectors, or 0 to accept any dimension of at least the output dimension. */
+    protected final int inputDimension;
+
+    /** The dimension of reduced vectors. */
+    protected final int outputDimension;
+
+    /** The mean subtracted before the projection, or null if vectors are truncated. */
+    protected final float[] mean;
+
+    /** The principal components by output dimension, or null if vectors are truncated. */
+    protected final float[][] components;
+
+    /** Whether reduced vectors are normalized to unit length. */
+    protected final boolean normalize;
+
+    /** The ratio of the sample variance kept by the components, or NaN if vectors are truncated. */
+    protected final double explainedVariance;
+
+    /**
+     * Constructs a reducer.
+     *
+     * @param inputDimension the dimension of input vectors, or 0 to accept any dimension of at least the output dimension
+     * @param outputDimension the dimension of reduced vectors
+     * @param mean the mean subtracted before the projection, or null to truncate vectors
+     * @param components the principal components by output dimension, or null to truncate vectors
+     * @param normalize whether reduced vectors are normalized to unit length
+     * @param explainedVariance the ratio of the sample variance kept by the components, or NaN
+     */
+    public VectorReducer(final int inputDimension, final int outputDimension, final float[] mean, final float[][] components,
+            final boolean normalize, final double explainedVariance) {
+        if (outputDimension <= 0 || inputDimension > 0 && outputDimension > inputDimension) {
+            throw new IllegalArgumentException("Invalid dimensions: input=" + inputDimension + ", output=" + outputDimension);
+        }
+        if ((mean == null) != (components == null) || components != null
+                && (mean.length != inputDimension || components.length != outputDimension
+                        || Arrays.stream(components).anyMatch(c -> c.length != inputDimension))) {
+            throw new IllegalArgumentException("The projection does not match the dimensions.");
+        }
+        this.inputDimension = inputDimension;
+        this.outputDimension = outputDimension;
+        this.mean = mean;
+        this.components = components;
+        this.normalize = normalize;
+        this.explainedVariance = explainedVariance;
+    }
+
+    /**
+     * Creates a reducer that keeps a prefix of vectors, for models whose leading dimensions carry most of the information.
+     *
+     * @param outputDimension the dimension of reduced vectors
+     * @param normalize whether reduced vectors are normalized to unit length
+     * @return the reducer
+     */
+    public static VectorReducer truncation(final int outputDimension, final boolean normalize) {
+        return new VectorReducer(0, outputDimension, null, null, normalize, Double.NaN);
+    }
+
+    /**
+     * Learns a PCA projection from a sample of vectors. The covariance matrix of the sample is decomposed exactly,
+     * which takes a few seconds for several hundred dimensions.
+     *
+     * @param sample the sample vectors, all of the same dimension
+     * @param outputDimension the dimension of reduced vectors
+     * @param normalize whether reduced vectors are normalized to unit length
+     * @return the reducer
+     */
+    public static VectorReducer fit(final List<float[]> sample, final int outputDimension, final boolean normalize) {
+        if (sample.size() < 2) {
+            throw new IllegalArgumentException("At least 2 vectors are required, but got " + sample.size() + ".");
+        }
+        final int dimension = sample.get(0).length;
+        if (outputDimension <= 0 || outputDimension > dimension) {
+            throw new IllegalArgumentException("Invalid dimensions: input=" + dimension + ", output=" + outputDimension);
+        }
+
+        final double[] mean = new double[dimension];
+        for (final float[] vector : sample) {
+            if (vector.length != dimension) {
+                throw new IllegalArgumentException("The sample has vectors of " + dimension + " and " + vector.length + " dimensions.");
+            }
+            for (int i = 0; i < dimension; i++) {
+                mean[i] += vector[i];
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            mean[i] /= sample.size();
+        }
+
+        final double[][] covariance = new double[dimension][dimension];
+        final double[] centered = new double[dimension];
+        for (final float[] vector : sample) {
+            for (int i = 0; i < dimension; i++) {
+                centered[i] = vector[i] - mean[i];
+            }
+            for (int i = 0; i < dimension; i++) {
+                final double value = centered[i];
+                final double[] row = covariance[i];
+                for (int j = 0; j <= i; j++) {
+                    row[j] += value * centered[j];
+                }
+            }
+        }
+        for (int i = 0; i < dimension; i++) {
+            for (int j = 0; j <= i; j++) {
+                covariance[i][j] /= sample.size() - 1;
+                covariance[j][i] = covariance[i][j];
+            }
+        }
+
+        final double[] eigenvalues = new double[dimension];
+        final double[] work = new double[dimension];
+        // the covariance matrix is replaced with the eigenvectors in its columns
+        tridiagonalize(covariance, eigenvalues, work);
+        diagonalize(covariance, eigenvalues, work);
+
+        final int[] order = IntStream.range(0, dimension)
+                .boxed()
+                .sorted(Comparator.comparingDouble((final Integer i) -> eigenvalues[i]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+        final float[][] components = new float[outputDimension][dimension];
+        double kept = 0;
+        double total = 0;
+        for (int k = 0; k < dimension; k++) {
+            final double variance = Math.max(0, eigenvalues[order[k]]);
+            total += variance;
+            if (k < outputDimension) {
+                kept += variance;
+                for (int i = 0; i < dimension; i++) {
+                    components[k][i] = (float) covariance[i][order[k]];
+                }
+            }
+        }
+        final float[] floatMean = new float[dimension];
+        for (int i = 0; i < dimension; i++) {
+            floatMean[i] = (float) mean[i];
+        }
+        return new VectorReducer(dimension, outputDimension, floatMean, components, normalize, total > 0 ? kept / total : 0);
+    }
+
+    /**
+     * Creates the reducer configured by system properties. A PCA projection is loaded from the reducer file.
+     * A process that cannot load it must not fall back to full-dimension vectors, which other processes index
+     * and search with the reduced dimension, so it fails instead.
+     *
+     * @return the reducer, or null if vectors are not reduced
+     * @throws IllegalStateException if the PCA projection cannot be loaded
+     */
+    public static VectorReducer create() {
+        final String method = System.getProperty(REDUCE_METHOD);
+        if (StringUtil.isBlank(method)) {
+            return null;
+        }
+        final boolean normalize = Boolean.parseBoolean(System.getProperty(REDUCE_NORMALIZE, Boolean.TRUE.toString()).trim());
+        switch (method.trim().toLowerCase(Locale.ROOT)) {
+        case METHOD_TRUNCATE: {
+            final int dimension = Integer.getInteger(REDUCE_DIMENSION, 0);
+            if (dimension <= 0) {
+                logger.warn("{} requires {}. Vectors are not reduced.", REDUCE_METHOD, REDUCE_DIMENSION);
+                return null;
+            }
+            return truncation(dimension, normalize);
+        }
+        case METHOD_PCA: {
+            final Path path = getPath();
+            try {
+                final VectorReducer reducer = load(path);
+                logger.info("Loaded {}: {}", path, reducer);
+                return reducer;
+            } catch (final IOException e) {
+                throw new IllegalStateException("Failed to load " + path + ". Every process using " + REDUCE_METHOD + "=" + METHOD_PCA
+                        + " needs the file saved by vectorReducerJob.", e);
+            }
+        }
+        default:
+            logger.warn("Unknown {}={}. Vectors are not reduced.", REDUCE_METHOD, method);
+            return null;
+        }
+    }
+
+    /**
+     * Gets the reducer file, which defaults to {@code multimodal_reducer.bin} in the Fess var directory,
+     * so that the crawler and the web application use the same one.
+     *
+     * @return the path
+     */
+    public static Path getPath() {
+        return Paths.get(System.getProperty(REDUCE_PATH,
+                Paths.get(System.getProperty("fess.var.path", System.getProperty("java.io.tmpdir")), "multimodal_reducer.bin").toString()));
+    }
+
+    /**
+     * Reduces a vector.
+     *
+     * @param vector the vector
+     * @return the reduced vector
+     * @throws IllegalArgumentException if the vector does not have the input dimension
+     */
+    public float[] reduce(final float[] vector) {
+        if (inputDimension > 0 ? vector.length != inputDimension : vector.length < outputDimension) {
+            throw new IllegalArgumentException(
+                    "Cannot reduce a vector of " + vector.length + " dimensions to " + outputDimension + " dimensions.");
+        }
+        final float[] reduced = new float[outputDimension];
+        if (components == null) {
+            System.arraycopy(vector, 0, reduced, 0, outputDimension);
+        } else {
+            for (int k = 0; k < outputDimension; k++) {
+                final float[] component = components[k];
+                double sum = 0;
+                for (int i = 0; i < inputDimension; i++) {
+                    sum += (vector[i] - mean[i]) * component[i];
+                }
+                reduced[k] = (float) sum;
+            }
+        }
+        if (normalize) {
+            double norm = 0;
+            for (final float value : reduced) {
+                norm += value * value;
+            }
+            if (norm > 0) {
+                final float scale = (float) (1.0 / Math.sqrt(norm));
+                for (int k = 0; k < outputDimension; k++) {
+                    reduced[k] *= scale;
+                }
+            }
+        }
+        return reduced;
+    }
+
+    /**
+     * Gets the dimension of input vectors.
+     *
+     * @return the dimension, or 0 if any dimension of at least the output dimension is accepted
+     */
+    public int getInputDimension() {
+        return inputDimension;
+    }
+
+    /**
+     * Gets the dimension of reduced vectors.
+     *
+     * @return the dimension
+     */
+    public int getOutputDimension() {
+        return outputDimension;
+    }
+
+    /**
+     * Gets the ratio of the sample variance kept by the principal components.
+     *
+     * @return the ratio, or NaN if vectors are truncated
+     */
+    public double getExplainedVariance() {
+        return explainedVariance;
+    }
+
+    /**
+     * Saves the reducer to a temporary file and moves it over the file, so that readers never see a partial one.
+     *
+     * @param path the file
+     * @throws IOException if the file cannot be written
+     */
+    public void save(final Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        final Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(inputDimension);
+            out.writeInt(outputDimension);
+            out.writeBoolean(normalize);
+            out.writeDouble(explainedVariance);
+            out.writeBoolean(components != null);
+            if (components != null) {
+                for (final float value : mean) {
+                    out.writeFloat(value);
+                }
+                for (final float[] component : components) {
+                    for (final float value : component) {
+                        out.writeFloat(value);
+                    }
+                }
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads a reducer saved by {@link #save(Path)}.
+     *
+     * @param path the file
+     * @return the reducer
+     * @throws IOException if the file cannot be read or is not a reducer file
+     */
+    public static VectorReducer load(final Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException(path + " is not a vector reducer file.");
+            }
+            final int inputDimension = in.readInt();
+            final int outputDimension = in.readInt();
+            final boolean normalize = in.readBoolean();
+            final double explainedVariance = in.readDouble();
+            float[] mean = null;
+            float[][] components = null;
+            if (in.readBoolean()) {
+                if (inputDimension <= 0 || outputDimension <= 0 || outputDimension > inputDimension) {
+                    throw new IOException(path + " has invalid dimensions.");
+                }
+                mean = new float[inputDimension];
+                for (int i = 0; i < inputDimension; i++) {
+                    mean[i] = in.readFloat();
+                }
+                components = new float[outputDimension][inputDimension];
+                for (final float[] component : components) {
+                    for (int i = 0; i < inputDimension; i++) {
+                        component[i] = in.readFloat();
+                    }
+                }
+            }
+            try {
+                return new VectorReducer(inputDimension, outputDimension, mean, components, normalize, explainedVariance);
+            } catch (final IllegalArgumentException e) {
+                throw new IOException(path + " is not a valid vector reducer file.", e);
+            }
+        }
+    }
+
+    /**
+     * Reduces a symmetric matrix to tridiagonal form with Householder transformations (tred2 of EISPACK, as in JAMA).
+     *
+     * @param v the symmetric matrix, replaced with the accumulated transformations
+     * @param d the diagonal of the result
+     * @param e the subdiagonal of the result, in e[1..n-1]
+     */
+    private static void tridiagonalize(final double[][] v, final double[] d, final double[] e) {
+        final int n = d.length;
+        for (int j = 0; j < n; j++) {
+            d[j] = v[n - 1][j];
+        }
+        for (int i = n - 1; i > 0; i--) {
+            double scale = 0.0;
+            double h = 0.0;
+            for (int k = 0; k < i; k++) {
+                scale += Math.abs(d[k]);
+            }
+            if (scale == 0.0) {
+                e[i] = d[i - 1];
+                for (int j = 0; j < i; j++) {
+                    d[j] = v[i - 1][j];
+                    v[i][j] = 0.0;
+                    v[j][i] = 0.0;
+                }
+            } else {
+                for (int k = 0; k < i; k++) {
+                    d[k] /= scale;
+                    h += d[k] * d[k];
+                }
+                double f = d[i - 1];
+                double g = Math.sqrt(h);
+                if (f > 0) {
+                    g = -g;
+                }
+                e[i] = scale * g;
+                h -= f * g;
+                d[i - 1] = f - g;
+                for (int j = 0; j < i; j++) {
+                    e[j] = 0.0;
+                }
+                for (int j = 0; j < i; j++) {
+                    f = d[j];
+                    v[j][i] = f;
+                    g = e[j] + v[j][j] * f;
+                    for (int k = j + 1; k <= i - 1; k++) {
+                        g += v[k][j] * d[k];
+                        e[k] += v[k][j] * f;
+                    }
+                    e[j] = g;
+                }
+                f = 0.0;
+                for (int j = 0; j < i; j++) {
+                    e[j] /= h;
+                    f += e[j] * d[j];
+                }
+                final double hh = f / (h + h);
+                for (int j = 0; j < i; j++) {
+                    e[j] -= hh * d[j];
+                }
+                for (int j = 0; j < i; j++) {
+                    f = d[j];
+                    g = e[j];
+                    for (int k = j; k <= i - 1; k++) {
+                        v[k][j] -= f * e[k] + g * d[k];
+                    }
+                    d[j] = v[i - 1][j];
+                    v[i][j] = 0.0;
+                }
+            }
+            d[i] = h;
+        }
+        for (int i = 0; i < n - 1; i++) {
+            v[n - 1][i] = v[i][i];
+            v[i][i] = 1.0;
+            final double h = d[i + 1];
+            if (h != 0.0) {
+                for (int k = 0; k <= i; k++) {
+                    d[k] = v[k][i + 1] / h;
+                }
+                for (int j = 0; j <= i; j++) {
+                    double g = 0.0;
+                    for (int k = 0; k <= i; k++) {
+                        g += v[k][i + 1] * v[k][j];
+                    }
+                    for (int k = 0; k <= i; k++) {
+                        v[k][j] -= g * d[k];
+                    }
+                }
+            }
+            for (int k = 0; k <= i; k++) {
+                v[k][i + 1] = 0.0;
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            d[j] = v[n - 1][j];
+            v[n - 1][j] = 0.0;
+        }
+        v[n - 1][n - 1] = 1.0;
+        e[0] = 0.0;
+    }
+
+    /**
+     * Diagonalizes a tridiagonal matrix with the implicit QL method (tql2 of EISPACK, as in JAMA).
+     *
+     * @param v the transformations of {@link #tridiagonalize}, replaced with the eigenvectors in its columns
+     * @param d the diagonal, replaced with the eigenvalues
+     * @param e the subdiagonal, destroyed
+     */
+    private static void diagonalize(final double[][] v, final double[] d, final double[] e) {
+        final int n = d.length;
+        for (int i = 1; i < n; i++) {
+            e[i - 1] = e[i];
+        }
+        e[n - 1] = 0.0;
+        double f = 0.0;
+        double tst1 = 0.0;
+        final double eps = Math.ulp(1.0);
+        for (int l = 0; l < n; l++) {
+            tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+            int m = l;
+            while (m < n - 1 && Math.abs(e[m]) > eps * tst1) {
+                m++;
+            }
+            if (m > l) {
+                do {
+                    double g = d[l];
+                    double p = (d[l + 1] - g) / (2.0 * e[l]);
+                    double r = Math.hypot(p, 1.0);
+                    if (p < 0) {
+                        r = -r;
+                    }
+                    d[l] = e[l] / (p + r);
+                    d[l + 1] = e[l] * (p + r);
+                    final double dl1 = d[l + 1];
+                    double h = g - d[l];
+                    for (int i = l + 2; i < n; i++) {
+                        d[i] -= h;
+                    }
+                    f += h;
+                    p = d[m];
+                    double c = 1.0;
+                    double c2 = c;
+                    double c3 = c;
+                    final double el1 = e[l + 1];
+                    double s = 0.0;
+                    double s2 = 0.0;
+                    for (int i = m - 1; i >= l; i--) {
+                        c3 = c2;
+                        c2 = c;
+                        s2 = s;
+                        g = c * e[i];
+                        h = c * p;
+                        r = Math.hypot(p, e[i]);
+                        e[i + 1] = s * r;
+                        s = e[i] / r;
+                        c = p / r;
+                        p = c * d[i] - s * g;
+                        d[i + 1] = h + s * (c * g + s * d[i]);
+                        for (int k = 0; k < n; k++) {
+                            h = v[k][i + 1];
+                            v[k][i + 1] = s * v[k][i] + c * h;
+                            v[k][i] = c * v[k][i] - s * h;
+                        }
+                    }
+                    p = -s * s2 * c3 * el1 * e[l] / dl1;
+                    e[l] = s * p;
+                    d[l] = c * p;
+                } while (Math.abs(e[l]) > eps * tst1);
+            }
+            d[l] += f;
+            e[l] = 0.0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "VectorReducer [method=" + (components != null ? METHOD_PCA : METHOD_TRUNCATE) + ", inputDimension=" + inputDimension
+                + ", outputDimension=" + outputDimension + ", normalize=" + normalize + ", explainedVariance=" + explainedVariance + "]";
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.spool;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_DEFER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_ENABLED;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_MAX_SIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_PATH;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Append-only local spool of images whose embedding failed or was deferred during crawling, read by
+ * {@link org.codelibs.fess.multimodal.job.EmbeddingBackfillJob}.
+ * <p>
+ * Each entry is one line of the number of attempts, the document URL and a Base64-encoded JPEG thumbnail.
+ * A writer appends to its own {@code .active} segment, which is renamed to {@code .log} when it exceeds the
+ * segment size or age, or when the spool is closed. Readers only take closed segments, and active segments
+ * left behind by a process that stopped are adopted once they have not been modified for a while, so the crawler
+ * and the backfill job can share a directory from different processes. A reader claims a closed segment by renaming
+ * it to {@code .claimed}, so that only one process reads it, and a claim that is not renewed for a while is regarded as
+ * left behind by a stopped reader and released. A line truncated by a crash is skipped.
+ * </p>
+ */
+public class EmbeddingSpool implements AutoCloseable {
+    private static final Logger logger = LogManager.getLogger(EmbeddingSpool.class);
+
+    private static final String ACTIVE_SUFFIX = ".active";
+
+    private static final String CLOSED_SUFFIX = ".log";
+
+    private static final String CLAIMED_SUFFIX = ".claimed";
+
+    /** The spool directory. */
+    protected final Path directory;
+
+    /** The maximum total size of the segments in bytes. */
+    protected final long maxBytes;
+
+    /** The size in bytes at which the active segment is closed. */
+    protected final long segmentBytes;
+
+    /** The age in milliseconds at which the active segment is closed. */
+    protected final long segmentMillis;
+
+    /** The active segment, or null if none is open. */
+    protected Path activeSegment;
+
+    /** The stream of the active segment. */
+    protected OutputStream activeStream;
+
+    /** The creation time of the active segment. */
+    protected long activeCreatedTime;
+
+    /** The size of the active segment in bytes. */
+    protected long activeBytes;
+
+    /**
+     * Constructs a spool.
+     *
+     * @param directory the spool directory
+     * @param maxBytes the maximum total size of the segments in bytes
+     * @param segmentBytes the size in bytes at which a segment is closed
+     * @param segmentMillis the age in milliseconds at which a segment is closed
+     */
+    public EmbeddingSpool(final Path directory, final long maxBytes, final long segmentBytes, final long segmentMillis) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+    }
+
+    /**
+     * Creates the spool configured by system properties. The directory defaults to {@code multimodal_spool}
+     * in the Fess var directory, so that the crawler and the webapp use the same one.
+     *
+     * @return the spool, or null if the spool is disabled
+     */
+    public static EmbeddingSpool create() {
+        if (!Boolean.getBoolean(SPOOL_ENABLED) && !Boolean.getBoolean(SPOOL_DEFER)) {
+            return null;
+        }
+        final Path directory = Paths.get(System.getProperty(SPOOL_PATH,
+                Paths.get(System.getProperty("fess.var.path", System.getProperty("java.io.tmpdir")), "multimodal_spool").toString()));
+        final long maxBytes = Long.getLong(SPOOL_MAX_SIZE, 1024L * 1024L * 1024L);
+        return new EmbeddingSpool(directory, maxBytes, Math.min(maxBytes, 16L * 1024L * 1024L), 60000L);
+    }
+
+    /**
+     * Gets the spool directory.
+     *
+     * @return the directory
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Appends an entry. Entries that would exceed the maximum size of the spool are dropped.
+     *
+     * @param entry the entry
+     * @return true if the entry is appended
+     */
+    public synchronized boolean append(final Entry entry) {
+        if (entry.getUrl().indexOf('\t') >= 0 || entry.getUrl().indexOf('\n') >= 0 || entry.getUrl().indexOf('\r') >= 0) {
+            logger.warn("Cannot spool {}.", entry.getUrl());
+            return false;
+        }
+        final String encoded = Base64.getEncoder().encodeToString(entry.getImage());
+        final byte[] line = (entry.getAttempts() + "\t" + entry.getUrl() + "\t" + encoded + "\n").getBytes(StandardCharsets.UTF_8);
+        try {
+            if (activeSegment != null && (activeBytes + line.length > segmentBytes
+                    || System.currentTimeMillis() - activeCreatedTime > segmentMillis || !Files.exists(activeSegment))) {
+                roll();
+            }
+            if (activeSegment == null) {
+                if (getSize() + line.length > maxBytes) {
+                    logger.warn("The embedding spool is full. Dropped {}.", entry.getUrl());
+                    return false;
+                }
+                Files.createDirectories(directory);
+                activeSegment = directory.resolve(System.currentTimeMillis() + "-" + UUID.randomUUID() + ACTIVE_SUFFIX);
+                activeStream = Files.newOutputStream(activeSegment, StandardOpenOption.CREATE_NEW, StandardOpenOption.APPEND);
+                activeCreatedTime = System.currentTimeMillis();
+                activeBytes = 0;
+            }
+            activeStream.write(line);
+            activeStream.flush();
+            activeBytes += line.length;
+            return true;
+        } catch (final IOException e) {
+            logger.warn("Failed to spool {}.", entry.getUrl(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Closes the active segment so that it can be read.
+     */
+    public synchronized void roll() {
+        if (activeSegment == null) {
+            return;
+        }
+        try {
+            activeStream.close();
+            if (Files.exists(activeSegment)) {
+                rename(activeSegment, ACTIVE_SUFFIX, CLOSED_SUFFIX);
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to close {}.", activeSegment, e);
+        } finally {
+            activeSegment = null;
+            activeStream = null;
+        }
+    }
+
+    /**
+     * Gets the closed segments, oldest first. Active segments not modified for the stale time are closed first,
+     * and claimed segments not renewed for the stale time are released first.
+     *
+     * @param staleMillis the time in milliseconds after which an active segment or a claim of another process is adopted
+     * @return the closed segments
+     */
+    public List<Path> getSegments(final long staleMillis) {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        final List<Path> segments = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(directory)) {
+            for (final Path path : stream.sorted().toList()) {
+                final String name = path.getFileName().toString();
+                try {
+                    if (name.endsWith(CLOSED_SUFFIX)) {
+                        segments.add(path);
+                    } else if (name.endsWith(ACTIVE_SUFFIX) && !path.equals(getActiveSegment())
+                            && System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() > staleMillis) {
+                        segments.add(rename(path, ACTIVE_SUFFIX, CLOSED_SUFFIX));
+                    } else if (name.endsWith(CLAIMED_SUFFIX)
+                            && System.currentTimeMillis() - Files.getLastModifiedTime(path).toMillis() > staleMillis) {
+                        logger.warn("Release {} claimed by a stopped reader.", path);
+                        segments.add(rename(path, CLAIMED_SUFFIX, CLOSED_SUFFIX));
+                    }
+                } catch (final NoSuchFileException e) {
+                    // adopted or claimed by another process
+                }
+            }
+        } catch (final IOException e) {
+            logger.warn("Failed to list {}.", directory, e);
+        }
+        return segments;
+    }
+
+    /**
+     * Claims a closed segment for reading by renaming it, so that no other process reads it. The reader deletes
+     * the claimed segment when it is done, and renews the claim with {@link #renewClaim(Path)} while it takes long.
+     *
+     * @param segment the closed segment
+     * @return the claimed segment, or null if another process claimed it first
+     * @throws IOException if the segment cannot be renamed
+     */
+    public Path claim(final Path segment) throws IOException {
+        final Path claimed;
+        try {
+            claimed = rename(segment, CLOSED_SUFFIX, CLAIMED_SUFFIX);
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+        renewClaim(claimed);
+        return claimed;
+    }
+
+    /**
+     * Renews the claim of a segment, so that it is not released as left behind by a stopped reader.
+     *
+     * @param claimed the claimed segment
+     */
+    public void renewClaim(final Path claimed) {
+        try {
+            Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (final IOException e) {
+            logger.warn("Failed to renew the claim of {}.", claimed, e);
+        }
+    }
+
+    /**
+     * Reads the entries of a segment. Malformed lines and a last line without a line break are skipped.
+     *
+     * @param segment the segment
+     * @return the entries
+     * @throws IOException if the segment cannot be read
+     */
+    public static List<Entry> read(final Path segment) throws IOException {
+        final List<Entry> entries = new ArrayList<>();
+        final String content = Files.readString(segment, StandardCharsets.UTF_8);
+        int start = 0;
+        for (int end = content.indexOf('\n'); end >= 0; start = end + 1, end = content.indexOf('\n', start)) {
+            final String[] values = content.substring(start, end).split("\t", -1);
+            try {
+                if (values.length == 3) {
+                    entries.add(new Entry(values[1], Base64.getDecoder().decode(values[2]), Integer.parseInt(values[0])));
+                    continue;
+                }
+            } catch (final IllegalArgumentException e) {
+                // fall through
+            }
+            logger.warn("Skip a malformed entry in {}.", segment);
+        }
+        if (start < content.length()) {
+            logger.warn("Skip a truncated entry in {}.", segment);
+        }
+        return entries;
+    }
+
+    /**
+     * Gets the total size of the segments in bytes.
+     *
+     * @return the size
+     */
+    public long getSize() {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.mapToLong(path -> {
+                try {
+                    return Files.size(path);
+                } catch (final IOException e) {
+                    return 0;
+                }
+            }).sum();
+        } catch (final IOException e) {
+            logger.warn("Failed to list {}.", directory, e);
+            return 0;
+        }
+    }
+
+    private synchronized Path getActiveSegment() {
+        return activeSegment;
+    }
+
+    private Path rename(final Path path, final String fromSuffix, final String toSuffix) throws IOException {
+        final String name = path.getFileName().toString();
+        final Path renamed = path.resolveSibling(name.substring(0, name.length() - fromSuffix.length()) + toSuffix);
+        return Files.move(path, renamed, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() {
+        roll();
+    }
+
+    /**
+     * Creates a JPEG thumbnail that fits in a square of the given size, which is enough for the CLIP preprocessing.
+     *
+     * @param image the image data
+     * @param size the maximum width and height
+     * @return the thumbnail, or null if the image cannot be decoded
+     * @throws IOException if encoding fails
+     */
+    public static byte[] createThumbnail(final byte[] image, final int size) throws IOException {
+        final BufferedImage source = ImageIO.read(new ByteArrayInputStream(image));
+        if (source == null || source.getWidth() <= 0 || source.getHeight() <= 0) {
+            return null;
+        }
+        final double scale = Math.min(1.0, (double) size / Math.max(source.getWidth(), source.getHeight()));
+        final int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+        final int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+        final BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(thumbnail, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * An image waiting for its embedding.
+     */
+    public static class Entry {
+        private final String url;
+
+        private final byte[] image;
+
+        private final int attempts;
+
+        /**
+         * Constructs an entry.
+         *
+         * @param url the document URL
+         * @param image the image data
+         * @param attempts the number of failed backfill attempts
+         */
+        public Entry(final String url, final byte[] image, final int attempts) {
+            this.url = url;
+            this.image = image;
+            this.attempts = attempts;
+        }
+
+        /**
+         * Gets the document URL.
+         *
+         * @return the URL
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * Gets the image data.
+         *
+         * @return the image
+         */
+        public byte[] getImage() {
+            return image;
+        }
+
+        /**
+         * Gets the number of failed backfill attempts.
+         *
+         * @return the attempts
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+}
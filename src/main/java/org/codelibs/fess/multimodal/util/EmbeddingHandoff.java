@@ -0,0 +1,180 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.INGEST_HANDOFF_MAX_SIZE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.INGEST_HANDOFF_TTL;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * In-process carrier of embeddings from the extractor to the ingester. Crawler metadata only holds strings,
+ * so instead of a Base64-encoded vector, the extractor puts a short reference into the metadata and the ingester
+ * takes the {@code float[]} by the reference, which avoids encoding, decoding and storing the vector as text
+ * in the crawl data. This works because Fess indexes crawled documents in the crawler process.
+ * <p>
+ * A reference contains a random id of the carrier instance, so a reference created by another process is
+ * never resolved to a wrong vector. A vector is held until it is taken or expires, and no vector is accepted
+ * while the carrier is full, in which case the extractor falls back to Base64. A vector that expires was never
+ * indexed, for example because its document was skipped or failed, and a reference that cannot be resolved loses
+ * its vector, so both are logged as warnings and counted.
+ * </p>
+ */
+public class EmbeddingHandoff {
+    private static final Logger logger = LogManager.getLogger(EmbeddingHandoff.class);
+
+    /** The prefix of references. Base64 never contains a colon, so references are distinguished from encoded vectors. */
+    public static final String PREFIX = "handoff:";
+
+    private static final EmbeddingHandoff INSTANCE =
+            new EmbeddingHandoff(Integer.getInteger(INGEST_HANDOFF_MAX_SIZE, 10000), Long.getLong(INGEST_HANDOFF_TTL, 60L * 60 * 1000));
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong unresolvedCount = new AtomicLong();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private final String instancePrefix;
+
+    private final int capacity;
+
+    private final long ttl;
+
+    /**
+     * Constructs a carrier.
+     *
+     * @param capacity the maximum number of vectors held
+     * @param ttl the time in milliseconds after which a vector that was not taken is dropped
+     */
+    public EmbeddingHandoff(final int capacity, final long ttl) {
+        this.capacity = capacity;
+        this.ttl = ttl;
+        instancePrefix = PREFIX + UUID.randomUUID().toString().substring(0, 8) + ":";
+    }
+
+    /**
+     * Gets the carrier shared by the extractor and the ingester of this process.
+     *
+     * @return the carrier
+     */
+    public static EmbeddingHandoff getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Checks whether a metadata value is a reference rather than a Base64-encoded vector.
+     *
+     * @param value the metadata value
+     * @return true if the value is a reference
+     */
+    public static boolean isReference(final String value) {
+        return value != null && value.startsWith(PREFIX);
+    }
+
+    /**
+     * Holds a vector until it is taken.
+     *
+     * @param embedding the vector
+     * @return the reference, or null if the carrier is full
+     */
+    public String put(final float[] embedding) {
+        if (entries.size() >= capacity) {
+            removeExpired();
+            if (entries.size() >= capacity) {
+                return null;
+            }
+        }
+        final String reference = instancePrefix + Long.toString(sequence.incrementAndGet(), 36);
+        entries.put(reference, new Entry(embedding, System.currentTimeMillis()));
+        return reference;
+    }
+
+    /**
+     * Takes a vector.
+     *
+     * @param reference the reference
+     * @return the vector, or null if it was never put into this carrier, was already taken or has expired
+     */
+    public float[] take(final String reference) {
+        final Entry entry = entries.remove(reference);
+        if (entry == null || System.currentTimeMillis() - entry.createdTime >= ttl) {
+            final String reason = !reference.startsWith(instancePrefix) ? "it was put in another process"
+                    : entry == null ? "it was already taken or has expired" : "it has expired";
+            logger.warn("Dropped the vector of {} because {}. ({} unresolved references so far)", reference, reason,
+                    unresolvedCount.incrementAndGet());
+            return null;
+        }
+        return entry.embedding;
+    }
+
+    /**
+     * Gets the number of references that could not be resolved to a vector.
+     *
+     * @return the number of unresolved references
+     */
+    public long getUnresolvedCount() {
+        return unresolvedCount.get();
+    }
+
+    /**
+     * Gets the number of vectors dropped because they were not taken before they expired.
+     *
+     * @return the number of expired vectors
+     */
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    /**
+     * Gets the number of vectors held.
+     *
+     * @return the number of vectors
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    private void removeExpired() {
+        final long now = System.currentTimeMillis();
+        final int size = entries.size();
+        entries.values().removeIf(entry -> now - entry.createdTime >= ttl);
+        final int expired = size - entries.size();
+        if (expired > 0) {
+            logger.warn("Dropped {} vectors that were not taken by the ingester. ({} expired so far)", expired,
+                    expiredCount.addAndGet(expired));
+        }
+    }
+
+    private static class Entry {
+        private final float[] embedding;
+
+        private final long createdTime;
+
+        Entry(final float[] embedding, final long createdTime) {
+            this.embedding = embedding;
+            this.createdTime = createdTime;
+        }
+    }
+}
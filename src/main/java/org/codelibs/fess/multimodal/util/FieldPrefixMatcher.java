@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import java.util.Arrays;
+
+/**
+ * Matcher that finds whether a text contains any of a fixed set of field names followed by a colon,
+ * equivalent to calling {@code text.indexOf(field + ":")} for every field.
+ * The field names are compiled once into a trie of reversed names, and a text is scanned in a single pass
+ * that walks backwards from each colon, so matching allocates nothing and does not depend on the number of fields.
+ * Instances are immutable and thread-safe.
+ */
+public class FieldPrefixMatcher {
+
+    private final Node root = new Node();
+
+    private final String[] fields;
+
+    /**
+     * Compiles a matcher for the given field names. Blank names are ignored.
+     *
+     * @param fields the field names
+     */
+    public FieldPrefixMatcher(final String[] fields) {
+        this.fields = fields;
+        if (fields != null) {
+            for (final String field : fields) {
+                if (field != null && !field.isBlank()) {
+                    root.add(field, field.length() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the field names this matcher was compiled from.
+     *
+     * @return the field names
+     */
+    public String[] getFields() {
+        return fields;
+    }
+
+    /**
+     * Checks whether the text contains any of the field names immediately followed by a colon.
+     *
+     * @param text the text to scan
+     * @return true if a field prefix is found
+     */
+    public boolean matches(final CharSequence text) {
+        if (text == null || root.isLeaf()) {
+            return false;
+        }
+        final int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) != ':') {
+                continue;
+            }
+            Node node = root;
+            for (int j = i - 1; j >= 0; j--) {
+                node = node.get(text.charAt(j));
+                if (node == null) {
+                    break;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Trie node keyed by characters in sorted order.
+     */
+    protected static class Node {
+
+        /** Sorted characters of the child nodes. */
+        protected char[] keys = new char[0];
+
+        /** Child nodes, in the order of the keys. */
+        protected Node[] children = new Node[0];
+
+        /** Whether a field name ends at this node. */
+        protected boolean terminal;
+
+        /**
+         * Adds a field name, walking it from the given index towards its start.
+         *
+         * @param field the field name
+         * @param index the index of the next character to add
+         */
+        protected void add(final String field, final int index) {
+            if (index < 0) {
+                terminal = true;
+                return;
+            }
+            final char c = field.charAt(index);
+            int pos = Arrays.binarySearch(keys, c);
+            if (pos < 0) {
+                pos = -pos - 1;
+                final char[] newKeys = new char[keys.length + 1];
+                final Node[] newChildren = new Node[children.length + 1];
+                System.arraycopy(keys, 0, newKeys, 0, pos);
+                System.arraycopy(children, 0, newChildren, 0, pos);
+                newKeys[pos] = c;
+                newChildren[pos] = new Node();
+                System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+                System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+                keys = newKeys;
+                children = newChildren;
+            }
+            children[pos].add(field, index - 1);
+        }
+
+        /**
+         * Gets the child node for a character.
+         *
+         * @param c the character
+         * @return the child node, or null if none
+         */
+        protected Node get(final char c) {
+            final int pos = Arrays.binarySearch(keys, c);
+            return pos < 0 ? null : children[pos];
+        }
+
+        /**
+         * Checks whether this node has no children.
+         *
+         * @return true if there are no children
+         */
+        protected boolean isLeaf() {
+            return keys.length == 0;
+        }
+    }
+}
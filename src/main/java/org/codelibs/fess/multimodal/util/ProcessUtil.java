@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+/**
+ * Utility class for finding which Fess process the plugin runs in.
+ * The components of app++.xml are loaded both by the web application and by the job processes that Fess launches,
+ * such as the crawler, which Fess starts with a system property that names the job.
+ */
+public class ProcessUtil {
+
+    /** System properties set on the job processes launched by Fess. */
+    private static final String[] JOB_PROCESS_PROPERTIES = { "fess.crawler.process", "fess.suggest.process", "fess.thumbnail.process" };
+
+    private ProcessUtil() {
+        // nothing
+    }
+
+    /**
+     * Checks whether this is the web application process rather than a job process such as the crawler.
+     * Background work that serves searches, or that only one process should run, belongs to the web application.
+     *
+     * @return true if this is the web application
+     */
+    public static boolean isWebApplication() {
+        for (final String property : JOB_PROCESS_PROPERTIES) {
+            if (Boolean.getBoolean(property)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import java.util.concurrent.Callable;
+import java.util.function.Supplier;
+
+/**
+ * Carrier of a value that is bound for the duration of a call, in the manner of {@code ScopedValue}.
+ * A binding is always removed when the call returns, even if it throws, and restores an outer binding,
+ * so nothing leaks to the next task of a pooled or virtual thread.
+ * Work handed off to another thread sees the value only when it is wrapped by {@link #wrap(Callable)}
+ * or {@link #wrap(Runnable)} on the thread that holds the binding.
+ *
+ * @param <T> the value type
+ */
+public class ScopedContext<T> {
+
+    private final ThreadLocal<T> current = new ThreadLocal<>();
+
+    /**
+     * Constructs an unbound carrier.
+     */
+    public ScopedContext() {
+        // nothing
+    }
+
+    /**
+     * Gets the value bound to the current call.
+     *
+     * @return the value, or null if none is bound
+     */
+    public T get() {
+        return current.get();
+    }
+
+    /**
+     * Checks whether a value is bound to the current call.
+     *
+     * @return true if a value is bound
+     */
+    public boolean isBound() {
+        return current.get() != null;
+    }
+
+    /**
+     * Runs a task with the value bound.
+     *
+     * @param <R> the result type
+     * @param value the value to bind
+     * @param task the task
+     * @return the result of the task
+     */
+    public <R> R supply(final T value, final Supplier<R> task) {
+        final T previous = current.get();
+        current.set(value);
+        try {
+            return task.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Runs a task that may throw a checked exception with the value bound.
+     *
+     * @param <R> the result type
+     * @param value the value to bind
+     * @param task the task
+     * @return the result of the task
+     * @throws Exception if the task throws
+     */
+    public <R> R call(final T value, final Callable<R> task) throws Exception {
+        final T previous = current.get();
+        current.set(value);
+        try {
+            return task.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Runs a task with the value bound.
+     *
+     * @param value the value to bind
+     * @param task the task
+     */
+    public void run(final T value, final Runnable task) {
+        supply(value, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Wraps a task so that it runs with the value bound to the current call, on whichever thread executes it.
+     *
+     * @param <R> the result type
+     * @param task the task
+     * @return the wrapped task, or the task itself if no value is bound
+     */
+    public <R> Callable<R> wrap(final Callable<R> task) {
+        final T value = current.get();
+        if (value == null) {
+            return task;
+        }
+        return () -> call(value, task);
+    }
+
+    /**
+     * Wraps a task so that it runs with the value bound to the current call, on whichever thread executes it.
+     *
+     * @param task the task
+     * @return the wrapped task, or the task itself if no value is bound
+     */
+    public Runnable wrap(final Runnable task) {
+        final T value = current.get();
+        if (value == null) {
+            return task;
+        }
+        return () -> run(value, task);
+    }
+
+    private void restore(final T previous) {
+        if (previous == null) {
+            current.remove();
+        } else {
+            current.set(previous);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimiterTest extends UnitWebappTestCase {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void test_release_increasesWhileLatencyIsLow() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 4, 2.0, 0.5, 100);
+
+        for (int i = 0; i < 5; i++) {
+            final int inFlight = limiter.acquire();
+            limiter.release(inFlight, 10 * MS, false);
+        }
+        // a single request in flight uses half of the limit only until the limit reaches 3
+        assertEquals(3, limiter.getLimit());
+
+        final int first = limiter.acquire();
+        final int second = limiter.acquire();
+        limiter.release(second, 10 * MS, false);
+        limiter.release(first, 10 * MS, false);
+        assertEquals(4, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void test_release_decreasesOnHighLatencyOrDrop() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(8, 2, 8, 2.0, 0.5, 100);
+
+        limiter.release(limiter.acquire(), 10 * MS, false);
+        assertEquals(8, limiter.getLimit());
+        limiter.release(limiter.acquire(), 30 * MS, false);
+        assertEquals(4, limiter.getLimit());
+        limiter.release(limiter.acquire(), 10 * MS, true);
+        assertEquals(2, limiter.getLimit());
+        limiter.release(limiter.acquire(), 10 * MS, true);
+        assertEquals(2, limiter.getLimit());
+    }
+
+    @Test
+    public void test_release_followsLatencyDrift() throws InterruptedException {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 4, 2.0, 0.5, 2);
+
+        limiter.release(limiter.acquire(), 10 * MS, false);
+        limiter.release(limiter.acquire(), 15 * MS, false);
+        limiter.release(limiter.acquire(), 30 * MS, false);
+        // the unloaded latency was measured again as 10ms, so 30ms is over the tolerance
+        assertEquals(2, limiter.getLimit());
+        limiter.release(limiter.acquire(), 30 * MS, false);
+        // the unloaded latency is now 30ms, so the limit grows again
+        assertEquals(3, limiter.getLimit());
+        limiter.release(limiter.acquire(), 40 * MS, false);
+        assertEquals(3, limiter.getLimit());
+    }
+
+    @Test
+    public void test_acquire_waitsOverLimit() throws Exception {
+        final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0, 0.5, 100);
+        final int inFlight = limiter.acquire();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicBoolean acquired = new AtomicBoolean();
+        final Thread thread = new Thread(() -> {
+            started.countDown();
+            try {
+                limiter.release(limiter.acquire(), MS, false);
+                acquired.set(true);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertFalse(acquired.get());
+
+        limiter.release(inFlight, MS, false);
+        thread.join(1000);
+        assertTrue(acquired.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void test_constructor_invalidParameters() {
+        try {
+            new AdaptiveConcurrencyLimiter(1, 0, 1, 2.0, 0.5, 100);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new AdaptiveConcurrencyLimiter(1, 1, 1, 2.0, 1.0, 100);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
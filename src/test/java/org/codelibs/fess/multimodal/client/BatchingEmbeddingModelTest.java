@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class BatchingEmbeddingModelTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_embedTexts_batchesWaitingRequests() throws Exception {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final BatchingEmbeddingModel model = new BatchingEmbeddingModel(texts -> {
+            batchSizes.add(texts.size());
+            running.countDown();
+            try {
+                release.await(1, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return texts.stream().map(t -> new float[] { t.length() }).toList();
+        }, 1, 3, 10);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<List<float[]>> first = executor.submit(() -> model.embedTexts(List.of("a")));
+            assertTrue(running.await(1, TimeUnit.SECONDS));
+            final List<Future<List<float[]>>> others = new ArrayList<>();
+            for (final String text : List.of("bb", "ccc", "dddd")) {
+                others.add(executor.submit(() -> model.embedTexts(List.of(text))));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(1.0f, first.get(1, TimeUnit.SECONDS).get(0)[0]);
+            for (int i = 0; i < others.size(); i++) {
+                assertEquals(i + 2.0f, others.get(i).get(1, TimeUnit.SECONDS).get(0)[0]);
+            }
+            // the first request runs alone, the next three are batched
+            assertEquals(List.of(1, 3), batchSizes);
+        } finally {
+            executor.shutdownNow();
+            model.close();
+        }
+    }
+
+    @Test
+    public void test_embedTexts_failure() throws Exception {
+        final BatchingEmbeddingModel model = new BatchingEmbeddingModel(texts -> {
+            throw new IllegalStateException("broken");
+        }, 2, 4, 10);
+        try {
+            model.embedTexts(List.of("a"));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            model.close();
+        }
+    }
+
+    @Test
+    public void test_close() throws Exception {
+        final List<Boolean> closed = new ArrayList<>();
+        final BatchingEmbeddingModel model = new BatchingEmbeddingModel(new CloseableModel(closed), 1, 4, 10);
+        model.close();
+
+        assertEquals(List.of(true), closed);
+        try {
+            model.embedTexts(List.of("a"));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+
+    private static class CloseableModel implements EmbeddingModel, AutoCloseable {
+        private final List<Boolean> closed;
+
+        CloseableModel(final List<Boolean> closed) {
+            this.closed = closed;
+        }
+
+        @Override
+        public List<float[]> embedTexts(final List<String> texts) {
+            return texts.stream().map(t -> new float[0]).toList();
+        }
+
+        @Override
+        public void close() {
+            closed.add(true);
+        }
+    }
+}
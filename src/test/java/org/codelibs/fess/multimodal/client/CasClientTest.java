@@ -15,14 +15,24 @@
  */
 package org.codelibs.fess.multimodal.client;
 
+import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.logging.Logger;
 
+import javax.imageio.ImageIO;
+
 import org.codelibs.core.io.ResourceUtil;
 import org.codelibs.curl.CurlException;
 import org.codelibs.fess.multimodal.crawler.extractor.CasExtractorTest;
 import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
 import org.junit.jupiter.api.Test;
 
@@ -33,6 +43,7 @@ public class CasClientTest extends UnitWebappTestCase {
     public void test_encodeImage() throws Exception {
         final CasClient client = new CasClient();
         client.init();
+        client.jpegScaledDecode = false;
         try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
             final String data = client.encodeImage(in);
             assertEquals(70804, data.length());
@@ -40,6 +51,102 @@ public class CasClientTest extends UnitWebappTestCase {
         }
     }
 
+    @Test
+    public void test_encodeImage_jpegScaledDecode() throws Exception {
+        final CasClient client = new CasClient();
+        client.init();
+        assertTrue(client.jpegScaledDecode);
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            final String data = client.encodeImage(in);
+            final BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(data)));
+            assertEquals(224, image.getWidth());
+            assertEquals(224, image.getHeight());
+        }
+    }
+
+    @Test
+    public void test_encodeScaledJpeg_nonJpeg_returnsNull() throws Exception {
+        final CasClient client = new CasClient();
+        client.init();
+        assertNull(client.encodeScaledJpeg("not an image".getBytes()));
+    }
+
+    @Test
+    public void test_setClipEndpoint_recreatesGrpcTransport() {
+        final List<String> endpoints = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected CasGrpcTransport createGrpcTransport(final String endpoint) {
+                endpoints.add(endpoint);
+                return new CasGrpcTransport(null, 8, 1000L);
+            }
+        };
+        System.setProperty("clip.server.protocol", "grpc");
+        System.setProperty("clip.server.endpoint", "grpc://old-model:51000");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.server.protocol");
+            System.clearProperty("clip.server.endpoint");
+        }
+        final CasGrpcTransport oldTransport = client.grpcTransport;
+
+        client.setClipEndpoint("grpc://new-model:51000");
+
+        assertEquals(List.of("grpc://old-model:51000", "grpc://new-model:51000"), endpoints);
+        assertNotSame(oldTransport, client.grpcTransport);
+        client.destroy();
+    }
+
+    @Test
+    public void test_setClipEndpoint_publishesTransportBeforeClosingOld() {
+        final List<CasGrpcTransport> current = new ArrayList<>();
+        final CasClient[] clients = new CasClient[1];
+        final CasClient client = new CasClient() {
+            @Override
+            protected CasGrpcTransport createGrpcTransport(final String endpoint) {
+                return new CasGrpcTransport(null, 8, 1000L) {
+                    @Override
+                    public void close() {
+                        current.add(clients[0].grpcTransport);
+                    }
+                };
+            }
+        };
+        clients[0] = client;
+        System.setProperty("clip.server.protocol", "grpc");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.server.protocol");
+        }
+        final CasGrpcTransport oldTransport = client.grpcTransport;
+
+        client.setClipEndpoint("grpc://new-model:51000");
+        final CasGrpcTransport newTransport = client.grpcTransport;
+        client.destroy();
+
+        assertNotSame(oldTransport, newTransport);
+        assertEquals(2, current.size());
+        assertSame(newTransport, current.get(0));
+        assertNull(current.get(1));
+        assertNull(client.grpcTransport);
+    }
+
+    @Test
+    public void test_getResizedSize_keepsAspectRatio() {
+        final CasClient client = new CasClient();
+        client.init();
+
+        int[] size = client.getResizedSize(1000, 500);
+        assertEquals(224, size[0]);
+        assertEquals(112, size[1]);
+
+        size = client.getResizedSize(500, 1000);
+        assertEquals(112, size[0]);
+        assertEquals(224, size[1]);
+    }
+
     @Test
     public void test_getImageEmbedding() throws Exception {
         final CasClient client = new CasClient();
@@ -75,6 +182,332 @@ public class CasClientTest extends UnitWebappTestCase {
         assertEquals(2000, client.maxImageHeight);
         assertEquals("png", client.imageFormat);
         assertEquals("http://localhost:51000", client.clipEndpoint);
+        assertTrue(client.jpegScaledDecode);
+        assertNull(client.imageHashIndex);
+    }
+
+    @Test
+    public void test_getImageEmbedding_reusesNearDuplicate() throws Exception {
+        final int[] calls = { 0 };
+        final CasClient client = new CasClient() {
+            @Override
+            protected float[] sendImage(final String encodedImage) {
+                calls[0]++;
+                return new float[] { 1.0f, 2.0f };
+            }
+        };
+        try {
+            System.setProperty("clip.image.hash.cache_size", "10");
+            client.init();
+        } finally {
+            System.clearProperty("clip.image.hash.cache_size");
+        }
+        assertNotNull(client.imageHashIndex);
+
+        final float[] embedding1;
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            embedding1 = client.getImageEmbedding(in);
+        }
+        client.jpegScaledDecode = false;
+        final float[] embedding2;
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            embedding2 = client.getImageEmbedding(in);
+        }
+
+        assertEquals(1, calls[0]);
+        assertNotSame(embedding1, embedding2);
+        assertTrue(Arrays.equals(embedding1, embedding2));
+    }
+
+    @Test
+    public void test_getImageEmbeddings_sendsInBatches() throws Exception {
+        final List<Integer> batches = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> sendImages(final List<String> encodedImages) {
+                batches.add(encodedImages.size());
+                final List<float[]> embeddings = new ArrayList<>();
+                for (int i = 0; i < encodedImages.size(); i++) {
+                    embeddings.add(new float[] { batches.size(), i });
+                }
+                return embeddings;
+            }
+        };
+        client.init();
+        client.batchSize = 2;
+
+        final byte[] image;
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            image = in.readAllBytes();
+        }
+        final List<float[]> embeddings = client.getImageEmbeddings(List.of(new ByteArrayInputStream(image),
+                new ByteArrayInputStream("not an image".getBytes()), new ByteArrayInputStream(image), new ByteArrayInputStream(image)));
+
+        assertEquals(4, embeddings.size());
+        assertEquals(List.of(2, 1), batches);
+        assertEquals(1.0f, embeddings.get(0)[0]);
+        assertNull(embeddings.get(1));
+        assertEquals(1.0f, embeddings.get(2)[1]);
+        assertEquals(2.0f, embeddings.get(3)[0]);
+    }
+
+    @Test
+    public void test_getTextEmbedding_cachesTexts() {
+        final List<List<String>> requests = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> post(final String key, final List<String> values) {
+                requests.add(new ArrayList<>(values));
+                final List<float[]> embeddings = new ArrayList<>();
+                for (final String value : values) {
+                    embeddings.add(new float[] { value.length() });
+                }
+                return embeddings;
+            }
+        };
+        System.setProperty("clip.text.cache_size", "2");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.text.cache_size");
+        }
+        client.batchSize = 2;
+
+        assertEquals(3, client.warmTextEmbeddings(List.of("a", "bb", "ccc", "bb", " ")));
+        assertEquals(2, requests.size());
+        assertEquals(List.of("ccc"), requests.get(1));
+
+        assertEquals(3.0f, client.getTextEmbedding("ccc")[0]);
+        assertEquals(2, requests.size());
+        // "a" was evicted as the least recently used text
+        assertEquals(1.0f, client.getTextEmbedding("a")[0]);
+        assertEquals(3, requests.size());
+        assertEquals(0, client.warmTextEmbeddings(List.of("a", "ccc")));
+    }
+
+    @Test
+    public void test_getTextEmbedding_returnsCopyOfCachedEmbedding() {
+        final List<String> requests = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> post(final String key, final List<String> values) {
+                requests.addAll(values);
+                return List.of(new float[] { 1.0f, 2.0f });
+            }
+        };
+        System.setProperty("clip.text.cache_size", "2");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.text.cache_size");
+        }
+
+        final float[] first = client.getTextEmbedding("red car");
+        first[0] = 9.0f;
+        final float[] second = client.getTextEmbedding("red car");
+        assertEquals(1, requests.size());
+        assertNotSame(first, second);
+        assertEquals(1.0f, second[0]);
+        second[1] = 9.0f;
+        assertEquals(2.0f, client.getTextEmbedding("red car")[1]);
+    }
+
+    @Test
+    public void test_post_releasesConcurrencyLimitOnFailure() {
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> sendRequest(final String key, final List<String> values) {
+                if (values.contains("fail")) {
+                    throw new CasAccessException("Test error");
+                }
+                return List.of(new float[] { 1.0f });
+            }
+        };
+        System.setProperty("clip.concurrency.max_limit", "4");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.concurrency.max_limit");
+        }
+
+        assertEquals(4, client.queryConcurrencyLimiter.getLimit());
+        assertEquals(1.0f, client.getTextEmbedding("ok")[0]);
+        try {
+            client.getTextEmbedding("fail");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+        assertEquals(0, client.queryConcurrencyLimiter.getInFlight());
+        assertEquals(3, client.queryConcurrencyLimiter.getLimit());
+    }
+
+    @Test
+    public void test_getConcurrencyLimiter_separatesQueriesFromBatches() {
+        final CasClient client = new CasClient();
+        System.setProperty("clip.concurrency.max_limit", "4");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.concurrency.max_limit");
+        }
+
+        assertNotSame(client.concurrencyLimiter, client.queryConcurrencyLimiter);
+        assertSame(client.queryConcurrencyLimiter, client.getConcurrencyLimiter("text", List.of("red car")));
+        assertSame(client.concurrencyLimiter, client.getConcurrencyLimiter("text", List.of("chunk 1", "chunk 2")));
+        assertSame(client.concurrencyLimiter, client.getConcurrencyLimiter("blob", List.of("aW1hZ2U=")));
+    }
+
+    @Test
+    public void test_post_retriesUnavailableServer() {
+        final List<String> requests = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> sendRequest(final String key, final List<String> values) {
+                requests.add(values.get(0));
+                if (requests.size() < 3) {
+                    throw new CasUnavailableException("Test error");
+                }
+                return List.of(new float[] { 1.0f });
+            }
+        };
+        client.init();
+        client.retryInitialDelay = 1L;
+
+        assertEquals(1.0f, client.getTextEmbedding("ok")[0]);
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void test_post_givesUpAfterMaxRetries() {
+        final List<String> requests = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> sendRequest(final String key, final List<String> values) {
+                requests.add(values.get(0));
+                throw new CasUnavailableException("Test error");
+            }
+        };
+        client.init();
+        client.retryInitialDelay = 1L;
+
+        try {
+            client.getTextEmbedding("down");
+            fail("Expected CasUnavailableException");
+        } catch (final CasUnavailableException e) {
+            // expected
+        }
+        assertEquals(client.maxRetries + 1, requests.size());
+    }
+
+    @Test
+    public void test_post_doesNotRetryInputFailures() {
+        final List<String> requests = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> sendRequest(final String key, final List<String> values) {
+                requests.add(values.get(0));
+                throw new CasAccessException("Test error");
+            }
+        };
+        client.init();
+
+        try {
+            client.getTextEmbedding("bad");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    public void test_getRetryDelay_isBounded() {
+        final CasClient client = new CasClient();
+        client.init();
+        client.retryInitialDelay = 100L;
+        client.retryMaxDelay = 1000L;
+
+        for (int retry = 0; retry < 40; retry++) {
+            final long delay = client.getRetryDelay(retry);
+            assertTrue(delay >= 0);
+            assertTrue(delay <= Math.min(1000L, 100L << Math.min(retry, 30)));
+        }
+    }
+
+    @Test
+    public void test_isTransientFailure() {
+        final CasClient client = new CasClient();
+
+        assertTrue(client.isTransientFailure(new CasUnavailableException("Test error")));
+        assertTrue(client.isTransientFailure(new CurlException("Test error", new ConnectException("Connection refused"))));
+        assertFalse(client.isTransientFailure(new CasAccessException("Test error")));
+        assertFalse(client.isTransientFailure(new CasAccessException("Test error", new SocketTimeoutException("Read timed out"))));
+        assertTrue(CasClient.isUnavailableStatus(503));
+        assertFalse(CasClient.isUnavailableStatus(500));
+    }
+
+    @Test
+    public void test_init_singleFlight() {
+        final CasClient client = new CasClient();
+        client.init();
+        assertNotNull(client.textFlights);
+        assertNotNull(client.imageFlights);
+
+        System.setProperty("clip.single_flight", "false");
+        try {
+            client.init();
+        } finally {
+            System.clearProperty("clip.single_flight");
+        }
+        assertNull(client.textFlights);
+        assertNull(client.imageFlights);
+    }
+
+    @Test
+    public void test_warmTextEmbeddings_withoutCache() {
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> post(final String key, final List<String> values) {
+                fail("Expected no request");
+                return null;
+            }
+        };
+        client.init();
+
+        assertFalse(client.isTextEmbeddingCacheEnabled());
+        assertEquals(0, client.warmTextEmbeddings(List.of("a")));
+    }
+
+    @Test
+    public void test_getTextEmbeddings_sendsInBatches() {
+        final List<List<String>> batches = new ArrayList<>();
+        final CasClient client = new CasClient() {
+            @Override
+            protected List<float[]> post(final String key, final List<String> values) {
+                assertEquals("text", key);
+                batches.add(new ArrayList<>(values));
+                if (values.contains("fail")) {
+                    throw new CasAccessException("Test error");
+                }
+                final List<float[]> embeddings = new ArrayList<>();
+                for (final String value : values) {
+                    embeddings.add(new float[] { value.length() });
+                }
+                return embeddings;
+            }
+        };
+        client.init();
+        client.batchSize = 2;
+
+        final List<float[]> embeddings = client.getTextEmbeddings(List.of("a", "bb", "fail", "dddd", "eeeee"));
+
+        assertEquals(3, batches.size());
+        assertEquals(5, embeddings.size());
+        assertEquals(2.0f, embeddings.get(1)[0]);
+        assertNull(embeddings.get(2));
+        assertNull(embeddings.get(3));
+        assertEquals(5.0f, embeddings.get(4)[0]);
     }
 
     @Test
@@ -86,6 +519,8 @@ public class CasClientTest extends UnitWebappTestCase {
             System.setProperty("clip.image.max_height", "4000");
             System.setProperty("clip.image.format", "jpg");
             System.setProperty("clip.server.endpoint", "http://localhost:8080");
+            System.setProperty("clip.image.jpeg.scaled_decode", "false");
+            System.setProperty("clip.batch.size", "4");
 
             final CasClient client = new CasClient();
             client.init();
@@ -96,6 +531,8 @@ public class CasClientTest extends UnitWebappTestCase {
             assertEquals(4000, client.maxImageHeight);
             assertEquals("jpg", client.imageFormat);
             assertEquals("http://localhost:8080", client.clipEndpoint);
+            assertFalse(client.jpegScaledDecode);
+            assertEquals(4, client.batchSize);
         } finally {
             System.clearProperty("clip.image.width");
             System.clearProperty("clip.image.height");
@@ -103,6 +540,8 @@ public class CasClientTest extends UnitWebappTestCase {
             System.clearProperty("clip.image.max_height");
             System.clearProperty("clip.image.format");
             System.clearProperty("clip.server.endpoint");
+            System.clearProperty("clip.image.jpeg.scaled_decode");
+            System.clearProperty("clip.batch.size");
         }
     }
 
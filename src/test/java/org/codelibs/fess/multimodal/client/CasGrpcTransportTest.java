@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+public class CasGrpcTransportTest extends UnitWebappTestCase {
+
+    private Server server;
+
+    private ManagedChannel channel;
+
+    /** Sizes of the received request messages. */
+    private final List<Integer> messageSizes = new CopyOnWriteArrayList<>();
+
+    @Override
+    protected void tearDown(final TestInfo testInfo) throws Exception {
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+        super.tearDown(testInfo);
+    }
+
+    /**
+     * Starts a stub CLIP server whose responses are created from the requests.
+     */
+    private void startServer(final Function<byte[], byte[]> handler) throws Exception {
+        final String name = InProcessServerBuilder.generateName();
+        final ServerServiceDefinition service = ServerServiceDefinition.builder("jina.JinaRPC")
+                .addMethod(CasGrpcTransport.CALL_METHOD, ServerCalls.asyncBidiStreamingCall(responses -> new StreamObserver<byte[]>() {
+                    @Override
+                    public void onNext(final byte[] request) {
+                        messageSizes.add(CasProtobufTest.readDocuments(request).size());
+                        final byte[] response = handler.apply(request);
+                        if (response != null) {
+                            responses.onNext(response);
+                        } else {
+                            responses.onError(Status.UNAVAILABLE.withDescription("down").asRuntimeException());
+                        }
+                    }
+
+                    @Override
+                    public void onError(final Throwable t) {
+                        // ignore
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        responses.onCompleted();
+                    }
+                }))
+                .build();
+        server = InProcessServerBuilder.forName(name).directExecutor().addService(service).build().start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+    }
+
+    /**
+     * Embeds a text as its length and a blob as its size.
+     */
+    private static byte[] embedLengths(final byte[] request) {
+        final List<float[]> embeddings = new ArrayList<>();
+        for (final Object value : CasProtobufTest.readDocuments(request)) {
+            embeddings.add(new float[] { value instanceof final String text ? text.length() : ((byte[]) value).length, 1.0f });
+        }
+        return CasProtobufTest.createResponse(CasProtobufTest.readRequestId(request), 0, embeddings);
+    }
+
+    @Test
+    public void test_encode_streamsMessages() throws Exception {
+        startServer(CasGrpcTransportTest::embedLengths);
+        final CasGrpcTransport transport = new CasGrpcTransport(channel, 2, 5000L);
+
+        final List<float[]> embeddings = transport.encode("text", List.of("a", "bb", "ccc", "dddd", "eeeee"));
+
+        assertEquals(5, embeddings.size());
+        for (int i = 0; i < embeddings.size(); i++) {
+            assertEquals(i + 1.0f, embeddings.get(i)[0]);
+        }
+        assertEquals(List.of(2, 2, 1), messageSizes);
+    }
+
+    @Test
+    public void test_encode_blob() throws Exception {
+        startServer(CasGrpcTransportTest::embedLengths);
+        final CasGrpcTransport transport = new CasGrpcTransport(channel, 8, 5000L);
+
+        final List<float[]> embeddings = transport.encode("blob", List.of(Base64.getEncoder().encodeToString(new byte[100])));
+
+        assertEquals(100.0f, embeddings.get(0)[0]);
+    }
+
+    @Test
+    public void test_encode_errorStatus() throws Exception {
+        startServer(request -> CasProtobufTest.createResponse(CasProtobufTest.readRequestId(request), 1, List.of()));
+        final CasGrpcTransport transport = new CasGrpcTransport(channel, 8, 5000L);
+
+        try {
+            transport.encode("text", List.of("cat"));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            assertTrue(e.getMessage().contains("failed"));
+        }
+    }
+
+    @Test
+    public void test_encode_missingEmbedding() throws Exception {
+        startServer(request -> CasProtobufTest.createResponse(CasProtobufTest.readRequestId(request), 0, List.of()));
+        final CasGrpcTransport transport = new CasGrpcTransport(channel, 8, 5000L);
+
+        try {
+            transport.encode("text", List.of("cat"));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_encode_serverError() throws Exception {
+        startServer(request -> null);
+        final CasGrpcTransport transport = new CasGrpcTransport(channel, 8, 5000L);
+
+        try {
+            transport.encode("text", List.of("cat"));
+            fail("Expected CasUnavailableException");
+        } catch (final CasUnavailableException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_casClient_usesTransport() throws Exception {
+        startServer(CasGrpcTransportTest::embedLengths);
+        final CasClient client = new CasClient();
+        client.init();
+        client.grpcTransport = new CasGrpcTransport(channel, 8, 5000L);
+
+        assertEquals(3.0f, client.getTextEmbedding("cat")[0]);
+        assertEquals(2, client.getTextEmbeddings(List.of("a", "bb")).size());
+        client.destroy();
+        assertNull(client.grpcTransport);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.client.CasProtobuf.ProtoReader;
+import org.codelibs.fess.multimodal.client.CasProtobuf.ProtoWriter;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class CasProtobufTest extends UnitWebappTestCase {
+
+    /**
+     * Builds a response with one document per embedding, as the CLIP server does.
+     */
+    static byte[] createResponse(final String requestId, final int statusCode, final List<float[]> embeddings) {
+        final ProtoWriter docs = new ProtoWriter();
+        for (final float[] embedding : embeddings) {
+            final ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.asFloatBuffer().put(embedding);
+            final ProtoWriter dense = new ProtoWriter();
+            dense.writeBytes(CasProtobuf.DENSE_BUFFER, buffer.array());
+            dense.writeVarint(CasProtobuf.DENSE_SHAPE, embedding.length);
+            dense.writeString(CasProtobuf.DENSE_DTYPE, "<f4");
+            final ProtoWriter ndarray = new ProtoWriter();
+            ndarray.writeMessage(CasProtobuf.NDARRAY_DENSE, dense);
+            final ProtoWriter doc = new ProtoWriter();
+            doc.writeString(CasProtobuf.DOC_ID, "id");
+            doc.writeString(9, "ignored");
+            doc.writeMessage(CasProtobuf.DOC_EMBEDDING, ndarray);
+            docs.writeMessage(CasProtobuf.ARRAY_DOCS, doc);
+        }
+        final ProtoWriter status = new ProtoWriter();
+        status.writeVarint(CasProtobuf.STATUS_CODE, statusCode);
+        status.writeString(CasProtobuf.STATUS_DESCRIPTION, statusCode == 0 ? "" : "failed");
+        final ProtoWriter header = new ProtoWriter();
+        header.writeString(CasProtobuf.HEADER_REQUEST_ID, requestId);
+        header.writeMessage(CasProtobuf.HEADER_STATUS, status);
+        final ProtoWriter data = new ProtoWriter();
+        data.writeMessage(CasProtobuf.DATA_DOCS, docs);
+        final ProtoWriter response = new ProtoWriter();
+        response.writeMessage(CasProtobuf.REQUEST_HEADER, header);
+        response.writeMessage(CasProtobuf.REQUEST_DATA, data);
+        return response.toByteArray();
+    }
+
+    /**
+     * Reads the text or the blob of each document of a request.
+     */
+    static List<Object> readDocuments(final byte[] request) {
+        final List<Object> values = new ArrayList<>();
+        final ProtoReader reader = new ProtoReader(request);
+        while (reader.next()) {
+            if (reader.field() != CasProtobuf.REQUEST_DATA) {
+                reader.skip();
+                continue;
+            }
+            final ProtoReader data = reader.readMessage();
+            while (data.next()) {
+                final ProtoReader docs = data.readMessage();
+                while (docs.next()) {
+                    final ProtoReader doc = docs.readMessage();
+                    while (doc.next()) {
+                        if (doc.field() == CasProtobuf.DOC_TEXT) {
+                            values.add(doc.readString());
+                        } else if (doc.field() == CasProtobuf.DOC_BLOB) {
+                            values.add(doc.readBytes());
+                        } else {
+                            doc.skip();
+                        }
+                    }
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Reads the request id of a request.
+     */
+    static String readRequestId(final byte[] request) {
+        final ProtoReader reader = new ProtoReader(request);
+        while (reader.next()) {
+            if (reader.field() == CasProtobuf.REQUEST_HEADER) {
+                final ProtoReader header = reader.readMessage();
+                while (header.next()) {
+                    if (header.field() == CasProtobuf.HEADER_REQUEST_ID) {
+                        return header.readString();
+                    }
+                    header.skip();
+                }
+            } else {
+                reader.skip();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void test_encodeRequest_text() {
+        final byte[] request = CasProtobuf.encodeRequest("r1", "text", List.of("cat", "日本語"));
+
+        assertEquals("r1", readRequestId(request));
+        assertEquals(List.of("cat", "日本語"), readDocuments(request));
+    }
+
+    @Test
+    public void test_encodeRequest_blob() {
+        final byte[] image = new byte[300];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+        final List<Object> values =
+                readDocuments(CasProtobuf.encodeRequest("r2", "blob", List.of(Base64.getEncoder().encodeToString(image))));
+
+        assertEquals(1, values.size());
+        assertEquals(Base64.getEncoder().encodeToString(image), Base64.getEncoder().encodeToString((byte[]) values.get(0)));
+    }
+
+    @Test
+    public void test_decodeResponse() {
+        final CasProtobuf.Response response =
+                CasProtobuf.decodeResponse(createResponse("r3", 0, List.of(new float[] { 0.5f, -1.0f }, new float[] { 2.0f, 3.0f })));
+
+        assertEquals("r3", response.getRequestId());
+        assertEquals(0, response.getStatusCode());
+        assertEquals(2, response.getEmbeddings().size());
+        assertEquals(0.5f, response.getEmbeddings().get(0)[0]);
+        assertEquals(-1.0f, response.getEmbeddings().get(0)[1]);
+        assertEquals(3.0f, response.getEmbeddings().get(1)[1]);
+    }
+
+    @Test
+    public void test_decodeResponse_error() {
+        final CasProtobuf.Response response = CasProtobuf.decodeResponse(createResponse("r4", 1, List.of()));
+
+        assertEquals(1, response.getStatusCode());
+        assertEquals("failed", response.getStatusDescription());
+        assertTrue(response.getEmbeddings().isEmpty());
+    }
+
+    @Test
+    public void test_decodeResponse_truncated() {
+        final byte[] bytes = createResponse("r5", 0, List.of(new float[] { 1.0f }));
+        try {
+            CasProtobuf.decodeResponse(Arrays.copyOf(bytes, bytes.length - 3));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_toFloatArray() {
+        final ByteBuffer big = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+        big.putFloat(1.5f).putFloat(-2.0f);
+        final float[] values = CasProtobuf.toFloatArray(big.array(), ">f4");
+        assertEquals(1.5f, values[0]);
+        assertEquals(-2.0f, values[1]);
+
+        final ByteBuffer doubles = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+        doubles.putDouble(0.25).putDouble(4.0);
+        final float[] converted = CasProtobuf.toFloatArray(doubles.array(), "float64");
+        assertEquals(0.25f, converted[0]);
+        assertEquals(4.0f, converted[1]);
+
+        try {
+            CasProtobuf.toFloatArray(new byte[4], "<i4");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+}
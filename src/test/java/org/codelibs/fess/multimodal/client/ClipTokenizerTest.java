@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ClipTokenizerTest extends UnitWebappTestCase {
+
+    // byte symbols start at '!', so 'a' is 64, 'c' is 66 and the same symbols ending a word are 256 higher
+    private static final String MERGES = "#version: 0.2\nc a\nca t</w>\n";
+
+    private static final int CA = 512;
+
+    private static final int CAT = 513;
+
+    private static final int SOT = 514;
+
+    private static final int EOT = 515;
+
+    private ClipTokenizer createTokenizer(final int contextLength) throws IOException {
+        return new ClipTokenizer(new ByteArrayInputStream(MERGES.getBytes(StandardCharsets.UTF_8)), contextLength, 10);
+    }
+
+    @Test
+    public void test_encode_appliesMerges() throws Exception {
+        final ClipTokenizer tokenizer = createTokenizer(8);
+
+        assertArrayEquals(new int[] { SOT, CAT, EOT, 0, 0, 0, 0, 0 }, tokenizer.encode("Cat"));
+        assertArrayEquals(new int[] { SOT, CA, 83, 256 + 82, 320, EOT }, tokenizer.trim(tokenizer.encode("cats a")));
+        assertArrayEquals(new int[] { SOT, 64, 256 + 66, EOT }, tokenizer.trim(tokenizer.encode("ac")));
+        assertEquals(EOT, tokenizer.getEndToken());
+    }
+
+    @Test
+    public void test_encode_cleansText() throws Exception {
+        final ClipTokenizer tokenizer = createTokenizer(8);
+
+        assertArrayEquals(new int[] { SOT, 320, 256 + 5, EOT }, tokenizer.trim(tokenizer.encode("  A&amp;amp; ")));
+        assertArrayEquals(new int[] { SOT, EOT }, tokenizer.trim(tokenizer.encode("")));
+        assertArrayEquals(new int[] { SOT, EOT }, tokenizer.trim(tokenizer.encode(null)));
+    }
+
+    @Test
+    public void test_encode_truncates() throws Exception {
+        final ClipTokenizer tokenizer = createTokenizer(4);
+
+        assertArrayEquals(new int[] { SOT, 320, 320, EOT }, tokenizer.encode("a a a a a"));
+        assertEquals(4, tokenizer.getContextLength());
+    }
+
+    @Test
+    public void test_encode_cached() throws Exception {
+        final ClipTokenizer tokenizer = createTokenizer(8);
+
+        assertSame(tokenizer.encode("cat"), tokenizer.encode("cat"));
+    }
+
+    @Test
+    public void test_load_gzip() throws Exception {
+        final Path file = Files.createTempFile("bpe", ".txt.gz");
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(MERGES.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.write(file, out.toByteArray());
+
+            final ClipTokenizer tokenizer = ClipTokenizer.load(file, 77, 10);
+
+            assertArrayEquals(new int[] { SOT, CAT, EOT }, tokenizer.trim(tokenizer.encode("cat")));
+            assertArrayEquals(new int[] { SOT, CA, 83, 256 + 82, 320, EOT }, tokenizer.trim(tokenizer.encode("cats a")));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    private void assertArrayEquals(int[] expected, int[] actual) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+}
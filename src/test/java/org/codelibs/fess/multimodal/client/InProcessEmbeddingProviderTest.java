@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class InProcessEmbeddingProviderTest extends UnitWebappTestCase {
+
+    public static class LengthModel implements EmbeddingModel {
+        @Override
+        public List<float[]> embedTexts(final List<String> texts) {
+            return texts.stream().map(t -> new float[] { t.length() }).toList();
+        }
+    }
+
+    @Test
+    public void test_getTextEmbedding_runsModel() {
+        final InProcessEmbeddingProvider provider = new InProcessEmbeddingProvider();
+        System.setProperty("clip.inprocess.model", LengthModel.class.getName());
+        try {
+            provider.init();
+        } finally {
+            System.clearProperty("clip.inprocess.model");
+        }
+
+        assertEquals(3.0f, provider.getTextEmbedding("cat")[0]);
+        assertEquals(2, provider.getTextEmbeddings(List.of("a", "bb")).size());
+        assertEquals(2.0f, provider.getTextEmbeddingsAsync(List.of("a", "bb")).join().get(1)[0]);
+        provider.destroy();
+    }
+
+    @Test
+    public void test_getTextEmbedding_workers() {
+        final InProcessEmbeddingProvider provider = new InProcessEmbeddingProvider();
+        provider.setModel(new LengthModel());
+        System.setProperty("clip.inprocess.workers", "2");
+        try {
+            provider.init();
+        } finally {
+            System.clearProperty("clip.inprocess.workers");
+        }
+
+        assertTrue(provider.model instanceof BatchingEmbeddingModel);
+        assertEquals(3.0f, provider.getTextEmbedding("cat")[0]);
+        assertEquals(2.0f, provider.getTextEmbeddings(List.of("a", "bb")).get(1)[0]);
+        provider.destroy();
+        try {
+            provider.getTextEmbedding("dog");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_getImageEmbedding_passesResizedImage() throws Exception {
+        final InProcessEmbeddingProvider provider = new InProcessEmbeddingProvider();
+        provider.setModel(new EmbeddingModel() {
+            @Override
+            public List<float[]> embedTexts(final List<String> texts) {
+                return null;
+            }
+
+            @Override
+            public List<float[]> embedImages(final List<BufferedImage> images) {
+                return images.stream().map(i -> new float[] { i.getWidth(), i.getHeight() }).toList();
+            }
+        });
+        provider.init();
+
+        final BufferedImage image = new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        final float[] embedding = provider.getImageEmbedding(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(224.0f, embedding[0]);
+        assertEquals(224.0f, embedding[1]);
+    }
+
+    @Test
+    public void test_getImageEmbedding_textOnlyModel() throws Exception {
+        final InProcessEmbeddingProvider provider = new InProcessEmbeddingProvider();
+        provider.setModel(new LengthModel());
+        provider.init();
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB), "png", out);
+        try {
+            provider.getImageEmbedding(new ByteArrayInputStream(out.toByteArray()));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            assertTrue(e.getCause() instanceof UnsupportedOperationException);
+        }
+    }
+
+    @Test
+    public void test_getTextEmbedding_noModel() {
+        final InProcessEmbeddingProvider provider = new InProcessEmbeddingProvider();
+        provider.init();
+
+        try {
+            provider.getTextEmbedding("cat");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+}
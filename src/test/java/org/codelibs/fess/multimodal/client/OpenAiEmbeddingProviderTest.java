@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class OpenAiEmbeddingProviderTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_buildRequest() {
+        final OpenAiEmbeddingProvider provider = new OpenAiEmbeddingProvider();
+        provider.init();
+
+        assertEquals("{\"model\":\"clip\",\"encoding_format\":\"float\",\"input\":[\"a cat\",\"a dog\"]}",
+                provider.buildRequest(true, List.of("a cat", "a dog")));
+
+        provider.dimensions = 256;
+        assertEquals("{\"model\":\"clip\",\"encoding_format\":\"float\",\"dimensions\":256,"
+                + "\"input\":[{\"image\":\"data:image/png;base64,AAAA\"}]}", provider.buildRequest(false, List.of("AAAA")));
+    }
+
+    @Test
+    public void test_parseResponse_ordersByIndex() {
+        final OpenAiEmbeddingProvider provider = new OpenAiEmbeddingProvider();
+        provider.init();
+
+        final List<float[]> embeddings = provider.parseResponse(
+                Map.of("data", List.of(Map.of("index", 1, "embedding", List.of(3, 4)), Map.of("index", 0, "embedding", List.of(1, 2)))), 2);
+        assertEquals(1.0f, embeddings.get(0)[0]);
+        assertEquals(4.0f, embeddings.get(1)[1]);
+
+        assertNull(provider.parseResponse(Map.of("data", List.of(Map.of("index", 0, "embedding", List.of(1)))), 2));
+        assertNull(provider.parseResponse(
+                Map.of("data", List.of(Map.of("index", 0, "embedding", List.of(1)), Map.of("index", 0, "embedding", List.of(2)))), 2));
+        assertNull(provider.parseResponse(Map.of("error", Map.of("message", "failed")), 1));
+    }
+
+    @Test
+    public void test_sendRequest_invalidResponse() {
+        final OpenAiEmbeddingProvider provider = new OpenAiEmbeddingProvider() {
+            @Override
+            protected Map<String, Object> postJson(final String url, final String body) {
+                assertEquals("http://localhost:8000/v1/embeddings", url);
+                return Map.of("data", List.of());
+            }
+        };
+        provider.init();
+
+        try {
+            provider.getTextEmbedding("cat");
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+}
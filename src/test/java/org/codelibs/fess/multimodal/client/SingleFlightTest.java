@@ -0,0 +1,123 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_execute_sharesConcurrentCall() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final Future<String> first = executor.submit(() -> flights.execute("q", () -> {
+                calls.incrementAndGet();
+                running.countDown();
+                await(release);
+                return "result";
+            }));
+            assertTrue(running.await(1, TimeUnit.SECONDS));
+            final List<Future<String>> others = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                others.add(executor.submit(() -> flights.execute("q", () -> {
+                    calls.incrementAndGet();
+                    return "other";
+                })));
+            }
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("result", first.get(1, TimeUnit.SECONDS));
+            for (final Future<String> other : others) {
+                assertEquals("result", other.get(1, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            assertEquals(0, flights.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_execute_sharesException() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<>();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final Future<?> first = executor.submit(() -> flights.execute("q", () -> {
+                running.countDown();
+                await(release);
+                throw new CasAccessException("Test error");
+            }));
+            assertTrue(running.await(1, TimeUnit.SECONDS));
+            final Future<Object> second = executor.submit(() -> {
+                try {
+                    flights.execute("q", () -> "other");
+                    return null;
+                } catch (final CasAccessException e) {
+                    return e;
+                }
+            });
+            Thread.sleep(100);
+            release.countDown();
+
+            try {
+                first.get(1, TimeUnit.SECONDS);
+                fail("Expected CasAccessException");
+            } catch (final ExecutionException e) {
+                assertTrue(e.getCause() instanceof CasAccessException);
+            }
+            assertTrue(second.get(1, TimeUnit.SECONDS) instanceof CasAccessException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_execute_doesNotCache() {
+        final SingleFlight<String, Integer> flights = new SingleFlight<>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, flights.execute("q", calls::incrementAndGet).intValue());
+        assertEquals(2, flights.execute("q", calls::incrementAndGet).intValue());
+        assertEquals(0, flights.size());
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
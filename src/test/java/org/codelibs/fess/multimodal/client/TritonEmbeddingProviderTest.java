@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.client;
+
+import java.util.List;
+import java.util.Map;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.junit.jupiter.api.Test;
+
+public class TritonEmbeddingProviderTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_init_defaults() {
+        final TritonEmbeddingProvider provider = new TritonEmbeddingProvider();
+        provider.init();
+
+        assertEquals("http://localhost:8000", provider.clipEndpoint);
+        assertEquals("clip", provider.textModel);
+        assertEquals("clip", provider.imageModel);
+        assertEquals("TEXT", provider.textInput);
+        assertEquals("IMAGE", provider.imageInput);
+        assertEquals("EMBEDDING", provider.output);
+    }
+
+    @Test
+    public void test_buildRequest() {
+        final TritonEmbeddingProvider provider = new TritonEmbeddingProvider();
+        provider.init();
+
+        assertEquals("{\"inputs\":[{\"name\":\"TEXT\",\"shape\":[2,1],\"datatype\":\"BYTES\",\"data\":[\"a cat\",\"\\\"dog\\\"\"]}],"
+                + "\"outputs\":[{\"name\":\"EMBEDDING\"}]}", provider.buildRequest(true, List.of("a cat", "\"dog\"")));
+        assertTrue(provider.buildRequest(false, List.of("AAAA")).startsWith("{\"inputs\":[{\"name\":\"IMAGE\","));
+    }
+
+    @Test
+    public void test_parseResponse_flatAndNested() {
+        final TritonEmbeddingProvider provider = new TritonEmbeddingProvider();
+        provider.init();
+
+        final List<float[]> flat = provider.parseResponse(Map.of("outputs", List.of(Map.of("name", "OTHER", "data", List.of(9)),
+                Map.of("name", "EMBEDDING", "shape", List.of(2, 2), "data", List.of(1, 2, 3.5, 4)))), 2);
+        assertEquals(2, flat.size());
+        assertEquals(2.0f, flat.get(0)[1]);
+        assertEquals(3.5f, flat.get(1)[0]);
+
+        final List<float[]> nested = provider
+                .parseResponse(Map.of("outputs", List.of(Map.of("name", "EMBEDDING", "data", List.of(List.of(1, 2), List.of(3, 4))))), 2);
+        assertEquals(4.0f, nested.get(1)[1]);
+
+        assertNull(provider.parseResponse(Map.of("outputs", List.of(Map.of("name", "EMBEDDING", "data", List.of(1, 2, 3)))), 2));
+        assertNull(provider.parseResponse(Map.of("error", "failed"), 1));
+    }
+
+    @Test
+    public void test_sendRequest_usesModelOfInputType() {
+        final StringBuilder urls = new StringBuilder();
+        final TritonEmbeddingProvider provider = new TritonEmbeddingProvider() {
+            @Override
+            protected Map<String, Object> postJson(final String url, final String body) {
+                urls.append(url).append(' ');
+                return Map.of("outputs", List.of(Map.of("name", "EMBEDDING", "data", List.of(1, 2))));
+            }
+        };
+        provider.init();
+        provider.imageModel = "clip_image";
+
+        assertEquals(2, provider.getTextEmbedding("cat").length);
+        assertEquals(1, provider.sendRequest("blob", List.of("AAAA")).size());
+        assertEquals("http://localhost:8000/v2/models/clip/infer http://localhost:8000/v2/models/clip_image/infer ", urls.toString());
+        try {
+            provider.sendRequest("text", List.of("a", "b", "c"));
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            // expected
+        }
+    }
+}
@@ -17,7 +17,10 @@ package org.codelibs.fess.multimodal.crawler.extractor;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Logger;
 
@@ -29,6 +32,9 @@ import org.codelibs.fess.crawler.helper.impl.MimeTypeHelperImpl;
 import org.codelibs.fess.multimodal.MultiModalConstants;
 import org.codelibs.fess.multimodal.client.CasClient;
 import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.image.ImageQuarantine;
+import org.codelibs.fess.multimodal.spool.EmbeddingSpool;
+import org.codelibs.fess.multimodal.util.EmbeddingHandoff;
 import org.codelibs.fess.multimodal.util.EmbeddingUtil;
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
 import org.junit.jupiter.api.Test;
@@ -51,7 +57,7 @@ public class CasExtractorTest extends UnitWebappTestCase {
         container//
                 .singleton("mimeTypeHelper", MimeTypeHelperImpl.class)//
                 .singleton("casExtractor", CasExtractor.class)//
-                .singleton("casClient", new CasClient() {
+                .singleton("embeddingProvider", new CasClient() {
                     @Override
                     public float[] getImageEmbedding(final InputStream in) {
                         return new float[] { 1.0f, 2.0f, 3.0f, 4.0f, 5.0f };
@@ -96,6 +102,35 @@ public class CasExtractorTest extends UnitWebappTestCase {
         assertEquals(5.0f, embedding[4]);
     }
 
+    @Test
+    public void test_getText_withHandoff_putsReference() {
+        casExtractor.handoff = new EmbeddingHandoff(10, 60000L);
+        try {
+            final InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg");
+            final ExtractData extractData = casExtractor.getText(in, null);
+            CloseableUtil.closeQuietly(in);
+
+            final String[] values = extractData.getValues(MultiModalConstants.X_FESS_EMBEDDING);
+            assertEquals(1, values.length);
+            assertTrue(EmbeddingHandoff.isReference(values[0]));
+            final float[] embedding = casExtractor.handoff.take(values[0]);
+            assertEquals(5, embedding.length);
+            assertEquals(1.0f, embedding[0]);
+        } finally {
+            casExtractor.handoff = null;
+        }
+    }
+
+    @Test
+    public void test_encodeEmbedding_fullHandoff_fallsBackToBase64() {
+        casExtractor.handoff = new EmbeddingHandoff(0, 60000L);
+        try {
+            assertEquals("P4AAAEAAAABAQAAA", casExtractor.encodeEmbedding(new float[] { 1.0f, 2.0f, 3.0f }));
+        } finally {
+            casExtractor.handoff = null;
+        }
+    }
+
     @Test
     public void test_getText_withParams_passesParams() {
         final InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg");
@@ -117,7 +152,7 @@ public class CasExtractorTest extends UnitWebappTestCase {
         container//
                 .singleton("mimeTypeHelper", MimeTypeHelperImpl.class)//
                 .singleton("casExtractor", CasExtractor.class)//
-                .singleton("casClient", new CasClient() {
+                .singleton("embeddingProvider", new CasClient() {
                     @Override
                     public float[] getImageEmbedding(final InputStream in) {
                         throw new CasAccessException("Test error");
@@ -168,6 +203,28 @@ public class CasExtractorTest extends UnitWebappTestCase {
         }
     }
 
+    @Test
+    public void test_getText_withNonImage_skipsEmbedding() {
+        final InputStream in = new ByteArrayInputStream("not an image".getBytes());
+        final ExtractData extractData = casExtractor.getText(in, null);
+        CloseableUtil.closeQuietly(in);
+
+        assertNotNull(extractData);
+        assertNull(extractData.getValues(MultiModalConstants.X_FESS_EMBEDDING));
+        assertNull(extractData.getValues(MultiModalConstants.X_FESS_NESTED_EMBEDDINGS));
+    }
+
+    @Test
+    public void test_isImage_detectsSignatures() throws Exception {
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            assertTrue(casExtractor.isImage(in.readAllBytes()));
+        }
+        assertTrue(casExtractor.isImage(new byte[] { (byte) 0x89, 'P', 'N', 'G', 0x0d, 0x0a, 0x1a, 0x0a }));
+        assertTrue(casExtractor.isImage("GIF89a".getBytes()));
+        assertFalse(casExtractor.isImage("%PDF-1.7".getBytes()));
+        assertFalse(casExtractor.isImage(new byte[0]));
+    }
+
     @Test
     public void test_getWeight_returnsCorrectValue() {
         final int weight = casExtractor.getWeight();
@@ -180,7 +237,7 @@ public class CasExtractorTest extends UnitWebappTestCase {
         container//
                 .singleton("mimeTypeHelper", MimeTypeHelperImpl.class)//
                 .singleton("casExtractor", CasExtractor.class)//
-                .singleton("casClient", new CasClient() {
+                .singleton("embeddingProvider", new CasClient() {
                     @Override
                     public float[] getImageEmbedding(final InputStream in) {
                         return new float[] { 1.0f };
@@ -210,4 +267,76 @@ public class CasExtractorTest extends UnitWebappTestCase {
             assertEquals(5, embedding.length);
         }
     }
+
+    @Test
+    public void test_getText_withErrorInEmbedding_spoolsThumbnail() throws Exception {
+        final StandardCrawlerContainer container = new StandardCrawlerContainer();
+        container//
+                .singleton("mimeTypeHelper", MimeTypeHelperImpl.class)//
+                .singleton("casExtractor", CasExtractor.class)//
+                .singleton("embeddingProvider", new CasClient() {
+                    @Override
+                    public float[] getImageEmbedding(final InputStream in) {
+                        throw new CasAccessException("Test error");
+                    }
+                })//
+        ;
+
+        final CasExtractor extractor = container.getComponent("casExtractor");
+        extractor.init();
+        final Path spoolDir = Files.createTempDirectory("spool");
+        extractor.spool = new EmbeddingSpool(spoolDir, 10 * 1024 * 1024, 10 * 1024 * 1024, 60000L);
+        extractor.thumbnailSize = 64;
+
+        final InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg");
+        final Map<String, String> params = new HashMap<>();
+        params.put(ExtractData.URL, "http://example.com/cover.jpeg");
+        final ExtractData extractData = extractor.getText(in, params);
+        CloseableUtil.closeQuietly(in);
+        extractor.destroy();
+
+        assertNotNull(extractData);
+        assertNull(extractData.getValues(MultiModalConstants.X_FESS_EMBEDDING));
+        final List<Path> segments = extractor.spool.getSegments(0L);
+        assertEquals(1, segments.size());
+        final List<EmbeddingSpool.Entry> entries = EmbeddingSpool.read(segments.get(0));
+        assertEquals(1, entries.size());
+        assertEquals("http://example.com/cover.jpeg", entries.get(0).getUrl());
+        assertEquals(0, entries.get(0).getAttempts());
+        Files.delete(segments.get(0));
+        Files.delete(spoolDir);
+    }
+
+    @Test
+    public void test_getText_quarantinedImage_skipsRequest() throws Exception {
+        final int[] requests = new int[1];
+        final StandardCrawlerContainer container = new StandardCrawlerContainer();
+        container//
+                .singleton("mimeTypeHelper", MimeTypeHelperImpl.class)//
+                .singleton("casExtractor", CasExtractor.class)//
+                .singleton("embeddingProvider", new CasClient() {
+                    @Override
+                    public float[] getImageEmbedding(final InputStream in) {
+                        requests[0]++;
+                        throw new CasAccessException("Test error");
+                    }
+                })//
+        ;
+
+        final CasExtractor extractor = container.getComponent("casExtractor");
+        extractor.init();
+        final Path quarantinePath = Files.createTempFile("quarantine", ".tsv");
+        extractor.quarantine = new ImageQuarantine(quarantinePath, 1, 60000L, 100);
+
+        for (int i = 0; i < 2; i++) {
+            final InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg");
+            final ExtractData extractData = extractor.getText(in, null);
+            CloseableUtil.closeQuietly(in);
+            assertNull(extractData.getValues(MultiModalConstants.X_FESS_EMBEDDING));
+        }
+
+        assertEquals(1, requests[0]);
+        assertEquals(1, extractor.quarantine.size());
+        Files.delete(quarantinePath);
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.eval;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class KnnEvaluatorTest extends UnitWebappTestCase {
+
+    private static float[][] randomVectors(final Random random, final int count, final int dimension) {
+        final float[][] vectors = new float[count][dimension];
+        for (final float[] vector : vectors) {
+            for (int i = 0; i < dimension; i++) {
+                vector[i] = random.nextFloat() * 2 - 1;
+            }
+        }
+        return vectors;
+    }
+
+    @Test
+    public void test_toSimilarityFunction_mapsSpaceTypes() {
+        assertEquals(VectorSimilarityFunction.EUCLIDEAN, KnnEvaluator.toSimilarityFunction("l2"));
+        assertEquals(VectorSimilarityFunction.COSINE, KnnEvaluator.toSimilarityFunction("cosinesimil"));
+        assertEquals(VectorSimilarityFunction.MAXIMUM_INNER_PRODUCT, KnnEvaluator.toSimilarityFunction("innerproduct"));
+        try {
+            KnnEvaluator.toSimilarityFunction("hamming");
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_recall_countsOverlap() {
+        final int[][] truth = { { 1, 2, 3, 4 }, { 5, 6, 7, 8 } };
+        final int[][] results = { { 4, 3, 2, 1 }, { 5, 9, 10, 6 } };
+        assertEquals(0.75, KnnEvaluator.recall(truth, results, 4), 0.0001);
+        assertEquals(0.25, KnnEvaluator.recall(truth, results, 2), 0.0001);
+    }
+
+    @Test
+    public void test_groundTruth_matchesNaiveScan() throws Exception {
+        final Random random = new Random(1);
+        final float[][] corpus = randomVectors(random, 500, 8);
+        final float[][] queries = randomVectors(random, 20, 8);
+        final KnnEvaluator evaluator = new KnnEvaluator(corpus, queries, 5, "l2", 4);
+        final int[][] truth = evaluator.groundTruth();
+        for (int q = 0; q < queries.length; q++) {
+            assertEquals(5, truth[q].length);
+            float previous = Float.MAX_VALUE;
+            for (final int ord : truth[q]) {
+                final float score = VectorSimilarityFunction.EUCLIDEAN.compare(queries[q], corpus[ord]);
+                assertTrue(score <= previous);
+                previous = score;
+            }
+            int better = 0;
+            for (final float[] vector : corpus) {
+                if (VectorSimilarityFunction.EUCLIDEAN.compare(queries[q], vector) > previous) {
+                    better++;
+                }
+            }
+            assertEquals(4, better);
+        }
+    }
+
+    @Test
+    public void test_evaluate_exhaustiveSearch_hasFullRecall() throws Exception {
+        final Random random = new Random(2);
+        final float[][] corpus = randomVectors(random, 200, 8);
+        final float[][] queries = randomVectors(random, 10, 8);
+        final KnnEvaluator evaluator = new KnnEvaluator(corpus, queries, 5, "cosinesimil", 2);
+        final int[][] truth = evaluator.groundTruth();
+        final Path workDir = Files.createTempDirectory("knn-eval-test");
+        try {
+            final KnnEvaluator.Result result = evaluator.evaluate(KnnEvaluator.Candidate.parse("m=16,ef_construction=200,ef_search=200"), truth,
+                    workDir);
+            assertEquals(1.0, result.getRecall(), 0.0001);
+            assertTrue(result.getQps() > 0);
+            assertTrue(result.getFileSizes().containsKey("vec"));
+        } finally {
+            Files.deleteIfExists(workDir);
+        }
+    }
+
+    @Test
+    public void test_readVectors_fvecsAndText() throws Exception {
+        final Path dir = Files.createTempDirectory("knn-eval-test");
+        final Path fvecs = dir.resolve("v.fvecs");
+        final Path text = dir.resolve("v.txt");
+        try {
+            final ByteBuffer buffer = ByteBuffer.allocate(2 * (4 + 3 * 4)).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(3).putFloat(1).putFloat(2).putFloat(3);
+            buffer.putInt(3).putFloat(4).putFloat(5).putFloat(6);
+            Files.write(fvecs, buffer.array());
+            Files.writeString(text, "# comment\n1,2,3\n\n4 5\t6\n", StandardCharsets.UTF_8);
+            for (final Path path : new Path[] { fvecs, text }) {
+                final float[][] vectors = KnnEvaluator.readVectors(path);
+                assertEquals(2, vectors.length);
+                assertEquals(3, vectors[0].length);
+                assertEquals(1.0f, vectors[0][0]);
+                assertEquals(6.0f, vectors[1][2]);
+            }
+        } finally {
+            Files.deleteIfExists(fvecs);
+            Files.deleteIfExists(text);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void test_candidateParse_keepsDefaults() {
+        assertEquals("m=16,ef_construction=100,ef_search=100,quantization=none", KnnEvaluator.Candidate.parse("").toString());
+        assertEquals("m=32,ef_construction=100,ef_search=40,quantization=int4",
+                KnnEvaluator.Candidate.parse("m=32, ef_search=40,quantization=int4").toString());
+        try {
+            KnnEvaluator.Candidate.parse("ef=10");
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_constructor_rejectsDimensionMismatch() {
+        try {
+            new KnnEvaluator(new float[][] { { 1, 2 } }, new float[][] { { 1, 2, 3 } }, 1, "l2", 1);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
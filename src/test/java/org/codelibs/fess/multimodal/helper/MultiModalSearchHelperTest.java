@@ -19,13 +19,35 @@ import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_DIMENSION
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_ENGINE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_FIELD;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_NESTED_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SOURCE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.CONTENT_SPACE_TYPE;
 import static org.codelibs.fess.multimodal.MultiModalConstants.DEFAULT_CONTENT_FIELD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.EMBEDDING_PROVIDER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_EF_SEARCH;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_FILTER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_MAX_DISTANCE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_NPROBES;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_OVERSAMPLE_FACTOR;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_RADIAL;
+import static org.codelibs.fess.multimodal.MultiModalConstants.KNN_RADIAL_MAX_RESULTS;
 import static org.codelibs.fess.multimodal.MultiModalConstants.MIN_SCORE;
+import static org.codelibs.fess.multimodal.MultiModalConstants.QUERY_EMBEDDING_PROVIDER;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REEMBED_FIELD;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.codelibs.fess.entity.SearchRequestParams.SearchRequestType;
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
+import org.opensearch.index.query.BoolQueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 
 public class MultiModalSearchHelperTest extends UnitWebappTestCase {
 
@@ -52,7 +74,19 @@ public class MultiModalSearchHelperTest extends UnitWebappTestCase {
         System.clearProperty(CONTENT_ENGINE);
         System.clearProperty(CONTENT_SPACE_TYPE);
         System.clearProperty(CONTENT_FIELD);
+        System.clearProperty(CONTENT_NESTED_FIELD);
+        System.clearProperty(KNN_FILTER);
+        System.clearProperty(KNN_RADIAL);
+        System.clearProperty(KNN_RADIAL_MAX_RESULTS);
+        System.clearProperty(KNN_MAX_DISTANCE);
+        System.clearProperty(KNN_EF_SEARCH);
+        System.clearProperty(KNN_EF_SEARCH + ".json");
+        System.clearProperty(KNN_NPROBES);
+        System.clearProperty(KNN_OVERSAMPLE_FACTOR + ".search");
         System.clearProperty(MIN_SCORE);
+        System.clearProperty(QUERY_EMBEDDING_PROVIDER);
+        System.clearProperty(CONTENT_SOURCE);
+        System.clearProperty(REEMBED_FIELD);
     }
 
     @Test
@@ -122,6 +156,17 @@ public class MultiModalSearchHelperTest extends UnitWebappTestCase {
         assertEquals(Float.valueOf(0.7f), helper.getMinScore());
     }
 
+    @Test
+    public void test_getQueryEmbeddingProvider() {
+        helper.load();
+        assertEquals(EMBEDDING_PROVIDER, helper.getQueryEmbeddingProvider());
+
+        System.setProperty(QUERY_EMBEDDING_PROVIDER, " queryEmbeddingProvider ");
+        final String result = helper.load();
+        assertEquals("queryEmbeddingProvider", helper.getQueryEmbeddingProvider());
+        assertTrue(result.contains("query_embedding_provider=queryEmbeddingProvider"));
+    }
+
     @Test
     public void test_getVectorField_returnsConfiguredValue() {
         System.setProperty(CONTENT_FIELD, "my_vector_field");
@@ -130,6 +175,96 @@ public class MultiModalSearchHelperTest extends UnitWebappTestCase {
         assertEquals("my_vector_field", helper.getVectorField());
     }
 
+    @Test
+    public void test_getNestedVectorField_returnsConfiguredValue() {
+        helper.load();
+        assertNull(helper.getNestedVectorField());
+
+        System.setProperty(CONTENT_NESTED_FIELD, " content_images ");
+        final String result = helper.load();
+
+        assertEquals("content_images", helper.getNestedVectorField());
+        assertTrue(result.contains("nested_field=content_images"));
+    }
+
+    @Test
+    public void test_getEfSearch_perRequestType_overridesDefault() {
+        helper.load();
+        assertNull(helper.getEfSearch(SearchRequestType.SEARCH));
+
+        System.setProperty(KNN_EF_SEARCH, "256");
+        System.setProperty(KNN_EF_SEARCH + ".json", "32");
+        System.setProperty(KNN_NPROBES, "invalid");
+        System.setProperty(KNN_OVERSAMPLE_FACTOR + ".search", "2.0");
+        final String result = helper.load();
+
+        assertEquals(Integer.valueOf(256), helper.getEfSearch(SearchRequestType.SEARCH));
+        assertEquals(Integer.valueOf(32), helper.getEfSearch(SearchRequestType.JSON));
+        assertNull(helper.getEfSearch(null));
+        assertNull(helper.getNprobes(SearchRequestType.SEARCH));
+        assertEquals(Float.valueOf(2.0f), helper.getOversampleFactor(SearchRequestType.SEARCH));
+        assertNull(helper.getOversampleFactor(SearchRequestType.JSON));
+        assertTrue(result.contains("ef_search=256"));
+        assertTrue(result.contains("ef_search.json=32"));
+    }
+
+    @Test
+    public void test_isRadialSearch_requiresThreshold() {
+        System.setProperty(KNN_RADIAL, "true");
+        helper.load();
+        assertFalse(helper.isRadialSearch());
+
+        System.setProperty(KNN_MAX_DISTANCE, "0.25");
+        System.setProperty(KNN_RADIAL_MAX_RESULTS, "200");
+        final String result = helper.load();
+
+        assertTrue(helper.isRadialSearch());
+        assertEquals(Float.valueOf(0.25f), helper.getMaxDistance());
+        assertEquals(200, helper.getRadialMaxResults());
+        assertTrue(result.contains("max_distance=0.25"));
+    }
+
+    @Test
+    public void test_getRadialMinScore_maxDistanceWins() {
+        System.setProperty(KNN_RADIAL, "true");
+        System.setProperty(MIN_SCORE, "0.5");
+        helper.load();
+        assertEquals(Float.valueOf(0.5f), helper.getRadialMinScore());
+
+        System.setProperty(KNN_MAX_DISTANCE, "0.25");
+        helper.load();
+        assertNull(helper.getRadialMinScore());
+        assertEquals(Float.valueOf(0.5f), helper.getMinScore());
+    }
+
+    @Test
+    public void test_isKnnFilterEnabled_disabledForNmslib() {
+        helper.load();
+        assertTrue(helper.isKnnFilterEnabled());
+
+        System.setProperty(CONTENT_ENGINE, "nmslib");
+        helper.load();
+        assertFalse(helper.isKnnFilterEnabled());
+
+        System.setProperty(KNN_FILTER, "true");
+        helper.load();
+        assertTrue(helper.isKnnFilterEnabled());
+    }
+
+    @Test
+    public void test_createKnnFilter_filtersEachField() {
+        final Map<String, Collection<String>> termsByField = new LinkedHashMap<>();
+        termsByField.put("role", Set.of("Rguest"));
+        termsByField.put("label", List.of());
+        termsByField.put("virtual_host", List.of("site1"));
+
+        final BoolQueryBuilder filter = (BoolQueryBuilder) helper.createKnnFilter(termsByField);
+
+        assertEquals(List.of(QueryBuilders.termsQuery("role", Set.of("Rguest")), QueryBuilders.termsQuery("virtual_host", List.of("site1"))),
+                filter.filter());
+        assertNull(helper.createKnnFilter(Map.of("label", List.of())));
+    }
+
     @Test
     public void test_rewriteQuery_nullQuery_returnsNull() {
         helper.load();
@@ -221,6 +356,54 @@ public class MultiModalSearchHelperTest extends UnitWebappTestCase {
         assertEquals(Float.valueOf(999999.99f), helper.getMinScore());
     }
 
+    @Test
+    public void test_getSourceMode() {
+        assertEquals("stored", helper.getSourceMode());
+
+        assertFalse(helper.isVectorSourceExcluded());
+        System.setProperty(CONTENT_SOURCE, " Excluded ");
+        assertEquals("excluded", helper.getSourceMode());
+        assertTrue(helper.isVectorSourceExcluded());
+
+        System.setProperty(CONTENT_SOURCE, "derived");
+        assertEquals("derived", helper.getSourceMode());
+
+        System.setProperty(CONTENT_SOURCE, "unknown");
+        assertEquals("stored", helper.getSourceMode());
+    }
+
+    @Test
+    public void test_excludeVectorSource() {
+        System.setProperty(CONTENT_NESTED_FIELD, "content_images");
+        System.setProperty(REEMBED_FIELD, "content_vector_v2");
+        helper.load();
+
+        final String mapping = helper.excludeVectorSource("{\n\"properties\": {\n\"content\": {}\n}\n}");
+
+        assertEquals("{\n\"_source\": {\n  \"excludes\": [\"" + DEFAULT_CONTENT_FIELD
+                + "\", \"content_vector_v2\", \"content_images.vector\"]\n},\n\"properties\": {\n\"content\": {}\n}\n}", mapping);
+    }
+
+    @Test
+    public void test_excludeVectorSource_withSourceSettings_keepsMapping() {
+        helper.load();
+        final String mapping = "{\"_source\": {\"enabled\": true}, \"properties\": {}}";
+
+        assertEquals(mapping, helper.excludeVectorSource(mapping));
+    }
+
+    @Test
+    public void test_removeVectorFields() {
+        System.setProperty(CONTENT_NESTED_FIELD, "content_images");
+        helper.load();
+        final String[] fields = { "title", "url" };
+
+        assertSame(fields, helper.removeVectorFields(fields));
+        assertNull(helper.removeVectorFields(null));
+        assertEquals("[title, url]", Arrays.toString(
+                helper.removeVectorFields(new String[] { "title", DEFAULT_CONTENT_FIELD, "content_images", "url", "content_images.vector" })));
+    }
+
     @Test
     public void test_getMinScore_withoutLoad_returnsNull() {
         final MultiModalSearchHelper newHelper = new MultiModalSearchHelper();
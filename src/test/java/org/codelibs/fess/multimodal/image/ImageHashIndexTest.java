@@ -0,0 +1,186 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ImageHashIndexTest extends UnitWebappTestCase {
+
+    private static final float[] EMBEDDING1 = { 1.0f, 2.0f };
+    private static final float[] EMBEDDING2 = { 3.0f, 4.0f };
+
+    @Test
+    public void test_find_exactMatch() {
+        final ImageHashIndex index = new ImageHashIndex(10, 4);
+        index.put(0x0123456789abcdefL, EMBEDDING1);
+
+        assertArrayEquals(EMBEDDING1, index.find(0x0123456789abcdefL));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void test_find_withinThreshold() {
+        final ImageHashIndex index = new ImageHashIndex(10, 4);
+        index.put(0L, EMBEDDING1);
+        index.put(-1L, EMBEDDING2);
+
+        // 4 bits differ, spread over different chunks
+        assertArrayEquals(EMBEDDING1, index.find(0x8000_0100_0010_0001L));
+        // 4 bits differ within one chunk
+        assertArrayEquals(EMBEDDING1, index.find(0xfL));
+        assertArrayEquals(EMBEDDING2, index.find(~0xfL));
+        // 5 bits differ
+        assertNull(index.find(0x1fL));
+    }
+
+    @Test
+    public void test_find_returnsClosest() {
+        final ImageHashIndex index = new ImageHashIndex(10, 4);
+        index.put(0x0L, EMBEDDING1);
+        index.put(0x7L, EMBEDDING2);
+
+        assertArrayEquals(EMBEDDING1, index.find(0x1L));
+        assertArrayEquals(EMBEDDING2, index.find(0xfL));
+    }
+
+    @Test
+    public void test_zeroThreshold_exactOnly() {
+        final ImageHashIndex index = new ImageHashIndex(10, 0);
+        index.put(0x1234L, EMBEDDING1);
+
+        assertArrayEquals(EMBEDDING1, index.find(0x1234L));
+        assertNull(index.find(0x1235L));
+    }
+
+    @Test
+    public void test_put_evictsLeastRecentlyUsed() {
+        final ImageHashIndex index = new ImageHashIndex(2, 2);
+        index.put(0x7L << 60, EMBEDDING1);
+        index.put(0x7L << 40, EMBEDDING2);
+        index.find(0x7L << 60);
+        index.put(0x7L << 20, EMBEDDING1);
+
+        assertEquals(2, index.size());
+        assertNotNull(index.find(0x7L << 60));
+        assertNull(index.find(0x7L << 40));
+        assertNotNull(index.find(0x7L << 20));
+    }
+
+    @Test
+    public void test_find_returnsCopy() {
+        final ImageHashIndex index = new ImageHashIndex(10, 4);
+        final float[] embedding = { 1.0f, 2.0f };
+        index.put(0x0123456789abcdefL, embedding);
+        embedding[0] = 9.0f;
+        index.find(0x0123456789abcdefL)[1] = 9.0f;
+
+        assertArrayEquals(EMBEDDING1, index.find(0x0123456789abcdefL));
+        assertArrayEquals(EMBEDDING1, index.find(0x0123456789abcdeeL));
+    }
+
+    @Test
+    public void test_minBits_skipsFlatHashes() {
+        final ImageHashIndex index = new ImageHashIndex(10, 4, 8);
+        index.put(0x0L, EMBEDDING1);
+        index.put(0x7fL, EMBEDDING1);
+        index.put(~0x7fL, EMBEDDING1);
+        index.put(0xffL, EMBEDDING2);
+
+        assertEquals(1, index.size());
+        assertNull(index.find(0x0L));
+        assertNull(index.find(0x3L));
+        assertArrayEquals(EMBEDDING2, index.find(0xffL));
+        assertArrayEquals(EMBEDDING2, index.find(0x1ffL));
+        assertFalse(index.isIndexable(0x7fL));
+        assertFalse(index.isIndexable(~0x7fL));
+        assertTrue(index.isIndexable(0xffL));
+    }
+
+    @Test
+    public void test_invalidMinBits_throwsException() {
+        try {
+            new ImageHashIndex(10, 4, 33);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("33"));
+        }
+    }
+
+    @Test
+    public void test_invalidThreshold_throwsException() {
+        try {
+            new ImageHashIndex(10, 64);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("64"));
+        }
+    }
+
+    @Test
+    public void test_dHash_similarImages() {
+        final BufferedImage image1 = createImage(0);
+        final BufferedImage image2 = createImage(8);
+        final BufferedImage image3 = new BufferedImage(90, 80, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image3.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 45, 80);
+        g.dispose();
+
+        final long hash1 = ImageHashIndex.dHash(image1, 0, 0, 90, 80);
+        final long hash2 = ImageHashIndex.dHash(image2, 0, 0, 90, 80);
+        final long hash3 = ImageHashIndex.dHash(image3, 0, 0, 90, 80);
+
+        assertTrue(Long.bitCount(hash1 ^ hash2) <= 4);
+        assertTrue(Long.bitCount(hash1 ^ hash3) > 4);
+    }
+
+    @Test
+    public void test_dHash_flatImage_isZero() {
+        final BufferedImage image = new BufferedImage(90, 80, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, 90, 80);
+        g.dispose();
+
+        assertEquals(0L, ImageHashIndex.dHash(image, 0, 0, 90, 80));
+        // brightness increases to the right
+        assertEquals(-1L, ImageHashIndex.dHash(createImage(0), 0, 0, 90, 80));
+    }
+
+    private void assertArrayEquals(final float[] expected, final float[] actual) {
+        assertNotNull(actual);
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], 0.0f);
+        }
+    }
+
+    private BufferedImage createImage(final int noise) {
+        final BufferedImage image = new BufferedImage(90, 80, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 80; y++) {
+            for (int x = 0; x < 90; x++) {
+                final int value = Math.min(255, x * 2 + ((x * 31 + y * 17) % 3 == 0 ? noise : 0));
+                image.setRGB(x, y, value << 16 | value << 8 | value);
+            }
+        }
+        return image;
+    }
+}
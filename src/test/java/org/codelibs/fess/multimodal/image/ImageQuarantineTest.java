@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class ImageQuarantineTest extends UnitWebappTestCase {
+
+    private Path tempDir;
+
+    private Path path;
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        tempDir = Files.createTempDirectory("quarantine");
+        path = tempDir.resolve("quarantine.tsv");
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(tempDir.resolve("quarantine.tsv.lock"));
+        Files.deleteIfExists(tempDir);
+        super.tearDown(testInfo);
+    }
+
+    @Test
+    public void test_digest() {
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", ImageQuarantine.digest("abc".getBytes()));
+    }
+
+    @Test
+    public void test_recordFailure_quarantinesAfterMaxFailures() {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 2, 60000L, 100);
+
+        assertFalse(quarantine.recordFailure("a"));
+        assertFalse(quarantine.isQuarantined("a"));
+        assertTrue(quarantine.recordFailure("a"));
+        assertTrue(quarantine.isQuarantined("a"));
+        assertFalse(quarantine.isQuarantined("b"));
+    }
+
+    @Test
+    public void test_recordSuccess_forgetsFailures() {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 2, 60000L, 100);
+        quarantine.recordFailure("a");
+        quarantine.recordSuccess("a");
+
+        assertFalse(quarantine.recordFailure("a"));
+    }
+
+    @Test
+    public void test_isQuarantined_expiresAfterTtl() throws Exception {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 1, 50L, 100);
+        quarantine.recordFailure("a");
+        assertTrue(quarantine.isQuarantined("a"));
+
+        Thread.sleep(100L);
+
+        assertFalse(quarantine.isQuarantined("a"));
+        assertEquals(0, quarantine.size());
+    }
+
+    @Test
+    public void test_load_restoresSavedFailures() throws Exception {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 2, 60000L, 100);
+        quarantine.recordFailure("a");
+        quarantine.recordFailure("a");
+        quarantine.recordFailure("b");
+        quarantine.flush();
+        Files.writeString(path, Files.readString(path) + "broken\nc\t1\t0\n");
+
+        final ImageQuarantine restored = new ImageQuarantine(path, 2, 60000L, 100);
+
+        assertEquals(2, restored.size());
+        assertTrue(restored.isQuarantined("a"));
+        assertFalse(restored.isQuarantined("b"));
+        assertTrue(restored.recordFailure("b"));
+    }
+
+    @Test
+    public void test_recordFailure_savesAfterFlushInterval() throws Exception {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 2, 60000L, 100, 60000L);
+        quarantine.recordFailure("a");
+        assertFalse(Files.exists(path));
+
+        final ImageQuarantine flushing = new ImageQuarantine(path, 2, 60000L, 100, 0L);
+        flushing.recordFailure("b");
+        assertTrue(Files.readString(path).startsWith("b\t1\t"));
+    }
+
+    @Test
+    public void test_flush_mergesWithOtherProcesses() throws Exception {
+        final ImageQuarantine first = new ImageQuarantine(path, 1, 60000L, 100, 60000L);
+        final ImageQuarantine second = new ImageQuarantine(path, 1, 60000L, 100, 60000L);
+        first.recordFailure("a");
+        first.recordFailure("b");
+        first.flush();
+        second.recordFailure("c");
+        second.recordSuccess("c");
+        second.recordFailure("d");
+        second.flush();
+
+        final ImageQuarantine restored = new ImageQuarantine(path, 1, 60000L, 100);
+        assertEquals(3, restored.size());
+        assertTrue(restored.isQuarantined("a"));
+        assertTrue(restored.isQuarantined("b"));
+        assertFalse(restored.isQuarantined("c"));
+        assertTrue(restored.isQuarantined("d"));
+        assertTrue(second.isQuarantined("a"));
+
+        first.recordSuccess("a");
+        first.flush();
+        assertFalse(new ImageQuarantine(path, 1, 60000L, 100).isQuarantined("a"));
+    }
+
+    @Test
+    public void test_flush_addsFailuresOfProcesses() throws Exception {
+        final ImageQuarantine first = new ImageQuarantine(path, 3, 60000L, 100, 60000L);
+        final ImageQuarantine second = new ImageQuarantine(path, 3, 60000L, 100, 60000L);
+        first.recordFailure("a");
+        first.recordFailure("a");
+        first.flush();
+        second.recordFailure("a");
+        second.flush();
+
+        assertTrue(second.isQuarantined("a"));
+        assertTrue(new ImageQuarantine(path, 3, 60000L, 100).isQuarantined("a"));
+
+        // failures loaded from the file are not counted again
+        final ImageQuarantine third = new ImageQuarantine(path, 5, 60000L, 100, 60000L);
+        third.recordFailure("a");
+        third.flush();
+        assertFalse(new ImageQuarantine(path, 5, 60000L, 100).isQuarantined("a"));
+        third.recordFailure("a");
+        third.flush();
+        assertTrue(new ImageQuarantine(path, 5, 60000L, 100).isQuarantined("a"));
+    }
+
+    @Test
+    public void test_recordFailure_evictsLeastRecentlyUsed() {
+        final ImageQuarantine quarantine = new ImageQuarantine(path, 1, 60000L, 2);
+        quarantine.recordFailure("a");
+        quarantine.recordFailure("b");
+        quarantine.isQuarantined("a");
+        quarantine.recordFailure("c");
+
+        assertEquals(2, quarantine.size());
+        assertTrue(quarantine.isQuarantined("a"));
+        assertFalse(quarantine.isQuarantined("b"));
+    }
+}
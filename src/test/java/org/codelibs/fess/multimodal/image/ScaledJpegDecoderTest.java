@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.image;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.codelibs.core.io.ResourceUtil;
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ScaledJpegDecoderTest extends UnitWebappTestCase {
+
+    private byte[] readCoverImage() throws Exception {
+        try (InputStream in = ResourceUtil.getResourceAsStream("images/codelibs_cover.jpeg")) {
+            return in.readAllBytes();
+        }
+    }
+
+    private byte[] writeJpeg(final BufferedImage source, final int type) throws Exception {
+        final BufferedImage image = new BufferedImage(source.getWidth() - 7, source.getHeight() - 3, type);
+        image.getGraphics().drawImage(source, 0, 0, null);
+        try (ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "jpg", out);
+            return out.toByteArray();
+        }
+    }
+
+    private double meanDifference(final BufferedImage reference, final BufferedImage scaled, final int scale, final boolean gray) {
+        double total = 0;
+        int count = 0;
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                final double[] sum = new double[3];
+                int pixels = 0;
+                for (int yy = y * scale; yy < Math.min(reference.getHeight(), (y + 1) * scale); yy++) {
+                    for (int xx = x * scale; xx < Math.min(reference.getWidth(), (x + 1) * scale); xx++) {
+                        if (gray) {
+                            final int value = reference.getRaster().getSample(xx, yy, 0);
+                            sum[0] += value;
+                            sum[1] += value;
+                            sum[2] += value;
+                        } else {
+                            final int rgb = reference.getRGB(xx, yy);
+                            sum[0] += rgb >> 16 & 0xff;
+                            sum[1] += rgb >> 8 & 0xff;
+                            sum[2] += rgb & 0xff;
+                        }
+                        pixels++;
+                    }
+                }
+                final int rgb = scaled.getRGB(x, y);
+                total += Math.abs(sum[0] / pixels - (rgb >> 16 & 0xff));
+                total += Math.abs(sum[1] / pixels - (rgb >> 8 & 0xff));
+                total += Math.abs(sum[2] / pixels - (rgb & 0xff));
+                count += 3;
+            }
+        }
+        return total / count;
+    }
+
+    private void assertDecoded(final byte[] data, final boolean gray) throws Exception {
+        final BufferedImage reference = ImageIO.read(new ByteArrayInputStream(data));
+        for (final int scale : new int[] { 1, 2, 4, 8 }) {
+            final ScaledJpegDecoder decoder = new ScaledJpegDecoder(data);
+            assertTrue(decoder.readHeader());
+            assertEquals(reference.getWidth(), decoder.getWidth());
+            assertEquals(reference.getHeight(), decoder.getHeight());
+
+            final BufferedImage image = decoder.decode(scale);
+            assertEquals((reference.getWidth() + scale - 1) / scale, image.getWidth());
+            assertEquals((reference.getHeight() + scale - 1) / scale, image.getHeight());
+            final double diff = meanDifference(reference, image, scale, gray);
+            assertTrue("1/" + scale + " differs by " + diff, diff < 4.0);
+        }
+    }
+
+    @Test
+    public void test_isJpeg() throws Exception {
+        assertTrue(ScaledJpegDecoder.isJpeg(readCoverImage()));
+        assertFalse(ScaledJpegDecoder.isJpeg(null));
+        assertFalse(ScaledJpegDecoder.isJpeg(new byte[0]));
+        assertFalse(ScaledJpegDecoder.isJpeg("not an image".getBytes()));
+    }
+
+    @Test
+    public void test_decode_progressive() throws Exception {
+        assertDecoded(readCoverImage(), false);
+    }
+
+    @Test
+    public void test_decode_baseline() throws Exception {
+        final BufferedImage source = ImageIO.read(new ByteArrayInputStream(readCoverImage()));
+        assertDecoded(writeJpeg(source, BufferedImage.TYPE_3BYTE_BGR), false);
+    }
+
+    @Test
+    public void test_decode_grayscale() throws Exception {
+        final BufferedImage source = ImageIO.read(new ByteArrayInputStream(readCoverImage()));
+        assertDecoded(writeJpeg(source, BufferedImage.TYPE_BYTE_GRAY), true);
+    }
+
+    @Test
+    public void test_decode_truncated() throws Exception {
+        final byte[] data = readCoverImage();
+        final byte[] truncated = new byte[data.length / 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        final ScaledJpegDecoder decoder = new ScaledJpegDecoder(truncated);
+        assertTrue(decoder.readHeader());
+        final BufferedImage image = decoder.decode(8);
+        assertEquals(125, image.getWidth());
+        assertEquals(66, image.getHeight());
+    }
+
+    @Test
+    public void test_readHeader_notJpeg_returnsFalse() throws Exception {
+        assertFalse(new ScaledJpegDecoder("not an image".getBytes()).readHeader());
+    }
+
+    @Test
+    public void test_decode_invalidScale_throwsException() throws Exception {
+        final ScaledJpegDecoder decoder = new ScaledJpegDecoder(readCoverImage());
+        assertTrue(decoder.readHeader());
+        try {
+            decoder.decode(3);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("1/3"));
+        }
+    }
+
+    private byte[] hostileHeader(final int width, final int height) {
+        return new byte[] { (byte) 0xff, (byte) 0xd8, // SOI
+                (byte) 0xff, (byte) 0xc0, 0, 17, 8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3, //
+                1, 0x11, 0, 2, 0x11, 0, 3, 0x11, 0, // SOF0 with three 1x1 components
+                (byte) 0xff, (byte) 0xda, 0, 12, 3, 1, 0, 2, 0, 3, 0, 0, 63, 0, // SOS
+                (byte) 0xff, (byte) 0xd9 };
+    }
+
+    @Test
+    public void test_readHeader_oversizedImage_throwsException() throws Exception {
+        try {
+            new ScaledJpegDecoder(hostileHeader(65535, 65535), 3000, 2000).readHeader();
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("65535x65535"));
+        }
+        try {
+            new ScaledJpegDecoder(hostileHeader(65535, 65535)).readHeader();
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("too large"));
+        }
+        assertTrue(new ScaledJpegDecoder(hostileHeader(3000, 2000), 3000, 2000).readHeader());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.index.query;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.KnnFloatVectorField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ExactKNNQueryTest extends UnitWebappTestCase {
+
+    private static final String FIELD = "vector";
+
+    private Directory createIndex(final VectorSimilarityFunction function) throws Exception {
+        final Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 20; i++) {
+                final Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+                doc.add(new StringField("parity", i % 2 == 0 ? "even" : "odd", Field.Store.NO));
+                doc.add(new KnnFloatVectorField(FIELD, new float[] { i, 1.0f }, function));
+                writer.addDocument(doc);
+                if (i % 7 == 6) {
+                    writer.commit();
+                }
+            }
+            writer.addDocument(new Document());
+        }
+        return directory;
+    }
+
+    private String[] search(final IndexSearcher searcher, final ExactKNNQuery query) throws Exception {
+        final TopDocs topDocs = searcher.search(query, 100);
+        final String[] ids = new String[topDocs.scoreDocs.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = searcher.storedFields().document(topDocs.scoreDocs[i].doc).get("id");
+        }
+        return ids;
+    }
+
+    @Test
+    public void test_search_returnsNearestNeighbors() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            final String[] ids = search(searcher, new ExactKNNQuery(FIELD, new float[] { 10.2f, 1.0f }, 3, null, null, null));
+
+            assertEquals(3, ids.length);
+            assertEquals("10", ids[0]);
+            assertEquals("11", ids[1]);
+            assertEquals("9", ids[2]);
+        }
+    }
+
+    @Test
+    public void test_search_scoresMatchSimilarityFunction() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            final TopDocs topDocs = searcher.search(new ExactKNNQuery(FIELD, new float[] { 3.0f, 1.0f }, 2, null, null, null), 10);
+
+            final ScoreDoc[] scoreDocs = topDocs.scoreDocs;
+            assertEquals(1.0f, scoreDocs[0].score, 0.0001f);
+            assertEquals(0.5f, scoreDocs[1].score, 0.0001f);
+        }
+    }
+
+    @Test
+    public void test_search_withFilter_returnsFilteredNeighbors() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            final String[] ids = search(searcher,
+                    new ExactKNNQuery(FIELD, new float[] { 10.2f, 1.0f }, 3, new TermQuery(new Term("parity", "odd")), null, null));
+
+            assertEquals(3, ids.length);
+            assertEquals("11", ids[0]);
+            assertEquals("9", ids[1]);
+            assertEquals("13", ids[2]);
+        }
+    }
+
+    @Test
+    public void test_search_withMaxDistance_returnsDocumentsWithinDistance() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            // squared distance <= 4 means |i - 5| <= 2
+            final String[] ids = search(searcher, new ExactKNNQuery(FIELD, new float[] { 5.0f, 1.0f }, 10, null, 4.0f, null));
+
+            assertEquals(5, ids.length);
+        }
+    }
+
+    @Test
+    public void test_search_withMinScore_returnsDocumentsAboveScore() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            final String[] ids = search(searcher, new ExactKNNQuery(FIELD, new float[] { 5.0f, 1.0f }, 10, null, null, 0.5f));
+
+            assertEquals(3, ids.length);
+        }
+    }
+
+    @Test
+    public void test_search_dimensionMismatch_throwsException() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+            try {
+                searcher.search(new ExactKNNQuery(FIELD, new float[] { 1.0f, 2.0f, 3.0f }, 3, null, null, null), 10);
+                fail("Expected IllegalArgumentException");
+            } catch (final IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains("dimension"));
+            }
+        }
+    }
+
+    @Test
+    public void test_search_unknownField_returnsNoDocuments() throws Exception {
+        try (Directory directory = createIndex(VectorSimilarityFunction.EUCLIDEAN);
+                DirectoryReader reader = DirectoryReader.open(directory)) {
+            final IndexSearcher searcher = new IndexSearcher(reader);
+
+            final TopDocs topDocs = searcher.search(new ExactKNNQuery("unknown", new float[] { 1.0f, 1.0f }, 3, null, null, null), 10);
+
+            assertEquals(0, topDocs.scoreDocs.length);
+        }
+    }
+
+    @Test
+    public void test_constructor_nonPositiveK_throwsException() {
+        for (final int k : new int[] { 0, -1 }) {
+            try {
+                new ExactKNNQuery(FIELD, new float[] { 1.0f, 1.0f }, k, null, 4.0f, null);
+                fail("Expected IllegalArgumentException");
+            } catch (final IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(String.valueOf(k)));
+            }
+        }
+    }
+
+    @Test
+    public void test_distanceToScore_convertsSpaces() {
+        assertEquals(0.2f, ExactKNNQuery.distanceToScore(VectorSimilarityFunction.EUCLIDEAN, 4.0f), 0.0001f);
+        assertEquals(0.75f, ExactKNNQuery.distanceToScore(VectorSimilarityFunction.COSINE, 0.5f), 0.0001f);
+        assertEquals(1.5f, ExactKNNQuery.distanceToScore(VectorSimilarityFunction.MAXIMUM_INNER_PRODUCT, -0.5f), 0.0001f);
+        assertEquals(0.5f, ExactKNNQuery.distanceToScore(VectorSimilarityFunction.MAXIMUM_INNER_PRODUCT, 1.0f), 0.0001f);
+    }
+
+    @Test
+    public void test_equals_comparesParameters() {
+        final ExactKNNQuery query = new ExactKNNQuery(FIELD, new float[] { 1.0f }, 3, null, null, 0.5f);
+
+        assertEquals(query, new ExactKNNQuery(FIELD, new float[] { 1.0f }, 3, null, null, 0.5f));
+        assertEquals(query.hashCode(), new ExactKNNQuery(FIELD, new float[] { 1.0f }, 3, null, null, 0.5f).hashCode());
+        assertFalse(query.equals(new ExactKNNQuery(FIELD, new float[] { 2.0f }, 3, null, null, 0.5f)));
+        assertFalse(query.equals(new ExactKNNQuery(FIELD, new float[] { 1.0f }, 4, null, null, 0.5f)));
+    }
+}
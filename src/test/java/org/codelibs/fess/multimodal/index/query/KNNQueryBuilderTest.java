@@ -18,7 +18,9 @@ package org.codelibs.fess.multimodal.index.query;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
+import org.apache.lucene.search.Query;
 import org.opensearch.core.xcontent.ToXContent;
 import org.opensearch.core.xcontent.XContentBuilder;
 import org.opensearch.common.xcontent.json.JsonXContent;
@@ -46,6 +48,9 @@ public class KNNQueryBuilderTest extends UnitWebappTestCase {
         assertFalse(query.ignoreUnmapped);
         assertNull(query.maxDistance);
         assertNull(query.minScore);
+        assertNull(query.efSearch);
+        assertNull(query.nprobes);
+        assertNull(query.oversampleFactor);
     }
 
     @Test
@@ -58,7 +63,6 @@ public class KNNQueryBuilderTest extends UnitWebappTestCase {
                 .filter(testFilter)
                 .ignoreUnmapped(true)
                 .maxDistance(0.8f)
-                .minScore(0.5f)
                 .build();
 
         assertEquals(TEST_FIELD, query.fieldName);
@@ -67,7 +71,17 @@ public class KNNQueryBuilderTest extends UnitWebappTestCase {
         assertSame(testFilter, query.filter);
         assertTrue(query.ignoreUnmapped);
         assertEquals(Float.valueOf(0.8f), query.maxDistance);
-        assertEquals(Float.valueOf(0.5f), query.minScore);
+        assertNull(query.minScore);
+    }
+
+    @Test
+    public void test_builder_maxDistanceAndMinScore_throwsException() {
+        try {
+            new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).radial(true).maxDistance(0.8f).minScore(0.5f).build();
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("cannot be combined"));
+        }
     }
 
     @Test
@@ -169,6 +183,45 @@ public class KNNQueryBuilderTest extends UnitWebappTestCase {
         assertFalse(query1.equals(query2));
     }
 
+    @Test
+    public void test_builder_methodParameters_setsValues() {
+        final KNNQueryBuilder query = new KNNQueryBuilder.Builder().field(TEST_FIELD).efSearch(64).nprobes(8).oversampleFactor(1.5f).build();
+
+        assertEquals(Integer.valueOf(64), query.efSearch);
+        assertEquals(Integer.valueOf(8), query.nprobes);
+        assertEquals(Float.valueOf(1.5f), query.oversampleFactor);
+    }
+
+    @Test
+    public void test_builder_radial_requiresThreshold() {
+        final KNNQueryBuilder query = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).radial(true).maxDistance(0.3f).build();
+        assertTrue(query.radial);
+
+        try {
+            new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).radial(true).build();
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("radial"));
+        }
+    }
+
+    @Test
+    public void test_doToQuery_radial_limitsResultsByK() throws IOException {
+        final KNNQueryBuilder query =
+                new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).k(1000).radial(true).minScore(0.9f).build();
+
+        assertEquals(new ExactKNNQuery(TEST_FIELD, TEST_VECTOR, 1000, null, null, 0.9f), query.doToQuery(null));
+    }
+
+    @Test
+    public void test_equals_differentEfSearch_returnsFalse() {
+        final KNNQueryBuilder query1 = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).efSearch(32).build();
+
+        final KNNQueryBuilder query2 = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).efSearch(256).build();
+
+        assertFalse(query1.equals(query2));
+    }
+
     @Test
     public void test_equals_differentK_returnsFalse() {
         final KNNQueryBuilder query1 = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).k(10).build();
@@ -249,14 +302,38 @@ public class KNNQueryBuilderTest extends UnitWebappTestCase {
     }
 
     @Test
-    public void test_doToQuery_throwsUnsupportedOperationException() throws IOException {
-        final KNNQueryBuilder query = new KNNQueryBuilder.Builder().field(TEST_FIELD).build();
+    public void test_doToQuery_returnsExactKNNQuery() throws IOException {
+        final KNNQueryBuilder query = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(TEST_VECTOR).k(TEST_K).minScore(0.5f).build();
 
+        final Query luceneQuery = query.doToQuery(null);
+
+        assertTrue(luceneQuery instanceof ExactKNNQuery);
+        assertEquals(new ExactKNNQuery(TEST_FIELD, TEST_VECTOR, TEST_K, null, null, 0.5f), luceneQuery);
+    }
+
+    @Test
+    public void test_getVectorJson_floatArray_rendersNumbersOnce() {
+        final KNNQueryBuilder query = new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { 1.0f, -0.5f, 1.0E-5f }).build();
+
+        final byte[] json = query.getVectorJson();
+
+        assertEquals("[1.0,-0.5,1.0E-5]", new String(json, StandardCharsets.UTF_8));
+        assertSame(json, query.getVectorJson());
+    }
+
+    @Test
+    public void test_builder_nonFiniteVector_throwsException() {
+        try {
+            new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { 1.0f, Float.NaN }).build();
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("NaN"));
+        }
         try {
-            query.doToQuery(null);
-            fail("Expected UnsupportedOperationException");
-        } catch (UnsupportedOperationException e) {
-            assertEquals("doToQuery is not supported.", e.getMessage());
+            new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { Float.POSITIVE_INFINITY }).build();
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("Infinity"));
         }
     }
 
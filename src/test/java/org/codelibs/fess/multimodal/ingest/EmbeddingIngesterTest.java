@@ -15,9 +15,14 @@
  */
 package org.codelibs.fess.multimodal.ingest;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.multimodal.util.EmbeddingHandoff;
 import org.codelibs.fess.multimodal.util.EmbeddingUtil;
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
 import org.junit.jupiter.api.Test;
@@ -246,4 +251,170 @@ public class EmbeddingIngesterTest extends UnitWebappTestCase {
         assertTrue(result.get("custom_vector") instanceof float[]);
         assertEquals("should_not_be_processed", result.get(VECTOR_FIELD));
     }
+
+    @Test
+    public void test_process_withNestedVectorField_convertsToNestedVectors() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.nestedVectorField = "nested_field";
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put("nested_field", new String[] { EmbeddingUtil.encodeFloatArray(new float[] { 1.0f, 2.0f }),
+                EmbeddingUtil.encodeFloatArray(new float[] { 3.0f, 4.0f }) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> vectors = (List<Map<String, Object>>) result.get("nested_field");
+        assertEquals(2, vectors.size());
+        assertEquals(2.0f, ((float[]) vectors.get(0).get("vector"))[1], 0.0001f);
+        assertEquals(3.0f, ((float[]) vectors.get(1).get("vector"))[0], 0.0001f);
+    }
+
+    @Test
+    public void test_process_withoutNestedVectorField_keepsOriginal() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put("nested_field", new String[] { "P4AAAEAAAABAQAAA" });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertTrue(result.get("nested_field") instanceof String[]);
+    }
+
+    @Test
+    public void test_process_withChunkSize_appendsTextChunkVectors() {
+        final List<Integer> batches = new ArrayList<>();
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.nestedVectorField = "nested_field";
+        ingester.contentField = "content";
+        ingester.chunkSize = 10;
+        ingester.chunkOverlap = 0;
+        ingester.maxChunks = 3;
+        ingester.client = new CasClient() {
+            @Override
+            public int getBatchSize() {
+                return 2;
+            }
+
+            @Override
+            public List<float[]> getTextEmbeddings(final List<String> texts) {
+                batches.add(texts.size());
+                final List<float[]> embeddings = new ArrayList<>();
+                for (final String text : texts) {
+                    embeddings.add(new float[] { text.length() });
+                }
+                return embeddings;
+            }
+        };
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put("content", "aaaa bbbb cccc dddd eeee ffff gggg");
+        target.put("nested_field", new String[] { EmbeddingUtil.encodeFloatArray(new float[] { 1.0f }) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertEquals(List.of(2, 1), batches);
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> vectors = (List<Map<String, Object>>) result.get("nested_field");
+        assertEquals(4, vectors.size());
+        assertEquals(1.0f, ((float[]) vectors.get(0).get("vector"))[0], 0.0001f);
+        assertEquals(9.0f, ((float[]) vectors.get(1).get("vector"))[0], 0.0001f);
+    }
+
+    @Test
+    public void test_process_withoutChunkSize_skipsTextChunks() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.nestedVectorField = "nested_field";
+        ingester.contentField = "content";
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put("content", "aaaa bbbb cccc");
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertFalse(result.containsKey("nested_field"));
+    }
+
+    @Test
+    public void test_process_removesInvalidVectors() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.nestedVectorField = "nested_field";
+        ingester.vectorDecoder = new VectorDecoder(2);
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put(VECTOR_FIELD, new String[] { "P4AAAEAAAABAQAAA" });
+        target.put("nested_field", new String[] { EmbeddingUtil.encodeFloatArray(new float[] { 7.0f, 1.0f }), "invalid!",
+                EmbeddingUtil.encodeFloatArray(new float[] { 7.0f, 2.0f }) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertFalse(result.containsKey(VECTOR_FIELD));
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> vectors = (List<Map<String, Object>>) result.get("nested_field");
+        assertEquals(2, vectors.size());
+        assertEquals(7.0f, ((float[]) vectors.get(1).get("vector"))[0], 0.0001f);
+        assertEquals(2.0f, ((float[]) vectors.get(1).get("vector"))[1], 0.0001f);
+    }
+
+    @Test
+    public void test_process_withHandoffReference() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.nestedVectorField = "nested_field";
+        ingester.vectorDecoder = new VectorDecoder(0);
+        final float[] embedding = { 0.5f, 1.5f };
+        final float[] nestedEmbedding = { 2.5f, 3.5f };
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put(VECTOR_FIELD, new String[] { EmbeddingHandoff.getInstance().put(embedding) });
+        target.put("nested_field", new String[] { EmbeddingHandoff.getInstance().put(nestedEmbedding) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertSame(embedding, result.get(VECTOR_FIELD));
+        @SuppressWarnings("unchecked")
+        final List<Map<String, Object>> vectors = (List<Map<String, Object>>) result.get("nested_field");
+        assertEquals(1, vectors.size());
+        assertSame(nestedEmbedding, vectors.get(0).get("vector"));
+    }
+
+    @Test
+    public void test_process_withReducer() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.vectorDecoder = new VectorDecoder(3);
+        ingester.reducer = VectorReducer.truncation(2, false);
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put(VECTOR_FIELD, new String[] { EmbeddingUtil.encodeFloatArray(new float[] { 3.0f, 4.0f, 5.0f }) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        final float[] embedding = (float[]) result.get(VECTOR_FIELD);
+        assertEquals(2, embedding.length);
+        assertEquals(3.0f, embedding[0]);
+        assertEquals(4.0f, embedding[1]);
+    }
+
+    @Test
+    public void test_process_countsVectorsTheReducerDrops() {
+        final EmbeddingIngester ingester = new EmbeddingIngester();
+        ingester.vectorField = VECTOR_FIELD;
+        ingester.vectorDecoder = new VectorDecoder(0);
+        ingester.reducer = VectorReducer.truncation(4, false);
+
+        final Map<String, Object> target = new HashMap<>();
+        target.put(VECTOR_FIELD, new String[] { EmbeddingUtil.encodeFloatArray(new float[] { 3.0f, 4.0f, 5.0f }) });
+
+        final Map<String, Object> result = ingester.process(target);
+
+        assertFalse(result.containsKey(VECTOR_FIELD));
+        assertEquals(1L, ingester.getReduceFailureCount());
+    }
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class TextChunkerTest extends UnitWebappTestCase {
+
+    private List<String> chunks(final String text, final int size, final int overlap, final int maxChunks) {
+        final List<String> list = new ArrayList<>();
+        new TextChunker(text, size, overlap, maxChunks).forEachRemaining(list::add);
+        return list;
+    }
+
+    @Test
+    public void test_next_shortText_returnsSingleChunk() {
+        assertEquals(List.of("hello world"), chunks("  hello world  ", 100, 10, 10));
+    }
+
+    @Test
+    public void test_next_blankText_returnsNoChunk() {
+        assertEquals(0, chunks("", 100, 10, 10).size());
+        assertEquals(0, chunks(" \n\t ", 100, 10, 10).size());
+    }
+
+    @Test
+    public void test_next_breaksAtWhitespaceWithOverlap() {
+        final List<String> list = chunks("aaaa bbbb cccc dddd eeee", 12, 5, 10);
+        assertEquals(List.of("aaaa bbbb", "bbbb cccc", "cccc dddd", "dddd eeee"), list);
+    }
+
+    @Test
+    public void test_next_noWhitespace_breaksAtSize() {
+        final List<String> list = chunks("abcdefghij", 4, 0, 10);
+        assertEquals(List.of("abcd", "efgh", "ij"), list);
+    }
+
+    @Test
+    public void test_next_noWhitespace_overlapsByCharacters() {
+        final List<String> list = chunks("日本語の文章には空白がない", 8, 2, 10);
+        assertEquals(List.of("日本語の文章には", "には空白がない"), list);
+    }
+
+    @Test
+    public void test_next_noWhitespace_keepsSurrogatePairs() {
+        assertEquals(List.of("a😀", "😀😀"), chunks("a😀😀😀", 4, 0, 10));
+        assertEquals(List.of("😀", "😀"), chunks("😀😀", 1, 0, 10));
+        for (final String chunk : chunks("😀𠀋😀𠀋😀𠀋😀𠀋😀𠀋", 5, 2, 20)) {
+            assertFalse(Character.isHighSurrogate(chunk.charAt(chunk.length() - 1)));
+            assertFalse(Character.isLowSurrogate(chunk.charAt(0)));
+        }
+    }
+
+    @Test
+    public void test_next_stopsAtMaxChunks() {
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            buf.append("word").append(i).append(' ');
+        }
+        final List<String> list = chunks(buf.toString(), 100, 20, 5);
+        assertEquals(5, list.size());
+        for (final String chunk : list) {
+            assertTrue(chunk.length() <= 100);
+        }
+    }
+
+    @Test
+    public void test_next_exhausted_throwsException() {
+        final TextChunker chunker = new TextChunker("text", 10, 0, 10);
+        assertEquals("text", chunker.next());
+        assertFalse(chunker.hasNext());
+        try {
+            chunker.next();
+            fail("Expected NoSuchElementException");
+        } catch (final NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_constructor_invalidOverlap_throwsException() {
+        try {
+            new TextChunker("text", 10, 10, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("overlap"));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.ingest;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.util.EmbeddingHandoff;
+import org.codelibs.fess.multimodal.util.EmbeddingUtil;
+import org.junit.jupiter.api.Test;
+
+public class VectorDecoderTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_decode() {
+        final VectorDecoder decoder = new VectorDecoder(0);
+
+        final float[] embedding = decoder.decode("P4AAAEAAAABAQAAA");
+
+        assertEquals("[1.0, 2.0, 3.0]", Arrays.toString(embedding));
+        assertNull(decoder.decode((String) null));
+        assertNull(decoder.decode("not base64!"));
+        assertNull(decoder.decode("AAAA"));
+        assertNull(decoder.decode(EmbeddingUtil.encodeFloatArray(new float[] { 1.0f, Float.NaN })));
+    }
+
+    @Test
+    public void test_decode_checksDimension() {
+        final VectorDecoder decoder = new VectorDecoder(2);
+
+        assertNotNull(decoder.decode(EmbeddingUtil.encodeFloatArray(new float[] { 1.0f, 2.0f })));
+        assertNull(decoder.decode("P4AAAEAAAABAQAAA"));
+    }
+
+    @Test
+    public void test_decode_resolvesReference() {
+        final EmbeddingHandoff handoff = new EmbeddingHandoff(10, 60000L);
+        final VectorDecoder decoder = new VectorDecoder(2, handoff);
+        final float[] embedding = { 1.0f, 2.0f };
+
+        final String reference = handoff.put(embedding);
+
+        assertSame(embedding, decoder.decode(reference));
+        assertNull(decoder.decode(reference));
+        assertNull(decoder.decode(handoff.put(new float[] { 1.0f, 2.0f, 3.0f })));
+        assertNull(decoder.decode(handoff.put(new float[] { 1.0f, Float.NaN })));
+        assertEquals(0, handoff.size());
+    }
+
+    @Test
+    public void test_decode_growsScratchBuffer() {
+        final VectorDecoder decoder = new VectorDecoder(0);
+        final float[] large = new float[4096];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = i * 0.5f;
+        }
+
+        final float[] embedding = decoder.decode(EmbeddingUtil.encodeFloatArray(large));
+
+        assertEquals(large.length, embedding.length);
+        assertEquals(2047.5f, embedding[4095]);
+        assertEquals("[1.0, 2.0, 3.0]", Arrays.toString(decoder.decode("P4AAAEAAAABAQAAA")));
+    }
+
+    @Test
+    public void test_decodeList() {
+        final VectorDecoder decoder = new VectorDecoder(0);
+
+        final List<float[]> embeddings = decoder.decode(List.of(EmbeddingUtil.encodeFloatArray(new float[] { 1.0f, -1.0f }), "invalid!"));
+
+        assertEquals(2, embeddings.size());
+        assertEquals("[1.0, -1.0]", Arrays.toString(embeddings.get(0)));
+        assertNull(embeddings.get(1));
+        assertTrue(decoder.decode(List.of()).isEmpty());
+    }
+}
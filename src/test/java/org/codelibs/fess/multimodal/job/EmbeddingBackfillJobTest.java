@@ -0,0 +1,191 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_BACKFILL_INTERVAL;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_ENABLED;
+import static org.codelibs.fess.multimodal.MultiModalConstants.SPOOL_PATH;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.spool.EmbeddingSpool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class EmbeddingBackfillJobTest extends UnitWebappTestCase {
+
+    private Path tempDir;
+
+    private EmbeddingBackfillJob job;
+
+    /** Documents by URL. */
+    private final Map<String, List<String>> documents = new HashMap<>();
+
+    /** Embeddings written by the job. */
+    private final Map<String, float[]> updated = new HashMap<>();
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        tempDir = Files.createTempDirectory("backfill");
+        job = new EmbeddingBackfillJob() {
+            @Override
+            protected Map<String, List<String>> findDocuments(final List<String> urls) {
+                final Map<String, List<String>> docIds = new HashMap<>();
+                urls.stream().filter(documents::containsKey).forEach(url -> docIds.put(url, documents.get(url)));
+                return docIds;
+            }
+
+            @Override
+            protected void updateDocuments(final Map<String, float[]> updates) {
+                updated.putAll(updates);
+            }
+        };
+        job.spool = new EmbeddingSpool(tempDir, 1024 * 1024, 1024 * 1024, 60000L);
+        job.maxAttempts = 3;
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        job.spool.close();
+        try (Stream<Path> stream = Files.list(tempDir)) {
+            for (final Path path : stream.toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(tempDir);
+        super.tearDown(testInfo);
+    }
+
+    /**
+     * Embeds an image as its size, or fails for an empty image.
+     */
+    private static CasClient createClient(final boolean available) {
+        return new CasClient() {
+            @Override
+            public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+                final List<float[]> embeddings = new ArrayList<>();
+                for (final InputStream in : ins) {
+                    try {
+                        final int size = in.readAllBytes().length;
+                        embeddings.add(available && size > 0 ? new float[] { size } : null);
+                    } catch (final Exception e) {
+                        embeddings.add(null);
+                    }
+                }
+                return embeddings;
+            }
+        };
+    }
+
+    private List<EmbeddingSpool.Entry> readSpool() throws Exception {
+        job.spool.roll();
+        final List<EmbeddingSpool.Entry> entries = new ArrayList<>();
+        for (final Path segment : job.spool.getSegments(0L)) {
+            entries.addAll(EmbeddingSpool.read(segment));
+        }
+        return entries;
+    }
+
+    @Test
+    public void test_backfill_updatesDocuments() throws Exception {
+        job.client = createClient(true);
+        documents.put("http://example.com/a.jpg", List.of("doc-a1", "doc-a2"));
+        documents.put("http://example.com/b.jpg", List.of("doc-b"));
+
+        assertTrue(job.backfill(List.of(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[2], 0),
+                new EmbeddingSpool.Entry("http://example.com/b.jpg", new byte[3], 0))));
+
+        assertEquals(3, updated.size());
+        assertEquals(2.0f, updated.get("doc-a2")[0]);
+        assertEquals(3.0f, updated.get("doc-b")[0]);
+        assertEquals(2, job.embedded);
+        assertTrue(readSpool().isEmpty());
+    }
+
+    @Test
+    public void test_backfill_retriesMissingDocumentsAndFailedImages() throws Exception {
+        job.client = createClient(true);
+        documents.put("http://example.com/a.jpg", List.of("doc-a"));
+        documents.put("http://example.com/b.jpg", List.of("doc-b"));
+
+        assertTrue(job.backfill(List.of(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[2], 0),
+                new EmbeddingSpool.Entry("http://example.com/b.jpg", new byte[0], 0),
+                new EmbeddingSpool.Entry("http://example.com/c.jpg", new byte[2], 1))));
+
+        assertEquals(1, updated.size());
+        final List<EmbeddingSpool.Entry> entries = readSpool();
+        assertEquals(2, entries.size());
+        assertEquals("http://example.com/c.jpg", entries.get(0).getUrl());
+        assertEquals(2, entries.get(0).getAttempts());
+        assertEquals("http://example.com/b.jpg", entries.get(1).getUrl());
+        assertEquals(1, entries.get(1).getAttempts());
+    }
+
+    @Test
+    public void test_backfill_serverUnavailable_keepsAttempts() throws Exception {
+        job.client = createClient(false);
+        documents.put("http://example.com/a.jpg", List.of("doc-a"));
+        documents.put("http://example.com/b.jpg", List.of("doc-b"));
+
+        assertFalse(job.backfill(List.of(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[2], 0),
+                new EmbeddingSpool.Entry("http://example.com/b.jpg", new byte[3], 0))));
+
+        assertTrue(updated.isEmpty());
+        final List<EmbeddingSpool.Entry> entries = readSpool();
+        assertEquals(2, entries.size());
+        assertEquals(0, entries.get(0).getAttempts());
+        assertEquals(0, entries.get(1).getAttempts());
+    }
+
+    @Test
+    public void test_init_crawlerProcess_doesNotStartThread() {
+        final EmbeddingBackfillJob backfillJob = new EmbeddingBackfillJob();
+        System.setProperty(SPOOL_ENABLED, "true");
+        System.setProperty(SPOOL_PATH, tempDir.toString());
+        System.setProperty(SPOOL_BACKFILL_INTERVAL, "60000");
+        System.setProperty("fess.crawler.process", "true");
+        try {
+            backfillJob.init();
+        } finally {
+            System.clearProperty(SPOOL_ENABLED);
+            System.clearProperty(SPOOL_PATH);
+            System.clearProperty(SPOOL_BACKFILL_INTERVAL);
+            System.clearProperty("fess.crawler.process");
+        }
+
+        assertNotNull(backfillJob.spool);
+        assertNull(backfillJob.backfillThread);
+        backfillJob.destroy();
+    }
+
+    @Test
+    public void test_retry_dropsAfterMaxAttempts() throws Exception {
+        job.retry(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[1], 2));
+
+        assertEquals(1, job.dropped);
+        assertTrue(readSpool().isEmpty());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.WARMUP_QUERIES;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class QueryEmbeddingWarmerTest extends UnitWebappTestCase {
+
+    private QueryEmbeddingWarmer warmer;
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        warmer = new QueryEmbeddingWarmer();
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        warmer.destroy();
+        System.clearProperty(WARMUP_QUERIES);
+        super.tearDown(testInfo);
+    }
+
+    @Test
+    public void test_init_disabledByDefault() {
+        warmer.init();
+
+        assertEquals(0, warmer.queries);
+        assertNull(warmer.warmerThread);
+    }
+
+    @Test
+    public void test_init_startsDaemonThread() {
+        System.setProperty(WARMUP_QUERIES, "100");
+
+        warmer.init();
+
+        assertEquals(100, warmer.queries);
+        assertNotNull(warmer.warmerThread);
+        assertTrue(warmer.warmerThread.isDaemon());
+        warmer.destroy();
+        assertNull(warmer.warmerThread);
+    }
+
+    @Test
+    public void test_init_crawlerProcess_doesNotStartThread() {
+        System.setProperty(WARMUP_QUERIES, "100");
+        System.setProperty("fess.crawler.process", "true");
+        try {
+            warmer.init();
+        } finally {
+            System.clearProperty("fess.crawler.process");
+        }
+
+        assertEquals(100, warmer.queries);
+        assertNull(warmer.warmerThread);
+    }
+
+    @Test
+    public void test_throttle_waitsForRate() throws InterruptedException {
+        warmer.queriesPerSecond = 100;
+        final long start = System.currentTimeMillis();
+
+        warmer.throttle(10, start);
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void test_throttle_unlimited_returnsImmediately() throws InterruptedException {
+        warmer.queriesPerSecond = 0;
+        final long start = System.currentTimeMillis();
+
+        warmer.throttle(1000000, start);
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.client.CasClient;
+import org.codelibs.fess.multimodal.exception.CasAccessException;
+import org.codelibs.fess.multimodal.exception.CasUnavailableException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class ReEmbeddingJobTest extends UnitWebappTestCase {
+
+    private Path tempDir;
+
+    private ReEmbeddingJob job;
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        tempDir = Files.createTempDirectory("reembed");
+        job = new ReEmbeddingJob();
+        job.targetField = "content_vector_v2";
+        job.checkpointPath = tempDir.resolve("checkpoint.properties");
+        job.maxImageBytes = 100;
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        Files.deleteIfExists(job.checkpointPath);
+        Files.deleteIfExists(tempDir.resolve("image.bin"));
+        Files.deleteIfExists(tempDir);
+        super.tearDown(testInfo);
+    }
+
+    @Test
+    public void test_loadCheckpoint_noFile_returnsEmpty() {
+        assertTrue(job.loadCheckpoint().isEmpty());
+    }
+
+    @Test
+    public void test_saveCheckpoint_loadCheckpoint_resumes() {
+        job.saveCheckpoint("doc-100", 100);
+
+        final Properties checkpoint = job.loadCheckpoint();
+        assertEquals("doc-100", checkpoint.getProperty("last_doc_id"));
+        assertEquals("100", checkpoint.getProperty("processed"));
+    }
+
+    @Test
+    public void test_loadCheckpoint_otherField_ignoresCheckpoint() {
+        job.saveCheckpoint("doc-100", 100);
+        job.targetField = "content_vector_v3";
+
+        assertTrue(job.loadCheckpoint().isEmpty());
+    }
+
+    @Test
+    public void test_deleteCheckpoint_removesFile() {
+        job.saveCheckpoint("doc-100", 100);
+        job.deleteCheckpoint();
+
+        assertFalse(Files.exists(job.checkpointPath));
+    }
+
+    @Test
+    public void test_fetch_fileUrl_readsContent() throws Exception {
+        final Path file = tempDir.resolve("image.bin");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        final byte[] bytes = job.fetch(file.toUri().toString());
+
+        assertEquals(3, bytes.length);
+    }
+
+    @Test
+    public void test_fetch_noConfigId_readsContentDirectly() throws Exception {
+        final Path file = tempDir.resolve("image.bin");
+        Files.write(file, new byte[] { 1, 2, 3 });
+
+        assertEquals(3, job.fetch(file.toUri().toString(), null).length);
+    }
+
+    @Test
+    public void test_fetch_tooLarge_throwsException() throws Exception {
+        final Path file = tempDir.resolve("image.bin");
+        Files.write(file, new byte[101]);
+
+        try {
+            job.fetch(file.toUri().toString());
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("larger than 100 bytes"));
+        }
+    }
+
+    @Test
+    public void test_fetch_unsupportedUrl_throwsException() {
+        try {
+            job.fetch("smb://server/share/image.png");
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            assertTrue(e.getMessage().contains("Unsupported URL"));
+        }
+    }
+
+    @Test
+    public void test_embed_serverUnavailable_returnsNull() {
+        job.client = new CasClient() {
+            @Override
+            public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+                return Arrays.asList(new float[ins.size()][]);
+            }
+        };
+
+        assertNull(job.embed(createImages(3), 2));
+        assertEquals(3, job.embed(createImages(3), 1).size());
+    }
+
+    @Test
+    public void test_embed_transientFailure_returnsNull() {
+        job.client = new CasClient() {
+            @Override
+            public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+                throw new CasUnavailableException("Test error");
+            }
+        };
+
+        assertNull(job.embed(createImages(2), 2));
+    }
+
+    @Test
+    public void test_embed_otherFailure_throwsException() {
+        job.client = new CasClient() {
+            @Override
+            public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+                throw new CasAccessException("Test error");
+            }
+        };
+
+        try {
+            job.embed(createImages(2), 2);
+            fail("Expected CasAccessException");
+        } catch (final CasAccessException e) {
+            assertEquals("Test error", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_embed_someImagesFail_returnsEmbeddings() {
+        job.client = new CasClient() {
+            @Override
+            public List<float[]> getImageEmbeddings(final List<InputStream> ins) {
+                return Arrays.asList(new float[] { 1.0f }, null);
+            }
+        };
+
+        final List<float[]> embeddings = job.embed(createImages(2), 2);
+
+        assertNotNull(embeddings.get(0));
+        assertNull(embeddings.get(1));
+    }
+
+    @Test
+    public void test_throttle_waitsForRate() {
+        job.docsPerSecond = 100;
+        final long start = System.currentTimeMillis();
+
+        assertTrue(job.throttle(10, start));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+    }
+
+    @Test
+    public void test_throttle_unlimited_returnsImmediately() {
+        job.docsPerSecond = 0;
+        final long start = System.currentTimeMillis();
+
+        assertTrue(job.throttle(1000000, start));
+        assertTrue(System.currentTimeMillis() - start < 100);
+    }
+
+    @Test
+    public void test_destroyProvider_destroysEndpointClient() {
+        final AtomicInteger destroyed = new AtomicInteger();
+        job.endpointClient = new CasClient() {
+            @Override
+            public synchronized void destroy() {
+                destroyed.incrementAndGet();
+            }
+        };
+
+        job.destroyProvider();
+        job.destroyProvider();
+
+        assertEquals(1, destroyed.get());
+        assertNull(job.endpointClient);
+    }
+
+    private List<InputStream> createImages(final int size) {
+        final List<InputStream> images = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            images.add(new ByteArrayInputStream(new byte[] { (byte) i }));
+        }
+        return images;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.job;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.codelibs.fess.multimodal.MultiModalConstants;
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.junit.jupiter.api.Test;
+
+public class VectorReducerJobTest extends UnitWebappTestCase {
+
+    /**
+     * Creates vectors whose variance is in the last dimensions.
+     */
+    private static List<float[]> createVectors(final int size, final long seed) {
+        final Random random = new Random(seed);
+        final List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            final float[] vector = new float[8];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = (float) random.nextGaussian() * (j < 4 ? 0.01f : 1.0f);
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    @Test
+    public void test_measureRecall() {
+        final VectorReducerJob job = new VectorReducerJob();
+        final List<float[]> corpus = createVectors(200, 1);
+        final List<float[]> queries = createVectors(20, 2);
+
+        final VectorReducer pca = VectorReducer.fit(corpus, 4, false);
+        final double pcaRecall = job.measureRecall(corpus, queries, pca, "l2");
+        final double truncationRecall = job.measureRecall(corpus, queries, VectorReducer.truncation(4, false), "l2");
+
+        assertTrue(pcaRecall > 0.9);
+        assertTrue(truncationRecall < 0.5);
+        assertEquals(1.0, job.measureRecall(corpus, queries, VectorReducer.truncation(8, false), "innerproduct"), 0.0001);
+        assertEquals(1.0, job.measureRecall(corpus, queries, VectorReducer.truncation(8, true), "cosinesimil"), 0.0001);
+    }
+
+    @Test
+    public void test_addVectors_includesNestedVectors() {
+        final VectorReducerJob job = new VectorReducerJob();
+        final Map<String, Object> source = Map.of("content_vector", List.of(1.0, 2.0), "content_vectors",
+                List.of(Map.of("vector", List.of(3.0, 4.0)), Map.of("vector", List.of(5.0, 6.0))));
+
+        final List<float[]> vectors = new ArrayList<>();
+        job.addVectors(source, "content_vector", "content_vectors", vectors);
+
+        assertEquals(3, vectors.size());
+        assertEquals(1.0f, vectors.get(0)[0]);
+        assertEquals(3.0f, vectors.get(1)[0]);
+        assertEquals(6.0f, vectors.get(2)[1]);
+
+        vectors.clear();
+        job.addVectors(source, "content_vector", null, vectors);
+        assertEquals(1, vectors.size());
+    }
+
+    @Test
+    public void test_getStagingPath() {
+        System.setProperty(MultiModalConstants.REDUCE_PATH, "/var/fess/reducer.bin");
+        try {
+            assertEquals(Path.of("/var/fess/reducer.bin.staged"), new VectorReducerJob().getStagingPath());
+        } finally {
+            System.clearProperty(MultiModalConstants.REDUCE_PATH);
+        }
+    }
+}
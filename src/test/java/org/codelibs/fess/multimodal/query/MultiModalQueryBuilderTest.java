@@ -15,7 +15,15 @@
  */
 package org.codelibs.fess.multimodal.query;
 
+import org.codelibs.fess.entity.QueryContext;
+import org.codelibs.fess.entity.SearchRequestParams;
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.helper.MultiModalSearchHelper;
+import org.codelibs.fess.multimodal.rank.fusion.MultiModalSearcher.SearchContext;
+import org.codelibs.fess.multimodal.reduce.VectorReducer;
+import org.codelibs.fess.multimodal.index.query.KNNQueryBuilder;
+import org.opensearch.index.query.QueryBuilder;
+import org.opensearch.index.query.QueryBuilders;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 
@@ -40,6 +48,7 @@ public class MultiModalQueryBuilderTest extends UnitWebappTestCase {
         assertNull(queryBuilder.query);
         assertEquals(10, queryBuilder.k); // Default k value
         assertNull(queryBuilder.minScore);
+        assertNull(queryBuilder.nestedField);
     }
 
     @Test
@@ -74,6 +83,109 @@ public class MultiModalQueryBuilderTest extends UnitWebappTestCase {
         assertEquals(25, queryBuilder.k);
     }
 
+    @Test
+    public void test_builder_nestedField_setsNestedField() {
+        final MultiModalQueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().nestedField("content_images").build();
+
+        assertEquals("content_images", queryBuilder.nestedField);
+    }
+
+    @Test
+    public void test_createKnnQuery_passesMethodParameters() {
+        final MultiModalQueryBuilder queryBuilder =
+                new MultiModalQueryBuilder.Builder().field(TEST_FIELD).k(TEST_K).efSearch(32).nprobes(4).oversampleFactor(0f).build();
+
+        final KNNQueryBuilder knnQuery = queryBuilder.createKnnQuery(TEST_FIELD, new float[] { 1.0f, 2.0f }, null);
+
+        final KNNQueryBuilder expected = new KNNQueryBuilder.Builder().field(TEST_FIELD)
+                .vector(new float[] { 1.0f, 2.0f })
+                .k(TEST_K)
+                .efSearch(32)
+                .nprobes(4)
+                .oversampleFactor(0f)
+                .build();
+        assertEquals(expected, knnQuery);
+    }
+
+    @Test
+    public void test_createKnnQuery_setsFilter() {
+        final QueryBuilder filter = QueryBuilders.termsQuery("role", "Rguest");
+        final MultiModalQueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().field(TEST_FIELD).filter(filter).build();
+
+        assertSame(filter, queryBuilder.filter);
+        final KNNQueryBuilder knnQuery = queryBuilder.createKnnQuery(TEST_FIELD, new float[] { 1.0f }, filter);
+
+        assertEquals(new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { 1.0f }).filter(filter).build(), knnQuery);
+    }
+
+    @Test
+    public void test_createKnnQuery_radial_setsThresholds() {
+        final MultiModalQueryBuilder queryBuilder =
+                new MultiModalQueryBuilder.Builder().field(TEST_FIELD).k(500).radial(true).maxDistance(0.2f).build();
+
+        final KNNQueryBuilder knnQuery = queryBuilder.createKnnQuery(TEST_FIELD, new float[] { 1.0f }, null);
+
+        assertEquals(new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { 1.0f }).k(500).radial(true).maxDistance(0.2f).build(),
+                knnQuery);
+    }
+
+    @Test
+    public void test_toQueryBuilder_reducesEmbedding() {
+        final VectorReducer reducer = VectorReducer.truncation(2, false);
+        final MultiModalQueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().field(TEST_FIELD).reducer(reducer).build();
+
+        assertSame(reducer, queryBuilder.reducer);
+        final QueryBuilder knnQuery = queryBuilder.toQueryBuilder(new float[] { 1.0f, 2.0f, 3.0f });
+
+        assertEquals(new KNNQueryBuilder.Builder().field(TEST_FIELD).vector(new float[] { 1.0f, 2.0f }).k(10).build(), knnQuery);
+    }
+
+    @Test
+    public void test_toQueryBuilder_embeddingTheReducerRejects_matchesNone() {
+        final MultiModalQueryBuilder queryBuilder =
+                new MultiModalQueryBuilder.Builder().field(TEST_FIELD).reducer(VectorReducer.truncation(4, false)).build();
+
+        assertEquals(QueryBuilders.matchNoneQuery(), queryBuilder.toQueryBuilder(new float[] { 1.0f, 2.0f, 3.0f }));
+    }
+
+    @Test
+    public void test_toQueryBuilder_nonFiniteEmbedding_matchesNone() {
+        final MultiModalQueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().field(TEST_FIELD).build();
+
+        assertEquals(QueryBuilders.matchNoneQuery(), queryBuilder.toQueryBuilder(new float[] { 1.0f, Float.NaN }));
+    }
+
+    @Test
+    public void test_createQueryBuilder_usesSearchContext() {
+        final MultiModalSearchHelper helper = new MultiModalSearchHelper() {
+            @Override
+            public QueryBuilder buildKnnFilter(final QueryContext context, final SearchRequestParams params) {
+                return null;
+            }
+        };
+        final SearchContext searchContext = new SearchContext.Builder().vectorField("content_vector")
+                .nestedVectorField("content_vectors")
+                .efSearch(64)
+                .radial(true)
+                .radialMaxDistance(0.3f)
+                .radialMaxResults(200)
+                .reducer(VectorReducer.truncation(2, false))
+                .build();
+
+        final MultiModalQueryBuilder queryBuilder = helper.createQueryBuilder(searchContext, null, "red car");
+
+        assertEquals("content_vector", queryBuilder.field);
+        assertEquals("content_vectors", queryBuilder.nestedField);
+        assertEquals("red car", queryBuilder.query);
+        assertEquals(Integer.valueOf(64), queryBuilder.efSearch);
+        assertTrue(queryBuilder.radial);
+        assertEquals(Float.valueOf(0.3f), queryBuilder.maxDistance);
+        assertNull(queryBuilder.minScore);
+        assertEquals(200, queryBuilder.k);
+        assertSame(searchContext.getReducer(), queryBuilder.reducer);
+        assertNull(queryBuilder.filter);
+    }
+
     @Test
     public void test_builder_minScore_setsMinScore() {
         final MultiModalQueryBuilder queryBuilder = new MultiModalQueryBuilder.Builder().minScore(0.9f).build();
@@ -15,7 +15,12 @@
  */
 package org.codelibs.fess.multimodal.rank.fusion;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.codelibs.fess.multimodal.rank.fusion.MultiModalSearcher.SearchContext;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInfo;
 
@@ -29,13 +34,6 @@ public class MultiModalSearcherTest extends UnitWebappTestCase {
         searcher = new MultiModalSearcher();
     }
 
-    @Override
-    protected void tearDown(TestInfo testInfo) throws Exception {
-        // Clean up any remaining context
-        searcher.closeContext();
-        super.tearDown(testInfo);
-    }
-
     @Test
     public void test_searcherInstantiation() {
         // Test that the searcher can be instantiated without issues
@@ -50,9 +48,45 @@ public class MultiModalSearcherTest extends UnitWebappTestCase {
     }
 
     @Test
-    public void test_closeContext_withoutContext_handlesGracefully() {
-        // Should not throw exception when closing non-existent context
-        searcher.closeContext();
+    public void test_withContext_bindsContextDuringTask() {
+        final SearchContext context = new SearchContext("content_vector", "query", null, null);
+
+        final SearchContext result = searcher.withContext(context, searcher::getContext);
+
+        assertSame(context, result);
         assertNull(searcher.getContext());
     }
+
+    @Test
+    public void test_searchContextBuilder_setsAllFields() {
+        final SearchContext context = new SearchContext.Builder().vectorField("content_vector")
+                .nestedVectorField("content_vectors")
+                .efSearch(100)
+                .nprobes(8)
+                .oversampleFactor(2.0f)
+                .query("query")
+                .build();
+
+        assertEquals("content_vector", context.getVectorField());
+        assertEquals("content_vectors", context.getNestedVectorField());
+        assertEquals(Integer.valueOf(100), context.getEfSearch());
+        assertEquals(Integer.valueOf(8), context.getNprobes());
+        assertEquals(Float.valueOf(2.0f), context.getOversampleFactor());
+        assertEquals("query", context.getQuery());
+        assertNull(new SearchContext("content_vector", "query", null, null).getNestedVectorField());
+    }
+
+    @Test
+    public void test_wrap_propagatesContextToAnotherThread() throws Exception {
+        final SearchContext context = new SearchContext("content_vector", "query", null, null);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Callable<SearchContext> task = searcher.withContext(context, () -> searcher.wrap(searcher::getContext));
+
+            assertSame(context, executor.submit(task).get());
+            assertNull(executor.submit(searcher::getContext).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
\ No newline at end of file
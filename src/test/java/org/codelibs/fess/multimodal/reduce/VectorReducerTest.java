@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.reduce;
+
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_DIMENSION;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_METHOD;
+import static org.codelibs.fess.multimodal.MultiModalConstants.REDUCE_PATH;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class VectorReducerTest extends UnitWebappTestCase {
+
+    private Path tempDir;
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        tempDir = Files.createTempDirectory("reducer");
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        System.clearProperty(REDUCE_METHOD);
+        System.clearProperty(REDUCE_DIMENSION);
+        System.clearProperty(REDUCE_PATH);
+        Files.deleteIfExists(tempDir.resolve("reducer.bin"));
+        Files.deleteIfExists(tempDir);
+        super.tearDown(testInfo);
+    }
+
+    @Test
+    public void test_truncation() {
+        final VectorReducer reducer = VectorReducer.truncation(2, true);
+
+        final float[] reduced = reducer.reduce(new float[] { 3.0f, 4.0f, 1.0f });
+
+        assertEquals(2, reduced.length);
+        assertEquals(0.6f, reduced[0], 0.0001f);
+        assertEquals(0.8f, reduced[1], 0.0001f);
+        assertEquals(0, reducer.getInputDimension());
+        assertEquals(3.0f, VectorReducer.truncation(2, false).reduce(new float[] { 3.0f, 4.0f, 1.0f })[0]);
+        try {
+            reducer.reduce(new float[] { 1.0f });
+            fail("Expected IllegalArgumentException");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_fit_findsPrincipalAxis() {
+        final Random random = new Random(1);
+        final List<float[]> sample = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final float t = (float) random.nextGaussian() * 10;
+            sample.add(new float[] { 5 + t, 5 + t, 5 + (float) random.nextGaussian() * 0.1f });
+        }
+
+        final VectorReducer reducer = VectorReducer.fit(sample, 1, false);
+
+        assertEquals(3, reducer.getInputDimension());
+        assertEquals(1, reducer.getOutputDimension());
+        assertTrue(reducer.getExplainedVariance() > 0.99);
+        final float[] component = reducer.components[0];
+        assertEquals(0.7071f, Math.abs(component[0]), 0.01f);
+        assertEquals(0.7071f, Math.abs(component[1]), 0.01f);
+        assertEquals(0.0f, component[2], 0.01f);
+        assertEquals(0.0f, reducer.reduce(new float[] { 5.0f, 5.0f, 5.0f })[0], 0.5f);
+        assertEquals(Math.sqrt(2) * 2, Math.abs(reducer.reduce(new float[] { 7.0f, 7.0f, 5.0f })[0]), 0.5);
+    }
+
+    @Test
+    public void test_fit_orthonormalComponentsInDescendingVariance() {
+        final Random random = new Random(2);
+        final int dimension = 24;
+        final List<float[]> sample = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            final float[] vector = new float[dimension];
+            for (int j = 0; j < dimension; j++) {
+                vector[j] = (float) (random.nextGaussian() * (j + 1));
+            }
+            // correlate dimensions so that the components are not the axes
+            for (int j = 1; j < dimension; j++) {
+                vector[j] += vector[j - 1] * 0.5f;
+            }
+            sample.add(vector);
+        }
+
+        final VectorReducer reducer = VectorReducer.fit(sample, dimension, false);
+
+        assertEquals(1.0, reducer.getExplainedVariance(), 0.0001);
+        for (int a = 0; a < dimension; a++) {
+            for (int b = 0; b < dimension; b++) {
+                double dot = 0;
+                for (int i = 0; i < dimension; i++) {
+                    dot += reducer.components[a][i] * reducer.components[b][i];
+                }
+                assertEquals(a == b ? 1.0 : 0.0, dot, 0.001);
+            }
+        }
+        final double[] variances = new double[dimension];
+        for (final float[] vector : sample) {
+            final float[] reduced = reducer.reduce(vector);
+            for (int k = 0; k < dimension; k++) {
+                variances[k] += reduced[k] * reduced[k];
+            }
+        }
+        for (int k = 1; k < dimension; k++) {
+            assertTrue(variances[k - 1] >= variances[k]);
+        }
+    }
+
+    @Test
+    public void test_saveAndLoad() throws IOException {
+        final Random random = new Random(3);
+        final List<float[]> sample = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sample.add(new float[] { (float) random.nextGaussian(), (float) random.nextGaussian(), (float) random.nextGaussian() });
+        }
+        final VectorReducer reducer = VectorReducer.fit(sample, 2, true);
+        final Path path = tempDir.resolve("reducer.bin");
+
+        reducer.save(path);
+        final VectorReducer loaded = VectorReducer.load(path);
+
+        assertEquals(3, loaded.getInputDimension());
+        assertEquals(2, loaded.getOutputDimension());
+        assertEquals(reducer.getExplainedVariance(), loaded.getExplainedVariance());
+        final float[] vector = { 0.5f, -1.0f, 2.0f };
+        assertEquals(reducer.reduce(vector)[0], loaded.reduce(vector)[0]);
+        assertEquals(reducer.reduce(vector)[1], loaded.reduce(vector)[1]);
+
+        Files.writeString(path, "not a reducer");
+        try {
+            VectorReducer.load(path);
+            fail("Expected IOException");
+        } catch (final IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void test_create() throws IOException {
+        assertNull(VectorReducer.create());
+
+        System.setProperty(REDUCE_METHOD, "truncate");
+        assertNull(VectorReducer.create());
+        System.setProperty(REDUCE_DIMENSION, "2");
+        assertEquals(2, VectorReducer.create().getOutputDimension());
+
+        final Path path = tempDir.resolve("reducer.bin");
+        System.setProperty(REDUCE_METHOD, "pca");
+        System.setProperty(REDUCE_PATH, path.toString());
+        try {
+            VectorReducer.create();
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+        VectorReducer.fit(List.of(new float[] { 1.0f, 2.0f, 3.0f }, new float[] { 2.0f, 2.0f, 1.0f }), 2, true).save(path);
+        assertEquals(3, VectorReducer.create().getInputDimension());
+
+        System.setProperty(REDUCE_METHOD, "unknown");
+        assertNull(VectorReducer.create());
+    }
+}
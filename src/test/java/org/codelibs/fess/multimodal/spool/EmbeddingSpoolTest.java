@@ -0,0 +1,185 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.spool;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+public class EmbeddingSpoolTest extends UnitWebappTestCase {
+
+    private Path tempDir;
+
+    @Override
+    protected void setUp(TestInfo testInfo) throws Exception {
+        super.setUp(testInfo);
+        tempDir = Files.createTempDirectory("spool");
+    }
+
+    @Override
+    protected void tearDown(TestInfo testInfo) throws Exception {
+        try (Stream<Path> stream = Files.list(tempDir)) {
+            for (final Path path : stream.toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+        Files.deleteIfExists(tempDir);
+        super.tearDown(testInfo);
+    }
+
+    @Test
+    public void test_append_roll_read() throws Exception {
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024 * 1024, 1024 * 1024, 60000L);
+        assertTrue(spool.append(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[] { 1, 2, 3 }, 0)));
+        assertTrue(spool.append(new EmbeddingSpool.Entry("http://example.com/b.jpg", new byte[] { 4 }, 2)));
+
+        assertTrue(spool.getSegments(0L).isEmpty());
+
+        spool.roll();
+        final List<Path> segments = spool.getSegments(0L);
+        assertEquals(1, segments.size());
+        final List<EmbeddingSpool.Entry> entries = EmbeddingSpool.read(segments.get(0));
+        assertEquals(2, entries.size());
+        assertEquals("http://example.com/a.jpg", entries.get(0).getUrl());
+        assertEquals(3, entries.get(0).getImage().length);
+        assertEquals(0, entries.get(0).getAttempts());
+        assertEquals(2, entries.get(1).getAttempts());
+    }
+
+    @Test
+    public void test_append_rollsOnSegmentSize() throws Exception {
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024 * 1024, 40, 60000L);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(spool.append(new EmbeddingSpool.Entry("http://example.com/" + i + ".jpg", new byte[10], 0)));
+        }
+        spool.close();
+
+        assertEquals(3, spool.getSegments(0L).size());
+    }
+
+    @Test
+    public void test_append_dropsWhenFull() {
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 100, 40, 60000L);
+        int appended = 0;
+        for (int i = 0; i < 10; i++) {
+            if (spool.append(new EmbeddingSpool.Entry("http://example.com/" + i + ".jpg", new byte[10], 0))) {
+                appended++;
+            }
+        }
+        spool.close();
+
+        assertTrue(appended > 0);
+        assertTrue(appended < 10);
+        assertTrue(spool.getSize() <= 100);
+    }
+
+    @Test
+    public void test_append_rejectsUrlWithTab() {
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024, 1024, 60000L);
+
+        assertFalse(spool.append(new EmbeddingSpool.Entry("http://example.com/a\tb.jpg", new byte[1], 0)));
+    }
+
+    @Test
+    public void test_getSegments_adoptsStaleActiveSegment() throws Exception {
+        final Path active = tempDir.resolve("1-other.active");
+        Files.writeString(active, "0\thttp://example.com/a.jpg\tAQID\n");
+        Files.setLastModifiedTime(active, FileTime.fromMillis(System.currentTimeMillis() - 120000L));
+        final Path fresh = tempDir.resolve("2-other.active");
+        Files.writeString(fresh, "0\thttp://example.com/b.jpg\tAQID\n");
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024, 1024, 60000L);
+
+        final List<Path> segments = spool.getSegments(60000L);
+
+        assertEquals(1, segments.size());
+        assertEquals("1-other.log", segments.get(0).getFileName().toString());
+        assertTrue(Files.exists(fresh));
+    }
+
+    @Test
+    public void test_claim_onlyOnce() throws Exception {
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024, 1024, 60000L);
+        assertTrue(spool.append(new EmbeddingSpool.Entry("http://example.com/a.jpg", new byte[1], 0)));
+        spool.roll();
+        final Path segment = spool.getSegments(60000L).get(0);
+        final EmbeddingSpool other = new EmbeddingSpool(tempDir, 1024, 1024, 60000L);
+
+        final Path claimed = spool.claim(segment);
+
+        assertNotNull(claimed);
+        assertTrue(claimed.getFileName().toString().endsWith(".claimed"));
+        assertNull(other.claim(segment));
+        assertTrue(other.getSegments(60000L).isEmpty());
+        assertEquals(1, EmbeddingSpool.read(claimed).size());
+    }
+
+    @Test
+    public void test_getSegments_releasesStaleClaim() throws Exception {
+        final Path claimed = tempDir.resolve("1-other.claimed");
+        Files.writeString(claimed, "0\thttp://example.com/a.jpg\tAQID\n");
+        Files.setLastModifiedTime(claimed, FileTime.fromMillis(System.currentTimeMillis() - 120000L));
+        final Path renewed = tempDir.resolve("2-other.claimed");
+        Files.writeString(renewed, "0\thttp://example.com/b.jpg\tAQID\n");
+        Files.setLastModifiedTime(renewed, FileTime.fromMillis(System.currentTimeMillis() - 120000L));
+        final EmbeddingSpool spool = new EmbeddingSpool(tempDir, 1024, 1024, 60000L);
+        spool.renewClaim(renewed);
+
+        final List<Path> segments = spool.getSegments(60000L);
+
+        assertEquals(1, segments.size());
+        assertEquals("1-other.log", segments.get(0).getFileName().toString());
+        assertTrue(Files.exists(renewed));
+    }
+
+    @Test
+    public void test_read_skipsMalformedLines() throws Exception {
+        final Path segment = tempDir.resolve("1-test.log");
+        Files.writeString(segment, "0\thttp://example.com/a.jpg\tAQID\nbroken\nx\thttp://example.com/b.jpg\tAQID\n");
+        Files.write(segment, "1\thttp://example.com/c.jpg\t!!\n0\thttp://example.com/d.jpg\tAQ".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        final List<EmbeddingSpool.Entry> entries = EmbeddingSpool.read(segment);
+
+        assertEquals(1, entries.size());
+        assertEquals("http://example.com/a.jpg", entries.get(0).getUrl());
+    }
+
+    @Test
+    public void test_createThumbnail() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1000, 500, BufferedImage.TYPE_INT_ARGB), "png", out);
+
+        final byte[] thumbnail = EmbeddingSpool.createThumbnail(out.toByteArray(), 100);
+
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail));
+        assertEquals(100, image.getWidth());
+        assertEquals(50, image.getHeight());
+        assertNull(EmbeddingSpool.createThumbnail(new byte[] { 1, 2, 3 }, 100));
+    }
+}
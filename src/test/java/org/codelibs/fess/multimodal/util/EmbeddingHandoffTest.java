@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class EmbeddingHandoffTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_putAndTake() {
+        final EmbeddingHandoff handoff = new EmbeddingHandoff(10, 60000L);
+        final float[] embedding = { 1.0f, 2.0f };
+
+        final String reference = handoff.put(embedding);
+
+        assertTrue(EmbeddingHandoff.isReference(reference));
+        assertEquals(1, handoff.size());
+        assertSame(embedding, handoff.take(reference));
+        assertNull(handoff.take(reference));
+        assertEquals(0, handoff.size());
+    }
+
+    @Test
+    public void test_isReference() {
+        assertFalse(EmbeddingHandoff.isReference(null));
+        assertFalse(EmbeddingHandoff.isReference(EmbeddingUtil.encodeFloatArray(new float[] { 1.0f })));
+        assertTrue(EmbeddingHandoff.isReference("handoff:abc:1"));
+    }
+
+    @Test
+    public void test_take_unknownReference() {
+        final EmbeddingHandoff handoff = new EmbeddingHandoff(10, 60000L);
+        final String reference = new EmbeddingHandoff(10, 60000L).put(new float[] { 1.0f });
+
+        assertNull(handoff.take(reference));
+        assertNull(handoff.take("handoff:unknown:1"));
+        assertEquals(2L, handoff.getUnresolvedCount());
+    }
+
+    @Test
+    public void test_put_full() {
+        final EmbeddingHandoff handoff = new EmbeddingHandoff(2, 60000L);
+
+        final String first = handoff.put(new float[] { 1.0f });
+        assertNotNull(handoff.put(new float[] { 2.0f }));
+        assertNull(handoff.put(new float[] { 3.0f }));
+
+        handoff.take(first);
+        assertNotNull(handoff.put(new float[] { 4.0f }));
+    }
+
+    @Test
+    public void test_expired() throws Exception {
+        final EmbeddingHandoff handoff = new EmbeddingHandoff(1, 50L);
+
+        final String reference = handoff.put(new float[] { 1.0f });
+        Thread.sleep(100L);
+
+        assertNull(handoff.take(reference));
+        handoff.put(new float[] { 2.0f });
+        Thread.sleep(100L);
+        assertNotNull(handoff.put(new float[] { 3.0f }));
+        assertEquals(1, handoff.size());
+        assertEquals(1L, handoff.getUnresolvedCount());
+        assertEquals(1L, handoff.getExpiredCount());
+    }
+}
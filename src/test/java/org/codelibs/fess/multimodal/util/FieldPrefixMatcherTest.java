@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class FieldPrefixMatcherTest extends UnitWebappTestCase {
+
+    private static final String[] FIELDS = { "title", "content", "site", "filetype", "content_length", "url" };
+
+    @Test
+    public void test_matches_fieldWithColon() {
+        final FieldPrefixMatcher matcher = new FieldPrefixMatcher(FIELDS);
+
+        assertTrue(matcher.matches("title:fess search"));
+        assertTrue(matcher.matches("open source site:fess.codelibs.org"));
+        assertTrue(matcher.matches("size content_length:[100 TO *]"));
+    }
+
+    @Test
+    public void test_matches_noField() {
+        final FieldPrefixMatcher matcher = new FieldPrefixMatcher(FIELDS);
+
+        assertFalse(matcher.matches("open source search"));
+        assertFalse(matcher.matches("title search"));
+        assertFalse(matcher.matches("author:someone"));
+        assertFalse(matcher.matches(":leading colon"));
+        assertFalse(matcher.matches(""));
+        assertFalse(matcher.matches(null));
+    }
+
+    @Test
+    public void test_matches_sameAsIndexOf() {
+        final FieldPrefixMatcher matcher = new FieldPrefixMatcher(FIELDS);
+        final String[] queries = { "subtitle:x y", "xurl: y", "a:b content:c", "lengthy:1 2", "file type:pdf", "a::title::b", "tit:le" };
+
+        for (final String query : queries) {
+            boolean expected = false;
+            for (final String field : FIELDS) {
+                if (query.indexOf(field + ":") != -1) {
+                    expected = true;
+                }
+            }
+            assertEquals(query, expected, matcher.matches(query));
+        }
+    }
+
+    @Test
+    public void test_matches_emptyFields() {
+        assertFalse(new FieldPrefixMatcher(new String[0]).matches("title:fess"));
+        assertFalse(new FieldPrefixMatcher(null).matches("title:fess"));
+        assertFalse(new FieldPrefixMatcher(new String[] { "", " " }).matches("title:fess"));
+    }
+
+    @Test
+    public void test_getFields() {
+        final FieldPrefixMatcher matcher = new FieldPrefixMatcher(FIELDS);
+
+        assertSame(FIELDS, matcher.getFields());
+    }
+}
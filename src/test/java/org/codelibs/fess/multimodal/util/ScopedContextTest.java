@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2025 CodeLibs Project and the Others.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND,
+ * either express or implied. See the License for the specific language
+ * governing permissions and limitations under the License.
+ */
+package org.codelibs.fess.multimodal.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codelibs.fess.multimodal.UnitWebappTestCase;
+import org.junit.jupiter.api.Test;
+
+public class ScopedContextTest extends UnitWebappTestCase {
+
+    @Test
+    public void test_supply_nestedBindings_restoreOuterValue() {
+        final ScopedContext<String> context = new ScopedContext<>();
+
+        final String result = context.supply("outer", () -> {
+            final String inner = context.supply("inner", context::get);
+            assertEquals("inner", inner);
+            return context.get();
+        });
+
+        assertEquals("outer", result);
+        assertFalse(context.isBound());
+    }
+
+    @Test
+    public void test_run_exception_removesBinding() {
+        final ScopedContext<String> context = new ScopedContext<>();
+        try {
+            context.run("value", () -> {
+                throw new IllegalStateException("failed");
+            });
+            fail("Expected IllegalStateException");
+        } catch (final IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertNull(context.get());
+    }
+
+    @Test
+    public void test_wrap_runsWithCapturedValueOnVirtualThread() throws Exception {
+        final ScopedContext<String> context = new ScopedContext<>();
+        final AtomicReference<String> seen = new AtomicReference<>();
+        final Runnable task = context.supply("value", () -> context.wrap(() -> seen.set(context.get())));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.submit(task).get();
+            assertEquals("value", seen.get());
+            assertNull(executor.submit(context::get).get());
+        }
+    }
+
+    @Test
+    public void test_wrap_withoutBinding_returnsSameTask() {
+        final ScopedContext<String> context = new ScopedContext<>();
+        final Runnable task = () -> {};
+
+        assertSame(task, context.wrap(task));
+    }
+}